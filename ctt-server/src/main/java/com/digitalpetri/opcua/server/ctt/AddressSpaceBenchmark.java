@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.server.ctt;
+
+import java.util.List;
+import java.util.Optional;
+
+import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+
+/**
+ * Measures the heap cost of a large address space, and what materializing its references for Browse adds.
+ * <p>
+ * A {@link ShardedCttNamespace} of 2M variables (see benchmark.nodes) is built in a single shard, and the heap used
+ * is reported per node. Then every node's references are read twice: the first pass builds each node's
+ * {@link Reference} list, the second reuses it, and the heap is reported again. The server isn't started.
+ */
+public class AddressSpaceBenchmark {
+
+    private static final int NODES = Integer.getInteger("benchmark.nodes", 2_000_000);
+
+    public static void main(String[] args) throws Exception {
+        OpcUaServer server = new OpcUaServer(new CttServerConfig());
+
+        long heapBefore = usedHeap();
+        long buildStart = System.nanoTime();
+
+        ShardedCttNamespace namespace = server.getNamespaceManager().registerAndAdd(
+                ShardedCttNamespace.NAMESPACE_URI,
+                namespaceIndex -> new ShardedCttNamespace(server, namespaceIndex, 1, NODES)
+        );
+
+        double buildSeconds = (System.nanoTime() - buildStart) / 1e9;
+        long heapBuilt = usedHeap();
+
+        System.out.printf("nodes=%d build=%.1fs heap=%.1fMB (%.1f bytes/node)%n",
+                NODES, buildSeconds, (heapBuilt - heapBefore) / 1e6, (double) (heapBuilt - heapBefore) / NODES);
+
+        List<NodeId> nodeIds = namespace.getVariableNodeIds();
+
+        long references = readReferences(namespace, nodeIds, "first");
+        readReferences(namespace, nodeIds, "repeat");
+
+        long heapRead = usedHeap();
+
+        System.out.printf("references=%d materialized heap=%.1fMB (%.1f bytes/reference)%n",
+                references, (heapRead - heapBuilt) / 1e6, (double) (heapRead - heapBuilt) / references);
+
+        server.shutdown();
+
+        System.exit(0);
+    }
+
+    private static long readReferences(ShardedCttNamespace namespace, List<NodeId> nodeIds, String pass) {
+        long references = 0L;
+        long startTime = System.nanoTime();
+
+        for (NodeId nodeId : nodeIds) {
+            Optional<List<Reference>> nodeReferences = namespace.getReferences(nodeId);
+
+            if (nodeReferences.isPresent()) references += nodeReferences.get().size();
+        }
+
+        double elapsed = (System.nanoTime() - startTime) / 1e9;
+
+        System.out.printf("getReferences (%s): %.0f nodes/s%n", pass, nodeIds.size() / elapsed);
+
+        return references;
+    }
+
+    private static long usedHeap() {
+        System.gc();
+
+        Runtime runtime = Runtime.getRuntime();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
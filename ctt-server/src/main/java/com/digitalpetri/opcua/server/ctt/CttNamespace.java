@@ -17,18 +17,16 @@
 package com.digitalpetri.opcua.server.ctt;
 
 import java.lang.reflect.Array;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import com.digitalpetri.opcua.server.ctt.methods.SqrtMethod;
-import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.PeekingIterator;
 import com.digitalpetri.opcua.sdk.core.AccessLevel;
 import com.digitalpetri.opcua.sdk.core.Reference;
 import com.digitalpetri.opcua.sdk.core.ValueRank;
@@ -37,13 +35,17 @@ import com.digitalpetri.opcua.sdk.server.api.DataItem;
 import com.digitalpetri.opcua.sdk.server.api.MethodInvocationHandler;
 import com.digitalpetri.opcua.sdk.server.api.MonitoredItem;
 import com.digitalpetri.opcua.sdk.server.api.UaNamespace;
+import com.digitalpetri.opcua.sdk.server.history.HistoryStoreManager;
+import com.digitalpetri.opcua.sdk.server.model.AddressSpaceBatch;
 import com.digitalpetri.opcua.sdk.server.model.UaFolderNode;
 import com.digitalpetri.opcua.sdk.server.model.UaMethodNode;
 import com.digitalpetri.opcua.sdk.server.model.UaNode;
 import com.digitalpetri.opcua.sdk.server.model.UaObjectNode;
 import com.digitalpetri.opcua.sdk.server.model.UaVariableNode;
 import com.digitalpetri.opcua.sdk.server.model.UaVariableNode.UaVariableNodeBuilder;
+import com.digitalpetri.opcua.sdk.server.model.ValueUpdater;
 import com.digitalpetri.opcua.sdk.server.util.AnnotationBasedInvocationHandler;
+import com.digitalpetri.opcua.sdk.server.util.NodeIndex;
 import com.digitalpetri.opcua.sdk.server.util.SubscriptionModel;
 import com.digitalpetri.opcua.stack.core.Identifiers;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
@@ -62,6 +64,9 @@ import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
 import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
 import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadDetails;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadResult;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadValueId;
 import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
 import com.digitalpetri.opcua.stack.core.types.structured.WriteValue;
 import org.slf4j.Logger;
@@ -76,12 +81,23 @@ public class CttNamespace implements UaNamespace {
 
     public static final String NAMESPACE_URI = "urn:digitalpetri:ctt-namespace";
 
+    /**
+     * Shape of the synthetic folder tree added under /Synthetic for browse benchmarks. The tree is only built when
+     * both breadth and depth are greater than zero; leaf folders each receive the configured number of variables.
+     */
+    private static final int SYNTHETIC_BREADTH = Integer.getInteger("ctt.synthetic.breadth", 0);
+    private static final int SYNTHETIC_DEPTH = Integer.getInteger("ctt.synthetic.depth", 0);
+    private static final int SYNTHETIC_VARIABLES = Integer.getInteger("ctt.synthetic.variables", 0);
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final Map<NodeId, UaNode> nodes = Maps.newConcurrentMap();
+    private final NodeIndex nodeIndex = new NodeIndex(nodes::values, this::getNode);
+    private final ValueUpdater valueUpdater = new ValueUpdater(this);
 
     private final UaFolderNode cttFolder;
     private final SubscriptionModel subscriptionModel;
+    private final HistoryStoreManager historyManager;
 
     private final OpcUaServer server;
     private final UShort namespaceIndex;
@@ -111,11 +127,20 @@ public class CttNamespace implements UaNamespace {
             logger.error("Error adding reference to Connections folder.", e);
         }
 
-        subscriptionModel = new SubscriptionModel(this, server.getExecutorService(), server.getScheduledExecutorService());
+        subscriptionModel = new SubscriptionModel(
+                this,
+                server.getExecutorService(),
+                server.getNamespaceExecutor(namespaceIndex),
+                server.getClock());
+
+        subscriptionModel.setValueUpdater(valueUpdater);
+
+        historyManager = new HistoryStoreManager(server.getHistoryStore(), this::getNode);
 
         addStaticScalarNodes();
         addStaticArrayNodes();
         addMethodNodes();
+        addSyntheticNodes();
     }
 
 
@@ -150,15 +175,24 @@ public class CttNamespace implements UaNamespace {
             NodeId typeId = (NodeId) os[1];
             Variant variant = (Variant) os[2];
 
+            // Numeric and Boolean values can be recorded by the history store.
+            boolean historizing = variant.getValue() instanceof Number || variant.getValue() instanceof Boolean;
+
+            short accessLevel = AccessLevel.getMask(AccessLevel.READ_WRITE);
+            if (historizing) accessLevel |= AccessLevel.HistoryRead.getValue();
+
             UaVariableNode node = new UaVariableNodeBuilder(this)
                     .setNodeId(new NodeId(namespaceIndex, "/Static/AllProfiles/Scalar/" + name))
-                    .setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.READ_WRITE)))
+                    .setAccessLevel(ubyte(accessLevel))
                     .setBrowseName(new QualifiedName(namespaceIndex, name))
                     .setDisplayName(LocalizedText.english(name))
                     .setDataType(typeId)
                     .setTypeDefinition(Identifiers.BaseDataVariableType)
+                    .setHistorizing(historizing)
                     .build();
 
+            server.getHistoryRecorder().register(node);
+
             node.setValue(new DataValue(variant));
 
             folder.addReference(new Reference(
@@ -270,94 +304,108 @@ public class CttNamespace implements UaNamespace {
         }
     }
 
-    private UaObjectNode addFoldersToRoot(UaNode root, String path) {
-        if (path.startsWith("/")) path = path.substring(1, path.length());
-        String[] elements = path.split("/");
-
-        LinkedList<UaObjectNode> folderNodes = processPathElements(
-                Lists.newArrayList(elements),
-                Lists.newArrayList(),
-                Lists.newLinkedList()
-        );
+    private void addSyntheticNodes() {
+        if (SYNTHETIC_BREADTH <= 0 || SYNTHETIC_DEPTH <= 0) return;
 
-        UaObjectNode firstNode = folderNodes.getFirst();
+        UaObjectNode folder = addFoldersToRoot(cttFolder, "/Synthetic");
 
-        if (!nodes.containsKey(firstNode.getNodeId())) {
-            nodes.put(firstNode.getNodeId(), firstNode);
+        AddressSpaceBatch batch = new AddressSpaceBatch(server);
 
-            nodes.get(root.getNodeId()).addReference(new Reference(
-                    root.getNodeId(),
-                    Identifiers.Organizes,
-                    firstNode.getNodeId().expanded(),
-                    firstNode.getNodeClass(),
-                    true
-            ));
+        addSyntheticFolders(batch, folder.getNodeId(), "/Synthetic", 1);
 
-            logger.debug("Added reference: {} -> {}", root.getNodeId(), firstNode.getNodeId());
-        }
+        try {
+            long startTime = System.nanoTime();
 
-        PeekingIterator<UaObjectNode> iterator = Iterators.peekingIterator(folderNodes.iterator());
+            batch.apply();
 
-        while (iterator.hasNext()) {
-            UaObjectNode node = iterator.next();
+            long deltaMs = TimeUnit.MILLISECONDS.convert(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
 
-            nodes.putIfAbsent(node.getNodeId(), node);
+            logger.info("Added synthetic tree: breadth={}, depth={}, variables={}, nodes={} in {}ms",
+                    SYNTHETIC_BREADTH, SYNTHETIC_DEPTH, SYNTHETIC_VARIABLES, batch.size(), deltaMs);
+        } catch (UaException e) {
+            logger.error("Error adding synthetic tree.", e);
+        }
+    }
 
-            if (iterator.hasNext()) {
-                UaObjectNode next = iterator.peek();
+    private void addSyntheticFolders(AddressSpaceBatch batch, NodeId parentNodeId, String path, int depth) {
+        for (int i = 0; i < SYNTHETIC_BREADTH; i++) {
+            String name = "Folder" + i;
+            String folderPath = path + "/" + name;
 
-                if (!nodes.containsKey(next.getNodeId())) {
-                    nodes.put(next.getNodeId(), next);
+            UaFolderNode folder = new UaFolderNode(
+                    this,
+                    new NodeId(namespaceIndex, folderPath),
+                    new QualifiedName(namespaceIndex, name),
+                    LocalizedText.english(name)
+            );
 
-                    nodes.get(node.getNodeId()).addReference(new Reference(
-                            node.getNodeId(),
-                            Identifiers.Organizes,
-                            next.getNodeId().expanded(),
-                            next.getNodeClass(),
-                            true
-                    ));
+            batch.addNode(folder, parentNodeId, Identifiers.Organizes);
 
-                    logger.debug("Added reference: {} -> {}", node.getNodeId(), next.getNodeId());
-                }
+            if (depth < SYNTHETIC_DEPTH) {
+                addSyntheticFolders(batch, folder.getNodeId(), folderPath, depth + 1);
+            } else {
+                addSyntheticVariables(batch, folder.getNodeId(), folderPath);
             }
         }
-
-        return folderNodes.getLast();
     }
 
-    private LinkedList<UaObjectNode> processPathElements(List<String> elements, List<String> path, LinkedList<UaObjectNode> nodes) {
-        if (elements.size() == 1) {
-            String name = elements.get(0);
-            String prefix = String.join("/", path) + "/";
-            if (!prefix.startsWith("/")) prefix = "/" + prefix;
+    private void addSyntheticVariables(AddressSpaceBatch batch, NodeId folderNodeId, String path) {
+        for (int i = 0; i < SYNTHETIC_VARIABLES; i++) {
+            String name = "Variable" + i;
 
-            UaObjectNode node = UaObjectNode.builder(this)
-                    .setNodeId(new NodeId(namespaceIndex, prefix + name))
+            UaVariableNode node = new UaVariableNodeBuilder(this)
+                    .setNodeId(new NodeId(namespaceIndex, path + "/" + name))
+                    .setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.READ_WRITE)))
                     .setBrowseName(new QualifiedName(namespaceIndex, name))
                     .setDisplayName(LocalizedText.english(name))
-                    .setTypeDefinition(Identifiers.FolderType)
+                    .setDataType(Identifiers.Int32)
+                    .setTypeDefinition(Identifiers.BaseDataVariableType)
                     .build();
 
-            nodes.add(node);
+            node.setValue(new DataValue(new Variant(i)));
 
-            return nodes;
-        } else {
-            String name = elements.get(0);
-            String prefix = String.join("/", path) + "/";
-            if (!prefix.startsWith("/")) prefix = "/" + prefix;
+            batch.addNode(node, folderNodeId, Identifiers.Organizes);
+        }
+    }
 
-            UaObjectNode node = UaObjectNode.builder(this)
-                    .setNodeId(new NodeId(namespaceIndex, prefix + name))
-                    .setBrowseName(new QualifiedName(namespaceIndex, name))
-                    .setDisplayName(LocalizedText.english(name))
-                    .setTypeDefinition(Identifiers.FolderType)
-                    .build();
+    private UaObjectNode addFoldersToRoot(UaNode root, String path) {
+        if (path.startsWith("/")) path = path.substring(1, path.length());
+        String[] elements = path.split("/");
 
-            nodes.add(node);
-            path.add(name);
+        UaNode parent = root;
+        String prefix = "/";
 
-            return processPathElements(elements.subList(1, elements.size()), path, nodes);
+        for (String name : elements) {
+            QualifiedName browseName = new QualifiedName(namespaceIndex, name);
+
+            UaNode folder = parent.getChildNode(Identifiers.Organizes, browseName).orElse(null);
+
+            if (folder == null) {
+                folder = UaObjectNode.builder(this)
+                        .setNodeId(new NodeId(namespaceIndex, prefix + name))
+                        .setBrowseName(browseName)
+                        .setDisplayName(LocalizedText.english(name))
+                        .setTypeDefinition(Identifiers.FolderType)
+                        .build();
+
+                nodes.put(folder.getNodeId(), folder);
+
+                parent.addReference(new Reference(
+                        parent.getNodeId(),
+                        Identifiers.Organizes,
+                        folder.getNodeId().expanded(),
+                        folder.getNodeClass(),
+                        true
+                ));
+
+                logger.debug("Added reference: {} -> {}", parent.getNodeId(), folder.getNodeId());
+            }
+
+            parent = folder;
+            prefix = prefix + name + "/";
         }
+
+        return (UaObjectNode) parent;
     }
 
     @Override
@@ -408,6 +456,9 @@ public class CttNamespace implements UaNamespace {
     @Override
     public void addNode(UaNode node) {
         nodes.put(node.getNodeId(), node);
+        nodeIndex.invalidate(node.getNodeId());
+
+        server.getHistoryRecorder().register(node);
     }
 
     @Override
@@ -422,7 +473,47 @@ public class CttNamespace implements UaNamespace {
 
     @Override
     public Optional<UaNode> removeNode(NodeId nodeId) {
-        return Optional.ofNullable(nodes.remove(nodeId));
+        server.getNamespaceManager().onNodeChanged(nodeId);
+
+        UaNode node = nodes.remove(nodeId);
+        nodeIndex.invalidate(nodeId);
+
+        if (node != null) {
+            server.getHistoryRecorder().unregister(node);
+        }
+
+        return Optional.ofNullable(node);
+    }
+
+    @Override
+    public void onNodeChanged(UaNode node) {
+        server.getNamespaceManager().onNodeChanged(node.getNodeId());
+        nodeIndex.invalidate(node.getNodeId());
+    }
+
+    @Override
+    public boolean reportsNodeChanges() {
+        return true;
+    }
+
+    @Override
+    public Optional<NodeIndex> getNodeIndex() {
+        return Optional.of(nodeIndex);
+    }
+
+    @Override
+    public StatusCode[] updateValues(NodeId[] nodeIds, DataValue[] values) {
+        return valueUpdater.update(nodeIds, values);
+    }
+
+    /**
+     * Plain {@link UaVariableNode}s only change when written, so items monitoring them are reported by exception.
+     */
+    @Override
+    public boolean isPushCapable(NodeId nodeId) {
+        UaNode node = nodes.get(nodeId);
+
+        return node != null && node.getClass() == UaVariableNode.class;
     }
 
     @Override
@@ -491,6 +582,15 @@ public class CttNamespace implements UaNamespace {
         future.complete(results);
     }
 
+    @Override
+    public void historyRead(HistoryReadDetails details,
+                            TimestampsToReturn timestamps,
+                            List<HistoryReadValueId> nodesToRead,
+                            CompletableFuture<List<HistoryReadResult>> future) {
+
+        historyManager.historyRead(details, timestamps, nodesToRead, future);
+    }
+
     @Override
     public void onDataItemsCreated(List<DataItem> dataItems) {
         subscriptionModel.onDataItemsCreated(dataItems);
@@ -27,7 +27,11 @@ import java.util.EnumSet;
 import java.util.List;
 
 import com.google.common.collect.Lists;
+import com.digitalpetri.opcua.sdk.core.NamespaceTable;
+import com.digitalpetri.opcua.sdk.server.Session;
 import com.digitalpetri.opcua.sdk.server.api.OpcUaServerConfig;
+import com.digitalpetri.opcua.sdk.server.history.HistoryStore;
+import com.digitalpetri.opcua.sdk.server.history.MappedHistoryStore;
 import com.digitalpetri.opcua.sdk.server.identity.IdentityValidator;
 import com.digitalpetri.opcua.sdk.server.identity.UsernameIdentityValidator;
 import com.digitalpetri.opcua.stack.core.application.CertificateManager;
@@ -128,4 +132,19 @@ public class CttServerConfig implements OpcUaServerConfig {
         return BUILD_INFO;
     }
 
+    @Override
+    public HistoryStore getHistoryStore(NamespaceTable namespaceTable) {
+        return new MappedHistoryStore(new File("./history"), namespaceTable);
+    }
+
+    @Override
+    public boolean isNodeManagementAllowed(Session session) {
+        return true;
+    }
+
+    @Override
+    public String getNodeManagementNamespaceUri() {
+        return CttNamespace.NAMESPACE_URI;
+    }
+
 }
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.server.ctt;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import com.digitalpetri.opcua.sdk.client.OpcUaClient;
+import com.digitalpetri.opcua.sdk.client.OpcUaClientConfig;
+import com.digitalpetri.opcua.sdk.client.subscriptions.OpcUaMonitoredItem;
+import com.digitalpetri.opcua.sdk.client.subscriptions.OpcUaSubscription;
+import com.digitalpetri.opcua.sdk.client.subscriptions.OpcUaSubscriptionManager;
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.core.NamespaceTable;
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.api.NamespaceExecutorStrategy;
+import com.digitalpetri.opcua.sdk.server.history.HistoryStore;
+import com.digitalpetri.opcua.sdk.server.history.NoOpHistoryStore;
+import com.digitalpetri.opcua.sdk.server.namespaces.proxy.ProxyNamespace;
+import com.digitalpetri.opcua.stack.client.UaTcpStackClient;
+import com.digitalpetri.opcua.stack.client.UaTcpStackClientConfig;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.security.SecurityPolicy;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.LocalizedText;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.EndpointDescription;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoringParameters;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.google.common.collect.Lists;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * Compares Read and subscription throughput against a server directly and through a {@link ProxyNamespace}.
+ * <p>
+ * An upstream server with the synthetic tree (see the ctt.synthetic.* properties, 1000 variables by default) and a
+ * proxy server mirroring it are started in-process on two ports. Reads of every variable are repeated for a while
+ * against each, then several clients monitor every variable while the upstream values are updated once per sampling
+ * interval. Through the proxy, the clients' items share one upstream item per variable.
+ */
+public class ProxyBenchmark {
+
+    private static final int UPSTREAM_PORT = Integer.getInteger("benchmark.upstream-port", 12686);
+    private static final int PROXY_PORT = Integer.getInteger("benchmark.proxy-port", 12687);
+    private static final int DURATION_SECONDS = Integer.getInteger("benchmark.duration", 10);
+    private static final int CLIENTS = Integer.getInteger("benchmark.clients", 4);
+    private static final int READ_BATCH_SIZE = 500;
+    private static final double SAMPLING_INTERVAL = 100.0;
+
+    private static final String PROXY_NAMESPACE_URI = "urn:digitalpetri:ctt-proxy";
+
+    public static void main(String[] args) throws Exception {
+        defaultProperty("ctt.synthetic.breadth", "10");
+        defaultProperty("ctt.synthetic.depth", "1");
+        defaultProperty("ctt.synthetic.variables", "100");
+
+        OpcUaServer upstream = new OpcUaServer(config(UPSTREAM_PORT));
+
+        CttNamespace namespace = upstream.getNamespaceManager().registerAndAdd(
+                CttNamespace.NAMESPACE_URI,
+                namespaceIndex -> new CttNamespace(upstream, namespaceIndex)
+        );
+
+        upstream.startup();
+
+        NodeId[] nodeIds = namespace.getNodeIndex()
+                .map(index -> index.getInstances(Identifiers.BaseDataVariableType).stream()
+                        .filter(id -> String.valueOf(id.getIdentifier()).startsWith("/Synthetic/"))
+                        .collect(Collectors.toList()))
+                .orElse(Lists.newArrayList())
+                .toArray(new NodeId[0]);
+
+        if (nodeIds.length == 0) {
+            System.out.println("no synthetic variables; check the ctt.synthetic.* properties");
+            System.exit(-1);
+        }
+
+        OpcUaServer proxy = new OpcUaServer(config(PROXY_PORT));
+
+        OpcUaClient proxyClient = connect(UPSTREAM_PORT);
+
+        ProxyNamespace proxyNamespace = proxy.getNamespaceManager().registerAndAdd(
+                PROXY_NAMESPACE_URI,
+                namespaceIndex -> new ProxyNamespace(proxy, namespaceIndex, PROXY_NAMESPACE_URI, "ctt", proxyClient)
+        );
+
+        proxy.startup();
+
+        NodeId[] proxiedIds = Arrays.stream(nodeIds)
+                .map(id -> proxyNamespace.getNodeIds().toDownstream(id))
+                .toArray(NodeId[]::new);
+
+        System.out.printf("variables=%d clients=%d duration=%ds%n", nodeIds.length, CLIENTS, DURATION_SECONDS);
+
+        OpcUaClient directClient = connect(UPSTREAM_PORT);
+        OpcUaClient proxiedClient = connect(PROXY_PORT);
+
+        benchmarkReads("direct", directClient, nodeIds);
+        benchmarkReads("proxied", proxiedClient, proxiedIds);
+
+        benchmarkSubscriptions("direct", UPSTREAM_PORT, nodeIds, namespace, nodeIds);
+        benchmarkSubscriptions("proxied", PROXY_PORT, proxiedIds, namespace, nodeIds);
+
+        System.out.printf("upstream items=%d%n", proxyNamespace.getSubscriptionModel().getUpstreamItemCount());
+
+        proxy.shutdown();
+        upstream.shutdown();
+
+        System.exit(0);
+    }
+
+    private static void benchmarkReads(String name, OpcUaClient client, NodeId[] nodeIds) throws Exception {
+        List<ReadValueId> readValueIds = Arrays.stream(nodeIds)
+                .map(id -> new ReadValueId(id, uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE))
+                .collect(Collectors.toList());
+
+        long values = 0L, failures = 0L;
+        long startTime = System.nanoTime();
+
+        while (System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(DURATION_SECONDS)) {
+            for (List<ReadValueId> batch : Lists.partition(readValueIds, READ_BATCH_SIZE)) {
+                DataValue[] results = client.read(0.0, TimestampsToReturn.Both, batch).get().getResults();
+
+                for (DataValue result : results) {
+                    if (result.getStatusCode().isGood()) values++;
+                    else failures++;
+                }
+            }
+        }
+
+        double elapsed = (System.nanoTime() - startTime) / 1e9;
+
+        System.out.printf("%s reads: rate=%.0f values/s failures=%d%n", name, values / elapsed, failures);
+    }
+
+    private static void benchmarkSubscriptions(String name,
+                                               int port,
+                                               NodeId[] nodeIds,
+                                               CttNamespace namespace,
+                                               NodeId[] upstreamIds) throws Exception {
+
+        AtomicLong notifications = new AtomicLong(0L);
+
+        List<OpcUaClient> clients = Lists.newArrayList();
+
+        for (int i = 0; i < CLIENTS; i++) {
+            OpcUaClient client = connect(port);
+            clients.add(client);
+
+            OpcUaSubscription subscription = new OpcUaSubscriptionManager(client)
+                    .createSubscription(SAMPLING_INTERVAL).get();
+
+            List<MonitoredItemCreateRequest> requests = Lists.newArrayListWithCapacity(nodeIds.length);
+
+            for (int j = 0; j < nodeIds.length; j++) {
+                ReadValueId readValueId = new ReadValueId(
+                        nodeIds[j], uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE);
+
+                MonitoringParameters parameters = new MonitoringParameters(
+                        uint(j), SAMPLING_INTERVAL, null, uint(1), true);
+
+                requests.add(new MonitoredItemCreateRequest(readValueId, MonitoringMode.Reporting, parameters));
+            }
+
+            for (List<MonitoredItemCreateRequest> batch : Lists.partition(requests, READ_BATCH_SIZE)) {
+                List<OpcUaMonitoredItem> items = subscription
+                        .createMonitoredItems(client, TimestampsToReturn.Both, batch).get();
+
+                items.forEach(item -> item.setValueConsumer(v -> notifications.incrementAndGet()));
+            }
+        }
+
+        notifications.set(0L);
+
+        DataValue[] values = new DataValue[upstreamIds.length];
+        long cycleNanos = TimeUnit.MILLISECONDS.toNanos((long) SAMPLING_INTERVAL);
+        long startTime = System.nanoTime();
+        long deadline = startTime;
+        long cycles = 0L;
+
+        while (System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(DURATION_SECONDS)) {
+            DateTime now = DateTime.now();
+
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new DataValue(new Variant(cycles + i), StatusCode.GOOD, now, now);
+            }
+
+            namespace.updateValues(upstreamIds, values);
+            cycles++;
+
+            deadline += cycleNanos;
+            long sleep = deadline - System.nanoTime();
+            if (sleep > 0) TimeUnit.NANOSECONDS.sleep(sleep);
+        }
+
+        double elapsed = (System.nanoTime() - startTime) / 1e9;
+        long expected = cycles * upstreamIds.length * CLIENTS;
+
+        System.out.printf("%s subscriptions: rate=%.0f notifications/s (%.1f%% of updates)%n",
+                name, notifications.get() / elapsed, 100.0 * notifications.get() / Math.max(1L, expected));
+
+        for (OpcUaClient client : clients) {
+            client.disconnect().get();
+        }
+    }
+
+    private static OpcUaClient connect(int port) throws Exception {
+        String endpointUrl = String.format("opc.tcp://localhost:%d/ctt-server", port);
+
+        EndpointDescription[] endpoints = UaTcpStackClient.getEndpoints(endpointUrl).get();
+
+        EndpointDescription endpoint = Arrays.stream(endpoints)
+                .filter(e -> e.getSecurityPolicyUri().equals(SecurityPolicy.None.getSecurityPolicyUri()))
+                .findFirst().orElseThrow(() -> new Exception("no desired endpoints returned"));
+
+        UaTcpStackClientConfig stackConfig = UaTcpStackClientConfig.builder()
+                .setApplicationName(LocalizedText.english("Proxy Benchmark Client"))
+                .setApplicationUri("urn:digitalpetri:proxy-benchmark-client")
+                .setEndpoint(endpoint)
+                .build();
+
+        OpcUaClientConfig config = OpcUaClientConfig.builder()
+                .setStackClient(new UaTcpStackClient(stackConfig))
+                .setRequestTimeout(120000)
+                .build();
+
+        OpcUaClient client = new OpcUaClient(config);
+
+        client.connect().get();
+
+        return client;
+    }
+
+    private static CttServerConfig config(int port) {
+        return new CttServerConfig() {
+            @Override
+            public int getBindPort() {
+                return port;
+            }
+
+            @Override
+            public NamespaceExecutorStrategy getNamespaceExecutorStrategy(String namespaceUri) {
+                return PROXY_NAMESPACE_URI.equals(namespaceUri) ?
+                        NamespaceExecutorStrategy.dedicated(16, NamespaceExecutorStrategy.UNLIMITED) :
+                        super.getNamespaceExecutorStrategy(namespaceUri);
+            }
+
+            /*
+             * Both servers run in this process and the history directory can only be opened by one of them; neither
+             * needs history here.
+             */
+            @Override
+            public HistoryStore getHistoryStore(NamespaceTable namespaceTable) {
+                return new NoOpHistoryStore();
+            }
+        };
+    }
+
+    private static void defaultProperty(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.server.ctt;
+
+import java.util.List;
+
+import com.digitalpetri.opcua.sdk.core.AccessLevel;
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.model.UaFolderNode;
+import com.digitalpetri.opcua.sdk.server.model.UaVariableNode;
+import com.digitalpetri.opcua.sdk.server.model.UaVariableNode.UaVariableNodeBuilder;
+import com.digitalpetri.opcua.sdk.server.namespaces.ShardedNamespace;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.LocalizedText;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
+import com.google.common.collect.ImmutableList;
+import org.slf4j.LoggerFactory;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+
+/**
+ * A {@link ShardedNamespace} holding a flat folder of Int32 variables, /Sharded/Variable0 through /Sharded/VariableN,
+ * organized under the Objects folder.
+ */
+public class ShardedCttNamespace extends ShardedNamespace {
+
+    public static final String NAMESPACE_URI = "urn:digitalpetri:ctt-sharded-namespace";
+
+    private final ImmutableList<NodeId> variableNodeIds;
+
+    /**
+     * @param server         the {@link OpcUaServer}.
+     * @param namespaceIndex the index of this namespace.
+     * @param shardCount     the number of shards.
+     * @param variableCount  the number of variables to add.
+     */
+    public ShardedCttNamespace(OpcUaServer server, UShort namespaceIndex, int shardCount, int variableCount) {
+        super(server, namespaceIndex, shardCount);
+
+        NodeId folderNodeId = new NodeId(namespaceIndex, "/Sharded");
+
+        UaFolderNode folder = new UaFolderNode(
+                this,
+                folderNodeId,
+                new QualifiedName(namespaceIndex, "Sharded"),
+                LocalizedText.english("Sharded")
+        );
+
+        addNode(folder);
+
+        try {
+            server.getUaNamespace().addReference(
+                    Identifiers.ObjectsFolder,
+                    Identifiers.Organizes,
+                    true, server.getServerTable().getUri(0),
+                    folderNodeId.expanded(), NodeClass.Object);
+        } catch (UaException e) {
+            LoggerFactory.getLogger(getClass()).error("Error adding reference to Objects folder.", e);
+        }
+
+        ImmutableList.Builder<NodeId> nodeIds = ImmutableList.builder();
+
+        for (int i = 0; i < variableCount; i++) {
+            String name = "Variable" + i;
+
+            UaVariableNode node = new UaVariableNodeBuilder(this)
+                    .setNodeId(new NodeId(namespaceIndex, "/Sharded/" + name))
+                    .setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.READ_WRITE)))
+                    .setBrowseName(new QualifiedName(namespaceIndex, name))
+                    .setDisplayName(LocalizedText.english(name))
+                    .setDataType(Identifiers.Int32)
+                    .setTypeDefinition(Identifiers.BaseDataVariableType)
+                    .build();
+
+            node.setValue(new DataValue(new Variant(0)));
+
+            folder.addOrganizes(node);
+            addNode(node);
+
+            nodeIds.add(node.getNodeId());
+        }
+
+        variableNodeIds = nodeIds.build();
+    }
+
+    @Override
+    public String getNamespaceUri() {
+        return NAMESPACE_URI;
+    }
+
+    /**
+     * @return the NodeIds of the variables, in order.
+     */
+    public List<NodeId> getVariableNodeIds() {
+        return variableNodeIds;
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.server.ctt;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * Measures how Read and {@link ShardedCttNamespace#updateValues} throughput scale with the number of shards of a
+ * {@link ShardedCttNamespace}.
+ * <p>
+ * For each shard count from 1, doubling up to the number of available processors, a server is created with a
+ * namespace of that many shards, and then:
+ * <ul>
+ * <li>reader threads issue Read batches of random variables back to back, and</li>
+ * <li>one thread updates every variable in cycles, waiting for each cycle to be applied on all shards.</li>
+ * </ul>
+ * The server isn't started; both go straight to the namespace.
+ */
+public class ShardedNamespaceBenchmark {
+
+    private static final int VARIABLES = Integer.getInteger("benchmark.variables", 100_000);
+    private static final int READERS = Integer.getInteger("benchmark.readers",
+            Runtime.getRuntime().availableProcessors());
+    private static final int BATCH_SIZE = Integer.getInteger("benchmark.batch-size", 100);
+    private static final int WARMUP_SECONDS = Integer.getInteger("benchmark.warmup", 2);
+    private static final int DURATION_SECONDS = Integer.getInteger("benchmark.duration", 10);
+
+    public static void main(String[] args) throws Exception {
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        List<Integer> shardCounts = Lists.newArrayList();
+        for (int shards = 1; shards < processors; shards *= 2) {
+            shardCounts.add(shards);
+        }
+        shardCounts.add(processors);
+
+        System.out.printf("variables=%d readers=%d batch=%d duration=%ds%n",
+                VARIABLES, READERS, BATCH_SIZE, DURATION_SECONDS);
+
+        for (int shards : shardCounts) {
+            OpcUaServer server = new OpcUaServer(new CttServerConfig());
+
+            ShardedCttNamespace namespace = server.getNamespaceManager().registerAndAdd(
+                    ShardedCttNamespace.NAMESPACE_URI,
+                    namespaceIndex -> new ShardedCttNamespace(server, namespaceIndex, shards, VARIABLES)
+            );
+
+            NodeId[] nodeIds = namespace.getVariableNodeIds().toArray(new NodeId[0]);
+
+            measureReads(namespace, nodeIds, WARMUP_SECONDS);
+            double readRate = measureReads(namespace, nodeIds, DURATION_SECONDS);
+
+            measureUpdates(namespace, nodeIds, WARMUP_SECONDS);
+            double updateRate = measureUpdates(namespace, nodeIds, DURATION_SECONDS);
+
+            System.out.printf("shards=%d reads=%.0f values/s updates=%.0f values/s%n",
+                    shards, readRate, updateRate);
+
+            server.shutdown();
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * @return the number of values read per second, not counting values the shards rejected.
+     */
+    private static double measureReads(ShardedCttNamespace namespace,
+                                       NodeId[] nodeIds,
+                                       int seconds) throws Exception {
+
+        ExecutorService readers = Executors.newFixedThreadPool(READERS);
+        LongAdder reads = new LongAdder();
+        LongAdder rejected = new LongAdder();
+
+        long startTime = System.nanoTime();
+        long endTime = startTime + TimeUnit.SECONDS.toNanos(seconds);
+
+        List<Future<?>> futures = Lists.newArrayList();
+
+        for (int r = 0; r < READERS; r++) {
+            futures.add(readers.submit(() -> {
+                List<ReadValueId> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+
+                while (System.nanoTime() < endTime) {
+                    batch.clear();
+
+                    for (int i = 0; i < BATCH_SIZE; i++) {
+                        NodeId nodeId = nodeIds[ThreadLocalRandom.current().nextInt(nodeIds.length)];
+
+                        batch.add(new ReadValueId(nodeId, uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE));
+                    }
+
+                    CompletableFuture<List<DataValue>> future = new CompletableFuture<>();
+                    namespace.read(batch, 0.0, TimestampsToReturn.Neither, future);
+
+                    for (DataValue value : future.get()) {
+                        if (value.getStatusCode().isGood()) reads.increment();
+                        else rejected.increment();
+                    }
+                }
+
+                return null;
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        readers.shutdown();
+
+        if (rejected.sum() > 0) {
+            System.out.printf("  %d values rejected%n", rejected.sum());
+        }
+
+        return reads.sum() / ((System.nanoTime() - startTime) / 1e9);
+    }
+
+    /**
+     * @return the number of values applied per second, not counting values the shards rejected.
+     */
+    private static double measureUpdates(ShardedCttNamespace namespace,
+                                         NodeId[] nodeIds,
+                                         int seconds) throws Exception {
+
+        // One variable of each shard; a task queued behind a cycle's updates on each of their executors runs once
+        // the cycle has been applied.
+        Map<Executor, NodeId> shardNodeIds = Maps.newIdentityHashMap();
+        for (NodeId nodeId : nodeIds) {
+            shardNodeIds.putIfAbsent(namespace.getExecutor(nodeId), nodeId);
+        }
+
+        DataValue[] values = new DataValue[nodeIds.length];
+
+        long updates = 0L, rejected = 0L, cycles = 0L;
+
+        long startTime = System.nanoTime();
+        long endTime = startTime + TimeUnit.SECONDS.toNanos(seconds);
+
+        while (System.nanoTime() < endTime) {
+            DateTime now = DateTime.now();
+
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new DataValue(new Variant((int) (cycles + i)), StatusCode.GOOD, now, now);
+            }
+
+            for (StatusCode result : namespace.updateValues(nodeIds, values)) {
+                if (result.isGood()) updates++;
+                else rejected++;
+            }
+
+            CountDownLatch applied = new CountDownLatch(shardNodeIds.size());
+
+            for (Executor executor : shardNodeIds.keySet()) {
+                try {
+                    executor.execute(applied::countDown);
+                } catch (RejectedExecutionException e) {
+                    applied.countDown();
+                }
+            }
+
+            applied.await();
+            cycles++;
+        }
+
+        if (rejected > 0) {
+            System.out.printf("  %d values rejected%n", rejected);
+        }
+
+        return updates / ((System.nanoTime() - startTime) / 1e9);
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.server.ctt;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.digitalpetri.opcua.sdk.core.AccessLevel;
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.api.DataItem;
+import com.digitalpetri.opcua.sdk.server.history.ValueType;
+import com.digitalpetri.opcua.sdk.server.items.MonitoredDataItem;
+import com.digitalpetri.opcua.sdk.server.namespaces.tags.TagNamespace;
+import com.digitalpetri.opcua.sdk.server.namespaces.tags.TagStore;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.google.common.collect.Lists;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * Measures the heap cost of a {@link TagStore} of many tags and the update and Read throughput of a
+ * {@link TagNamespace} over it.
+ * <p>
+ * The tags (1M by default, see benchmark.tags) are spread over folders of 1000, every Nth tag has a monitored item
+ * sampling it, and every tag is updated once per cycle with {@link TagStore#setValues}. Reads go through the
+ * namespace in batches, as the Read service would hand them to it. The server isn't started.
+ */
+public class TagBenchmark {
+
+    private static final int TAGS = Integer.getInteger("benchmark.tags", 1_000_000);
+    private static final int DURATION_SECONDS = Integer.getInteger("benchmark.duration", 10);
+    private static final int MONITOR_EVERY = Integer.getInteger("benchmark.monitor-every", 100);
+    private static final int TAGS_PER_FOLDER = 1000;
+    private static final int READ_BATCH_SIZE = 1000;
+    private static final double SAMPLING_INTERVAL = 100.0;
+
+    private static final String NAMESPACE_URI = "urn:digitalpetri:ctt-tags";
+
+    public static void main(String[] args) throws Exception {
+        long heapBefore = usedHeap();
+        long buildStart = System.nanoTime();
+
+        TagStore store = new TagStore("Tags", TAGS, TAGS * 32);
+
+        int[] tags = new int[TAGS];
+
+        for (int i = 0; i < TAGS; i++) {
+            tags[i] = store.addTag(
+                    "Tags/Folder" + (i / TAGS_PER_FOLDER),
+                    "Tag" + i,
+                    ValueType.Double,
+                    AccessLevel.getMask(AccessLevel.READ_WRITE));
+        }
+
+        double buildSeconds = (System.nanoTime() - buildStart) / 1e9;
+        long heapAfter = usedHeap();
+
+        System.out.printf("tags=%d build=%.1fs heap=%.1fMB (%.1f bytes/tag)%n",
+                TAGS, buildSeconds, (heapAfter - heapBefore) / 1e6, (double) (heapAfter - heapBefore) / TAGS);
+
+        OpcUaServer server = new OpcUaServer(new CttServerConfig());
+
+        TagNamespace namespace = server.getNamespaceManager().registerAndAdd(
+                NAMESPACE_URI,
+                namespaceIndex -> new TagNamespace(server, namespaceIndex, NAMESPACE_URI, store)
+        );
+
+        List<DataItem> items = Lists.newArrayList();
+
+        for (int i = 0; i < TAGS; i += MONITOR_EVERY) {
+            ReadValueId readValueId = new ReadValueId(
+                    namespace.getNodeId(tags[i]), uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE);
+
+            items.add(new MonitoredDataItem(
+                    uint(i), readValueId, MonitoringMode.Reporting, TimestampsToReturn.Both,
+                    uint(i), SAMPLING_INTERVAL, null, uint(1), true));
+        }
+
+        namespace.onDataItemsCreated(items);
+
+        benchmarkUpdates(store, tags);
+        benchmarkReads(namespace, tags);
+
+        namespace.onDataItemsDeleted(items);
+
+        server.shutdown();
+
+        System.exit(0);
+    }
+
+    private static void benchmarkUpdates(TagStore store, int[] tags) {
+        double[] values = new double[tags.length];
+
+        long updates = 0L, cycleTimeMax = 0L;
+        long startTime = System.nanoTime();
+
+        while (System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(DURATION_SECONDS)) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] += 1.0;
+            }
+
+            long cycleStart = System.nanoTime();
+
+            store.setValues(tags, values, StatusCodes.Good, DateTime.now().getUtcTime());
+
+            cycleTimeMax = Math.max(cycleTimeMax, System.nanoTime() - cycleStart);
+            updates += tags.length;
+        }
+
+        double elapsed = (System.nanoTime() - startTime) / 1e9;
+
+        System.out.printf("updates: rate=%.0f updates/s cycle max=%.2fms%n", updates / elapsed, cycleTimeMax / 1e6);
+    }
+
+    private static void benchmarkReads(TagNamespace namespace, int[] tags) throws Exception {
+        List<ReadValueId> readValueIds = Lists.newArrayListWithCapacity(tags.length);
+
+        for (int tag : tags) {
+            readValueIds.add(new ReadValueId(
+                    namespace.getNodeId(tag), uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE));
+        }
+
+        long values = 0L, failures = 0L;
+        long startTime = System.nanoTime();
+
+        while (System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(DURATION_SECONDS)) {
+            for (List<ReadValueId> batch : Lists.partition(readValueIds, READ_BATCH_SIZE)) {
+                CompletableFuture<List<DataValue>> future = new CompletableFuture<>();
+
+                namespace.read(batch, 0.0, TimestampsToReturn.Both, future);
+
+                for (DataValue result : future.get()) {
+                    if (result.getStatusCode().isGood()) values++;
+                    else failures++;
+                }
+            }
+        }
+
+        double elapsed = (System.nanoTime() - startTime) / 1e9;
+
+        System.out.printf("reads: rate=%.0f values/s failures=%d%n", values / elapsed, failures);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+
+        Runtime runtime = Runtime.getRuntime();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
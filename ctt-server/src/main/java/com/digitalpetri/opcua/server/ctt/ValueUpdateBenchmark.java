@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.server.ctt;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.api.DataItem;
+import com.digitalpetri.opcua.sdk.server.items.MonitoredDataItem;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.google.common.collect.Lists;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * Measures {@link CttNamespace#updateValues} throughput while a share of the updated variables is monitored.
+ * <p>
+ * The synthetic tree (see the ctt.synthetic.* properties, 100k variables by default) is updated in cycles of one
+ * value per variable, paced to the target rate, and every Nth variable has a monitored item sampling it. The server
+ * isn't started; items are created directly on the namespace.
+ */
+public class ValueUpdateBenchmark {
+
+    private static final int UPDATES_PER_SECOND = Integer.getInteger("benchmark.rate", 1_000_000);
+    private static final int DURATION_SECONDS = Integer.getInteger("benchmark.duration", 30);
+    private static final int MONITOR_EVERY = Integer.getInteger("benchmark.monitor-every", 10);
+    private static final double SAMPLING_INTERVAL = 100.0;
+
+    public static void main(String[] args) throws Exception {
+        defaultProperty("ctt.synthetic.breadth", "10");
+        defaultProperty("ctt.synthetic.depth", "2");
+        defaultProperty("ctt.synthetic.variables", "1000");
+
+        OpcUaServer server = new OpcUaServer(new CttServerConfig());
+
+        CttNamespace namespace = server.getNamespaceManager().registerAndAdd(
+                CttNamespace.NAMESPACE_URI,
+                namespaceIndex -> new CttNamespace(server, namespaceIndex)
+        );
+
+        NodeId[] nodeIds = namespace.getNodeIndex()
+                .map(index -> index.getInstances(Identifiers.BaseDataVariableType).stream()
+                        .filter(id -> String.valueOf(id.getIdentifier()).startsWith("/Synthetic/"))
+                        .collect(Collectors.toList()))
+                .orElse(Lists.newArrayList())
+                .toArray(new NodeId[0]);
+
+        if (nodeIds.length == 0) {
+            System.out.println("no synthetic variables; check the ctt.synthetic.* properties");
+            System.exit(-1);
+        }
+
+        List<DataItem> items = Lists.newArrayList();
+
+        for (int i = 0; i < nodeIds.length; i += MONITOR_EVERY) {
+            ReadValueId readValueId = new ReadValueId(
+                    nodeIds[i], uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE);
+
+            items.add(new MonitoredDataItem(
+                    uint(i), readValueId, MonitoringMode.Reporting, TimestampsToReturn.Both,
+                    uint(i), SAMPLING_INTERVAL, null, uint(1), true));
+        }
+
+        namespace.onDataItemsCreated(items);
+
+        int cyclesPerSecond = Math.max(1, UPDATES_PER_SECOND / nodeIds.length);
+        long cycleNanos = TimeUnit.SECONDS.toNanos(1) / cyclesPerSecond;
+
+        System.out.printf("variables=%d monitored=%d target=%d updates/s (%d cycles/s)%n",
+                nodeIds.length, items.size(), nodeIds.length * cyclesPerSecond, cyclesPerSecond);
+
+        DataValue[] values = new DataValue[nodeIds.length];
+
+        long startTime = System.nanoTime();
+        long deadline = startTime;
+        long reportTime = startTime + TimeUnit.SECONDS.toNanos(1);
+
+        long updates = 0L, failures = 0L, cycles = 0L, late = 0L;
+        long cycleTimeTotal = 0L, cycleTimeMax = 0L;
+
+        while (System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(DURATION_SECONDS)) {
+            DateTime now = DateTime.now();
+
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new DataValue(new Variant(cycles + i), StatusCode.GOOD, now, now);
+            }
+
+            long cycleStart = System.nanoTime();
+
+            StatusCode[] results = namespace.updateValues(nodeIds, values);
+
+            long cycleTime = System.nanoTime() - cycleStart;
+
+            for (StatusCode result : results) {
+                if (result.isGood()) updates++;
+                else failures++;
+            }
+
+            cycles++;
+            cycleTimeTotal += cycleTime;
+            cycleTimeMax = Math.max(cycleTimeMax, cycleTime);
+
+            deadline += cycleNanos;
+
+            long sleep = deadline - System.nanoTime();
+
+            if (sleep > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleep);
+            } else {
+                late++;
+            }
+
+            if (System.nanoTime() >= reportTime) {
+                double elapsed = (System.nanoTime() - startTime) / 1e9;
+
+                System.out.printf("rate=%.0f updates/s failures=%d cycles=%d late=%d " +
+                                "cycle mean=%.2fms max=%.2fms%n",
+                        updates / elapsed, failures, cycles, late,
+                        cycleTimeTotal / 1e6 / cycles, cycleTimeMax / 1e6);
+
+                reportTime += TimeUnit.SECONDS.toNanos(1);
+            }
+        }
+
+        server.shutdown();
+
+        System.exit(0);
+    }
+
+    private static void defaultProperty(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+}
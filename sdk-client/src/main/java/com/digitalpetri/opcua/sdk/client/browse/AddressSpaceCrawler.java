@@ -0,0 +1,357 @@
+/*
+ * Copyright 2015
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.client.browse;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import com.digitalpetri.opcua.sdk.client.api.UaClient;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.enumerated.BrowseDirection;
+import com.digitalpetri.opcua.stack.core.types.enumerated.BrowseResultMask;
+import com.digitalpetri.opcua.stack.core.types.structured.BrowseDescription;
+import com.digitalpetri.opcua.stack.core.types.structured.BrowseResult;
+import com.digitalpetri.opcua.stack.core.types.structured.ReferenceDescription;
+import com.digitalpetri.opcua.stack.core.types.structured.ViewDescription;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Discovers the address space of a server breadth-first, following hierarchical references from a starting node.
+ * <p>
+ * Nodes are browsed in batches of up to {@code nodesPerRequest}, with at most {@code maxConcurrentRequests} Browse
+ * requests outstanding at a time. Continuation points are followed automatically with batched BrowseNext requests.
+ * Results are stored in a {@link NodeCache}; nodes already present in the cache are not browsed again.
+ * <p>
+ * A node that can't be browsed doesn't stop the crawl: it's reported in the {@link CrawlResult} and its subtree is
+ * skipped. Continuation points left over by a failed BrowseNext are released.
+ */
+public class AddressSpaceCrawler {
+
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+    public static final int DEFAULT_NODES_PER_REQUEST = 100;
+    public static final UInteger DEFAULT_MAX_REFERENCES_PER_NODE = uint(1000);
+
+    private static final ViewDescription NO_VIEW =
+            new ViewDescription(NodeId.NULL_VALUE, DateTime.MIN_VALUE, uint(0));
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final UaClient client;
+    private final NodeCache cache;
+    private final int maxConcurrentRequests;
+    private final int nodesPerRequest;
+    private final UInteger maxReferencesPerNode;
+
+    public AddressSpaceCrawler(UaClient client, NodeCache cache) {
+        this(client, cache, DEFAULT_MAX_CONCURRENT_REQUESTS, DEFAULT_NODES_PER_REQUEST, DEFAULT_MAX_REFERENCES_PER_NODE);
+    }
+
+    public AddressSpaceCrawler(UaClient client,
+                               NodeCache cache,
+                               int maxConcurrentRequests,
+                               int nodesPerRequest,
+                               UInteger maxReferencesPerNode) {
+
+        this.client = client;
+        this.cache = cache;
+        this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+        this.nodesPerRequest = Math.max(1, nodesPerRequest);
+        this.maxReferencesPerNode = maxReferencesPerNode;
+    }
+
+    public NodeCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Crawl the address space beneath the Objects folder.
+     *
+     * @return a {@link CompletableFuture} that completes with the {@link CrawlResult}.
+     */
+    public CompletableFuture<CrawlResult> crawl() {
+        return crawl(Identifiers.ObjectsFolder);
+    }
+
+    /**
+     * Crawl the address space beneath {@code startingNode}, following hierarchical references.
+     *
+     * @param startingNode the {@link NodeId} to start crawling from.
+     * @return a {@link CompletableFuture} that completes with the {@link CrawlResult}.
+     */
+    public CompletableFuture<CrawlResult> crawl(NodeId startingNode) {
+        Crawl crawl = new Crawl();
+
+        crawl.enqueue(startingNode);
+        crawl.dispatch();
+
+        return crawl.future;
+    }
+
+    private BrowseDescription browseDescription(NodeId nodeId) {
+        return new BrowseDescription(
+                nodeId,
+                BrowseDirection.Forward,
+                Identifiers.HierarchicalReferences,
+                true,
+                uint(0),
+                uint(BrowseResultMask.All.getValue())
+        );
+    }
+
+    private static StatusCode statusCode(Throwable ex) {
+        Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+
+        return cause instanceof UaException ?
+                ((UaException) cause).getStatusCode() : new StatusCode(StatusCodes.Bad_UnexpectedError);
+    }
+
+    /**
+     * The outcome of a crawl: how many nodes were visited, and the nodes that couldn't be browsed.
+     */
+    public static class CrawlResult {
+
+        private final long visited;
+        private final Map<NodeId, StatusCode> failures;
+
+        CrawlResult(long visited, Map<NodeId, StatusCode> failures) {
+            this.visited = visited;
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * @return the number of nodes visited, including those that couldn't be browsed.
+         */
+        public long getVisited() {
+            return visited;
+        }
+
+        /**
+         * @return the {@link StatusCode} each node that couldn't be browsed failed with.
+         */
+        public Map<NodeId, StatusCode> getFailures() {
+            return failures;
+        }
+
+    }
+
+    private class Crawl {
+
+        private final CompletableFuture<CrawlResult> future = new CompletableFuture<>();
+
+        private final Map<NodeId, StatusCode> failures = Maps.newConcurrentMap();
+
+        private final Queue<NodeId> queue = new ConcurrentLinkedQueue<>();
+        private final Set<NodeId> visited = Collections.newSetFromMap(Maps.newConcurrentMap());
+
+        private final AtomicInteger outstanding = new AtomicInteger(0);
+        private final AtomicLong count = new AtomicLong(0L);
+
+        private void enqueue(NodeId nodeId) {
+            enqueue(Collections.singletonList(nodeId));
+        }
+
+        /**
+         * Mark each node visited and queue it for browsing, or, if its references are already cached, walk to its
+         * targets instead. Cached subtrees are walked with a local work list rather than by recursion, so a deep
+         * cached hierarchy cannot overflow the stack.
+         */
+        private void enqueue(List<NodeId> nodeIds) {
+            Deque<NodeId> pending = new ArrayDeque<>(nodeIds);
+
+            NodeId nodeId;
+            while ((nodeId = pending.poll()) != null) {
+                if (visited.add(nodeId)) {
+                    count.incrementAndGet();
+
+                    Optional<List<ReferenceDescription>> cached = cache.getReferences(nodeId);
+
+                    if (cached.isPresent()) {
+                        cached.get().forEach(r -> r.getNodeId().local().ifPresent(pending::add));
+                    } else {
+                        queue.add(nodeId);
+                    }
+                }
+            }
+        }
+
+        private void enqueueTargets(List<ReferenceDescription> references) {
+            List<NodeId> targets = Lists.newArrayListWithCapacity(references.size());
+
+            references.forEach(r -> r.getNodeId().local().ifPresent(targets::add));
+
+            enqueue(targets);
+        }
+
+        private synchronized void dispatch() {
+            if (future.isDone()) return;
+
+            while (outstanding.get() < maxConcurrentRequests && !queue.isEmpty()) {
+                List<NodeId> batch = Lists.newArrayListWithCapacity(nodesPerRequest);
+
+                NodeId nodeId;
+                while (batch.size() < nodesPerRequest && (nodeId = queue.poll()) != null) {
+                    batch.add(nodeId);
+                }
+
+                outstanding.incrementAndGet();
+
+                browse(batch).whenComplete((results, ex) -> {
+                    if (ex != null) {
+                        logger.warn("Browse of {} nodes failed: {}", batch.size(), ex.getMessage(), ex);
+
+                        StatusCode statusCode = statusCode(ex);
+                        batch.forEach(id -> failures.put(id, statusCode));
+                    } else {
+                        for (int i = 0; i < batch.size(); i++) {
+                            NodeId browsed = batch.get(i);
+                            List<ReferenceDescription> references = results.get(browsed);
+
+                            if (references != null) {
+                                cache.putReferences(browsed, references);
+                                enqueueTargets(references);
+                            }
+                        }
+                    }
+
+                    outstanding.decrementAndGet();
+                    dispatch();
+                });
+            }
+
+            if (outstanding.get() == 0 && queue.isEmpty()) {
+                future.complete(new CrawlResult(count.get(), failures));
+            }
+        }
+
+        /**
+         * Browse a batch of nodes and follow any continuation points until all references have been received.
+         *
+         * @return the references for each successfully browsed node.
+         */
+        private CompletableFuture<Map<NodeId, List<ReferenceDescription>>> browse(List<NodeId> nodeIds) {
+            List<BrowseDescription> descriptions = nodeIds.stream()
+                    .map(AddressSpaceCrawler.this::browseDescription)
+                    .collect(Collectors.toList());
+
+            return client.browse(NO_VIEW, maxReferencesPerNode, descriptions).thenCompose(response -> {
+                Map<NodeId, List<ReferenceDescription>> references = Maps.newHashMap();
+                Map<ByteString, NodeId> continuations = Maps.newHashMap();
+
+                BrowseResult[] results = response.getResults();
+
+                for (int i = 0; i < results.length; i++) {
+                    accept(nodeIds.get(i), results[i], references, continuations);
+                }
+
+                return browseNext(references, continuations);
+            });
+        }
+
+        private CompletableFuture<Map<NodeId, List<ReferenceDescription>>> browseNext(
+                Map<NodeId, List<ReferenceDescription>> references,
+                Map<ByteString, NodeId> continuations) {
+
+            if (continuations.isEmpty()) {
+                return CompletableFuture.completedFuture(references);
+            }
+
+            List<ByteString> continuationPoints = newArrayList(continuations.keySet());
+
+            return client.browseNext(false, continuationPoints).handle((response, ex) -> {
+                if (ex != null) {
+                    logger.debug("BrowseNext failed: {}", ex.getMessage(), ex);
+
+                    // Release the continuation points so the server can free them now rather than on timeout.
+                    client.browseNext(true, continuationPoints);
+
+                    StatusCode statusCode = statusCode(ex);
+
+                    for (NodeId nodeId : continuations.values()) {
+                        references.remove(nodeId);
+                        failures.put(nodeId, statusCode);
+                    }
+
+                    return CompletableFuture.completedFuture(references);
+                }
+
+                Map<ByteString, NodeId> next = Maps.newHashMap();
+
+                BrowseResult[] results = response.getResults();
+
+                for (int i = 0; i < results.length; i++) {
+                    NodeId nodeId = continuations.get(continuationPoints.get(i));
+
+                    accept(nodeId, results[i], references, next);
+                }
+
+                return browseNext(references, next);
+            }).thenCompose(f -> f);
+        }
+
+        private void accept(NodeId nodeId,
+                            BrowseResult result,
+                            Map<NodeId, List<ReferenceDescription>> references,
+                            Map<ByteString, NodeId> continuations) {
+
+            if (result.getStatusCode().isGood()) {
+                List<ReferenceDescription> list = references.computeIfAbsent(nodeId, id -> newArrayList());
+
+                if (result.getReferences() != null) {
+                    Collections.addAll(list, result.getReferences());
+                }
+
+                ByteString continuationPoint = result.getContinuationPoint();
+
+                if (continuationPoint != null && continuationPoint.isNotNull()) {
+                    continuations.put(continuationPoint, nodeId);
+                }
+            } else {
+                logger.debug("Browse of {} failed: {}", nodeId, result.getStatusCode());
+
+                references.remove(nodeId);
+                failures.put(nodeId, result.getStatusCode());
+            }
+        }
+
+    }
+
+}
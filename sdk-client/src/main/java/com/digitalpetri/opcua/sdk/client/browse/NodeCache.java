@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.client.browse;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.digitalpetri.opcua.sdk.client.OpcUaClient;
+import com.digitalpetri.opcua.sdk.client.subscriptions.OpcUaMonitoredItem;
+import com.digitalpetri.opcua.sdk.client.subscriptions.OpcUaSubscription;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.enumerated.FilterOperator;
+import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.ContentFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.ContentFilterElement;
+import com.digitalpetri.opcua.stack.core.types.structured.EventFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.LiteralOperand;
+import com.digitalpetri.opcua.stack.core.types.structured.ModelChangeStructureDataType;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoringParameters;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.ReferenceDescription;
+import com.digitalpetri.opcua.stack.core.types.structured.SimpleAttributeOperand;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * An in-memory cache of browse results, keyed by the {@link NodeId} of the browsed node.
+ * <p>
+ * Entries are invalidated individually or in response to ModelChangeEvents reported by the server.
+ */
+public class NodeCache {
+
+    private final Map<NodeId, List<ReferenceDescription>> references = Maps.newConcurrentMap();
+
+    /**
+     * Get the cached references for {@code nodeId}, if present.
+     *
+     * @param nodeId the {@link NodeId} of the browsed node.
+     * @return the cached {@link ReferenceDescription}s, or {@link Optional#empty()} if not cached.
+     */
+    public Optional<List<ReferenceDescription>> getReferences(NodeId nodeId) {
+        return Optional.ofNullable(references.get(nodeId));
+    }
+
+    public void putReferences(NodeId nodeId, List<ReferenceDescription> descriptions) {
+        references.put(nodeId, ImmutableList.copyOf(descriptions));
+    }
+
+    public boolean contains(NodeId nodeId) {
+        return references.containsKey(nodeId);
+    }
+
+    public Set<NodeId> getNodeIds() {
+        return Collections.unmodifiableSet(references.keySet());
+    }
+
+    public int size() {
+        return references.size();
+    }
+
+    public void invalidate(NodeId nodeId) {
+        references.remove(nodeId);
+    }
+
+    public void invalidateAll() {
+        references.clear();
+    }
+
+    /**
+     * Invalidate cache entries in response to a ModelChangeEvent.
+     * <p>
+     * A BaseModelChangeEvent carries no change details, so {@code changes} will be null or empty and the entire
+     * cache is invalidated. A GeneralModelChangeEvent identifies each affected node and only those entries are
+     * invalidated.
+     *
+     * @param changes the Changes field of a GeneralModelChangeEvent, or {@code null}.
+     */
+    public void onModelChange(ModelChangeStructureDataType[] changes) {
+        if (changes == null || changes.length == 0) {
+            invalidateAll();
+        } else {
+            for (ModelChangeStructureDataType change : changes) {
+                NodeId affected = change.getAffected();
+
+                if (affected != null) invalidate(affected);
+            }
+        }
+    }
+
+    /**
+     * Monitor the Server object for ModelChangeEvents and invalidate affected entries as they're reported.
+     * <p>
+     * GeneralModelChangeEvents invalidate only the affected nodes; any other BaseModelChangeEvent invalidates the
+     * entire cache.
+     *
+     * @param client       the {@link OpcUaClient} {@code subscription} belongs to.
+     * @param subscription the {@link OpcUaSubscription} to create the event item in.
+     * @param clientHandle a client handle not otherwise in use in {@code subscription}.
+     * @return the {@link OpcUaMonitoredItem} created; check its status code to see if the server accepted it.
+     */
+    public CompletableFuture<OpcUaMonitoredItem> subscribeToModelChanges(OpcUaClient client,
+                                                                         OpcUaSubscription subscription,
+                                                                         UInteger clientHandle) {
+
+        SimpleAttributeOperand[] selectClauses = new SimpleAttributeOperand[]{
+                new SimpleAttributeOperand(
+                        Identifiers.BaseEventType,
+                        new QualifiedName[]{new QualifiedName(0, "EventType")},
+                        uint(13), null),
+                new SimpleAttributeOperand(
+                        Identifiers.GeneralModelChangeEventType,
+                        new QualifiedName[]{new QualifiedName(0, "Changes")},
+                        uint(13), null)
+        };
+
+        ContentFilterElement ofType = new ContentFilterElement(
+                FilterOperator.OfType,
+                new ExtensionObject[]{
+                        new ExtensionObject(new LiteralOperand(new Variant(Identifiers.BaseModelChangeEventType)))
+                });
+
+        EventFilter filter = new EventFilter(selectClauses, new ContentFilter(new ContentFilterElement[]{ofType}));
+
+        ReadValueId readValueId = new ReadValueId(Identifiers.Server, uint(12), null, QualifiedName.NULL_VALUE);
+
+        MonitoringParameters parameters = new MonitoringParameters(
+                clientHandle, 0.0, new ExtensionObject(filter), uint(0), true);
+
+        MonitoredItemCreateRequest request =
+                new MonitoredItemCreateRequest(readValueId, MonitoringMode.Reporting, parameters);
+
+        return subscription.createMonitoredItems(
+                client, TimestampsToReturn.Neither, ImmutableList.of(request)).thenApply(items -> {
+
+            OpcUaMonitoredItem item = items.get(0);
+
+            item.setEventConsumer(fields -> {
+                Object value = fields.length > 1 && fields[1] != null ? fields[1].getValue() : null;
+
+                onModelChange(changes(value));
+            });
+
+            return item;
+        });
+    }
+
+    private static ModelChangeStructureDataType[] changes(Object value) {
+        if (value instanceof ModelChangeStructureDataType[]) {
+            return (ModelChangeStructureDataType[]) value;
+        } else if (value instanceof ExtensionObject[]) {
+            ExtensionObject[] xos = (ExtensionObject[]) value;
+            ModelChangeStructureDataType[] changes = new ModelChangeStructureDataType[xos.length];
+
+            for (int i = 0; i < xos.length; i++) {
+                Object o = xos[i] != null ? xos[i].getObject() : null;
+
+                // An undecodable change can't be attributed to a node; fall back to invalidating everything.
+                if (!(o instanceof ModelChangeStructureDataType)) return null;
+
+                changes[i] = (ModelChangeStructureDataType) o;
+            }
+
+            return changes;
+        } else {
+            return null;
+        }
+    }
+
+}
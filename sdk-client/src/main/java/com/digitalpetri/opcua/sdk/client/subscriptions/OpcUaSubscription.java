@@ -152,6 +152,15 @@ public class OpcUaSubscription {
         return client.deleteMonitoredItems(subscriptionId, monitoredItemIds).thenApply(response -> {
             StatusCode[] results = response.getResults();
 
+            for (int i = 0; i < results.length; i++) {
+                if (results[i].isGood()) {
+                    OpcUaMonitoredItem item = itemsToDelete.get(i);
+
+                    itemsByClientHandle.remove(item.getClientHandle());
+                    itemsByServerHandle.remove(item.getMonitoredItemId());
+                }
+            }
+
             return Arrays.asList(results);
         });
     }
@@ -397,7 +397,7 @@ public class OpcUaSubscriptionManager {
     private void onNotificationMessage(UInteger subscriptionId, NotificationMessage notificationMessage) {
         DateTime publishTime = notificationMessage.getPublishTime();
 
-        logger.info("onNotificationMessage(), sequenceNumber={}, subscriptionId={}, publishTime={}",
+        logger.debug("onNotificationMessage(), sequenceNumber={}, subscriptionId={}, publishTime={}",
                 notificationMessage.getSequenceNumber(), subscriptionId, publishTime);
 
         Map<UInteger, OpcUaMonitoredItem> items = Optional.ofNullable(subscriptions.get(subscriptionId))
@@ -411,7 +411,7 @@ public class OpcUaSubscriptionManager {
                 DataChangeNotification dcn = (DataChangeNotification) o;
 
                 for (MonitoredItemNotification min : dcn.getMonitoredItems()) {
-                    logger.info("MonitoredItemNotification: clientHandle={}, value={}",
+                    logger.debug("MonitoredItemNotification: clientHandle={}, value={}",
                             min.getClientHandle(), min.getValue());
 
                     OpcUaMonitoredItem item = items.get(min.getClientHandle());
@@ -421,7 +421,7 @@ public class OpcUaSubscriptionManager {
                 EventNotificationList enl = (EventNotificationList) o;
 
                 for (EventFieldList efl : enl.getEvents()) {
-                    logger.info("EventFieldList: clientHandle={}, values={}",
+                    logger.debug("EventFieldList: clientHandle={}, values={}",
                             efl.getClientHandle(), Arrays.toString(efl.getEventFields()));
 
                     OpcUaMonitoredItem item = items.get(efl.getClientHandle());
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.examples;
+
+import java.util.concurrent.TimeUnit;
+
+import com.digitalpetri.opcua.sdk.client.OpcUaClient;
+import com.digitalpetri.opcua.sdk.client.browse.AddressSpaceCrawler;
+import com.digitalpetri.opcua.sdk.client.browse.AddressSpaceCrawler.CrawlResult;
+import com.digitalpetri.opcua.sdk.client.browse.NodeCache;
+import com.google.common.base.Stopwatch;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * Measures how long it takes to crawl a server's address space with {@link AddressSpaceCrawler}.
+ * <p>
+ * Run against the CTT server started with e.g. {@code -Dctt.synthetic.breadth=10 -Dctt.synthetic.depth=5
+ * -Dctt.synthetic.variables=10} to crawl a synthetic tree of ~1M nodes.
+ */
+public class AddressSpaceCrawlerExample {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: java -jar app.jar <endpoint url> [concurrent requests] [nodes per request]");
+            System.exit(-1);
+        }
+
+        String endpointUrl = args[0];
+        int concurrentRequests = args.length > 1 ?
+                Integer.parseInt(args[1]) : AddressSpaceCrawler.DEFAULT_MAX_CONCURRENT_REQUESTS;
+        int nodesPerRequest = args.length > 2 ?
+                Integer.parseInt(args[2]) : AddressSpaceCrawler.DEFAULT_NODES_PER_REQUEST;
+
+        OpcUaClient client = OpcUaClientExample.getOpcUaClient(endpointUrl);
+
+        NodeCache cache = new NodeCache();
+        AddressSpaceCrawler crawler = new AddressSpaceCrawler(
+                client, cache, concurrentRequests, nodesPerRequest, uint(1000));
+
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        CrawlResult result = crawler.crawl().get();
+        long count = result.getVisited();
+        long elapsed = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+        System.out.printf("crawled %d nodes in %dms (%.1f nodes/s), cached=%d, failed=%d%n",
+                count, elapsed, count * 1000.0 / Math.max(1, elapsed), cache.size(), result.getFailures().size());
+
+        stopwatch.reset().start();
+        long cachedCount = crawler.crawl().get().getVisited();
+        System.out.printf("re-crawled %d nodes from cache in %dms%n",
+                cachedCount, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+
+        client.disconnect().get();
+
+        System.exit(0);
+    }
+
+}
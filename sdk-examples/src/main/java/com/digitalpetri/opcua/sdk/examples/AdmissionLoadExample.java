@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.examples;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.ConsoleReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.digitalpetri.opcua.sdk.client.OpcUaClient;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.enumerated.BrowseDirection;
+import com.digitalpetri.opcua.stack.core.types.enumerated.BrowseResultMask;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.BrowseDescription;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.ViewDescription;
+import com.google.common.collect.Lists;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * Floods a server with Read and Browse requests from many clients and reports how many were handled and how many
+ * were turned away by admission control.
+ * <p>
+ * Each client fires {@code N_REQUESTS} of each without waiting for responses, so with the default limits most of them
+ * queue behind the per-Session budget and the rest are rejected with Bad_TooManyOperations. Meanwhile the latency of
+ * the accepted requests should stay flat as the client count grows.
+ */
+public class AdmissionLoadExample {
+
+    private static final MetricRegistry METRIC_REGISTRY = new MetricRegistry();
+
+    static {
+        ConsoleReporter reporter = ConsoleReporter.forRegistry(METRIC_REGISTRY)
+                .convertRatesTo(TimeUnit.SECONDS)
+                .convertDurationsTo(TimeUnit.MILLISECONDS)
+                .build();
+
+        reporter.start(10, TimeUnit.SECONDS);
+    }
+
+    private static final int N_TIMES = 50;
+    private static final int N_REQUESTS = 500;
+    private static final int N_NODES = 100;
+
+    private static final ViewDescription NO_VIEW =
+            new ViewDescription(NodeId.NULL_VALUE, DateTime.MIN_VALUE, uint(0));
+
+    private static final Timer REQUEST_TIMER = METRIC_REGISTRY.timer("accepted-request-latency");
+    private static final Meter ACCEPTED_METER = METRIC_REGISTRY.meter("accepted");
+    private static final Meter TOO_MANY_OPERATIONS_METER = METRIC_REGISTRY.meter("rejected.too-many-operations");
+    private static final Meter RESOURCE_UNAVAILABLE_METER = METRIC_REGISTRY.meter("rejected.resource-unavailable");
+    private static final Meter FAILURE_METER = METRIC_REGISTRY.meter("failed");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("usage: java -jar app.jar <endpoint url> <client count>");
+            System.exit(-1);
+        }
+
+        String endpointUrl = args[0];
+        int clientCount = Integer.parseInt(args[1]);
+
+        List<OpcUaClient> clients = Lists.newArrayList();
+        List<CompletableFuture<OpcUaClient>> futures = Lists.newArrayList();
+
+        for (int i = 0; i < clientCount; i++) {
+            clients.add(OpcUaClientExample.getOpcUaClient(endpointUrl));
+            futures.add(new CompletableFuture<>());
+        }
+
+        for (int i = 0; i < clients.size(); i++) {
+            flood(clients.get(i), i, 0, futures.get(i));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).get();
+
+        System.out.printf("accepted=%d tooManyOperations=%d resourceUnavailable=%d failed=%d%n",
+                ACCEPTED_METER.getCount(), TOO_MANY_OPERATIONS_METER.getCount(),
+                RESOURCE_UNAVAILABLE_METER.getCount(), FAILURE_METER.getCount());
+
+        for (OpcUaClient client : clients) {
+            client.disconnect().get();
+        }
+
+        System.exit(0);
+    }
+
+    private static void flood(OpcUaClient client, int clientNumber, int count, CompletableFuture<OpcUaClient> f) {
+        if (count == N_TIMES) {
+            System.out.println("Client #" + clientNumber + " finished.");
+            f.complete(client);
+            return;
+        }
+
+        List<ReadValueId> nodesToRead = Collections.nCopies(N_NODES, new ReadValueId(
+                Identifiers.Server_ServerStatus_CurrentTime,
+                uint(13), null, QualifiedName.NULL_VALUE));
+
+        List<BrowseDescription> nodesToBrowse = Collections.nCopies(N_NODES, new BrowseDescription(
+                Identifiers.ObjectsFolder,
+                BrowseDirection.Forward,
+                Identifiers.HierarchicalReferences,
+                true,
+                uint(0),
+                uint(BrowseResultMask.All.getValue())));
+
+        List<CompletableFuture<?>> futures = Lists.newArrayListWithCapacity(N_REQUESTS * 2);
+
+        for (int i = 0; i < N_REQUESTS; i++) {
+            futures.add(record(client.read(0.0, TimestampsToReturn.Both, nodesToRead)));
+            futures.add(record(client.browse(NO_VIEW, uint(0), nodesToBrowse)));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+                .whenCompleteAsync((v, ex) -> flood(client, clientNumber, count + 1, f));
+    }
+
+    private static CompletableFuture<?> record(CompletableFuture<?> future) {
+        Timer.Context context = REQUEST_TIMER.time();
+
+        return future.handle((r, ex) -> {
+            if (ex == null) {
+                context.stop();
+                ACCEPTED_METER.mark();
+            } else {
+                Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+                long statusCode = cause instanceof UaException ?
+                        ((UaException) cause).getStatusCode().getValue() : StatusCodes.Bad_UnexpectedError;
+
+                if (statusCode == StatusCodes.Bad_TooManyOperations) {
+                    TOO_MANY_OPERATIONS_METER.mark();
+                } else if (statusCode == StatusCodes.Bad_ResourceUnavailable) {
+                    RESOURCE_UNAVAILABLE_METER.mark();
+                } else {
+                    FAILURE_METER.mark();
+                }
+            }
+
+            return null;
+        });
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.examples;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.ConsoleReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.digitalpetri.opcua.sdk.client.OpcUaClient;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.structured.CallMethodRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.CallMethodResult;
+import com.digitalpetri.opcua.stack.core.types.structured.CallRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.CallResponse;
+import com.google.common.collect.Lists;
+
+/**
+ * Measures Call throughput against the sqrt(x) method of the CTT server.
+ * <p>
+ * Each client keeps a fixed number of Call requests outstanding, each calling the method a fixed number of times,
+ * until it has sent {@code N_TIMES} rounds.
+ */
+public class CallBenchmarkExample {
+
+    private static final MetricRegistry METRIC_REGISTRY = new MetricRegistry();
+
+    static {
+        ConsoleReporter reporter = ConsoleReporter.forRegistry(METRIC_REGISTRY)
+                .convertRatesTo(TimeUnit.SECONDS)
+                .convertDurationsTo(TimeUnit.MILLISECONDS)
+                .build();
+
+        reporter.start(10, TimeUnit.SECONDS);
+    }
+
+    private static final int N_TIMES = 100;
+    private static final int N_REQUESTS = 100;
+    private static final int N_CALLS_PER_REQUEST = 10;
+
+    private static final Timer REQUEST_TIMER = METRIC_REGISTRY.timer("call-request-latency");
+    private static final Meter CALL_METER = METRIC_REGISTRY.meter("call-meter");
+    private static final Meter FAILURE_METER = METRIC_REGISTRY.meter("call-failure-meter");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("usage: java -jar app.jar <endpoint url> <client count> [ctt namespace index]");
+            System.exit(-1);
+        }
+
+        String endpointUrl = args[0];
+        int clientCount = Integer.parseInt(args[1]);
+        int namespaceIndex = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        NodeId objectId = new NodeId(namespaceIndex, "/Methods");
+        NodeId methodId = new NodeId(namespaceIndex, "/Methods/sqrt(x)");
+
+        List<OpcUaClient> clients = Lists.newArrayList();
+        List<CompletableFuture<OpcUaClient>> futures = Lists.newArrayList();
+
+        for (int i = 0; i < clientCount; i++) {
+            clients.add(OpcUaClientExample.getOpcUaClient(endpointUrl));
+            futures.add(new CompletableFuture<>());
+        }
+
+        long startTime = System.nanoTime();
+
+        for (int i = 0; i < clients.size(); i++) {
+            call(clients.get(i), objectId, methodId, i, 0, futures.get(i));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).get();
+
+        long elapsed = TimeUnit.MILLISECONDS.convert(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+
+        System.out.printf("calls=%d failures=%d elapsed=%dms rate=%.1f calls/s%n",
+                CALL_METER.getCount(), FAILURE_METER.getCount(), elapsed,
+                CALL_METER.getCount() * 1000.0 / Math.max(1, elapsed));
+
+        for (OpcUaClient client : clients) {
+            client.disconnect().get();
+        }
+
+        System.exit(0);
+    }
+
+    private static void call(OpcUaClient client,
+                             NodeId objectId,
+                             NodeId methodId,
+                             int clientNumber, int count,
+                             CompletableFuture<OpcUaClient> f) {
+
+        if (count == N_TIMES) {
+            System.out.println("Client #" + clientNumber + " finished.");
+            f.complete(client);
+            return;
+        }
+
+        CallMethodRequest[] methodsToCall = new CallMethodRequest[N_CALLS_PER_REQUEST];
+
+        for (int i = 0; i < N_CALLS_PER_REQUEST; i++) {
+            methodsToCall[i] = new CallMethodRequest(
+                    objectId, methodId, new Variant[]{new Variant((double) i)});
+        }
+
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[N_REQUESTS];
+
+        for (int i = 0; i < N_REQUESTS; i++) {
+            Timer.Context context = REQUEST_TIMER.time();
+
+            CompletableFuture<CallResponse> future = client.getSession().thenCompose(session -> {
+                CallRequest request = new CallRequest(
+                        client.newRequestHeader(session.getAuthToken()), methodsToCall);
+
+                return client.<CallResponse>sendRequest(request);
+            });
+
+            futures[i] = future.thenAccept(response -> {
+                context.stop();
+
+                for (CallMethodResult result : response.getResults()) {
+                    StatusCode statusCode = result.getStatusCode();
+
+                    if (statusCode.isGood()) CALL_METER.mark();
+                    else FAILURE_METER.mark();
+                }
+            });
+        }
+
+        CompletableFuture.allOf(futures).whenCompleteAsync((v, ex) -> {
+            if (ex != null) {
+                ex.printStackTrace();
+            }
+
+            call(client, objectId, methodId, clientNumber, count + 1, f);
+        });
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.examples;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.digitalpetri.opcua.sdk.client.OpcUaClient;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.CreateMonitoredItemsResponse;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoredItemCreateResult;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoringParameters;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.google.common.collect.Lists;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * Measures how long the CTT server takes to create 10k and 100k monitored items.
+ * <p>
+ * For each item count a new subscription is created and filled with items monitoring the Value of the static scalar
+ * variables, {@code BATCH_SIZE} items per CreateMonitoredItems request, then deleted again.
+ */
+public class CreateMonitoredItemsBenchmarkExample {
+
+    private static final int[] ITEM_COUNTS = {10_000, 100_000};
+    private static final int BATCH_SIZE = 5_000;
+    private static final int N_ROUNDS = 3;
+
+    private static final String[] SCALAR_NAMES = {
+            "Bool", "Byte", "Double", "Float", "Int16", "Int32", "Int64", "UInt16", "UInt32", "UInt64"
+    };
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: java -jar app.jar <endpoint url> [ctt namespace index]");
+            System.exit(-1);
+        }
+
+        String endpointUrl = args[0];
+        int namespaceIndex = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+        OpcUaClient client = OpcUaClientExample.getOpcUaClient(endpointUrl);
+
+        for (int round = 0; round < N_ROUNDS; round++) {
+            for (int itemCount : ITEM_COUNTS) {
+                createItems(client, namespaceIndex, itemCount);
+            }
+        }
+
+        client.disconnect().get();
+
+        System.exit(0);
+    }
+
+    private static void createItems(OpcUaClient client, int namespaceIndex, int itemCount) throws Exception {
+        UInteger subscriptionId = client.createSubscription(
+                1000.0, uint(10000), uint(10), uint(0), false, ubyte(0)).get().getSubscriptionId();
+
+        int failures = 0;
+        long startTime = System.nanoTime();
+
+        for (int created = 0; created < itemCount; created += BATCH_SIZE) {
+            int batchSize = Math.min(BATCH_SIZE, itemCount - created);
+
+            List<MonitoredItemCreateRequest> itemsToCreate = Lists.newArrayListWithCapacity(batchSize);
+
+            for (int i = 0; i < batchSize; i++) {
+                int handle = created + i;
+
+                NodeId nodeId = new NodeId(namespaceIndex,
+                        "/Static/AllProfiles/Scalar/" + SCALAR_NAMES[handle % SCALAR_NAMES.length]);
+
+                ReadValueId readValueId = new ReadValueId(
+                        nodeId, uint(13), null, QualifiedName.NULL_VALUE);
+
+                MonitoringParameters parameters = new MonitoringParameters(
+                        uint(handle), 1000.0, null, uint(1), true);
+
+                itemsToCreate.add(new MonitoredItemCreateRequest(readValueId, MonitoringMode.Reporting, parameters));
+            }
+
+            CreateMonitoredItemsResponse response = client.createMonitoredItems(
+                    subscriptionId, TimestampsToReturn.Both, itemsToCreate).get();
+
+            for (MonitoredItemCreateResult result : response.getResults()) {
+                if (!result.getStatusCode().isGood()) failures++;
+            }
+        }
+
+        long elapsed = TimeUnit.MILLISECONDS.convert(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+
+        System.out.printf("items=%d failures=%d elapsed=%dms rate=%.1f items/s%n",
+                itemCount, failures, elapsed, itemCount * 1000.0 / Math.max(1, elapsed));
+
+        client.deleteSubscriptions(Lists.newArrayList(subscriptionId)).get();
+    }
+
+}
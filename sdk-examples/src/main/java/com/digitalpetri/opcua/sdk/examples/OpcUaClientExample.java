@@ -184,7 +184,7 @@ public class OpcUaClientExample {
         });
     }
 
-    private static OpcUaClient getOpcUaClient(String endpointUrl) throws Exception {
+    static OpcUaClient getOpcUaClient(String endpointUrl) throws Exception {
         EndpointDescription[] endpoints = UaTcpStackClient.getEndpoints(endpointUrl).get();
 
         EndpointDescription endpoint = Arrays.stream(endpoints)
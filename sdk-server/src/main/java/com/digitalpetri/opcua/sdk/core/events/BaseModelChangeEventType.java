@@ -14,16 +14,12 @@
  * limitations under the License.
  */
 
-package com.digitalpetri.opcua.sdk.server.services;
+package com.digitalpetri.opcua.sdk.core.events;
 
-import com.digitalpetri.opcua.sdk.server.OpcUaServer;
-import com.digitalpetri.opcua.sdk.server.Session;
-import io.netty.util.AttributeKey;
-
-public interface ServiceAttributes {
-
-    public static final AttributeKey<OpcUaServer> ServerKey = AttributeKey.valueOf("server");
-
-    public static final AttributeKey<Session> SessionKey = AttributeKey.valueOf("session");
+/**
+ * BaseModelChangeEvents indicate a change of the AddressSpace structure; they carry no information about what
+ * changed.
+ */
+public interface BaseModelChangeEventType extends BaseEventType {
 
 }
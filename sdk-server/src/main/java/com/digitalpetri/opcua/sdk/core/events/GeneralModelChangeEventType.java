@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.core.events;
+
+import com.digitalpetri.opcua.stack.core.types.structured.ModelChangeStructureDataType;
+
+public interface GeneralModelChangeEventType extends BaseModelChangeEventType {
+
+    /**
+     * The nodes affected by the change, each with a verb mask saying whether it was added or deleted or had
+     * references added or deleted.
+     *
+     * @return the {@link ModelChangeStructureDataType}s describing the change.
+     */
+    ModelChangeStructureDataType[] getChanges();
+
+}
@@ -16,15 +16,20 @@
 
 package com.digitalpetri.opcua.sdk.server;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.function.Function;
 
 import com.digitalpetri.opcua.sdk.server.api.Namespace;
+import com.digitalpetri.opcua.sdk.server.namespaces.PartitionedNamespace;
+import com.digitalpetri.opcua.sdk.server.util.BrowsePathCache;
+import com.digitalpetri.opcua.sdk.server.util.NodeIdTable;
 import com.digitalpetri.opcua.sdk.server.util.NoOpNamespace;
-import com.google.common.collect.Maps;
+import com.digitalpetri.opcua.sdk.server.util.ReadCache;
+import com.google.common.collect.ImmutableList;
 import com.digitalpetri.opcua.sdk.core.NamespaceTable;
 import com.digitalpetri.opcua.sdk.core.Reference;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
@@ -40,11 +45,30 @@ import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.
 
 public class NamespaceManager {
 
+    /**
+     * The namespace URI in which aliases for registered nodes are assigned.
+     *
+     * @see #getRegisteredNodesNamespaceIndex()
+     */
+    public static final String REGISTERED_NODES_NAMESPACE_URI = "urn:digitalpetri:opcua:sdk:registered-nodes";
+
     private static final Namespace NO_OP_NAMESPACE = new NoOpNamespace();
 
     private final NamespaceTable namespaceTable = new NamespaceTable();
 
-    private final Map<UShort, Namespace> namespaces = Maps.newConcurrentMap();
+    /**
+     * Namespaces by index. Indices are small and dense, so routing is an array lookup; the array is replaced, never
+     * modified, when a namespace is added.
+     */
+    private volatile Namespace[] namespaces = new Namespace[0];
+
+    private final BrowsePathCache browsePathCache = new BrowsePathCache();
+
+    private final ReadCache readCache = new ReadCache();
+
+    private final NodeIdTable nodeIdTable = NodeIdTable.shared();
+
+    private final Object batchLock = new Object();
 
     public NamespaceManager() {
         namespaceTable.putUri(NamespaceTable.OpcUaNamespace, ushort(0));
@@ -64,21 +88,54 @@ public class NamespaceManager {
     /**
      * Add a {@link Namespace}.
      * <p>
-     * The URI must already be registered.
+     * The URI must already be registered. If the index has been partitioned, {@code namespace} becomes the fallback
+     * namespace of its {@link PartitionedNamespace} and the partitions are kept.
      *
      * @param namespace The {@link Namespace} to add.
      * @see #registerUri(String)
      * @see #registerAndAdd(String, Function)
      */
     public void addNamespace(Namespace namespace) {
-        namespaces.put(namespace.getNamespaceIndex(), namespace);
+        putNamespace(namespace.getNamespaceIndex(), namespace);
+    }
+
+    /**
+     * Partition the string NodeIds of a namespace index across several {@link Namespace}s by prefix.
+     * <p>
+     * The first partition added to an index replaces the namespace at that index with a {@link PartitionedNamespace};
+     * the namespace that was there, if any, keeps the NodeIds that match no prefix. The URI must already be
+     * registered.
+     *
+     * @param namespaceIndex the index of the namespace to partition.
+     * @param prefix         the prefix of the identifiers of the NodeIds {@code namespace} serves.
+     * @param namespace      the {@link Namespace} serving those NodeIds.
+     * @return the {@link PartitionedNamespace} at {@code namespaceIndex}.
+     */
+    public synchronized PartitionedNamespace addPartition(UShort namespaceIndex, String prefix, Namespace namespace) {
+        Namespace current = lookup(namespaceIndex);
+        PartitionedNamespace partitioned;
+
+        if (current instanceof PartitionedNamespace) {
+            partitioned = (PartitionedNamespace) current;
+        } else {
+            partitioned = new PartitionedNamespace(
+                    namespaceIndex,
+                    namespaceTable.getUri(namespaceIndex),
+                    current != null ? current : NO_OP_NAMESPACE);
+
+            putNamespace(namespaceIndex, partitioned);
+        }
+
+        partitioned.addPartition(prefix, namespace);
+
+        return partitioned;
     }
 
     /**
      * Register a namespace URI and add the corresponding {@link Namespace}.
      * <p>
      * This is a convenience method equivalent to calling {@link #registerUri(String)} followed by
-     * {@link #addNamespace(Namespace)}.
+     * {@link #addNamespace(Namespace)}, including when the index has already been partitioned.
      *
      * @param namespaceUri      The namespace URI to register.
      * @param namespaceFunction A function that returns a {@link Namespace} for the supplied namespace index.
@@ -87,7 +144,7 @@ public class NamespaceManager {
     public <T extends Namespace> T registerAndAdd(String namespaceUri, Function<UShort, T> namespaceFunction) {
         UShort namespaceIndex = namespaceTable.addUri(namespaceUri);
         T namespace = namespaceFunction.apply(namespaceIndex);
-        namespaces.put(namespaceIndex, namespace);
+        putNamespace(namespaceIndex, namespace);
 
         return namespace;
     }
@@ -97,15 +154,51 @@ public class NamespaceManager {
     }
 
     public Namespace getNamespace(UShort index) {
-        Namespace namespace = namespaces.get(index);
+        Namespace namespace = lookup(index);
 
         return namespace != null ? namespace : NO_OP_NAMESPACE;
     }
 
-    public boolean containsNodeId(NodeId nodeId) {
-        Namespace namespace = namespaces.get(nodeId.getNamespaceIndex());
+    /**
+     * Get the {@link Namespace} serving {@code nodeId}: the namespace at its index, or, if that index is partitioned,
+     * the partition serving it.
+     *
+     * @param nodeId the {@link NodeId}.
+     * @return the {@link Namespace} serving {@code nodeId}.
+     */
+    public Namespace getNamespace(NodeId nodeId) {
+        Namespace namespace = lookup(nodeId.getNamespaceIndex());
+
+        if (namespace instanceof PartitionedNamespace) {
+            return ((PartitionedNamespace) namespace).getPartition(nodeId);
+        }
+
+        return namespace != null ? namespace : NO_OP_NAMESPACE;
+    }
+
+    /**
+     * @return a snapshot of the namespaces that have been added. A partitioned index contributes its partitions and
+     * the namespace that was there before it was partitioned.
+     */
+    public Collection<Namespace> getNamespaces() {
+        ImmutableList.Builder<Namespace> builder = ImmutableList.builder();
+
+        for (Namespace namespace : namespaces) {
+            if (namespace instanceof PartitionedNamespace) {
+                PartitionedNamespace partitioned = (PartitionedNamespace) namespace;
+
+                if (partitioned.getFallback() != NO_OP_NAMESPACE) builder.add(partitioned.getFallback());
+                builder.addAll(partitioned.getPartitions());
+            } else if (namespace != null) {
+                builder.add(namespace);
+            }
+        }
 
-        return namespace != null && namespace.containsNodeId(nodeId);
+        return builder.build();
+    }
+
+    public boolean containsNodeId(NodeId nodeId) {
+        return getNamespace(nodeId).containsNodeId(nodeId);
     }
 
     public boolean containsNodeId(ExpandedNodeId expandedNodeId) {
@@ -113,11 +206,7 @@ public class NamespaceManager {
     }
 
     public <T> Optional<T> getAttribute(NodeId nodeId, int attributeId) {
-        Namespace namespace = namespaces.get(nodeId.getNamespaceIndex());
-
-        if (namespace == null) namespace = NO_OP_NAMESPACE;
-
-        return Optional.ofNullable(namespace.getAttribute(nodeId, attributeId));
+        return Optional.ofNullable(getNamespace(nodeId).getAttribute(nodeId, attributeId));
     }
 
     public <T> Optional<T> getAttribute(ExpandedNodeId nodeId, int attributeId) {
@@ -125,11 +214,7 @@ public class NamespaceManager {
     }
 
     public boolean attributeExists(NodeId nodeId, int attribute) {
-        Namespace namespace = namespaces.get(nodeId.getNamespaceIndex());
-
-        if (namespace == null) namespace = NO_OP_NAMESPACE;
-
-        return namespace.attributeExists(nodeId, attribute);
+        return getNamespace(nodeId).attributeExists(nodeId, attribute);
     }
 
     public boolean attributeExists(NodeId nodeId, UInteger attributeId) {
@@ -137,13 +222,7 @@ public class NamespaceManager {
     }
 
     public Optional<List<Reference>> getReferences(NodeId nodeId) {
-        Namespace namespace = namespaces.get(nodeId.getNamespaceIndex());
-
-        if (namespace == null) {
-            return Optional.empty();
-        } else {
-            return namespace.getReferences(nodeId);
-        }
+        return getNamespace(nodeId).getReferences(nodeId);
     }
 
     public Optional<List<Reference>> getReferences(ExpandedNodeId nodeId) {
@@ -154,6 +233,54 @@ public class NamespaceManager {
         return namespaceTable;
     }
 
+    /**
+     * @return the {@link NodeIdTable} used by the namespaces of this server to intern NodeIds.
+     */
+    public NodeIdTable getNodeIdTable() {
+        return nodeIdTable;
+    }
+
+    public BrowsePathCache getBrowsePathCache() {
+        return browsePathCache;
+    }
+
+    /**
+     * @return the {@link ReadCache} that serves Reads with a non-zero maxAge.
+     */
+    public ReadCache getReadCache() {
+        return readCache;
+    }
+
+    /**
+     * @return the lock {@link com.digitalpetri.opcua.sdk.server.model.AddressSpaceBatch}es applied to this server's
+     * namespaces hold, so that batches of one server are applied one at a time without serializing other servers.
+     */
+    public Object getBatchLock() {
+        return batchLock;
+    }
+
+    /**
+     * Notify the manager that the references or BrowseName of a node have changed, invalidating any cached
+     * browse path translations that depend on it.
+     *
+     * @param nodeId the {@link NodeId} of the changed node.
+     */
+    public void onNodeChanged(NodeId nodeId) {
+        browsePathCache.invalidate(nodeId);
+    }
+
+    /**
+     * Get the index of the namespace in which aliases for registered nodes are assigned, registering
+     * {@link #REGISTERED_NODES_NAMESPACE_URI} the first time it is needed.
+     *
+     * @return the index of the registered nodes namespace.
+     */
+    public synchronized UShort getRegisteredNodesNamespaceIndex() {
+        UShort index = namespaceTable.getIndex(REGISTERED_NODES_NAMESPACE_URI);
+
+        return index != null ? index : namespaceTable.addUri(REGISTERED_NODES_NAMESPACE_URI);
+    }
+
     public Optional<NodeId> toNodeId(ExpandedNodeId expandedNodeId) {
         if (!expandedNodeId.isLocal()) return Optional.empty();
 
@@ -172,6 +299,30 @@ public class NamespaceManager {
         }
     }
 
+    private Namespace lookup(UShort index) {
+        Namespace[] ns = namespaces;
+        int i = index.intValue();
+
+        return i < ns.length ? ns[i] : null;
+    }
+
+    private synchronized void putNamespace(UShort index, Namespace namespace) {
+        Namespace current = lookup(index);
+
+        if (current instanceof PartitionedNamespace && !(namespace instanceof PartitionedNamespace)) {
+            // Keep the partitions; the namespace serves the NodeIds that match none of them.
+            ((PartitionedNamespace) current).setFallback(namespace);
+            return;
+        }
+
+        int i = index.intValue();
+
+        Namespace[] ns = Arrays.copyOf(namespaces, Math.max(namespaces.length, i + 1));
+        ns[i] = namespace;
+
+        namespaces = ns;
+    }
+
     private NodeId createNodeId(UShort namespaceIndex, Object identifier, IdType type) {
         switch (type) {
             case Numeric:
@@ -23,14 +23,30 @@ import java.security.cert.X509Certificate;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.digitalpetri.opcua.sdk.server.api.Namespace;
+import com.digitalpetri.opcua.sdk.server.api.NamespaceExecutorStrategy;
 import com.digitalpetri.opcua.sdk.server.api.OpcUaServerConfig;
+import com.digitalpetri.opcua.sdk.server.diagnostics.ServerMetrics;
+import com.digitalpetri.opcua.sdk.server.history.HistoryRecorder;
+import com.digitalpetri.opcua.sdk.server.history.HistoryStore;
 import com.digitalpetri.opcua.sdk.server.namespaces.OpcUaNamespace;
 import com.digitalpetri.opcua.sdk.server.subscriptions.Subscription;
+import com.digitalpetri.opcua.sdk.server.util.FixedRateClock;
+import com.digitalpetri.opcua.sdk.server.util.NamespaceExecutor;
 import com.google.common.collect.Maps;
 import com.google.common.eventbus.AsyncEventBus;
 import com.google.common.eventbus.EventBus;
@@ -49,6 +65,7 @@ import com.digitalpetri.opcua.stack.core.channel.ServerSecureChannel;
 import com.digitalpetri.opcua.stack.core.security.SecurityPolicy;
 import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
 import com.digitalpetri.opcua.stack.core.types.enumerated.MessageSecurityMode;
 import com.digitalpetri.opcua.stack.core.types.structured.ApplicationDescription;
 import com.digitalpetri.opcua.stack.core.types.structured.EndpointDescription;
@@ -71,19 +88,31 @@ public class OpcUaServer {
 
     private final Map<UInteger, Subscription> subscriptions = Maps.newConcurrentMap();
 
+    private final ConcurrentMap<UShort, Executor> namespaceExecutors = Maps.newConcurrentMap();
+    private final List<ExecutorService> ownedNamespaceExecutors = new CopyOnWriteArrayList<>();
+
     private final NamespaceManager namespaceManager = new NamespaceManager();
     private final SessionManager sessionManager = new SessionManager(this);
     private final ServerTable serverTable = new ServerTable();
+    private final ServerMetrics metrics = new ServerMetrics(this);
+
+    private final FixedRateClock clock = new FixedRateClock(SHARED_SCHEDULED_EXECUTOR, metrics.getRegistry());
 
     private final UaStackServer server;
     private final EventBus eventBus;
 
+    private final HistoryStore historyStore;
+    private final HistoryRecorder historyRecorder;
+
     private final OpcUaNamespace uaNamespace;
     private final OpcUaServerConfig config;
 
     public OpcUaServer(OpcUaServerConfig config) {
         this.config = config;
 
+        historyStore = config.getHistoryStore(namespaceManager.getNamespaceTable());
+        historyRecorder = new HistoryRecorder(historyStore);
+
         server = buildServer();
 
         server.addServiceSet((AttributeServiceSet) sessionManager);
@@ -129,6 +158,20 @@ public class OpcUaServer {
 
     public void shutdown() {
         server.shutdown();
+        sessionManager.shutdown();
+
+        for (Namespace namespace : namespaceManager.getNamespaces()) {
+            try {
+                namespace.shutdown();
+            } catch (Throwable t) {
+                logger.warn("Error shutting down namespace {}.", namespace.getNamespaceUri(), t);
+            }
+        }
+
+        ownedNamespaceExecutors.forEach(ExecutorService::shutdown);
+
+        historyRecorder.shutdown();
+        historyStore.close();
     }
 
     private UaStackServer buildServer() {
@@ -197,6 +240,22 @@ public class OpcUaServer {
         return subscriptions;
     }
 
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public HistoryStore getHistoryStore() {
+        return historyStore;
+    }
+
+    /**
+     * @return the {@link HistoryRecorder} namespaces register their variables with so that historizing variables are
+     * recorded to the {@link #getHistoryStore() HistoryStore}.
+     */
+    public HistoryRecorder getHistoryRecorder() {
+        return historyRecorder;
+    }
+
     public Optional<KeyPair> getKeyPair(ByteString thumbprint) {
         return server.getCertificateManager().getKeyPair(thumbprint);
     }
@@ -209,10 +268,101 @@ public class OpcUaServer {
         return server.getExecutorService();
     }
 
+    /**
+     * Get the {@link Executor} that operations on the namespace at {@code namespaceIndex} should be dispatched to, as
+     * configured by {@link OpcUaServerConfig#getNamespaceExecutorStrategy(String)}.
+     * <p>
+     * The executor may throw {@link java.util.concurrent.RejectedExecutionException} when the namespace is saturated;
+     * callers should fail the affected operations with Bad_ResourceUnavailable.
+     *
+     * @param namespaceIndex the index of the namespace.
+     * @return the {@link Executor} for the namespace, or the shared executor if no namespace is registered at the index.
+     */
+    public Executor getNamespaceExecutor(UShort namespaceIndex) {
+        Executor executor = namespaceExecutors.get(namespaceIndex);
+        if (executor != null) return executor;
+
+        String namespaceUri = namespaceManager.getNamespaceTable().getUri(namespaceIndex);
+        if (namespaceUri == null) return getExecutorService();
+
+        return namespaceExecutors.computeIfAbsent(namespaceIndex, index -> createNamespaceExecutor(index, namespaceUri));
+    }
+
+    private Executor createNamespaceExecutor(UShort namespaceIndex, String namespaceUri) {
+        NamespaceExecutorStrategy strategy = config.getNamespaceExecutorStrategy(namespaceUri);
+
+        logger.debug("Namespace {} [{}] using {}.", namespaceIndex, namespaceUri, strategy);
+
+        Executor delegate;
+
+        switch (strategy.getType()) {
+            case Dedicated: {
+                ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                        .setNameFormat("ua-namespace-" + namespaceIndex + "-%d")
+                        .setDaemon(true).build();
+
+                ExecutorService executorService = new ThreadPoolExecutor(
+                        strategy.getThreads(), strategy.getThreads(),
+                        0L, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(), threadFactory);
+
+                ownedNamespaceExecutors.add(executorService);
+                delegate = executorService;
+                break;
+            }
+
+            case ThreadPerOperation: {
+                ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                        .setNameFormat("ua-namespace-" + namespaceIndex + "-op-%d")
+                        .setDaemon(true).build();
+
+                ExecutorService executorService = new ThreadPoolExecutor(
+                        0, Integer.MAX_VALUE,
+                        60L, TimeUnit.SECONDS,
+                        new SynchronousQueue<>(), threadFactory);
+
+                ownedNamespaceExecutors.add(executorService);
+                delegate = executorService;
+                break;
+            }
+
+            case Shared:
+            default:
+                delegate = getExecutorService();
+                break;
+        }
+
+        if (strategy.getType() == NamespaceExecutorStrategy.Type.Shared &&
+                strategy.getMaxConcurrency() == NamespaceExecutorStrategy.UNLIMITED &&
+                strategy.getMaxQueueDepth() == NamespaceExecutorStrategy.UNLIMITED) {
+
+            return delegate;
+        }
+
+        NamespaceExecutor executor = new NamespaceExecutor(
+                delegate, strategy.getMaxConcurrency(), strategy.getMaxQueueDepth());
+
+        MetricRegistry registry = metrics.getRegistry();
+        String prefix = String.format("namespaces.%s.executor", namespaceIndex);
+
+        registry.register(prefix + ".queue-depth", (Gauge<Integer>) executor::getQueueDepth);
+        registry.register(prefix + ".active", (Gauge<Integer>) executor::getActiveCount);
+        registry.register(prefix + ".rejected", (Gauge<Long>) executor::getRejectedCount);
+
+        return executor;
+    }
+
     public ScheduledExecutorService getScheduledExecutorService() {
         return SHARED_SCHEDULED_EXECUTOR;
     }
 
+    /**
+     * @return the {@link FixedRateClock} publishing and sampling are scheduled on.
+     */
+    public FixedRateClock getClock() {
+        return clock;
+    }
+
     public ChannelConfig getChannelConfig() {
         return server.getChannelConfig();
     }
@@ -19,15 +19,21 @@ package com.digitalpetri.opcua.sdk.server;
 import javax.annotation.Nullable;
 import java.time.Duration;
 import java.util.List;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 import com.digitalpetri.opcua.sdk.server.services.AttributeServices;
 import com.digitalpetri.opcua.sdk.server.services.MethodServices;
 import com.digitalpetri.opcua.sdk.server.services.MonitoredItemServices;
 import com.digitalpetri.opcua.sdk.server.services.NodeManagementServices;
+import com.digitalpetri.opcua.sdk.server.services.ServiceContext;
 import com.digitalpetri.opcua.sdk.server.services.ViewServices;
+import com.digitalpetri.opcua.sdk.server.services.helpers.BrowseHelper.BrowseContinuationPoint;
+import com.digitalpetri.opcua.sdk.server.services.helpers.HistoryReadHelper.HistoryContinuationPoint;
+import com.digitalpetri.opcua.sdk.server.services.helpers.QueryHelper.QueryContinuationPoint;
+import com.digitalpetri.opcua.sdk.server.api.OpcUaServerConfigLimits;
 import com.digitalpetri.opcua.sdk.server.subscriptions.SubscriptionManager;
+import com.digitalpetri.opcua.sdk.server.util.AdmissionControl;
+import com.digitalpetri.opcua.sdk.server.util.ContinuationPointStore;
+import com.digitalpetri.opcua.sdk.server.util.RegisteredNodes;
 import com.google.common.collect.Lists;
 import com.digitalpetri.opcua.sdk.server.services.QueryServices;
 import com.digitalpetri.opcua.sdk.server.services.SubscriptionServices;
@@ -58,6 +64,11 @@ public class Session implements SessionServiceSet {
     private final List<LifecycleListener> listeners = Lists.newCopyOnWriteArrayList();
 
     private final SubscriptionManager subscriptionManager;
+    private final RegisteredNodes registeredNodes;
+    private final AdmissionControl admissionControl;
+    private final ContinuationPointStore<BrowseContinuationPoint> browseContinuationPoints;
+    private final ContinuationPointStore<HistoryContinuationPoint> historyContinuationPoints;
+    private final ContinuationPointStore<QueryContinuationPoint> queryContinuationPoints;
 
     private volatile long secureChannelId;
 
@@ -65,9 +76,12 @@ public class Session implements SessionServiceSet {
     private volatile ByteString clientCertificateBytes;
 
     private volatile ByteString lastNonce = ByteString.NULL_VALUE;
+    private volatile long maxResponseMessageSize = 0L;
 
-    private volatile long lastActivity = System.nanoTime();
-    private volatile ScheduledFuture<?> checkTimeoutFuture;
+    private volatile long lastActivityTick;
+    private volatile int timeoutSlot;
+    private volatile boolean closed = false;
+    private volatile boolean activated = false;
 
     private final AttributeServices attributeServices;
     private final MethodServices methodServices;
@@ -92,17 +106,37 @@ public class Session implements SessionServiceSet {
         this.secureChannelId = secureChannelId;
 
         subscriptionManager = new SubscriptionManager(this, server);
+        registeredNodes = new RegisteredNodes(server.getNamespaceManager());
 
-        attributeServices = new AttributeServices();
-        methodServices = new MethodServices();
-        monitoredItemServices = new MonitoredItemServices(subscriptionManager);
-        nodeManagementServices = new NodeManagementServices();
-        queryServices = new QueryServices();
-        subscriptionServices = new SubscriptionServices(subscriptionManager);
-        viewServices = new ViewServices();
+        OpcUaServerConfigLimits limits = server.getConfig().getLimits();
+
+        admissionControl = new AdmissionControl(
+                limits.getMaxRequestsPerSession().intValue(),
+                limits.getMaxOperationsPerSession().longValue(),
+                limits.getMaxQueuedRequestsPerSession().intValue(),
+                server.getExecutorService());
+
+        browseContinuationPoints = new ContinuationPointStore<>(
+                limits.getMaxBrowseContinuationPoints().intValue(),
+                limits.getContinuationPointTimeout().longValue());
+
+        historyContinuationPoints = new ContinuationPointStore<>(
+                limits.getMaxHistoryContinuationPoints().intValue(),
+                limits.getContinuationPointTimeout().longValue());
+
+        queryContinuationPoints = new ContinuationPointStore<>(
+                limits.getMaxQueryContinuationPoints().intValue(),
+                limits.getContinuationPointTimeout().longValue());
 
-        checkTimeoutFuture = server.getScheduledExecutorService().schedule(
-                this::checkTimeout, sessionTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        ServiceContext context = new ServiceContext(server, this);
+
+        attributeServices = new AttributeServices(context);
+        methodServices = new MethodServices(context);
+        monitoredItemServices = new MonitoredItemServices(subscriptionManager);
+        nodeManagementServices = new NodeManagementServices(context);
+        queryServices = new QueryServices(context);
+        subscriptionServices = new SubscriptionServices(context, subscriptionManager);
+        viewServices = new ViewServices(context);
     }
 
     public long getSecureChannelId() {
@@ -135,8 +169,41 @@ public class Session implements SessionServiceSet {
         listeners.add(listener);
     }
 
-    void updateLastActivity() {
-        lastActivity = System.nanoTime();
+    /**
+     * @param tick the current {@link SessionTimeoutWheel} tick; only written when it has changed.
+     */
+    void updateLastActivity(long tick) {
+        if (lastActivityTick != tick) {
+            lastActivityTick = tick;
+        }
+    }
+
+    long getLastActivityTick() {
+        return lastActivityTick;
+    }
+
+    int getTimeoutSlot() {
+        return timeoutSlot;
+    }
+
+    void setTimeoutSlot(int timeoutSlot) {
+        this.timeoutSlot = timeoutSlot;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    boolean isActivated() {
+        return activated;
+    }
+
+    void setActivated(boolean activated) {
+        this.activated = activated;
+    }
+
+    public Duration getSessionTimeout() {
+        return sessionTimeout;
     }
 
     void setLastNonce(ByteString lastNonce) {
@@ -147,23 +214,31 @@ public class Session implements SessionServiceSet {
         return lastNonce;
     }
 
-    private void checkTimeout() {
-        long elapsed = Math.abs(System.nanoTime() - lastActivity);
+    void setMaxResponseMessageSize(long maxResponseMessageSize) {
+        this.maxResponseMessageSize = maxResponseMessageSize;
+    }
+
+    /**
+     * @return the largest response message the client accepts, as requested in CreateSession; 0 for no limit.
+     */
+    public long getMaxResponseMessageSize() {
+        return maxResponseMessageSize;
+    }
 
-        if (elapsed > sessionTimeout.toNanos()) {
-            logger.debug("Session id={} timed out.", sessionId);
+    /**
+     * Close this Session because its timeout elapsed; called by the {@link SessionTimeoutWheel}.
+     */
+    void expire() {
+        if (closed) return;
+        closed = true;
 
-            subscriptionManager.sessionClosed(true);
+        logger.debug("Session id={} timed out.", sessionId);
 
-            listeners.forEach(listener -> listener.onSessionClosed(this, true));
-        } else {
-            long remaining = sessionTimeout.toNanos() - elapsed;
-            logger.trace("Session id={} timeout scheduled for +{}s.",
-                    sessionId, Duration.ofNanos(remaining).getSeconds());
+        server.getMetrics().getSessionTimeouts().inc();
 
-            checkTimeoutFuture = server.getScheduledExecutorService()
-                    .schedule(this::checkTimeout, remaining, TimeUnit.NANOSECONDS);
-        }
+        subscriptionManager.sessionClosed(true);
+
+        listeners.forEach(listener -> listener.onSessionClosed(this, true));
     }
 
     public NodeId getSessionId() {
@@ -202,6 +277,26 @@ public class Session implements SessionServiceSet {
         return subscriptionManager;
     }
 
+    public RegisteredNodes getRegisteredNodes() {
+        return registeredNodes;
+    }
+
+    public AdmissionControl getAdmissionControl() {
+        return admissionControl;
+    }
+
+    public ContinuationPointStore<BrowseContinuationPoint> getBrowseContinuationPoints() {
+        return browseContinuationPoints;
+    }
+
+    public ContinuationPointStore<HistoryContinuationPoint> getHistoryContinuationPoints() {
+        return historyContinuationPoints;
+    }
+
+    public ContinuationPointStore<QueryContinuationPoint> getQueryContinuationPoints() {
+        return queryContinuationPoints;
+    }
+
     //region Session Services
     @Override
     public void onCreateSession(ServiceRequest<CreateSessionRequest, CreateSessionResponse> req) throws UaException {
@@ -215,9 +310,7 @@ public class Session implements SessionServiceSet {
 
     @Override
     public void onCloseSession(ServiceRequest<CloseSessionRequest, CloseSessionResponse> serviceRequest) throws UaException {
-        if (checkTimeoutFuture != null) {
-            checkTimeoutFuture.cancel(false);
-        }
+        closed = true;
 
         boolean deleteSubscriptions = serviceRequest.getRequest().getDeleteSubscriptions();
 
@@ -28,8 +28,10 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.digitalpetri.opcua.sdk.server.services.ServiceAttributes;
+import com.digitalpetri.opcua.sdk.server.util.AdmissionControl;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.math.DoubleMath;
@@ -151,10 +153,23 @@ public class SessionManager implements
     private final Map<NodeId, Session> activeSessions = Maps.newConcurrentMap();
     private final Map<NodeId, Session> inactiveSessions = Maps.newConcurrentMap();
 
+    private final ConcurrentMap<Class<?>, AtomicInteger> serviceRequestCounts = Maps.newConcurrentMap();
+
     private final OpcUaServer server;
+    private final SessionTimeoutWheel timeoutWheel;
+    private volatile SessionTable sessionTable;
 
     public SessionManager(OpcUaServer server) {
         this.server = server;
+
+        // The stack server, and its executor, don't exist yet when the SessionManager is constructed.
+        timeoutWheel = new SessionTimeoutWheel(
+                server.getScheduledExecutorService(),
+                command -> server.getExecutorService().execute(command));
+    }
+
+    void shutdown() {
+        timeoutWheel.shutdown();
     }
 
     public List<Session> getActiveSessions() {
@@ -165,39 +180,102 @@ public class SessionManager implements
         return Lists.newArrayList(inactiveSessions.values());
     }
 
+    /**
+     * @return the number of Sessions that have been created or activated and not yet closed.
+     */
+    public int getCurrentSessionCount() {
+        return createdSessions.size() + activeSessions.size();
+    }
+
     private Session session(ServiceRequest<?, ?> service) throws UaException {
         long secureChannelId = service.getSecureChannel().getChannelId();
         NodeId authToken = service.getRequest().getRequestHeader().getAuthenticationToken();
 
-        Session session = activeSessions.get(authToken);
+        Session session = sessionTable().get(authToken);
 
         if (session == null) {
-            session = createdSessions.remove(authToken);
-
-            if (session == null) {
-                throw new UaException(StatusCodes.Bad_SessionIdInvalid);
-            } else {
-                if (session.getSecureChannelId() != secureChannelId) {
-                    createdSessions.put(authToken, session);
-                    throw new UaException(StatusCodes.Bad_SecurityChecksFailed);
-                } else {
-                    throw new UaException(StatusCodes.Bad_SessionNotActivated);
-                }
-            }
+            server.getMetrics().getRejectedRequests().inc();
+            throw new UaException(StatusCodes.Bad_SessionIdInvalid);
         }
 
         if (session.getSecureChannelId() != secureChannelId) {
+            server.getMetrics().getSecurityRejectedRequests().inc();
             throw new UaException(StatusCodes.Bad_SecurityChecksFailed);
         }
 
-        session.updateLastActivity();
+        if (!session.isActivated()) {
+            createdSessions.remove(authToken);
+            sessionTable().remove(authToken);
+            server.getMetrics().getRejectedRequests().inc();
+            throw new UaException(StatusCodes.Bad_SessionNotActivated);
+        }
+
+        session.updateLastActivity(timeoutWheel.currentTick());
 
-        service.attr(ServiceAttributes.ServerKey).set(server);
-        service.attr(ServiceAttributes.SessionKey).set(session);
+        server.getMetrics().recordService(service);
 
         return session;
     }
 
+    /**
+     * The table is sized from the configured limits, which aren't available while the server is being constructed.
+     */
+    private SessionTable sessionTable() {
+        SessionTable table = sessionTable;
+
+        if (table == null) {
+            synchronized (this) {
+                table = sessionTable;
+
+                if (table == null) {
+                    int capacity = server.getConfig().getLimits().getMaxSessionCount().intValue();
+                    sessionTable = table = new SessionTable(capacity);
+                }
+            }
+        }
+
+        return table;
+    }
+
+    /**
+     * Handle {@code service} once both the per-service and the per-Session budgets allow it.
+     *
+     * @param session        the {@link Session} the request belongs to.
+     * @param service        the {@link ServiceRequest}.
+     * @param operationCount the number of operations in the request.
+     * @param handler        the {@link AdmissionControl.ServiceHandler} that handles the request.
+     * @throws UaException with Bad_ResourceUnavailable if the service is saturated, or Bad_TooManyOperations if the
+     *                     Session's queue is full.
+     */
+    private void admit(Session session,
+                       ServiceRequest<?, ?> service,
+                       int operationCount,
+                       AdmissionControl.ServiceHandler handler) throws UaException {
+
+        AtomicInteger serviceCount = serviceRequestCounts.computeIfAbsent(
+                service.getRequest().getClass(), c -> new AtomicInteger(0));
+
+        if (serviceCount.incrementAndGet() > server.getConfig().getLimits().getMaxRequestsPerService().longValue()) {
+            serviceCount.decrementAndGet();
+            server.getMetrics().getRejectedRequests().inc();
+            throw new UaException(StatusCodes.Bad_ResourceUnavailable);
+        }
+
+        try {
+            session.getAdmissionControl().admit(service, operationCount, handler);
+        } catch (UaException e) {
+            serviceCount.decrementAndGet();
+            server.getMetrics().getRejectedRequests().inc();
+            throw e;
+        }
+
+        service.getFuture().whenComplete((r, ex) -> serviceCount.decrementAndGet());
+    }
+
+    private static int length(Object[] array) {
+        return array != null ? array.length : 0;
+    }
+
     //region Session Services
     @Override
     public void onCreateSession(ServiceRequest<CreateSessionRequest, CreateSessionResponse> serviceRequest) throws UaException {
@@ -205,12 +283,12 @@ public class SessionManager implements
 
         long maxSessionCount = server.getConfig().getLimits().getMaxSessionCount().longValue();
         if (createdSessions.size() + activeSessions.size() >= maxSessionCount) {
+            server.getMetrics().getRejectedSessions().inc();
             serviceRequest.setServiceFault(StatusCodes.Bad_TooManySessions);
             return;
         }
 
         ByteString serverNonce = NonceUtil.generateNonce(32);
-        NodeId authenticationToken = new NodeId(0, NonceUtil.generateNonce(32));
         long maxRequestMessageSize = serviceRequest.getServer().getChannelConfig().getMaxMessageSize();
         double revisedSessionTimeout = Math.max(5000, Math.min(30000, request.getRequestedSessionTimeout()));
 
@@ -244,13 +322,31 @@ public class SessionManager implements
         NodeId sessionId = new NodeId(1, "Session:" + UUID.randomUUID());
         Duration sessionTimeout = Duration.ofMillis(DoubleMath.roundToLong(revisedSessionTimeout, RoundingMode.UP));
         Session session = new Session(server, sessionId, sessionTimeout, secureChannel.getChannelId());
+
+        if (request.getMaxResponseMessageSize() != null) {
+            session.setMaxResponseMessageSize(request.getMaxResponseMessageSize().longValue());
+        }
+
+        NodeId authenticationToken = sessionTable().add(session);
+
+        if (authenticationToken == null) {
+            server.getMetrics().getRejectedSessions().inc();
+            serviceRequest.setServiceFault(StatusCodes.Bad_TooManySessions);
+            return;
+        }
+
         createdSessions.put(authenticationToken, session);
+        server.getMetrics().getCumulatedSessions().inc();
 
         session.addLifecycleListener((s, remove) -> {
             createdSessions.remove(authenticationToken);
             activeSessions.remove(authenticationToken);
+            sessionTable().remove(authenticationToken);
+            timeoutWheel.remove(s);
         });
 
+        timeoutWheel.add(session);
+
         session.setLastNonce(serverNonce);
 
         CreateSessionResponse response = new CreateSessionResponse(
@@ -388,12 +484,14 @@ public class SessionManager implements
 
                         serviceRequest.setResponse(response);
                     } else {
+                        server.getMetrics().getSecurityRejectedSessions().inc();
                         throw new UaException(StatusCodes.Bad_SecurityChecksFailed);
                     }
                 }
             }
         } else {
             if (secureChannelId != session.getSecureChannelId()) {
+                server.getMetrics().getSecurityRejectedSessions().inc();
                 throw new UaException(StatusCodes.Bad_SecurityChecksFailed);
             }
 
@@ -407,6 +505,7 @@ public class SessionManager implements
 
             createdSessions.remove(authToken);
             activeSessions.put(authToken, session);
+            session.setActivated(true);
 
             session.setClientCertificateBytes(secureChannel.getRemoteCertificateBytes());
 
@@ -514,28 +613,32 @@ public class SessionManager implements
     public void onRead(ServiceRequest<ReadRequest, ReadResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getAttributeServices().onRead(service);
+        admit(session, service, length(service.getRequest().getNodesToRead()),
+                () -> session.getAttributeServices().onRead(service));
     }
 
     @Override
     public void onWrite(ServiceRequest<WriteRequest, WriteResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getAttributeServices().onWrite(service);
+        admit(session, service, length(service.getRequest().getNodesToWrite()),
+                () -> session.getAttributeServices().onWrite(service));
     }
 
     @Override
     public void onHistoryRead(ServiceRequest<HistoryReadRequest, HistoryReadResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getAttributeServices().onHistoryRead(service);
+        admit(session, service, length(service.getRequest().getNodesToRead()),
+                () -> session.getAttributeServices().onHistoryRead(service));
     }
 
     @Override
     public void onHistoryUpdate(ServiceRequest<HistoryUpdateRequest, HistoryUpdateResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getAttributeServices().onHistoryUpdate(service);
+        admit(session, service, length(service.getRequest().getHistoryUpdateDetails()),
+                () -> session.getAttributeServices().onHistoryUpdate(service));
     }
     //endregion
 
@@ -544,35 +647,40 @@ public class SessionManager implements
     public void onBrowse(ServiceRequest<BrowseRequest, BrowseResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getViewServices().onBrowse(service);
+        admit(session, service, length(service.getRequest().getNodesToBrowse()),
+                () -> session.getViewServices().onBrowse(service));
     }
 
     @Override
     public void onBrowseNext(ServiceRequest<BrowseNextRequest, BrowseNextResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getViewServices().onBrowseNext(service);
+        admit(session, service, length(service.getRequest().getContinuationPoints()),
+                () -> session.getViewServices().onBrowseNext(service));
     }
 
     @Override
     public void onTranslateBrowsePaths(ServiceRequest<TranslateBrowsePathsToNodeIdsRequest, TranslateBrowsePathsToNodeIdsResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getViewServices().onTranslateBrowsePaths(service);
+        admit(session, service, length(service.getRequest().getBrowsePaths()),
+                () -> session.getViewServices().onTranslateBrowsePaths(service));
     }
 
     @Override
     public void onRegisterNodes(ServiceRequest<RegisterNodesRequest, RegisterNodesResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getViewServices().onRegisterNodes(service);
+        admit(session, service, length(service.getRequest().getNodesToRegister()),
+                () -> session.getViewServices().onRegisterNodes(service));
     }
 
     @Override
     public void onUnregisterNodes(ServiceRequest<UnregisterNodesRequest, UnregisterNodesResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getViewServices().onUnregisterNodes(service);
+        admit(session, service, length(service.getRequest().getNodesToUnregister()),
+                () -> session.getViewServices().onUnregisterNodes(service));
     }
     //endregion
 
@@ -581,28 +689,32 @@ public class SessionManager implements
     public void onAddNodes(ServiceRequest<AddNodesRequest, AddNodesResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getNodeManagementServices().onAddNodes(service);
+        admit(session, service, length(service.getRequest().getNodesToAdd()),
+                () -> session.getNodeManagementServices().onAddNodes(service));
     }
 
     @Override
     public void onAddReferences(ServiceRequest<AddReferencesRequest, AddReferencesResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getNodeManagementServices().onAddReferences(service);
+        admit(session, service, length(service.getRequest().getReferencesToAdd()),
+                () -> session.getNodeManagementServices().onAddReferences(service));
     }
 
     @Override
     public void onDeleteNodes(ServiceRequest<DeleteNodesRequest, DeleteNodesResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getNodeManagementServices().onDeleteNodes(service);
+        admit(session, service, length(service.getRequest().getNodesToDelete()),
+                () -> session.getNodeManagementServices().onDeleteNodes(service));
     }
 
     @Override
     public void onDeleteReferences(ServiceRequest<DeleteReferencesRequest, DeleteReferencesResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getNodeManagementServices().onDeleteReferences(service);
+        admit(session, service, length(service.getRequest().getReferencesToDelete()),
+                () -> session.getNodeManagementServices().onDeleteReferences(service));
     }
     //endregion
 
@@ -611,21 +723,24 @@ public class SessionManager implements
     public void onCreateSubscription(ServiceRequest<CreateSubscriptionRequest, CreateSubscriptionResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getSubscriptionServices().onCreateSubscription(service);
+        admit(session, service, 1,
+                () -> session.getSubscriptionServices().onCreateSubscription(service));
     }
 
     @Override
     public void onModifySubscription(ServiceRequest<ModifySubscriptionRequest, ModifySubscriptionResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getSubscriptionServices().onModifySubscription(service);
+        admit(session, service, 1,
+                () -> session.getSubscriptionServices().onModifySubscription(service));
     }
 
     @Override
     public void onSetPublishingMode(ServiceRequest<SetPublishingModeRequest, SetPublishingModeResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getSubscriptionServices().onSetPublishingMode(service);
+        admit(session, service, length(service.getRequest().getSubscriptionIds()),
+                () -> session.getSubscriptionServices().onSetPublishingMode(service));
     }
 
     @Override
@@ -639,21 +754,24 @@ public class SessionManager implements
     public void onRepublish(ServiceRequest<RepublishRequest, RepublishResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getSubscriptionServices().onRepublish(service);
+        admit(session, service, 1,
+                () -> session.getSubscriptionServices().onRepublish(service));
     }
 
     @Override
     public void onTransferSubscriptions(ServiceRequest<TransferSubscriptionsRequest, TransferSubscriptionsResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getSubscriptionServices().onTransferSubscriptions(service);
+        admit(session, service, length(service.getRequest().getSubscriptionIds()),
+                () -> session.getSubscriptionServices().onTransferSubscriptions(service));
     }
 
     @Override
     public void onDeleteSubscriptions(ServiceRequest<DeleteSubscriptionsRequest, DeleteSubscriptionsResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getSubscriptionServices().onDeleteSubscriptions(service);
+        admit(session, service, length(service.getRequest().getSubscriptionIds()),
+                () -> session.getSubscriptionServices().onDeleteSubscriptions(service));
     }
     //endregion
 
@@ -662,35 +780,43 @@ public class SessionManager implements
     public void onCreateMonitoredItems(ServiceRequest<CreateMonitoredItemsRequest, CreateMonitoredItemsResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getMonitoredItemServices().onCreateMonitoredItems(service);
+        admit(session, service, length(service.getRequest().getItemsToCreate()),
+                () -> session.getMonitoredItemServices().onCreateMonitoredItems(service));
     }
 
     @Override
     public void onModifyMonitoredItems(ServiceRequest<ModifyMonitoredItemsRequest, ModifyMonitoredItemsResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getMonitoredItemServices().onModifyMonitoredItems(service);
+        admit(session, service, length(service.getRequest().getItemsToModify()),
+                () -> session.getMonitoredItemServices().onModifyMonitoredItems(service));
     }
 
     @Override
     public void onSetMonitoringMode(ServiceRequest<SetMonitoringModeRequest, SetMonitoringModeResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getMonitoredItemServices().onSetMonitoringMode(service);
+        admit(session, service, length(service.getRequest().getMonitoredItemIds()),
+                () -> session.getMonitoredItemServices().onSetMonitoringMode(service));
     }
 
     @Override
     public void onSetTriggering(ServiceRequest<SetTriggeringRequest, SetTriggeringResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getMonitoredItemServices().onSetTriggering(service);
+        SetTriggeringRequest request = service.getRequest();
+        int operationCount = length(request.getLinksToAdd()) + length(request.getLinksToRemove());
+
+        admit(session, service, operationCount,
+                () -> session.getMonitoredItemServices().onSetTriggering(service));
     }
 
     @Override
     public void onDeleteMonitoredItems(ServiceRequest<DeleteMonitoredItemsRequest, DeleteMonitoredItemsResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getMonitoredItemServices().onDeleteMonitoredItems(service);
+        admit(session, service, length(service.getRequest().getMonitoredItemIds()),
+                () -> session.getMonitoredItemServices().onDeleteMonitoredItems(service));
     }
     //endregion
 
@@ -699,7 +825,8 @@ public class SessionManager implements
     public void onCall(ServiceRequest<CallRequest, CallResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getMethodServices().onCall(service);
+        admit(session, service, length(service.getRequest().getMethodsToCall()),
+                () -> session.getMethodServices().onCall(service));
     }
     //endregion
 
@@ -708,14 +835,16 @@ public class SessionManager implements
     public void onQueryFirst(ServiceRequest<QueryFirstRequest, QueryFirstResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getQueryServices().onQueryFirst(service);
+        admit(session, service, length(service.getRequest().getNodeTypes()),
+                () -> session.getQueryServices().onQueryFirst(service));
     }
 
     @Override
     public void onQueryNext(ServiceRequest<QueryNextRequest, QueryNextResponse> service) throws UaException {
         Session session = session(service);
 
-        session.getQueryServices().onQueryNext(service);
+        admit(session, service, 1,
+                () -> session.getQueryServices().onQueryNext(service));
     }
     //endregion
 
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+
+/**
+ * Resolves authentication tokens to Sessions without hashing the token.
+ * <p>
+ * Every token this table issues is 32 opaque bytes, the first 4 of which are the index of the slot its Session
+ * occupies. Resolving a token is an array read followed by a comparison against the token the slot was issued with.
+ */
+class SessionTable {
+
+    private static final int TOKEN_LENGTH = 32;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private final AtomicReferenceArray<Entry> slots;
+
+    SessionTable(int capacity) {
+        slots = new AtomicReferenceArray<>(capacity);
+
+        for (int i = 0; i < capacity; i++) {
+            freeSlots.add(i);
+        }
+    }
+
+    /**
+     * Assign {@code session} a slot and issue its authentication token.
+     *
+     * @return the authentication token, or {@code null} if every slot is taken.
+     */
+    NodeId add(Session session) {
+        Integer slot;
+
+        synchronized (freeSlots) {
+            slot = freeSlots.poll();
+        }
+
+        if (slot == null) return null;
+
+        byte[] token = new byte[TOKEN_LENGTH];
+        random.nextBytes(token);
+
+        token[0] = (byte) (slot >>> 24);
+        token[1] = (byte) (slot >>> 16);
+        token[2] = (byte) (slot >>> 8);
+        token[3] = (byte) slot.intValue();
+
+        slots.set(slot, new Entry(session, token));
+
+        return new NodeId(0, ByteString.of(token));
+    }
+
+    /**
+     * @return the Session {@code authToken} was issued to, or {@code null} if it is unknown or no longer valid.
+     */
+    Session get(NodeId authToken) {
+        Object identifier = authToken != null ? authToken.getIdentifier() : null;
+
+        if (!(identifier instanceof ByteString)) return null;
+
+        byte[] token = ((ByteString) identifier).bytes();
+
+        if (token == null || token.length != TOKEN_LENGTH) return null;
+
+        int slot = slotIndex(token);
+
+        if (slot < 0 || slot >= slots.length()) return null;
+
+        Entry entry = slots.get(slot);
+
+        return entry != null && entry.matches(token) ? entry.session : null;
+    }
+
+    /**
+     * Release the slot of the Session {@code authToken} was issued to, invalidating the token.
+     */
+    void remove(NodeId authToken) {
+        Session session = get(authToken);
+
+        if (session == null) return;
+
+        int slot = slotIndex(((ByteString) authToken.getIdentifier()).bytes());
+
+        Entry entry = slots.get(slot);
+
+        if (entry != null && entry.session == session && slots.compareAndSet(slot, entry, null)) {
+            synchronized (freeSlots) {
+                freeSlots.add(slot);
+            }
+        }
+    }
+
+    private static int slotIndex(byte[] token) {
+        return ((token[0] & 0xFF) << 24) | ((token[1] & 0xFF) << 16) | ((token[2] & 0xFF) << 8) | (token[3] & 0xFF);
+    }
+
+    private static class Entry {
+
+        private final Session session;
+        private final byte[] token;
+
+        private Entry(Session session, byte[] token) {
+            this.session = session;
+            this.token = token;
+        }
+
+        /**
+         * Compare in constant time so response timing doesn't reveal how much of a guessed token was right.
+         */
+        private boolean matches(byte[] other) {
+            int diff = 0;
+
+            for (int i = 0; i < TOKEN_LENGTH; i++) {
+                diff |= token[i] ^ other[i];
+            }
+
+            return diff == 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Expires timed-out Sessions from a single task, instead of each Session scheduling its own timeout check.
+ * <p>
+ * Time advances in one-second ticks. A Session records activity by storing the current tick, which only costs a
+ * write when the tick has changed since its last request. Each Session sits in the slot of the tick its timeout would
+ * elapse at; when the wheel reaches that slot, Sessions that saw activity in the meantime are moved to the slot of
+ * their new deadline and the rest are expired together, in one batch on the server's executor.
+ */
+class SessionTimeoutWheel {
+
+    private static final int SLOT_COUNT = 64;
+    private static final long TICK_MILLIS = 1000L;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final List<Set<Session>> slots = Lists.newArrayListWithCapacity(SLOT_COUNT);
+
+    private volatile long currentTick = 0L;
+    private ScheduledFuture<?> tickFuture;
+
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+
+    SessionTimeoutWheel(ScheduledExecutorService scheduler, Executor executor) {
+        this.scheduler = scheduler;
+        this.executor = executor;
+
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            slots.add(ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * @return the current tick, for {@link Session#updateLastActivity(long)}.
+     */
+    long currentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Start tracking {@code session}, starting the wheel if it is not already running.
+     */
+    void add(Session session) {
+        synchronized (this) {
+            if (tickFuture == null) {
+                tickFuture = scheduler.scheduleAtFixedRate(
+                        this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        session.updateLastActivity(currentTick);
+
+        place(session, expiryTick(session));
+    }
+
+    /**
+     * Stop tracking {@code session}; called when it is closed explicitly.
+     */
+    void remove(Session session) {
+        slots.get(session.getTimeoutSlot()).remove(session);
+    }
+
+    synchronized void shutdown() {
+        if (tickFuture != null) {
+            tickFuture.cancel(false);
+            tickFuture = null;
+        }
+    }
+
+    private void place(Session session, long expiryTick) {
+        int slot = slotIndex(expiryTick);
+
+        session.setTimeoutSlot(slot);
+        slots.get(slot).add(session);
+    }
+
+    private void tick() {
+        try {
+            sweep(++currentTick);
+        } catch (Throwable t) {
+            logger.error("Error sweeping Session timeouts.", t);
+        }
+    }
+
+    private void sweep(long tick) {
+        Set<Session> slot = slots.get(slotIndex(tick));
+        List<Session> expired = Lists.newArrayList();
+
+        Iterator<Session> iterator = slot.iterator();
+
+        while (iterator.hasNext()) {
+            Session session = iterator.next();
+
+            if (session.isClosed()) {
+                iterator.remove();
+                continue;
+            }
+
+            long expiryTick = expiryTick(session);
+
+            if (expiryTick <= tick) {
+                iterator.remove();
+                expired.add(session);
+            } else if (slotIndex(expiryTick) != slotIndex(tick)) {
+                // Active since it was placed; move it to the slot it now expires at.
+                iterator.remove();
+                place(session, expiryTick);
+            }
+        }
+
+        if (!expired.isEmpty()) {
+            logger.debug("Expiring {} timed out Session(s).", expired.size());
+
+            executor.execute(() -> expired.forEach(Session::expire));
+        }
+    }
+
+    private static int slotIndex(long tick) {
+        return (int) (tick & (SLOT_COUNT - 1));
+    }
+
+    /**
+     * A Session expires on the first tick after its full timeout has elapsed since its last activity, so it is never
+     * expired early and at most one tick late.
+     */
+    private static long expiryTick(Session session) {
+        long timeoutTicks = (session.getSessionTimeout().toMillis() + TICK_MILLIS - 1) / TICK_MILLIS;
+
+        return session.getLastActivityTick() + timeoutTicks + 1;
+    }
+
+}
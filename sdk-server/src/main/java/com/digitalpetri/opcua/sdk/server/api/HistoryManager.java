@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.api;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadDetails;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadResult;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadValueId;
+
+public interface HistoryManager {
+
+    /**
+     * Read the history of one or more nodes belonging to this {@link HistoryManager}.
+     * <p>
+     * A continuation point in a {@link HistoryReadResult} is opaque to the server: it is kept in the Session's
+     * history continuation points and handed back in the {@link HistoryReadValueId} when the client continues, so it
+     * must carry everything needed to resume the read. Continuation points that are released or expire are simply
+     * dropped, so implementations should not hold resources on their behalf.
+     * <p>
+     * For ReadProcessed, the aggregate types in {@code details} correspond one-to-one with {@code nodesToRead}.
+     *
+     * @param details     the {@link HistoryReadDetails} describing the kind of read.
+     * @param timestamps  requested timestamp values.
+     * @param nodesToRead the nodes to read the history of.
+     * @param future      the future to complete with the {@link HistoryReadResult}s.
+     */
+    default void historyRead(HistoryReadDetails details,
+                             TimestampsToReturn timestamps,
+                             List<HistoryReadValueId> nodesToRead,
+                             CompletableFuture<List<HistoryReadResult>> future) {
+
+        HistoryReadResult result = new HistoryReadResult(
+                new StatusCode(StatusCodes.Bad_HistoryOperationUnsupported), null, null);
+
+        future.complete(Collections.nCopies(nodesToRead.size(), result));
+    }
+
+}
@@ -18,12 +18,19 @@ package com.digitalpetri.opcua.sdk.server.api;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
 import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UByte;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.google.common.collect.Lists;
 
-public interface Namespace extends ReadWriteManager, MethodManager, MonitoredItemManager, NodeManager {
+public interface Namespace extends ReadWriteManager, HistoryManager, MethodManager, MonitoredItemManager, NodeManager {
 
     /**
      * @return the index of this {@link Namespace} in the server's namespace array.
@@ -73,4 +80,57 @@ public interface Namespace extends ReadWriteManager, MethodManager, MonitoredIte
      */
     boolean attributeExists(NodeId nodeId, int attributeId);
 
+    /**
+     * Check, for each item about to be monitored, that its node and attribute exist in this namespace. Called once
+     * per namespace for all the items of a CreateMonitoredItems request, before the subscription is touched.
+     * <p>
+     * The default implementation checks each item with {@link #containsNodeId} and {@link #attributeExists}; an item
+     * monitoring the EventNotifier attribute is only valid if the node's SubscribeToEvents bit is set. Namespaces that
+     * can answer these questions with a single lookup per node should override it.
+     *
+     * @param readValueIds the items to monitor, with registered nodes already resolved.
+     * @return a {@link StatusCode} for each item, in order; Good if a monitored item can be created for it.
+     */
+    default List<StatusCode> validateMonitoredItems(List<ReadValueId> readValueIds) {
+        List<StatusCode> results = Lists.newArrayListWithCapacity(readValueIds.size());
+
+        for (ReadValueId readValueId : readValueIds) {
+            NodeId nodeId = readValueId.getNodeId();
+            int attributeId = readValueId.getAttributeId().intValue();
+
+            if (!containsNodeId(nodeId)) {
+                results.add(new StatusCode(StatusCodes.Bad_NodeIdUnknown));
+            } else if (!attributeExists(nodeId, attributeId)) {
+                results.add(new StatusCode(StatusCodes.Bad_AttributeIdInvalid));
+            } else if (attributeId == AttributeIds.EventNotifier) {
+                UByte eventNotifier = getAttribute(nodeId, AttributeIds.EventNotifier);
+
+                results.add(eventNotifier != null && (eventNotifier.intValue() & 1) == 1 ?
+                        StatusCode.GOOD : new StatusCode(StatusCodes.Bad_AttributeIdInvalid));
+            } else {
+                results.add(StatusCode.GOOD);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * The asynchronous form of {@link #validateMonitoredItems(List)}. The server validates items with this form, on
+     * this namespace's executor. The default implementation completes {@code future} with the result of the
+     * synchronous form; namespaces that have to ask another server should override it rather than wait.
+     *
+     * @param readValueIds the items to monitor, with registered nodes already resolved.
+     * @param future       to complete with a {@link StatusCode} for each item, in order.
+     */
+    default void validateMonitoredItems(List<ReadValueId> readValueIds, CompletableFuture<List<StatusCode>> future) {
+        future.complete(validateMonitoredItems(readValueIds));
+    }
+
+    /**
+     * Called once when the server shuts down. Namespaces that own threads, connections or subscriptions release them
+     * here. The default implementation does nothing.
+     */
+    default void shutdown() {}
+
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.api;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * How the operations (Read, Write, Call, Browse, and sampling reads) dispatched to a {@link Namespace} are executed.
+ * <p>
+ * A namespace backed by blocking I/O should get a {@link Type#Dedicated} or {@link Type#ThreadPerOperation} strategy
+ * so it cannot exhaust the server's shared executor and stall every other namespace.
+ *
+ * @see OpcUaServerConfig#getNamespaceExecutorStrategy(String)
+ */
+public final class NamespaceExecutorStrategy {
+
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    public enum Type {
+        /**
+         * Run on the server's shared executor.
+         */
+        Shared,
+
+        /**
+         * Run on a fixed-size pool owned by the namespace.
+         */
+        Dedicated,
+
+        /**
+         * Run each operation on its own thread, from a pool that grows on demand and retires idle threads.
+         */
+        ThreadPerOperation
+    }
+
+    private static final NamespaceExecutorStrategy SHARED =
+            new NamespaceExecutorStrategy(Type.Shared, 0, UNLIMITED, UNLIMITED);
+
+    private final Type type;
+    private final int threads;
+    private final int maxConcurrency;
+    private final int maxQueueDepth;
+
+    private NamespaceExecutorStrategy(Type type, int threads, int maxConcurrency, int maxQueueDepth) {
+        Preconditions.checkArgument(maxConcurrency > 0, "maxConcurrency must be > 0");
+        Preconditions.checkArgument(maxQueueDepth >= 0, "maxQueueDepth must be >= 0");
+
+        this.type = type;
+        this.threads = threads;
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueueDepth = maxQueueDepth;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the pool size of a {@link Type#Dedicated} strategy; 0 otherwise.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the maximum number of operations that may run at once; {@link #UNLIMITED} for no limit.
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return the maximum number of operations that may wait for a concurrency permit before further operations are
+     * rejected with Bad_ResourceUnavailable; {@link #UNLIMITED} for no limit.
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * @return a strategy that runs operations on the server's shared executor with no limits. This is the default.
+     */
+    public static NamespaceExecutorStrategy shared() {
+        return SHARED;
+    }
+
+    /**
+     * @param maxConcurrency the maximum number of the namespace's operations that may occupy shared threads at once.
+     * @param maxQueueDepth  the maximum number of operations waiting for a permit.
+     * @return a strategy that runs operations on the server's shared executor, limited to {@code maxConcurrency}.
+     */
+    public static NamespaceExecutorStrategy shared(int maxConcurrency, int maxQueueDepth) {
+        return new NamespaceExecutorStrategy(Type.Shared, 0, maxConcurrency, maxQueueDepth);
+    }
+
+    /**
+     * @param threads       the size of the namespace's pool.
+     * @param maxQueueDepth the maximum number of operations waiting for a thread.
+     * @return a strategy that runs operations on a fixed-size pool owned by the namespace.
+     */
+    public static NamespaceExecutorStrategy dedicated(int threads, int maxQueueDepth) {
+        Preconditions.checkArgument(threads > 0, "threads must be > 0");
+
+        return new NamespaceExecutorStrategy(Type.Dedicated, threads, threads, maxQueueDepth);
+    }
+
+    /**
+     * This is the closest equivalent of a virtual thread per operation available on Java 8: threads are created on
+     * demand and retired after a minute idle, so it suits operations that mostly block. Bound it with
+     * {@code maxConcurrency}, since each running operation holds a platform thread.
+     *
+     * @param maxConcurrency the maximum number of operations, and so threads, running at once.
+     * @param maxQueueDepth  the maximum number of operations waiting for a permit.
+     * @return a strategy that runs each operation on its own thread.
+     */
+    public static NamespaceExecutorStrategy threadPerOperation(int maxConcurrency, int maxQueueDepth) {
+        return new NamespaceExecutorStrategy(Type.ThreadPerOperation, 0, maxConcurrency, maxQueueDepth);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("NamespaceExecutorStrategy{type=%s, threads=%d, maxConcurrency=%d, maxQueueDepth=%d}",
+                type, threads, maxConcurrency, maxQueueDepth);
+    }
+
+}
@@ -16,7 +16,9 @@
 
 package com.digitalpetri.opcua.sdk.server.api;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.UaException;
@@ -24,7 +26,14 @@ import com.digitalpetri.opcua.stack.core.types.builtin.ExpandedNodeId;
 import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
 import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
 import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
 import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
+import com.digitalpetri.opcua.stack.core.types.structured.AddNodesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.AddNodesResult;
+import com.digitalpetri.opcua.stack.core.types.structured.AddReferencesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.DeleteNodesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.DeleteReferencesItem;
+import com.google.common.collect.Lists;
 
 public interface NodeManager {
 
@@ -61,4 +70,121 @@ public interface NodeManager {
         throw new UaException(StatusCodes.Bad_NotSupported);
     }
 
+    /**
+     * Add the nodes in {@code nodesToAdd}, completing {@code future} with a result for each.
+     * <p>
+     * The default implementation calls {@link #addNode} for each item; it doesn't link the new nodes to their
+     * parents.
+     *
+     * @param context    the {@link OperationContext} of the request.
+     * @param nodesToAdd the nodes to add.
+     * @param future     the future to complete with an {@link AddNodesResult} for each item, in order.
+     */
+    default void addNodes(OperationContext context,
+                          List<AddNodesItem> nodesToAdd,
+                          CompletableFuture<List<AddNodesResult>> future) {
+
+        List<AddNodesResult> results = Lists.newArrayListWithCapacity(nodesToAdd.size());
+
+        for (AddNodesItem item : nodesToAdd) {
+            try {
+                NodeId nodeId = addNode(
+                        Optional.ofNullable(item.getRequestedNewNodeId()),
+                        item.getBrowseName(),
+                        item.getNodeClass(),
+                        item.getNodeAttributes(),
+                        item.getTypeDefinition());
+
+                results.add(new AddNodesResult(StatusCode.GOOD, nodeId));
+            } catch (UaException e) {
+                results.add(new AddNodesResult(e.getStatusCode(), NodeId.NULL_VALUE));
+            }
+        }
+
+        future.complete(results);
+    }
+
+    /**
+     * Delete the nodes in {@code nodesToDelete}, completing {@code future} with a result for each.
+     * <p>
+     * The default implementation calls {@link #deleteNode} for each item.
+     */
+    default void deleteNodes(OperationContext context,
+                             List<DeleteNodesItem> nodesToDelete,
+                             CompletableFuture<List<StatusCode>> future) {
+
+        List<StatusCode> results = Lists.newArrayListWithCapacity(nodesToDelete.size());
+
+        for (DeleteNodesItem item : nodesToDelete) {
+            try {
+                deleteNode(item.getNodeId(), Boolean.TRUE.equals(item.getDeleteTargetReferences()));
+
+                results.add(StatusCode.GOOD);
+            } catch (UaException e) {
+                results.add(e.getStatusCode());
+            }
+        }
+
+        future.complete(results);
+    }
+
+    /**
+     * Add the references in {@code referencesToAdd}, completing {@code future} with a result for each.
+     * <p>
+     * The default implementation calls {@link #addReference} for each item.
+     */
+    default void addReferences(OperationContext context,
+                               List<AddReferencesItem> referencesToAdd,
+                               CompletableFuture<List<StatusCode>> future) {
+
+        List<StatusCode> results = Lists.newArrayListWithCapacity(referencesToAdd.size());
+
+        for (AddReferencesItem item : referencesToAdd) {
+            try {
+                addReference(
+                        item.getSourceNodeId(),
+                        item.getReferenceTypeId(),
+                        Boolean.TRUE.equals(item.getIsForward()),
+                        item.getTargetServerUri(),
+                        item.getTargetNodeId(),
+                        item.getTargetNodeClass());
+
+                results.add(StatusCode.GOOD);
+            } catch (UaException e) {
+                results.add(e.getStatusCode());
+            }
+        }
+
+        future.complete(results);
+    }
+
+    /**
+     * Delete the references in {@code referencesToDelete}, completing {@code future} with a result for each.
+     * <p>
+     * The default implementation calls {@link #deleteReference} for each item.
+     */
+    default void deleteReferences(OperationContext context,
+                                  List<DeleteReferencesItem> referencesToDelete,
+                                  CompletableFuture<List<StatusCode>> future) {
+
+        List<StatusCode> results = Lists.newArrayListWithCapacity(referencesToDelete.size());
+
+        for (DeleteReferencesItem item : referencesToDelete) {
+            try {
+                deleteReference(
+                        item.getSourceNodeId(),
+                        item.getReferenceTypeId(),
+                        Boolean.TRUE.equals(item.getIsForward()),
+                        item.getTargetNodeId(),
+                        Boolean.TRUE.equals(item.getDeleteBidirectional()));
+
+                results.add(StatusCode.GOOD);
+            } catch (UaException e) {
+                results.add(e.getStatusCode());
+            }
+        }
+
+        future.complete(results);
+    }
+
 }
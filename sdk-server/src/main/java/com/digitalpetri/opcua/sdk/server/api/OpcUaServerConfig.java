@@ -21,6 +21,11 @@ import java.net.UnknownHostException;
 import java.util.EnumSet;
 import java.util.List;
 
+import com.digitalpetri.opcua.sdk.core.NamespaceTable;
+import com.digitalpetri.opcua.sdk.server.Session;
+import com.digitalpetri.opcua.sdk.server.history.HistoryStore;
+import com.digitalpetri.opcua.sdk.server.history.MappedHistoryStore;
+import com.digitalpetri.opcua.sdk.server.history.NoOpHistoryStore;
 import com.digitalpetri.opcua.sdk.server.identity.AnonymousIdentityValidator;
 import com.digitalpetri.opcua.sdk.server.identity.IdentityValidator;
 import com.google.common.collect.Lists;
@@ -107,4 +112,43 @@ public interface OpcUaServerConfig {
         return new OpcUaServerConfigLimits() {};
     }
 
+    /**
+     * @param namespaceUri the URI of a registered namespace.
+     * @return the {@link NamespaceExecutorStrategy} operations on the namespace are executed with.
+     */
+    default NamespaceExecutorStrategy getNamespaceExecutorStrategy(String namespaceUri) {
+        return NamespaceExecutorStrategy.shared();
+    }
+
+    /**
+     * Called once, when the server is created. History is opt-in: the default is a {@link NoOpHistoryStore}, so
+     * nothing is recorded or written to disk. Servers with historizing variables can return e.g. a
+     * {@link MappedHistoryStore} in a directory of their own.
+     *
+     * @param namespaceTable the server's {@link NamespaceTable}.
+     * @return the {@link HistoryStore} historizing variables are recorded to.
+     */
+    default HistoryStore getHistoryStore(NamespaceTable namespaceTable) {
+        return new NoOpHistoryStore();
+    }
+
+    /**
+     * NodeManagement is opt-in: unless this returns {@code true}, the AddNodes, DeleteNodes, AddReferences and
+     * DeleteReferences operations of {@code session} fail with Bad_NotSupported.
+     *
+     * @param session the {@link Session} invoking a NodeManagement service.
+     * @return {@code true} if {@code session} may modify the address space.
+     */
+    default boolean isNodeManagementAllowed(Session session) {
+        return false;
+    }
+
+    /**
+     * @return the URI of the namespace that AddNodes creates nodes in when no RequestedNewNodeId is given and the
+     * parent is in namespace 0, or {@code null} if such nodes are rejected.
+     */
+    default String getNodeManagementNamespaceUri() {
+        return null;
+    }
+
 }
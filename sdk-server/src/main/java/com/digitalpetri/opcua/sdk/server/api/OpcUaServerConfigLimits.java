@@ -50,6 +50,14 @@ public interface OpcUaServerConfigLimits {
         return ushort(UShort.MAX_VALUE);
     }
 
+    /**
+     * @return the time, in milliseconds, an unused Browse, Query, or History continuation point is kept before it is
+     * released.
+     */
+    default Double getContinuationPointTimeout() {
+        return 60_000.0;
+    }
+
     default UInteger getMaxArrayLength() {
         return uint(0x1FFFF);
     }
@@ -106,4 +114,36 @@ public interface OpcUaServerConfigLimits {
         return uint(0x1FFFF);
     }
 
+    /**
+     * @return the maximum number of requests a Session may have in flight before further requests are queued.
+     * Publish requests are not counted; they are bounded by the Session's publish queue.
+     */
+    default UInteger getMaxRequestsPerSession() {
+        return uint(64);
+    }
+
+    /**
+     * @return the maximum number of operations (nodes to read, write, browse, methods to call, etc.) a Session may
+     * have in flight, summed over its requests, before further requests are queued.
+     */
+    default UInteger getMaxOperationsPerSession() {
+        return uint(0x3FFFF);
+    }
+
+    /**
+     * @return the maximum number of requests a Session may have queued before further requests are rejected with
+     * Bad_TooManyOperations.
+     */
+    default UInteger getMaxQueuedRequestsPerSession() {
+        return uint(256);
+    }
+
+    /**
+     * @return the maximum number of requests for any one service, across all Sessions, that may be in flight or
+     * queued before further requests for that service are rejected with Bad_ResourceUnavailable.
+     */
+    default UInteger getMaxRequestsPerService() {
+        return uint(4096);
+    }
+
 }
@@ -48,4 +48,16 @@ public interface ReadWriteManager {
      */
     void write(List<WriteValue> writeValues, CompletableFuture<List<StatusCode>> future);
 
+    /**
+     * Reads with a non-zero maxAge are served from the server's read cache when a recent enough value is cached, and
+     * otherwise reach {@link #read} with both timestamps requested.
+     * <p>
+     * Return {@code false} to receive every Read, e.g. when reads are cheaper than the cache or have side effects.
+     *
+     * @return {@code true} if Reads of this manager's nodes may be served from the read cache.
+     */
+    default boolean isReadCacheEnabled() {
+        return true;
+    }
+
 }
@@ -16,20 +16,311 @@
 
 package com.digitalpetri.opcua.sdk.server.api;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.sdk.server.model.AddressSpaceBatch;
 import com.digitalpetri.opcua.sdk.server.model.UaNode;
+import com.digitalpetri.opcua.sdk.server.model.UaNodeFactory;
+import com.digitalpetri.opcua.sdk.server.model.UaObjectNode;
+import com.digitalpetri.opcua.sdk.server.model.UaVariableNode;
+import com.digitalpetri.opcua.sdk.server.model.UaViewNode;
+import com.digitalpetri.opcua.sdk.server.model.ValueUpdater;
+import com.digitalpetri.opcua.sdk.server.util.NodeIdTable;
+import com.digitalpetri.opcua.sdk.server.util.NodeIndex;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
 import com.digitalpetri.opcua.stack.core.types.builtin.ExpandedNodeId;
 import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UByte;
+import com.digitalpetri.opcua.stack.core.types.structured.AddNodesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.AddNodesResult;
+import com.digitalpetri.opcua.stack.core.types.structured.AddReferencesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.DeleteNodesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.DeleteReferencesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.google.common.collect.Lists;
 
 public interface UaNamespace extends Namespace {
 
     void addNode(UaNode node);
 
+    /**
+     * Add fully wired nodes, e.g. those of an {@link AddressSpaceBatch}, in one step.
+     * <p>
+     * The default implementation adds them one at a time.
+     *
+     * @param nodes the {@link UaNode}s to add.
+     */
+    default void addNodes(Collection<UaNode> nodes) {
+        nodes.forEach(this::addNode);
+    }
+
     Optional<UaNode> getNode(NodeId nodeId);
 
     Optional<UaNode> getNode(ExpandedNodeId nodeId);
 
     Optional<UaNode> removeNode(NodeId nodeId);
 
+    /**
+     * Called by a {@link UaNode} belonging to this namespace when its references or BrowseName change.
+     * <p>
+     * Implementations that forward to {@link com.digitalpetri.opcua.sdk.server.NamespaceManager#onNodeChanged}, so
+     * that cached browse path translations are invalidated, should also override {@link #reportsNodeChanges()}.
+     * The default implementation does nothing.
+     *
+     * @param node the {@link UaNode} that changed.
+     */
+    default void onNodeChanged(UaNode node) {}
+
+    /**
+     * @return {@code true} if {@link #onNodeChanged} forwards changes to the
+     * {@link com.digitalpetri.opcua.sdk.server.NamespaceManager}. Browse path translations that traverse nodes of a
+     * namespace that doesn't are not cached.
+     */
+    default boolean reportsNodeChanges() {
+        return false;
+    }
+
+    /**
+     * @return the {@link NodeIdTable} used to intern the NodeIds of this namespace's nodes and references. The
+     * default implementation returns {@link NodeIdTable#shared()}, which the NamespaceManager also uses.
+     */
+    default NodeIdTable getNodeIdTable() {
+        return NodeIdTable.shared();
+    }
+
+    /**
+     * Update the Values of many variables in one cycle, e.g. everything a device driver read in one scan.
+     * <p>
+     * The default implementation calls {@link UaVariableNode#setValue} for each variable. Namespaces that update many
+     * values per cycle should apply them with a {@link ValueUpdater} instead.
+     *
+     * @param nodeIds the {@link NodeId}s of the variables to update.
+     * @param values  the new values; {@code values[i]} is the value of {@code nodeIds[i]}.
+     * @return the result of each update.
+     */
+    default StatusCode[] updateValues(NodeId[] nodeIds, DataValue[] values) {
+        StatusCode[] results = new StatusCode[nodeIds.length];
+
+        for (int i = 0; i < nodeIds.length; i++) {
+            UaNode node = getNode(nodeIds[i]).orElse(null);
+
+            if (node instanceof UaVariableNode) {
+                ((UaVariableNode) node).setValue(values[i]);
+                results[i] = StatusCode.GOOD;
+            } else {
+                results[i] = new StatusCode(node == null ?
+                        StatusCodes.Bad_NodeIdUnknown : StatusCodes.Bad_NodeClassInvalid);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Declare whether the Value of a variable only changes through
+     * {@link UaVariableNode#setValue}, i.e. its value isn't computed when read.
+     * Items monitoring such a variable are reported by exception instead of being sampled.
+     * <p>
+     * The default implementation declares no variables push-capable, so every item is sampled.
+     *
+     * @param nodeId the {@link NodeId} of a variable in this namespace.
+     * @return {@code true} if changes to the Value of {@code nodeId} can be pushed to monitored items.
+     */
+    default boolean isPushCapable(NodeId nodeId) {
+        return false;
+    }
+
+    /**
+     * Validate the items with one {@link #getNode} lookup per item.
+     */
+    @Override
+    default List<StatusCode> validateMonitoredItems(List<ReadValueId> readValueIds) {
+        List<StatusCode> results = Lists.newArrayListWithCapacity(readValueIds.size());
+
+        for (ReadValueId readValueId : readValueIds) {
+            UaNode node = getNode(readValueId.getNodeId()).orElse(null);
+            int attributeId = readValueId.getAttributeId().intValue();
+
+            if (node == null) {
+                results.add(new StatusCode(StatusCodes.Bad_NodeIdUnknown));
+            } else if (!node.hasAttribute(attributeId)) {
+                results.add(new StatusCode(StatusCodes.Bad_AttributeIdInvalid));
+            } else if (attributeId == AttributeIds.EventNotifier) {
+                UByte eventNotifier = null;
+
+                if (node instanceof UaObjectNode) {
+                    eventNotifier = ((UaObjectNode) node).getEventNotifier();
+                } else if (node instanceof UaViewNode) {
+                    eventNotifier = ((UaViewNode) node).getEventNotifier();
+                }
+
+                results.add(eventNotifier != null && (eventNotifier.intValue() & 1) == 1 ?
+                        StatusCode.GOOD : new StatusCode(StatusCodes.Bad_AttributeIdInvalid));
+            } else {
+                results.add(StatusCode.GOOD);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * @return the {@link NodeIndex} of this namespace's nodes, if it keeps one. Query only considers nodes of
+     * namespaces that do.
+     */
+    default Optional<NodeIndex> getNodeIndex() {
+        return Optional.empty();
+    }
+
+    /**
+     * The default NodeManagement implementations complete every operation with Bad_NotSupported unless this returns
+     * {@code true}.
+     * <p>
+     * The default implementation defers to {@link OpcUaServerConfig#isNodeManagementAllowed}.
+     *
+     * @param context the {@link OperationContext} of a NodeManagement service.
+     * @return {@code true} if the operations of {@code context} may modify this namespace.
+     */
+    default boolean isNodeManagementAllowed(OperationContext context) {
+        return context.getServer().getConfig().isNodeManagementAllowed(context.getSession());
+    }
+
+    /**
+     * Add the nodes in {@code nodesToAdd} with a single {@link AddressSpaceBatch}. Each node is created by
+     * {@link UaNodeFactory} and linked to its parent.
+     */
+    @Override
+    default void addNodes(OperationContext context,
+                          List<AddNodesItem> nodesToAdd,
+                          CompletableFuture<List<AddNodesResult>> future) {
+
+        if (!isNodeManagementAllowed(context)) {
+            AddNodesResult result = new AddNodesResult(new StatusCode(StatusCodes.Bad_NotSupported), NodeId.NULL_VALUE);
+            future.complete(Collections.nCopies(nodesToAdd.size(), result));
+            return;
+        }
+
+        AddressSpaceBatch batch = new AddressSpaceBatch(context.getServer());
+
+        AddNodesResult[] results = new AddNodesResult[nodesToAdd.size()];
+        NodeId[] nodeIds = new NodeId[nodesToAdd.size()];
+
+        for (int i = 0; i < nodesToAdd.size(); i++) {
+            AddNodesItem item = nodesToAdd.get(i);
+
+            try {
+                NodeId nodeId = UaNodeFactory.newNodeId(this, item.getRequestedNewNodeId());
+                NodeId parentNodeId = UaNodeFactory.local(item.getParentNodeId(), StatusCodes.Bad_ParentNodeIdInvalid);
+
+                NodeId typeDefinition = item.getTypeDefinition() == null ||
+                        ExpandedNodeId.NULL_VALUE.equals(item.getTypeDefinition()) ?
+                        UaNodeFactory.defaultTypeDefinition(item) :
+                        UaNodeFactory.local(item.getTypeDefinition(), StatusCodes.Bad_TypeDefinitionInvalid);
+
+                UaNode node = UaNodeFactory.create(this, nodeId, item, typeDefinition);
+
+                batch.addNode(node, parentNodeId, item.getReferenceTypeId());
+
+                nodeIds[i] = nodeId;
+            } catch (UaException e) {
+                results[i] = new AddNodesResult(e.getStatusCode(), NodeId.NULL_VALUE);
+            }
+        }
+
+        List<StatusCode> statusCodes = batch.applyEach();
+
+        for (int i = 0, j = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                StatusCode status = statusCodes.get(j++);
+
+                results[i] = new AddNodesResult(status, status.isGood() ? nodeIds[i] : NodeId.NULL_VALUE);
+            }
+        }
+
+        future.complete(Lists.newArrayList(results));
+    }
+
+    @Override
+    default void deleteNodes(OperationContext context,
+                             List<DeleteNodesItem> nodesToDelete,
+                             CompletableFuture<List<StatusCode>> future) {
+
+        if (!isNodeManagementAllowed(context)) {
+            future.complete(Collections.nCopies(nodesToDelete.size(), new StatusCode(StatusCodes.Bad_NotSupported)));
+            return;
+        }
+
+        AddressSpaceBatch batch = new AddressSpaceBatch(context.getServer());
+
+        for (DeleteNodesItem item : nodesToDelete) {
+            batch.deleteNode(item.getNodeId(), Boolean.TRUE.equals(item.getDeleteTargetReferences()));
+        }
+
+        future.complete(batch.applyEach());
+    }
+
+    /**
+     * Add the references in {@code referencesToAdd} with a single {@link AddressSpaceBatch}. The inverse reference is
+     * added to each target node in this server.
+     */
+    @Override
+    default void addReferences(OperationContext context,
+                               List<AddReferencesItem> referencesToAdd,
+                               CompletableFuture<List<StatusCode>> future) {
+
+        if (!isNodeManagementAllowed(context)) {
+            future.complete(Collections.nCopies(referencesToAdd.size(), new StatusCode(StatusCodes.Bad_NotSupported)));
+            return;
+        }
+
+        AddressSpaceBatch batch = new AddressSpaceBatch(context.getServer());
+
+        for (AddReferencesItem item : referencesToAdd) {
+            batch.addReference(new Reference(
+                    item.getSourceNodeId(),
+                    item.getReferenceTypeId(),
+                    item.getTargetNodeId(),
+                    item.getTargetNodeClass(),
+                    Boolean.TRUE.equals(item.getIsForward())
+            ), true);
+        }
+
+        future.complete(batch.applyEach());
+    }
+
+    @Override
+    default void deleteReferences(OperationContext context,
+                                  List<DeleteReferencesItem> referencesToDelete,
+                                  CompletableFuture<List<StatusCode>> future) {
+
+        if (!isNodeManagementAllowed(context)) {
+            StatusCode result = new StatusCode(StatusCodes.Bad_NotSupported);
+            future.complete(Collections.nCopies(referencesToDelete.size(), result));
+            return;
+        }
+
+        AddressSpaceBatch batch = new AddressSpaceBatch(context.getServer());
+
+        for (DeleteReferencesItem item : referencesToDelete) {
+            batch.deleteReference(new Reference(
+                    item.getSourceNodeId(),
+                    item.getReferenceTypeId(),
+                    item.getTargetNodeId(),
+                    null,
+                    Boolean.TRUE.equals(item.getIsForward())
+            ), Boolean.TRUE.equals(item.getDeleteBidirectional()));
+        }
+
+        future.complete(batch.applyEach());
+    }
+
 }
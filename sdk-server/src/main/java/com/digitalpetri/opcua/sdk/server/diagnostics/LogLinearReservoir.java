@@ -0,0 +1,231 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.diagnostics;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * A {@link Reservoir} that records every value into log-linear buckets, in the manner of an HDR histogram.
+ * <p>
+ * Values below 128 are recorded exactly; larger values are recorded with 6 bits of sub-bucket precision, a relative
+ * error below 1.6%. Unlike the sampling reservoirs, nothing is discarded, so high percentiles stay accurate no matter
+ * how many values are recorded. Memory use is fixed at about 30KB per reservoir and recording is wait-free.
+ */
+public class LogLinearReservoir implements Reservoir {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT << 1;
+
+    /* Linear buckets for [0, 128) followed by 64 sub-buckets for each power of two up to 2^63. */
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+    private final DoubleAdder sumOfSquares = new DoubleAdder();
+
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    @Override
+    public int size() {
+        long n = count.sum();
+
+        return n > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) n;
+    }
+
+    @Override
+    public void update(long value) {
+        if (value < 0) value = 0;
+
+        counts.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sum.add(value);
+        sumOfSquares.add((double) value * value);
+
+        long m;
+        while (value < (m = min.get()) && !min.compareAndSet(m, value)) ;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) ;
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        long[] snapshotCounts = new long[BUCKET_COUNT];
+        long total = 0L;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long c = counts.get(i);
+            snapshotCounts[i] = c;
+            total += c;
+        }
+
+        return new BucketSnapshot(
+                snapshotCounts, total,
+                sum.sum(), sumOfSquares.sum(),
+                total > 0 ? min.get() : 0L,
+                total > 0 ? max.get() : 0L);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) return (int) value;
+
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketLowerBound(int index) {
+        if (index < LINEAR_LIMIT) return index;
+
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKET_COUNT + 1;
+        long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+
+        return subBucket << shift;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_LIMIT) return index;
+
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKET_COUNT + 1;
+
+        return bucketLowerBound(index) + (1L << shift) - 1;
+    }
+
+    private static final class BucketSnapshot extends Snapshot {
+
+        private final long[] counts;
+        private final long total;
+        private final double sum;
+        private final double sumOfSquares;
+        private final long min;
+        private final long max;
+
+        private BucketSnapshot(long[] counts, long total, double sum, double sumOfSquares, long min, long max) {
+            this.counts = counts;
+            this.total = total;
+            this.sum = sum;
+            this.sumOfSquares = sumOfSquares;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public double getValue(double quantile) {
+            if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+                throw new IllegalArgumentException(quantile + " is not in [0..1]");
+            }
+
+            if (total == 0) return 0.0;
+
+            long rank = Math.max(1L, (long) Math.ceil(quantile * total));
+            long seen = 0L;
+
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+
+                if (seen >= rank) {
+                    long lower = bucketLowerBound(i);
+                    long upper = bucketUpperBound(i);
+                    long midpoint = lower + (upper - lower) / 2;
+
+                    return Math.max(min, Math.min(max, midpoint));
+                }
+            }
+
+            return max;
+        }
+
+        /**
+         * @return one representative value per recorded value, capped at {@link Integer#MAX_VALUE} values. Prefer
+         * {@link #getValue(double)}, which does not materialize the values.
+         */
+        @Override
+        public long[] getValues() {
+            int n = total > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) total;
+            long[] values = new long[n];
+            int position = 0;
+
+            for (int i = 0; i < counts.length && position < n; i++) {
+                long lower = bucketLowerBound(i);
+                long upper = bucketUpperBound(i);
+                long value = Math.max(min, Math.min(max, lower + (upper - lower) / 2));
+
+                for (long c = 0; c < counts[i] && position < n; c++) {
+                    values[position++] = value;
+                }
+            }
+
+            return values;
+        }
+
+        @Override
+        public int size() {
+            return total > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) total;
+        }
+
+        @Override
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public double getMean() {
+            return total > 0 ? sum / total : 0.0;
+        }
+
+        @Override
+        public long getMin() {
+            return min;
+        }
+
+        @Override
+        public double getStdDev() {
+            if (total <= 1) return 0.0;
+
+            double mean = sum / total;
+            double variance = (sumOfSquares - mean * sum) / (total - 1);
+
+            return variance > 0 ? Math.sqrt(variance) : 0.0;
+        }
+
+        @Override
+        public void dump(OutputStream output) {
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] > 0) {
+                        out.printf("%d-%d: %d%n", bucketLowerBound(i), bucketUpperBound(i), counts[i]);
+                    }
+                }
+            }
+        }
+
+    }
+
+}
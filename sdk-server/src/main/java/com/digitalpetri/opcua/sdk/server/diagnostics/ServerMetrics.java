@@ -0,0 +1,320 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.diagnostics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.Session;
+import com.digitalpetri.opcua.sdk.server.api.Namespace;
+import com.digitalpetri.opcua.sdk.server.subscriptions.Subscription;
+import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.structured.ServerDiagnosticsSummaryDataType;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * Server-wide metrics: per-service and per-namespace latency, session and subscription counters, and gauges of the
+ * publish and retransmission queues.
+ * <p>
+ * Latencies are recorded in {@link Timer}s backed by a {@link LogLinearReservoir}, so percentiles reflect every
+ * request rather than a sample. Everything is also registered in {@link #getRegistry()} for use with any Dropwizard
+ * reporter, and {@link #getServerDiagnosticsSummary()} backs the ServerDiagnosticsSummary nodes.
+ */
+public class ServerMetrics {
+
+    public enum NamespaceOperation {
+        Read,
+        Write,
+        Call,
+        HistoryRead,
+        NodeManagement
+    }
+
+    private final MetricRegistry registry = new MetricRegistry();
+
+    private final ConcurrentMap<Class<?>, Timer> serviceTimers = Maps.newConcurrentMap();
+    private final ConcurrentMap<Class<?>, Counter> serviceErrors = Maps.newConcurrentMap();
+    private final ConcurrentMap<UShort, Map<NamespaceOperation, Timer>> namespaceTimers = Maps.newConcurrentMap();
+
+    private final Counter cumulatedSessions;
+    private final Counter rejectedSessions;
+    private final Counter securityRejectedSessions;
+    private final Counter sessionTimeouts;
+    private final Counter rejectedRequests;
+    private final Counter securityRejectedRequests;
+    private final Counter cumulatedSubscriptions;
+    private final Counter lateSubscriptionTransitions;
+    private final Counter monitoredItemQueueOverflows;
+    private final Meter notifications;
+
+    private final OpcUaServer server;
+
+    public ServerMetrics(OpcUaServer server) {
+        this.server = server;
+
+        cumulatedSessions = registry.counter("sessions.cumulated");
+        rejectedSessions = registry.counter("sessions.rejected");
+        securityRejectedSessions = registry.counter("sessions.security-rejected");
+        sessionTimeouts = registry.counter("sessions.timeouts");
+        rejectedRequests = registry.counter("requests.rejected");
+        securityRejectedRequests = registry.counter("requests.security-rejected");
+        cumulatedSubscriptions = registry.counter("subscriptions.cumulated");
+        lateSubscriptionTransitions = registry.counter("subscriptions.late-transitions");
+        monitoredItemQueueOverflows = registry.counter("monitored-items.queue-overflows");
+        notifications = registry.meter("subscriptions.notifications");
+
+        registry.register("sessions.current", (Gauge<Integer>) this::getCurrentSessionCount);
+        registry.register("subscriptions.current", (Gauge<Integer>) this::getCurrentSubscriptionCount);
+        registry.register("subscriptions.late", (Gauge<Integer>) this::getLateSubscriptionCount);
+        registry.register("subscriptions.publishing-intervals", (Gauge<Integer>) this::getPublishingIntervalCount);
+        registry.register("subscriptions.publish-queue-depth", (Gauge<Integer>) this::getPublishQueueDepth);
+        registry.register("subscriptions.retransmission-queue-size",
+                (Gauge<Integer>) this::getRetransmissionQueueSize);
+    }
+
+    /**
+     * Record the latency and outcome of {@code service}, measured from now until its future completes.
+     *
+     * @param service the {@link ServiceRequest} being handled.
+     */
+    public void recordService(ServiceRequest<?, ?> service) {
+        Class<?> requestClass = service.getRequest().getClass();
+
+        Timer.Context context = getServiceTimer(requestClass).time();
+
+        service.getFuture().whenComplete((r, ex) -> {
+            context.stop();
+            if (ex != null) getServiceErrors(requestClass).inc();
+        });
+    }
+
+    /**
+     * Record the latency of a Read, Write, or Call dispatched to {@code namespace}, measured from now until
+     * {@code future} completes.
+     * <p>
+     * Timers are keyed by the index the namespace reports, so operations on unknown namespace indices all land in the
+     * no-op namespace's timer rather than creating one per index a client sends.
+     *
+     * @param namespace the {@link Namespace} the operation was dispatched to.
+     * @param operation the {@link NamespaceOperation}.
+     * @param future    the future the namespace will complete.
+     */
+    public void recordNamespaceOperation(Namespace namespace,
+                                         NamespaceOperation operation,
+                                         CompletableFuture<?> future) {
+
+        Timer timer = getNamespaceTimer(namespace.getNamespaceIndex(), operation);
+        long startTime = System.nanoTime();
+
+        future.whenComplete((r, ex) -> timer.update(System.nanoTime() - startTime, TimeUnit.NANOSECONDS));
+    }
+
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * @param requestClass the class of a service request, e.g. {@code ReadRequest.class}.
+     * @return the {@link Timer} for the service.
+     */
+    public Timer getServiceTimer(Class<?> requestClass) {
+        return serviceTimers.computeIfAbsent(requestClass, c ->
+                registry.register("services." + serviceName(c), newTimer()));
+    }
+
+    /**
+     * @param requestClass the class of a service request, e.g. {@code ReadRequest.class}.
+     * @return a {@link Counter} of requests for the service that completed exceptionally.
+     */
+    public Counter getServiceErrors(Class<?> requestClass) {
+        return serviceErrors.computeIfAbsent(requestClass, c ->
+                registry.counter("services." + serviceName(c) + ".errors"));
+    }
+
+    /**
+     * @return the service {@link Timer}s, keyed by request class.
+     */
+    public Map<Class<?>, Timer> getServiceTimers() {
+        return Collections.unmodifiableMap(serviceTimers);
+    }
+
+    public Timer getNamespaceTimer(UShort namespaceIndex, NamespaceOperation operation) {
+        Map<NamespaceOperation, Timer> timers = namespaceTimers.computeIfAbsent(namespaceIndex, index -> {
+            Map<NamespaceOperation, Timer> m = new EnumMap<>(NamespaceOperation.class);
+
+            for (NamespaceOperation op : NamespaceOperation.values()) {
+                m.put(op, registry.register(String.format("namespaces.%s.%s", index, op), newTimer()));
+            }
+
+            return Collections.unmodifiableMap(m);
+        });
+
+        return timers.get(operation);
+    }
+
+    public Counter getCumulatedSessions() {
+        return cumulatedSessions;
+    }
+
+    public Counter getRejectedSessions() {
+        return rejectedSessions;
+    }
+
+    public Counter getSecurityRejectedSessions() {
+        return securityRejectedSessions;
+    }
+
+    public Counter getSessionTimeouts() {
+        return sessionTimeouts;
+    }
+
+    public Counter getRejectedRequests() {
+        return rejectedRequests;
+    }
+
+    public Counter getSecurityRejectedRequests() {
+        return securityRejectedRequests;
+    }
+
+    public Counter getCumulatedSubscriptions() {
+        return cumulatedSubscriptions;
+    }
+
+    /**
+     * @return a {@link Counter} of transitions of any Subscription into the Late state.
+     */
+    public Counter getLateSubscriptionTransitions() {
+        return lateSubscriptionTransitions;
+    }
+
+    public Counter getMonitoredItemQueueOverflows() {
+        return monitoredItemQueueOverflows;
+    }
+
+    /**
+     * @return a {@link Meter} of notifications sent in Publish responses.
+     */
+    public Meter getNotifications() {
+        return notifications;
+    }
+
+    public int getCurrentSessionCount() {
+        return server.getSessionManager().getCurrentSessionCount();
+    }
+
+    public int getCurrentSubscriptionCount() {
+        return server.getSubscriptions().size();
+    }
+
+    /**
+     * @return the number of Subscriptions currently in the Late state.
+     */
+    public int getLateSubscriptionCount() {
+        int count = 0;
+
+        for (Subscription subscription : server.getSubscriptions().values()) {
+            if (subscription.getState() == Subscription.State.Late) count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the number of distinct publishing intervals in use by current Subscriptions.
+     */
+    public int getPublishingIntervalCount() {
+        Set<Double> intervals = Sets.newHashSet();
+
+        for (Subscription subscription : server.getSubscriptions().values()) {
+            intervals.add(subscription.getPublishingInterval());
+        }
+
+        return intervals.size();
+    }
+
+    /**
+     * @return the number of Publish requests queued across all active Sessions.
+     */
+    public int getPublishQueueDepth() {
+        int depth = 0;
+
+        for (Session session : server.getSessionManager().getActiveSessions()) {
+            depth += session.getSubscriptionManager().getPublishQueue().size();
+        }
+
+        return depth;
+    }
+
+    /**
+     * @return the number of NotificationMessages held for retransmission across all Subscriptions.
+     */
+    public int getRetransmissionQueueSize() {
+        int size = 0;
+
+        for (Subscription subscription : server.getSubscriptions().values()) {
+            size += subscription.getRetransmissionQueueSize();
+        }
+
+        return size;
+    }
+
+    /**
+     * The server has no Views and never aborts a Session, so ServerViewCount and SessionAbortCount are always 0.
+     */
+    public ServerDiagnosticsSummaryDataType getServerDiagnosticsSummary() {
+        return new ServerDiagnosticsSummaryDataType(
+                uint(0),
+                uint(getCurrentSessionCount()),
+                uint(cumulatedSessions.getCount()),
+                uint(securityRejectedSessions.getCount()),
+                uint(rejectedSessions.getCount()),
+                uint(sessionTimeouts.getCount()),
+                uint(0),
+                uint(getPublishingIntervalCount()),
+                uint(getCurrentSubscriptionCount()),
+                uint(cumulatedSubscriptions.getCount()),
+                uint(securityRejectedRequests.getCount()),
+                uint(rejectedRequests.getCount())
+        );
+    }
+
+    private static Timer newTimer() {
+        return new Timer(new LogLinearReservoir());
+    }
+
+    private static String serviceName(Class<?> requestClass) {
+        String name = requestClass.getSimpleName();
+
+        return name.endsWith("Request") ? name.substring(0, name.length() - "Request".length()) : name;
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.events;
+
+import java.util.Optional;
+
+import com.digitalpetri.opcua.sdk.core.events.GeneralModelChangeEventType;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.LocalizedText;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.structured.ModelChangeStructureDataType;
+import com.digitalpetri.opcua.stack.core.types.structured.TimeZoneDataType;
+
+/**
+ * A {@link GeneralModelChangeEvent} is an Event of {@link GeneralModelChangeEventType} that identifies the nodes
+ * affected by a change of the AddressSpace structure, so that Clients can update only what changed.
+ */
+public class GeneralModelChangeEvent extends BaseEvent implements GeneralModelChangeEventType {
+
+    /**
+     * The verbs of {@link ModelChangeStructureDataType}, combined into a mask per affected node.
+     */
+    public static final int NodeAdded = 0x01;
+    public static final int NodeDeleted = 0x02;
+    public static final int ReferenceAdded = 0x04;
+    public static final int ReferenceDeleted = 0x08;
+    public static final int DataTypeChanged = 0x10;
+
+    private final ModelChangeStructureDataType[] changes;
+
+    public GeneralModelChangeEvent(ByteString eventId,
+                                   NodeId eventType,
+                                   NodeId sourceNode,
+                                   String sourceName,
+                                   DateTime time,
+                                   DateTime receiveTime,
+                                   Optional<TimeZoneDataType> localTime,
+                                   LocalizedText message,
+                                   UShort severity,
+                                   ModelChangeStructureDataType[] changes) {
+
+        super(eventId, eventType, sourceNode, sourceName, time, receiveTime, localTime, message, severity);
+
+        this.changes = changes;
+    }
+
+    @Override
+    public ModelChangeStructureDataType[] getChanges() {
+        return changes;
+    }
+
+    public static class GeneralModelChangeEventBuilder extends BaseEventBuilder {
+
+        private ModelChangeStructureDataType[] changes;
+
+        public GeneralModelChangeEventBuilder setChanges(ModelChangeStructureDataType[] changes) {
+            this.changes = changes;
+            return this;
+        }
+
+        public GeneralModelChangeEvent build() {
+            return new GeneralModelChangeEvent(
+                    eventId,
+                    eventType,
+                    sourceNode,
+                    sourceName,
+                    time,
+                    receiveTime,
+                    localTime,
+                    message,
+                    severity,
+                    changes
+            );
+        }
+
+    }
+
+}
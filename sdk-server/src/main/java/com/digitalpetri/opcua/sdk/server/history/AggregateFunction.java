@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.history;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+
+/**
+ * The aggregates available to ReadProcessed, each computed over the raw values of one processing interval.
+ * <p>
+ * Only values with Good status and a numeric or Boolean value take part. An interval without any is reported as
+ * Bad_NoData, except by {@link #Count}, which reports 0. Results are timestamped with the start of the interval and
+ * carry the Calculated historian bit.
+ */
+public enum AggregateFunction {
+
+    Count(Identifiers.AggregateFunction_Count) {
+        @Override
+        Variant compute(List<DataValue> values) {
+            return new Variant(values.size());
+        }
+    },
+
+    Minimum(Identifiers.AggregateFunction_Minimum) {
+        @Override
+        Variant compute(List<DataValue> values) {
+            DataValue min = values.get(0);
+
+            for (DataValue value : values) {
+                if (doubleValue(value) < doubleValue(min)) min = value;
+            }
+
+            return min.getValue();
+        }
+    },
+
+    Maximum(Identifiers.AggregateFunction_Maximum) {
+        @Override
+        Variant compute(List<DataValue> values) {
+            DataValue max = values.get(0);
+
+            for (DataValue value : values) {
+                if (doubleValue(value) > doubleValue(max)) max = value;
+            }
+
+            return max.getValue();
+        }
+    },
+
+    Average(Identifiers.AggregateFunction_Average) {
+        @Override
+        Variant compute(List<DataValue> values) {
+            double sum = 0d;
+
+            for (DataValue value : values) {
+                sum += doubleValue(value);
+            }
+
+            return new Variant(sum / values.size());
+        }
+    },
+
+    Range(Identifiers.AggregateFunction_Range) {
+        @Override
+        Variant compute(List<DataValue> values) {
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+
+            for (DataValue value : values) {
+                double d = doubleValue(value);
+                min = Math.min(min, d);
+                max = Math.max(max, d);
+            }
+
+            return new Variant(max - min);
+        }
+    },
+
+    Start(Identifiers.AggregateFunction_Start) {
+        @Override
+        Variant compute(List<DataValue> values) {
+            return values.get(0).getValue();
+        }
+    },
+
+    End(Identifiers.AggregateFunction_End) {
+        @Override
+        Variant compute(List<DataValue> values) {
+            return values.get(values.size() - 1).getValue();
+        }
+    };
+
+    /**
+     * Good, with the InfoType bit set to DataValue and the Calculated historian bit.
+     */
+    static final long CALCULATED = StatusCodes.Good | 0x0401L;
+
+    private final NodeId aggregateType;
+
+    AggregateFunction(NodeId aggregateType) {
+        this.aggregateType = aggregateType;
+    }
+
+    /**
+     * @return the {@link NodeId} of the AggregateFunction object this aggregate implements.
+     */
+    public NodeId getAggregateType() {
+        return aggregateType;
+    }
+
+    /**
+     * Compute the aggregate of one processing interval.
+     *
+     * @param intervalStart the start of the interval.
+     * @param values        the raw values in the interval, in time order.
+     * @return the aggregate value.
+     */
+    public DataValue compute(DateTime intervalStart, List<DataValue> values) {
+        List<DataValue> good = values.stream()
+                .filter(AggregateFunction::isUsable)
+                .collect(Collectors.toList());
+
+        if (good.isEmpty() && this != Count) {
+            return new DataValue(Variant.NULL_VALUE, new StatusCode(StatusCodes.Bad_NoData), intervalStart, intervalStart);
+        }
+
+        return new DataValue(compute(good), new StatusCode(CALCULATED), intervalStart, intervalStart);
+    }
+
+    /**
+     * @param values the usable values of the interval; not empty, except for {@link #Count}.
+     */
+    abstract Variant compute(List<DataValue> values);
+
+    public static Optional<AggregateFunction> from(NodeId aggregateType) {
+        for (AggregateFunction function : values()) {
+            if (function.aggregateType.equals(aggregateType)) {
+                return Optional.of(function);
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    private static boolean isUsable(DataValue value) {
+        if (value.getStatusCode() != null && !value.getStatusCode().isGood()) return false;
+
+        Object o = value.getValue() != null ? value.getValue().getValue() : null;
+
+        return o instanceof Number || o instanceof Boolean;
+    }
+
+    static double doubleValue(DataValue value) {
+        Object o = value.getValue().getValue();
+
+        if (o instanceof Boolean) {
+            return ((Boolean) o) ? 1d : 0d;
+        } else {
+            return ((Number) o).doubleValue();
+        }
+    }
+
+}
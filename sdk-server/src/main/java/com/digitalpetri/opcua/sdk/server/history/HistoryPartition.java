@@ -0,0 +1,264 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One time partition of a variable's history: an append-only, memory-mapped file of {@link SampleBlock}s.
+ * <p>
+ * The file starts with a 16 byte header (magic, version, committed length). A block is written past the committed
+ * length first and the length is advanced afterwards, so a block torn by a crash is never read back.
+ * <p>
+ * The block index is kept in memory, but the file is only open and mapped while the partition is among the most
+ * recently used of its store's {@link OpenPartitions}; it is reopened on demand.
+ */
+final class HistoryPartition {
+
+    private static final int MAGIC = 0x55414853;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_LENGTH = 16;
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private final List<BlockRef> blocks = Lists.newArrayList();
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int end;
+
+    private final Path path;
+    private final OpenPartitions openPartitions;
+
+    private HistoryPartition(Path path, OpenPartitions openPartitions) {
+        this.path = path;
+        this.openPartitions = openPartitions;
+    }
+
+    /**
+     * Open the partition file at {@code path}, creating it if it doesn't exist, and index its blocks.
+     */
+    static HistoryPartition open(Path path, OpenPartitions openPartitions) throws IOException {
+        HistoryPartition partition = new HistoryPartition(path, openPartitions);
+
+        try {
+            partition.load();
+        } catch (IOException e) {
+            partition.release();
+            throw e;
+        }
+
+        openPartitions.accessed(partition);
+
+        return partition;
+    }
+
+    private synchronized void load() throws IOException {
+        channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long size = channel.size();
+
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, INITIAL_CAPACITY));
+
+        if (size < FILE_HEADER_LENGTH) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, FILE_HEADER_LENGTH);
+            end = FILE_HEADER_LENGTH;
+            return;
+        }
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("not a history partition: " + path);
+        }
+
+        long committed = buffer.getLong(8);
+
+        if (committed < FILE_HEADER_LENGTH || committed > size) {
+            throw new IOException("corrupt history partition: " + path);
+        }
+
+        int offset = FILE_HEADER_LENGTH;
+
+        while (offset + SampleBlock.HEADER_LENGTH <= committed) {
+            int length = buffer.getInt(offset);
+
+            if (length < SampleBlock.HEADER_LENGTH || offset + length > committed) break;
+
+            blocks.add(new BlockRef(offset, buffer.getLong(offset + 8), buffer.getLong(offset + 16)));
+
+            offset += length;
+        }
+
+        end = offset;
+    }
+
+    List<BlockRef> getBlocks() {
+        return blocks;
+    }
+
+    long lastTime() {
+        return blocks.isEmpty() ? Long.MIN_VALUE : blocks.get(blocks.size() - 1).lastTime;
+    }
+
+    void append(byte[] block, long firstTime, long lastTime) throws IOException {
+        openPartitions.accessed(this);
+
+        synchronized (this) {
+            map();
+            ensureCapacity((long) end + block.length);
+
+            ByteBuffer b = buffer.duplicate();
+            b.position(end);
+            b.put(block);
+
+            blocks.add(new BlockRef(end, firstTime, lastTime));
+
+            end += block.length;
+            buffer.putLong(8, end);
+        }
+    }
+
+    SampleBlock read(BlockRef ref) throws IOException {
+        openPartitions.accessed(this);
+
+        synchronized (this) {
+            map();
+
+            try {
+                return SampleBlock.decode(buffer, ref.offset);
+            } catch (RuntimeException e) {
+                throw new IOException("corrupt history block in " + path, e);
+            }
+        }
+    }
+
+    void close() throws IOException {
+        release();
+
+        openPartitions.forget(this);
+    }
+
+    /**
+     * Flush and unmap the file and close its channel; it is reopened by the next append or read.
+     */
+    private synchronized void release() throws IOException {
+        if (channel == null) return;
+
+        try {
+            if (buffer != null) buffer.force();
+        } finally {
+            channel.close();
+            channel = null;
+            buffer = null;
+        }
+    }
+
+    private void map() throws IOException {
+        if (buffer != null) return;
+
+        channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), INITIAL_CAPACITY));
+    }
+
+    private void ensureCapacity(long required) throws IOException {
+        if (required <= buffer.capacity()) return;
+
+        if (required > Integer.MAX_VALUE) {
+            throw new IOException("history partition full: " + path);
+        }
+
+        long capacity = Math.min(Math.max(required, (long) buffer.capacity() * 2), Integer.MAX_VALUE);
+
+        buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * Bounds how many partitions of a store are open and mapped at once, releasing the least recently used.
+     * <p>
+     * {@link #accessed} must not be called while holding a partition's lock, because it may release another
+     * partition.
+     */
+    static final class OpenPartitions {
+
+        static final int DEFAULT_MAX_OPEN = 256;
+
+        private final Logger logger = LoggerFactory.getLogger(getClass());
+
+        private final Cache<HistoryPartition, Boolean> open;
+
+        OpenPartitions(int maxOpen) {
+            open = CacheBuilder.newBuilder()
+                    .maximumSize(maxOpen)
+                    .removalListener((RemovalListener<HistoryPartition, Boolean>) notification -> {
+                        HistoryPartition partition = notification.getKey();
+
+                        if (partition != null && notification.getCause() != RemovalCause.REPLACED) {
+                            try {
+                                partition.release();
+                            } catch (IOException e) {
+                                logger.warn("Error releasing history partition {}.", partition.path, e);
+                            }
+                        }
+                    })
+                    .build();
+        }
+
+        void accessed(HistoryPartition partition) {
+            if (open.getIfPresent(partition) == null) {
+                open.put(partition, Boolean.TRUE);
+            }
+        }
+
+        void forget(HistoryPartition partition) {
+            open.invalidate(partition);
+        }
+
+    }
+
+    static final class BlockRef {
+
+        final int offset;
+        final long firstTime;
+        final long lastTime;
+
+        private BlockRef(int offset, long firstTime, long lastTime) {
+            this.offset = offset;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+        }
+
+    }
+
+}
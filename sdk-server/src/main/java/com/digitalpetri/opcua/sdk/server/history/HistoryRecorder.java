@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.history;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.server.model.AttributeObserver;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
+import com.digitalpetri.opcua.sdk.server.model.UaVariableNode;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records every new value of a registered variable to a {@link HistoryStore} while its Historizing attribute is
+ * {@code true}.
+ * <p>
+ * Values are queued and appended by a single writer thread, so a slow store never holds up the thread setting the
+ * value. When the queue is full new values are dropped and counted. Nothing is registered, and no thread started, if
+ * the store is a {@link NoOpHistoryStore}.
+ * <p>
+ * Nodes only hold weak references to their observers, so the recorder must be kept reachable by its owner.
+ */
+public class HistoryRecorder implements AttributeObserver {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 65536;
+
+    private static final int MAX_BATCH = 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final AtomicLong dropped = new AtomicLong(0L);
+
+    private final BlockingQueue<Sample> queue;
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+    private final HistoryStore store;
+
+    public HistoryRecorder(HistoryStore store) {
+        this(store, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public HistoryRecorder(HistoryStore store, int queueCapacity) {
+        this.store = store;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        if (isEnabled()) {
+            writer = new Thread(this::write, "history-recorder");
+            writer.setDaemon(true);
+            writer.start();
+        } else {
+            writer = null;
+        }
+    }
+
+    /**
+     * Observe {@code node} if it is a variable. Variables are observed whether or not they are historizing yet, so
+     * setting Historizing later starts recording.
+     */
+    public void register(UaNode node) {
+        if (isEnabled() && node instanceof UaVariableNode) {
+            node.addAttributeObserver(this);
+        }
+    }
+
+    public void unregister(UaNode node) {
+        if (isEnabled() && node instanceof UaVariableNode) {
+            node.removeAttributeObserver(this);
+        }
+    }
+
+    @Override
+    public void attributeChanged(UaNode node, int attributeId, Object value) {
+        if (attributeId == AttributeIds.Value && value instanceof DataValue &&
+                ((UaVariableNode) node).getHistorizing()) {
+
+            if (!queue.offer(new Sample(node.getNodeId(), (DataValue) value))) {
+                if (dropped.incrementAndGet() % 10000 == 1) {
+                    logger.warn("History queue full; {} values dropped so far.", dropped.get());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of values dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Stop the writer thread once the values already queued have been appended.
+     */
+    public void shutdown() {
+        running = false;
+
+        if (writer != null) {
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean isEnabled() {
+        return !(store instanceof NoOpHistoryStore);
+    }
+
+    private void write() {
+        List<Sample> batch = Lists.newArrayListWithCapacity(MAX_BATCH);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                Sample first = queue.poll(100, TimeUnit.MILLISECONDS);
+
+                if (first == null) continue;
+
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+
+                for (Sample sample : batch) {
+                    store.append(sample.nodeId, sample.value);
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (Throwable t) {
+                logger.error("Error recording history.", t);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private static final class Sample {
+        private final NodeId nodeId;
+        private final DataValue value;
+
+        private Sample(NodeId nodeId, DataValue value) {
+            this.nodeId = nodeId;
+            this.value = value;
+        }
+    }
+
+}
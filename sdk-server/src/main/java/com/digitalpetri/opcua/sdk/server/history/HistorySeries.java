@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.history;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.digitalpetri.opcua.sdk.server.history.HistoryPartition.BlockRef;
+import com.digitalpetri.opcua.sdk.server.history.HistoryPartition.OpenPartitions;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.google.common.collect.Lists;
+
+/**
+ * The history of one variable: a directory of {@link HistoryPartition}s, one per partition period, named by the
+ * start of the period, plus the block currently being filled.
+ * <p>
+ * Samples are collected in memory until a block is full, its value type changes or its partition period ends, and
+ * are then encoded and appended to the partition file. Reads see both sealed and open blocks.
+ */
+final class HistorySeries {
+
+    static final String FILE_EXTENSION = ".uah";
+
+    private static final int BLOCK_CAPACITY = 256;
+
+    private final TreeMap<Long, HistoryPartition> partitions = new TreeMap<>();
+
+    private final long[] openTimes = new long[BLOCK_CAPACITY];
+    private final long[] openBits = new long[BLOCK_CAPACITY];
+    private final long[] openStatuses = new long[BLOCK_CAPACITY];
+    private ValueType openType;
+    private long openPartition;
+    private int openCount;
+
+    private long lastTime = Long.MIN_VALUE;
+
+    private final Path directory;
+    private final long partitionTicks;
+    private final OpenPartitions openPartitions;
+
+    private HistorySeries(Path directory, long partitionTicks, OpenPartitions openPartitions) {
+        this.directory = directory;
+        this.partitionTicks = partitionTicks;
+        this.openPartitions = openPartitions;
+    }
+
+    static HistorySeries open(Path directory, long partitionTicks, OpenPartitions openPartitions) throws IOException {
+        HistorySeries series = new HistorySeries(directory, partitionTicks, openPartitions);
+
+        Files.createDirectories(directory);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_EXTENSION)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+
+                try {
+                    long start = Long.parseLong(name.substring(0, name.length() - FILE_EXTENSION.length()));
+
+                    series.partitions.put(start, HistoryPartition.open(file, openPartitions));
+                } catch (NumberFormatException e) {
+                    // not one of ours; ignore it.
+                }
+            }
+        }
+
+        if (!series.partitions.isEmpty()) {
+            series.lastTime = series.partitions.lastEntry().getValue().lastTime();
+        }
+
+        return series;
+    }
+
+    /**
+     * @return {@code false} if the sample was dropped because it is older than the last sample recorded.
+     */
+    synchronized boolean append(long time, ValueType type, long bits, long status) throws IOException {
+        if (time < lastTime) return false;
+
+        long partition = partitionStart(time);
+
+        if (openCount > 0 && (openCount == BLOCK_CAPACITY || openType != type || openPartition != partition)) {
+            seal();
+        }
+
+        if (openCount == 0) {
+            openType = type;
+            openPartition = partition;
+        }
+
+        openTimes[openCount] = time;
+        openBits[openCount] = bits;
+        openStatuses[openCount] = status;
+        openCount++;
+
+        lastTime = time;
+
+        return true;
+    }
+
+    /**
+     * @return the type of the most recent sample, or {@code null} if there is none in memory.
+     */
+    synchronized ValueType lastType() {
+        return openCount > 0 ? openType : null;
+    }
+
+    /**
+     * Read samples with timestamps between {@code from} and {@code to} inclusive, in reverse time order if
+     * {@code from} is after {@code to}.
+     *
+     * @param limit the maximum number of samples to read.
+     */
+    synchronized List<DataValue> read(long from, long to, int limit) throws IOException {
+        boolean forward = from <= to;
+        long lo = Math.max(Math.min(from, to), 0L);
+        long hi = Math.max(from, to);
+
+        List<DataValue> values = Lists.newArrayList();
+
+        if (hi < lo) return values;
+
+        NavigableMap<Long, HistoryPartition> candidates = partitions.subMap(partitionStart(lo), true, hi, true);
+
+        if (forward) {
+            for (HistoryPartition partition : candidates.values()) {
+                for (BlockRef ref : partition.getBlocks()) {
+                    if (ref.lastTime < lo || ref.firstTime > hi) continue;
+                    if (!scan(partition.read(ref), lo, hi, true, limit, values)) return values;
+                }
+            }
+
+            if (openCount > 0) scan(openBlock(), lo, hi, true, limit, values);
+        } else {
+            if (openCount > 0 && !scan(openBlock(), lo, hi, false, limit, values)) return values;
+
+            for (HistoryPartition partition : candidates.descendingMap().values()) {
+                List<BlockRef> blocks = partition.getBlocks();
+
+                for (int i = blocks.size() - 1; i >= 0; i--) {
+                    BlockRef ref = blocks.get(i);
+                    if (ref.lastTime < lo || ref.firstTime > hi) continue;
+                    if (!scan(partition.read(ref), lo, hi, false, limit, values)) return values;
+                }
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Seal the open block, if any, and release the partition files.
+     */
+    synchronized void close() throws IOException {
+        seal();
+
+        for (HistoryPartition partition : partitions.values()) {
+            partition.close();
+        }
+
+        partitions.clear();
+    }
+
+    private void seal() throws IOException {
+        if (openCount == 0) return;
+
+        HistoryPartition partition = partitions.get(openPartition);
+
+        if (partition == null) {
+            partition = HistoryPartition.open(directory.resolve(openPartition + FILE_EXTENSION), openPartitions);
+            partitions.put(openPartition, partition);
+        }
+
+        SampleBlock block = openBlock();
+
+        partition.append(block.encode(), block.firstTime(), block.lastTime());
+
+        openCount = 0;
+    }
+
+    private SampleBlock openBlock() {
+        return new SampleBlock(openType, openCount, openTimes, openBits, openStatuses);
+    }
+
+    private long partitionStart(long time) {
+        return time - Math.floorMod(time, partitionTicks);
+    }
+
+    /**
+     * @return {@code false} once {@code limit} values have been collected.
+     */
+    private static boolean scan(SampleBlock block, long lo, long hi, boolean forward, int limit,
+                                List<DataValue> values) {
+
+        if (forward) {
+            for (int i = block.firstIndexAtOrAfter(lo); i < block.count && block.times[i] <= hi; i++) {
+                if (values.size() >= limit) return false;
+                values.add(block.toDataValue(i));
+            }
+        } else {
+            int start = hi == Long.MAX_VALUE ? block.count : block.firstIndexAtOrAfter(hi + 1);
+
+            for (int i = start - 1; i >= 0 && block.times[i] >= lo; i--) {
+                if (values.size() >= limit) return false;
+                values.add(block.toDataValue(i));
+            }
+        }
+
+        return values.size() < limit;
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.history;
+
+import java.util.List;
+
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+
+/**
+ * Time-series storage for the values of historizing variables.
+ * <p>
+ * {@link HistoryStoreManager} implements the HistoryRead service on top of a {@link HistoryStore} and
+ * {@link HistoryRecorder} feeds it; {@link MappedHistoryStore} is the embedded default.
+ */
+public interface HistoryStore {
+
+    /**
+     * Record a value of the variable identified by {@code nodeId}.
+     * <p>
+     * Values are timestamped by their source timestamp, or their server timestamp if they have none, and are
+     * expected in time order.
+     *
+     * @param nodeId the {@link NodeId} of the variable.
+     * @param value  the value to record.
+     * @return {@code true} if recorded; {@code false} if the value was dropped, e.g. because its type can't be stored
+     * or it is older than the last value recorded.
+     */
+    boolean append(NodeId nodeId, DataValue value);
+
+    /**
+     * Read the recorded values of the variable identified by {@code nodeId} with timestamps between {@code start}
+     * and {@code end} inclusive, in time order, or in reverse time order if {@code start} is after {@code end}.
+     *
+     * @param nodeId    the {@link NodeId} of the variable.
+     * @param start     the timestamp to start reading at.
+     * @param end       the timestamp to stop reading at.
+     * @param maxValues the maximum number of values to return, or 0 for no limit.
+     * @return the values read.
+     */
+    List<DataValue> read(NodeId nodeId, DateTime start, DateTime end, int maxValues);
+
+    /**
+     * Flush anything buffered and release the store's resources.
+     */
+    void close();
+
+}
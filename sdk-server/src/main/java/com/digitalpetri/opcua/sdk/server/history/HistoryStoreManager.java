@@ -0,0 +1,430 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.history;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import com.digitalpetri.opcua.sdk.core.AccessLevel;
+import com.digitalpetri.opcua.sdk.server.api.HistoryManager;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
+import com.digitalpetri.opcua.sdk.server.model.UaVariableNode;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryData;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadDetails;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadResult;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadAtTimeDetails;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadProcessedDetails;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadRawModifiedDetails;
+import com.google.common.collect.Lists;
+
+/**
+ * A {@link HistoryManager} serving ReadRaw, ReadProcessed and ReadAtTime from a {@link HistoryStore}.
+ * <p>
+ * Reads return at most {@code maxValuesPerPage} values (or processing intervals, or requested times) per node and
+ * call; the continuation point of a partial result records where to resume, so nothing is held between calls.
+ */
+public class HistoryStoreManager implements HistoryManager {
+
+    public static final int DEFAULT_MAX_VALUES_PER_PAGE = 10_000;
+
+    /**
+     * The InfoType bit set to DataValue and the Interpolated historian bit.
+     */
+    private static final long INTERPOLATED = 0x0402L;
+
+    private static final byte RAW_CONTINUATION = 1;
+    private static final byte INDEX_CONTINUATION = 2;
+
+    private static final long TICKS_PER_MILLI = 10_000L;
+    private static final DateTime EARLIEST = new DateTime(0L);
+    private static final DateTime LATEST = new DateTime(Long.MAX_VALUE);
+
+    private final HistoryStore store;
+    private final Function<NodeId, Optional<UaNode>> nodes;
+    private final int maxValuesPerPage;
+
+    /**
+     * @param store the {@link HistoryStore} to read from.
+     * @param nodes looks up the nodes of the namespace this manager serves.
+     */
+    public HistoryStoreManager(HistoryStore store, Function<NodeId, Optional<UaNode>> nodes) {
+        this(store, nodes, DEFAULT_MAX_VALUES_PER_PAGE);
+    }
+
+    public HistoryStoreManager(HistoryStore store, Function<NodeId, Optional<UaNode>> nodes, int maxValuesPerPage) {
+        this.store = store;
+        this.nodes = nodes;
+        this.maxValuesPerPage = maxValuesPerPage;
+    }
+
+    @Override
+    public void historyRead(HistoryReadDetails details,
+                            TimestampsToReturn timestamps,
+                            List<HistoryReadValueId> nodesToRead,
+                            CompletableFuture<List<HistoryReadResult>> future) {
+
+        List<HistoryReadResult> results = Lists.newArrayListWithCapacity(nodesToRead.size());
+
+        for (int i = 0; i < nodesToRead.size(); i++) {
+            HistoryReadValueId id = nodesToRead.get(i);
+
+            HistoryReadResult result;
+
+            try {
+                checkHistoryReadable(id.getNodeId());
+
+                if (details instanceof ReadRawModifiedDetails) {
+                    result = readRaw(id, (ReadRawModifiedDetails) details, timestamps);
+                } else if (details instanceof ReadProcessedDetails) {
+                    ReadProcessedDetails processed = (ReadProcessedDetails) details;
+
+                    result = readProcessed(id, processed, processed.getAggregateType()[i], timestamps);
+                } else if (details instanceof ReadAtTimeDetails) {
+                    result = readAtTime(id, (ReadAtTimeDetails) details, timestamps);
+                } else {
+                    throw new UaException(StatusCodes.Bad_HistoryOperationUnsupported);
+                }
+            } catch (UaException e) {
+                result = new HistoryReadResult(e.getStatusCode(), null, null);
+            }
+
+            results.add(result);
+        }
+
+        future.complete(results);
+    }
+
+    private void checkHistoryReadable(NodeId nodeId) throws UaException {
+        UaNode node = nodes.apply(nodeId).orElseThrow(() -> new UaException(StatusCodes.Bad_NodeIdUnknown));
+
+        if (!(node instanceof UaVariableNode)) {
+            throw new UaException(StatusCodes.Bad_HistoryOperationUnsupported);
+        }
+
+        int accessLevel = ((UaVariableNode) node).getAccessLevel().intValue();
+
+        if ((accessLevel & AccessLevel.HistoryRead.getValue()) == 0) {
+            throw new UaException(StatusCodes.Bad_NotReadable);
+        }
+    }
+
+    private HistoryReadResult readRaw(HistoryReadValueId id,
+                                      ReadRawModifiedDetails details,
+                                      TimestampsToReturn timestamps) throws UaException {
+
+        if (Boolean.TRUE.equals(details.getIsReadModified())) {
+            // Values are never modified in an append-only store.
+            throw new UaException(StatusCodes.Bad_HistoryOperationUnsupported);
+        }
+
+        NodeId nodeId = id.getNodeId();
+        boolean hasStart = isSpecified(details.getStartTime());
+        boolean hasEnd = isSpecified(details.getEndTime());
+        long numValues = details.getNumValuesPerNode() != null ? details.getNumValuesPerNode().longValue() : 0L;
+
+        if ((!hasStart || !hasEnd) && (numValues == 0L || (!hasStart && !hasEnd))) {
+            throw new UaException(StatusCodes.Bad_InvalidTimestampArgument);
+        }
+
+        long start = hasStart ? details.getStartTime().getUtcTime() : details.getEndTime().getUtcTime();
+        boolean forward = hasStart && (!hasEnd || start <= details.getEndTime().getUtcTime());
+        long end = hasEnd && hasStart ? details.getEndTime().getUtcTime() : (forward ? Long.MAX_VALUE : 0L);
+        boolean returnBounds = Boolean.TRUE.equals(details.getReturnBounds()) && hasStart && hasEnd;
+
+        ByteBuffer continuation = continuation(id, RAW_CONTINUATION, 12);
+        long from = continuation != null ? continuation.getLong() : start;
+        int skip = continuation != null ? continuation.getInt() : 0;
+
+        int page = (int) Math.min(numValues > 0L ? numValues : Long.MAX_VALUE, maxValuesPerPage);
+
+        List<DataValue> read = store.read(nodeId, new DateTime(from), new DateTime(end), skip + page + 1);
+        List<DataValue> values = Lists.newArrayList(read.subList(Math.min(skip, read.size()), read.size()));
+
+        boolean more = values.size() > page;
+        if (more) values = Lists.newArrayList(values.subList(0, page));
+
+        if (returnBounds && continuation == null && (values.isEmpty() || time(values.get(0)) != start)) {
+            values.add(0, bound(nodeId, start, !forward));
+        }
+
+        if (returnBounds && !more && (values.isEmpty() || time(values.get(values.size() - 1)) != end)) {
+            values.add(bound(nodeId, end, forward));
+        }
+
+        ByteString next = null;
+
+        if (more) {
+            long lastTime = time(values.get(values.size() - 1));
+            int sameTime = 0;
+
+            for (int i = values.size() - 1; i >= 0 && time(values.get(i)) == lastTime; i--) {
+                sameTime++;
+            }
+
+            if (lastTime == from) sameTime += skip;
+
+            next = rawContinuation(lastTime, sameTime);
+        }
+
+        return result(values, timestamps, next);
+    }
+
+    /**
+     * @param after whether the bound is the first value at or after {@code time}, rather than the last value at or
+     *              before it.
+     */
+    private DataValue bound(NodeId nodeId, long time, boolean after) {
+        List<DataValue> values = after ?
+                store.read(nodeId, new DateTime(time), LATEST, 1) :
+                store.read(nodeId, new DateTime(time), EARLIEST, 1);
+
+        if (values.isEmpty()) {
+            DateTime t = new DateTime(time);
+
+            return new DataValue(Variant.NULL_VALUE, new StatusCode(StatusCodes.Bad_BoundNotFound), t, t);
+        }
+
+        return values.get(0);
+    }
+
+    private HistoryReadResult readProcessed(HistoryReadValueId id,
+                                            ReadProcessedDetails details,
+                                            NodeId aggregateType,
+                                            TimestampsToReturn timestamps) throws UaException {
+
+        AggregateFunction function = AggregateFunction.from(aggregateType)
+                .orElseThrow(() -> new UaException(StatusCodes.Bad_AggregateNotSupported));
+
+        if (!isSpecified(details.getStartTime()) || !isSpecified(details.getEndTime())) {
+            throw new UaException(StatusCodes.Bad_InvalidTimestampArgument);
+        }
+
+        long start = details.getStartTime().getUtcTime();
+        long end = details.getEndTime().getUtcTime();
+        boolean forward = start <= end;
+        long span = Math.abs(end - start);
+
+        double interval = details.getProcessingInterval() != null ? details.getProcessingInterval() : 0d;
+        long intervalTicks = interval > 0d ? Math.max((long) (interval * TICKS_PER_MILLI), 1L) : span;
+
+        if (span == 0L) return result(Lists.newArrayList(), timestamps, null);
+
+        long intervalCount = (span + intervalTicks - 1) / intervalTicks;
+
+        ByteBuffer continuation = continuation(id, INDEX_CONTINUATION, 4);
+        int first = continuation != null ? continuation.getInt() : 0;
+
+        if (first < 0 || first >= intervalCount) {
+            throw new UaException(StatusCodes.Bad_ContinuationPointInvalid);
+        }
+
+        int last = (int) Math.min(intervalCount, (long) first + maxValuesPerPage);
+
+        // Read the raw values for the whole page at once, in time order, and slice them per interval.
+        long pageLo = forward ? start + first * intervalTicks : Math.max(end, start - last * intervalTicks);
+        long pageHi = forward ? Math.min(end, start + last * intervalTicks) : start - first * intervalTicks;
+
+        List<DataValue> raw = store.read(id.getNodeId(), new DateTime(pageLo), new DateTime(pageHi - 1), 0);
+
+        List<DataValue> values = Lists.newArrayListWithCapacity(last - first);
+
+        for (int i = first; i < last; i++) {
+            long lo = forward ? start + i * intervalTicks : Math.max(end, start - (i + 1) * intervalTicks);
+            long hi = forward ? Math.min(end, start + (i + 1) * intervalTicks) : start - i * intervalTicks;
+
+            List<DataValue> slice = raw.subList(indexAtOrAfter(raw, lo), indexAtOrAfter(raw, hi));
+
+            values.add(function.compute(new DateTime(forward ? lo : hi), slice));
+        }
+
+        return result(values, timestamps, last < intervalCount ? indexContinuation(last) : null);
+    }
+
+    private HistoryReadResult readAtTime(HistoryReadValueId id,
+                                         ReadAtTimeDetails details,
+                                         TimestampsToReturn timestamps) throws UaException {
+
+        DateTime[] reqTimes = details.getReqTimes() != null ? details.getReqTimes() : new DateTime[0];
+
+        ByteBuffer continuation = continuation(id, INDEX_CONTINUATION, 4);
+        int first = continuation != null ? continuation.getInt() : 0;
+
+        if (first < 0 || (first > 0 && first >= reqTimes.length)) {
+            throw new UaException(StatusCodes.Bad_ContinuationPointInvalid);
+        }
+
+        int last = (int) Math.min(reqTimes.length, (long) first + maxValuesPerPage);
+
+        List<DataValue> values = Lists.newArrayListWithCapacity(last - first);
+
+        for (int i = first; i < last; i++) {
+            values.add(valueAtTime(id.getNodeId(), reqTimes[i]));
+        }
+
+        return result(values, timestamps, last < reqTimes.length ? indexContinuation(last) : null);
+    }
+
+    /**
+     * The raw value at {@code reqTime} if there is one, otherwise the value interpolated between the values either
+     * side of it, or the previous value as Uncertain if there is nothing after it yet.
+     */
+    private DataValue valueAtTime(NodeId nodeId, DateTime reqTime) {
+        long t = reqTime.getUtcTime();
+
+        List<DataValue> before = store.read(nodeId, reqTime, EARLIEST, 1);
+
+        if (before.isEmpty()) {
+            return new DataValue(Variant.NULL_VALUE, new StatusCode(StatusCodes.Bad_NoData), reqTime, reqTime);
+        }
+
+        DataValue previous = before.get(0);
+
+        if (time(previous) == t) return previous;
+
+        List<DataValue> after = store.read(nodeId, reqTime, LATEST, 1);
+
+        if (after.isEmpty()) {
+            return new DataValue(
+                    previous.getValue(),
+                    new StatusCode(StatusCodes.Uncertain_DataSubNormal | INTERPOLATED),
+                    reqTime, reqTime);
+        }
+
+        DataValue next = after.get(0);
+
+        if (!isNumeric(previous) || !isNumeric(next)) {
+            // Nothing to interpolate between; step from the previous value.
+            return new DataValue(previous.getValue(), new StatusCode(StatusCodes.Good | INTERPOLATED), reqTime, reqTime);
+        }
+
+        double p = AggregateFunction.doubleValue(previous);
+        double n = AggregateFunction.doubleValue(next);
+        double fraction = (double) (t - time(previous)) / (time(next) - time(previous));
+
+        return new DataValue(
+                new Variant(p + (n - p) * fraction),
+                new StatusCode(StatusCodes.Good | INTERPOLATED),
+                reqTime, reqTime);
+    }
+
+    private static HistoryReadResult result(List<DataValue> values,
+                                            TimestampsToReturn timestamps,
+                                            ByteString continuationPoint) {
+
+        DataValue[] dataValues = values.stream()
+                .map(v -> DataValue.derivedValue(v, timestamps))
+                .toArray(DataValue[]::new);
+
+        StatusCode status = new StatusCode(dataValues.length > 0 ? StatusCodes.Good : StatusCodes.Good_NoData);
+
+        return new HistoryReadResult(status, continuationPoint, new ExtensionObject(new HistoryData(dataValues)));
+    }
+
+    /**
+     * @return the continuation point in {@code id}, or {@code null} if there is none.
+     */
+    private static ByteString continuationBytes(HistoryReadValueId id) {
+        ByteString continuationPoint = id.getContinuationPoint();
+
+        return continuationPoint != null && continuationPoint.bytes() != null &&
+                continuationPoint.bytes().length > 0 ? continuationPoint : null;
+    }
+
+    /**
+     * @return the continuation point in {@code id}, positioned after its kind byte, or {@code null} if there is none.
+     * @throws UaException if the continuation point is not of {@code kind}.
+     */
+    private static ByteBuffer continuation(HistoryReadValueId id, byte kind, int length) throws UaException {
+        ByteString continuationPoint = continuationBytes(id);
+
+        if (continuationPoint == null) return null;
+
+        byte[] bytes = continuationPoint.bytes();
+
+        if (bytes.length != length + 1 || bytes[0] != kind) {
+            throw new UaException(StatusCodes.Bad_ContinuationPointInvalid);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.get();
+
+        return buffer;
+    }
+
+    private static ByteString rawContinuation(long resumeTime, int skip) {
+        ByteBuffer buffer = ByteBuffer.allocate(13);
+        buffer.put(RAW_CONTINUATION);
+        buffer.putLong(resumeTime);
+        buffer.putInt(skip);
+
+        return ByteString.of(buffer.array());
+    }
+
+    private static ByteString indexContinuation(int index) {
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        buffer.put(INDEX_CONTINUATION);
+        buffer.putInt(index);
+
+        return ByteString.of(buffer.array());
+    }
+
+    private static int indexAtOrAfter(List<DataValue> values, long time) {
+        int lo = 0;
+        int hi = values.size();
+
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+
+            if (time(values.get(mid)) < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    private static boolean isSpecified(DateTime time) {
+        return time != null && time.getUtcTime() != 0L;
+    }
+
+    private static boolean isNumeric(DataValue value) {
+        Object o = value.getValue() != null ? value.getValue().getValue() : null;
+
+        return (value.getStatusCode() == null || value.getStatusCode().isGood()) && o instanceof Number;
+    }
+
+    private static long time(DataValue value) {
+        return value.getSourceTime().getUtcTime();
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.digitalpetri.opcua.sdk.core.NamespaceTable;
+import com.digitalpetri.opcua.sdk.server.history.HistoryPartition.OpenPartitions;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The embedded {@link HistoryStore}: each variable gets a directory of append-only, memory-mapped partition files,
+ * one per partition period, holding its samples in compressed columnar blocks.
+ * <p>
+ * Boolean, integral and floating point scalars can be recorded; values of other types are dropped. Timestamps are
+ * stored at full DateTime resolution, and only one timestamp per sample is kept, so values read back carry it as both
+ * source and server timestamp.
+ * <p>
+ * Up to a block's worth of the most recent samples of each variable are held in memory until the block is sealed, or
+ * until the store is {@link #close() closed}.
+ * <p>
+ * A variable's directory is named by its namespace URI and identifier, not its namespace index, so history survives
+ * the index changing between runs. The store holds an exclusive lock on its directory; each server needs its own.
+ */
+public class MappedHistoryStore implements HistoryStore {
+
+    public static final long DEFAULT_PARTITION_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * DateTime ticks (100ns) per millisecond.
+     */
+    private static final long TICKS_PER_MILLI = 10_000L;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ConcurrentMap<NodeId, HistorySeries> series = Maps.newConcurrentMap();
+
+    private final Path directory;
+    private final NamespaceTable namespaceTable;
+    private final long partitionTicks;
+    private final OpenPartitions openPartitions;
+
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    public MappedHistoryStore(File directory, NamespaceTable namespaceTable) {
+        this(directory, namespaceTable, DEFAULT_PARTITION_MILLIS, OpenPartitions.DEFAULT_MAX_OPEN);
+    }
+
+    /**
+     * @param directory         the directory to keep the history files in.
+     * @param namespaceTable    the server's {@link NamespaceTable}, used to key history by namespace URI.
+     * @param partitionMillis   the period each partition file covers.
+     * @param maxOpenPartitions the maximum number of partition files kept open and mapped at once.
+     * @throws UncheckedIOException if the directory can't be created or another store has it locked.
+     */
+    public MappedHistoryStore(File directory,
+                              NamespaceTable namespaceTable,
+                              long partitionMillis,
+                              int maxOpenPartitions) {
+
+        this.directory = directory.toPath();
+        this.namespaceTable = namespaceTable;
+        this.partitionTicks = partitionMillis * TICKS_PER_MILLI;
+        this.openPartitions = new OpenPartitions(maxOpenPartitions);
+
+        try {
+            Files.createDirectories(this.directory);
+
+            lockChannel = FileChannel.open(this.directory.resolve(".lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+            FileLock l;
+            try {
+                l = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                l = null;
+            }
+
+            if (l == null) {
+                lockChannel.close();
+                throw new IOException("history directory in use by another store: " + directory);
+            }
+
+            lock = l;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean append(NodeId nodeId, DataValue value) {
+        long status = value.getStatusCode() != null ? value.getStatusCode().getValue() : StatusCodes.Good;
+        Object o = value.getValue() != null ? value.getValue().getValue() : null;
+
+        try {
+            HistorySeries s = series(nodeId, true);
+
+            ValueType type = ValueType.of(o);
+
+            if (type == null) {
+                if (o != null || !new StatusCode(status).isBad()) return false;
+
+                // A bad value without a value; keep the series' current type so the block isn't split.
+                type = s.lastType() != null ? s.lastType() : ValueType.Double;
+            }
+
+            long bits = o != null ? type.toBits(o) : 0L;
+
+            return s.append(timestamp(value), type, bits, status);
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Error recording history for {}.", nodeId, e);
+            return false;
+        }
+    }
+
+    @Override
+    public List<DataValue> read(NodeId nodeId, DateTime start, DateTime end, int maxValues) {
+        try {
+            HistorySeries s = series(nodeId, false);
+
+            if (s == null) return Collections.emptyList();
+
+            int limit = maxValues > 0 ? maxValues : Integer.MAX_VALUE;
+
+            return s.read(start.getUtcTime(), end.getUtcTime(), limit);
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Error reading history for {}.", nodeId, e);
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (HistorySeries s : series.values()) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                logger.warn("Error closing history series.", e);
+            }
+        }
+
+        series.clear();
+
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            logger.warn("Error releasing history directory lock.", e);
+        }
+    }
+
+    /**
+     * @param create whether to create the series if nothing has been recorded for {@code nodeId} yet.
+     * @return the series for {@code nodeId}, or {@code null} if it doesn't exist and {@code create} is false.
+     */
+    private HistorySeries series(NodeId nodeId, boolean create) throws IOException {
+        HistorySeries s = series.get(nodeId);
+
+        if (s != null) return s;
+
+        Path seriesDirectory = directory.resolve(directoryName(nodeId));
+
+        if (!create && !Files.isDirectory(seriesDirectory)) return null;
+
+        return series.computeIfAbsent(nodeId, id -> {
+            try {
+                return HistorySeries.open(seriesDirectory, partitionTicks, openPartitions);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private String directoryName(NodeId nodeId) {
+        String namespaceUri = namespaceTable.getUri(nodeId.getNamespaceIndex());
+
+        StringBuilder sb = new StringBuilder(namespaceUri != null ? namespaceUri : "ns=" + nodeId.getNamespaceIndex())
+                .append(';');
+
+        Object identifier = nodeId.getIdentifier();
+
+        switch (nodeId.getType()) {
+            case Numeric:
+                sb.append("i=").append(identifier);
+                break;
+            case String:
+                sb.append("s=").append(identifier);
+                break;
+            case Guid:
+                sb.append("g=").append(identifier);
+                break;
+            case Opaque:
+                sb.append("b=").append(Base64.getEncoder().encodeToString(((ByteString) identifier).bytes()));
+                break;
+        }
+
+        return Hashing.sha1().hashString(sb.toString(), StandardCharsets.UTF_8).toString();
+    }
+
+    private static long timestamp(DataValue value) {
+        DateTime time = value.getSourceTime();
+
+        if (time == null || time.getUtcTime() == 0L) time = value.getServerTime();
+        if (time == null || time.getUtcTime() == 0L) time = DateTime.now();
+
+        return time.getUtcTime();
+    }
+
+}
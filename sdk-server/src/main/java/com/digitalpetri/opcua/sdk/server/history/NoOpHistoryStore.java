@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.history;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+
+/**
+ * A {@link HistoryStore} that records nothing; the default until a server configures a real one.
+ */
+public class NoOpHistoryStore implements HistoryStore {
+
+    @Override
+    public boolean append(NodeId nodeId, DataValue value) {
+        return false;
+    }
+
+    @Override
+    public List<DataValue> read(NodeId nodeId, DateTime start, DateTime end, int maxValues) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void close() {}
+
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+
+/**
+ * A run of consecutive samples of one variable, all of the same {@link ValueType}, and its on-disk encoding.
+ * <p>
+ * A block is encoded column by column after a fixed header:
+ * <pre>
+ *   int length | short count | byte type | byte reserved | long firstTime | long lastTime
+ *   int n | timestamps: first delta, then deltas of deltas, as zig-zag varints
+ *   int n | status codes: (run length, status code) varint pairs
+ *   values: XOR of consecutive bit patterns for floating point types, zig-zag varint deltas otherwise
+ * </pre>
+ * Samples arriving at a regular rate with Good quality cost about one byte each for timestamp and status, and a
+ * slowly changing value costs a few bits.
+ */
+final class SampleBlock {
+
+    static final int HEADER_LENGTH = 24;
+
+    final ValueType type;
+    final int count;
+    final long[] times;
+    final long[] bits;
+    final long[] statuses;
+
+    SampleBlock(ValueType type, int count, long[] times, long[] bits, long[] statuses) {
+        this.type = type;
+        this.count = count;
+        this.times = times;
+        this.bits = bits;
+        this.statuses = statuses;
+    }
+
+    long firstTime() {
+        return times[0];
+    }
+
+    long lastTime() {
+        return times[count - 1];
+    }
+
+    DataValue toDataValue(int index) {
+        StatusCode status = new StatusCode(statuses[index]);
+        DateTime time = new DateTime(times[index]);
+
+        Variant value = status.isBad() ? Variant.NULL_VALUE : new Variant(type.fromBits(bits[index]));
+
+        return new DataValue(value, status, time, time);
+    }
+
+    /**
+     * @return the index of the first sample at or after {@code time}, or {@code count} if there is none.
+     */
+    int firstIndexAtOrAfter(long time) {
+        int index = Arrays.binarySearch(times, 0, count, time);
+
+        if (index < 0) return -(index + 1);
+
+        while (index > 0 && times[index - 1] == time) index--;
+
+        return index;
+    }
+
+    byte[] encode() {
+        Output timeColumn = new Output(count + 8);
+        timeColumn.writeVarLong(count > 1 ? times[1] - times[0] : 0L);
+        for (int i = 2; i < count; i++) {
+            timeColumn.writeVarLong((times[i] - times[i - 1]) - (times[i - 1] - times[i - 2]));
+        }
+
+        Output statusColumn = new Output(8);
+        for (int i = 0; i < count; ) {
+            int run = 1;
+            while (i + run < count && statuses[i + run] == statuses[i]) run++;
+
+            statusColumn.writeVarLong(run);
+            statusColumn.writeVarLong(statuses[i]);
+            i += run;
+        }
+
+        Output valueColumn = new Output(count * 2 + 8);
+        if (type.isFloatingPoint()) {
+            encodeXor(valueColumn);
+        } else {
+            valueColumn.writeVarLong(bits[0]);
+            for (int i = 1; i < count; i++) {
+                valueColumn.writeVarLong(bits[i] - bits[i - 1]);
+            }
+        }
+        valueColumn.flushBits();
+
+        int length = HEADER_LENGTH + 4 + timeColumn.size + 4 + statusColumn.size + valueColumn.size;
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(length);
+        buffer.putShort((short) count);
+        buffer.put((byte) type.getId());
+        buffer.put((byte) 0);
+        buffer.putLong(firstTime());
+        buffer.putLong(lastTime());
+        buffer.putInt(timeColumn.size);
+        buffer.put(timeColumn.bytes, 0, timeColumn.size);
+        buffer.putInt(statusColumn.size);
+        buffer.put(statusColumn.bytes, 0, statusColumn.size);
+        buffer.put(valueColumn.bytes, 0, valueColumn.size);
+
+        return buffer.array();
+    }
+
+    private void encodeXor(Output output) {
+        output.writeBits(bits[0], 64);
+
+        int previousLeading = -1;
+        int previousTrailing = 0;
+
+        for (int i = 1; i < count; i++) {
+            long xor = bits[i] ^ bits[i - 1];
+
+            if (xor == 0L) {
+                output.writeBits(0L, 1);
+                continue;
+            }
+
+            output.writeBits(1L, 1);
+
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                // The meaningful bits fit inside the previous window; reuse it.
+                output.writeBits(0L, 1);
+                output.writeBits(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                int significant = 64 - leading - trailing;
+
+                output.writeBits(1L, 1);
+                output.writeBits(leading, 5);
+                output.writeBits(significant - 1, 6);
+                output.writeBits(xor >>> trailing, significant);
+
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+    }
+
+    /**
+     * Decode the block at {@code offset} in {@code buffer}, whose header has already been checked.
+     */
+    static SampleBlock decode(ByteBuffer buffer, int offset) throws IOException {
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset);
+
+        int length = b.getInt();
+        int count = b.getShort() & 0xFFFF;
+        ValueType type = ValueType.fromId(b.get());
+        b.get();
+        long firstTime = b.getLong();
+        b.getLong();
+
+        if (type == null || count == 0) {
+            throw new IOException("corrupt history block at offset " + offset);
+        }
+
+        long[] times = new long[count];
+        long[] bits = new long[count];
+        long[] statuses = new long[count];
+
+        Input timeColumn = new Input(b, b.getInt());
+        times[0] = firstTime;
+        if (count > 1) {
+            long delta = timeColumn.readVarLong();
+            times[1] = firstTime + delta;
+            for (int i = 2; i < count; i++) {
+                delta += timeColumn.readVarLong();
+                times[i] = times[i - 1] + delta;
+            }
+        }
+        timeColumn.skipToEnd();
+
+        Input statusColumn = new Input(b, b.getInt());
+        for (int i = 0; i < count; ) {
+            int run = (int) statusColumn.readVarLong();
+            long status = statusColumn.readVarLong();
+
+            if (run <= 0 || i + run > count) {
+                throw new IOException("corrupt history block at offset " + offset);
+            }
+
+            Arrays.fill(statuses, i, i + run, status);
+            i += run;
+        }
+        statusColumn.skipToEnd();
+
+        Input valueColumn = new Input(b, offset + length - b.position());
+        if (type.isFloatingPoint()) {
+            decodeXor(valueColumn, bits, count);
+        } else {
+            bits[0] = valueColumn.readVarLong();
+            for (int i = 1; i < count; i++) {
+                bits[i] = bits[i - 1] + valueColumn.readVarLong();
+            }
+        }
+
+        return new SampleBlock(type, count, times, bits, statuses);
+    }
+
+    private static void decodeXor(Input input, long[] bits, int count) {
+        bits[0] = input.readBits(64);
+
+        int leading = 0;
+        int trailing = 0;
+
+        for (int i = 1; i < count; i++) {
+            if (input.readBits(1) == 0L) {
+                bits[i] = bits[i - 1];
+                continue;
+            }
+
+            if (input.readBits(1) == 1L) {
+                leading = (int) input.readBits(5);
+                int significant = (int) input.readBits(6) + 1;
+                trailing = 64 - leading - significant;
+            }
+
+            long xor = input.readBits(64 - leading - trailing) << trailing;
+
+            bits[i] = bits[i - 1] ^ xor;
+        }
+    }
+
+    /**
+     * A growable byte array written either as zig-zag varints or as a bit stream, but not both.
+     */
+    private static final class Output {
+
+        private byte[] bytes;
+        private int size;
+
+        private long bitBuffer;
+        private int bitCount;
+
+        private Output(int initialCapacity) {
+            bytes = new byte[initialCapacity];
+        }
+
+        private void writeVarLong(long value) {
+            long v = (value << 1) ^ (value >> 63);
+
+            while ((v & ~0x7FL) != 0L) {
+                writeByte((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+
+            writeByte((int) v);
+        }
+
+        private void writeBits(long value, int n) {
+            for (int i = n - 1; i >= 0; i--) {
+                bitBuffer = (bitBuffer << 1) | ((value >>> i) & 1L);
+
+                if (++bitCount == 8) {
+                    writeByte((int) bitBuffer);
+                    bitBuffer = 0L;
+                    bitCount = 0;
+                }
+            }
+        }
+
+        private void flushBits() {
+            if (bitCount > 0) {
+                writeByte((int) (bitBuffer << (8 - bitCount)));
+                bitBuffer = 0L;
+                bitCount = 0;
+            }
+        }
+
+        private void writeByte(int b) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+
+            bytes[size++] = (byte) b;
+        }
+
+    }
+
+    private static final class Input {
+
+        private final ByteBuffer buffer;
+        private final int limit;
+
+        private int bitBuffer;
+        private int bitCount;
+
+        private Input(ByteBuffer buffer, int length) {
+            this.buffer = buffer;
+            this.limit = buffer.position() + length;
+        }
+
+        private long readVarLong() {
+            long v = 0L;
+            int shift = 0;
+
+            while (true) {
+                int b = nextByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) break;
+                shift += 7;
+            }
+
+            return (v >>> 1) ^ -(v & 1L);
+        }
+
+        private long readBits(int n) {
+            long value = 0L;
+
+            for (int i = 0; i < n; i++) {
+                if (bitCount == 0) {
+                    bitBuffer = nextByte();
+                    bitCount = 8;
+                }
+
+                value = (value << 1) | ((bitBuffer >>> --bitCount) & 1);
+            }
+
+            return value;
+        }
+
+        private void skipToEnd() {
+            buffer.position(limit);
+        }
+
+        private int nextByte() {
+            if (buffer.position() >= limit) {
+                throw new IllegalStateException("read past end of column");
+            }
+
+            return buffer.get() & 0xFF;
+        }
+
+    }
+
+}
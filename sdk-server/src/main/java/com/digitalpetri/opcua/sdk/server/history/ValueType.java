@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.history;
+
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UByte;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.ULong;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ulong;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
+
+/**
+ * The scalar types the embedded stores can hold, each stored as a 64-bit pattern: the two's complement value for
+ * integral types and the IEEE 754 bits of the value widened to double for floating point types.
+ * <p>
+ * The ids are the built-in type ids, and are what is written to disk.
+ */
+public enum ValueType {
+
+    Boolean(1, false),
+    SByte(2, false),
+    Byte(3, false),
+    Int16(4, false),
+    UInt16(5, false),
+    Int32(6, false),
+    UInt32(7, false),
+    Int64(8, false),
+    UInt64(9, false),
+    Float(10, true),
+    Double(11, true);
+
+    private final int id;
+    private final boolean floatingPoint;
+
+    ValueType(int id, boolean floatingPoint) {
+        this.id = id;
+        this.floatingPoint = floatingPoint;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public boolean isFloatingPoint() {
+        return floatingPoint;
+    }
+
+    public long toBits(Object value) {
+        if (value instanceof java.lang.Boolean) {
+            return ((java.lang.Boolean) value) ? 1L : 0L;
+        } else if (floatingPoint) {
+            return java.lang.Double.doubleToRawLongBits(((Number) value).doubleValue());
+        } else {
+            return ((Number) value).longValue();
+        }
+    }
+
+    public Object fromBits(long bits) {
+        switch (this) {
+            case Boolean:
+                return bits != 0L;
+            case SByte:
+                return (byte) bits;
+            case Byte:
+                return ubyte((int) bits);
+            case Int16:
+                return (short) bits;
+            case UInt16:
+                return ushort((int) bits);
+            case Int32:
+                return (int) bits;
+            case UInt32:
+                return uint(bits);
+            case Int64:
+                return bits;
+            case UInt64:
+                return ulong(bits);
+            case Float:
+                return (float) java.lang.Double.longBitsToDouble(bits);
+            default:
+                return java.lang.Double.longBitsToDouble(bits);
+        }
+    }
+
+    /**
+     * @return the {@link ValueType} of {@code value}, or {@code null} if it is not a type the store can record.
+     */
+    public static ValueType of(Object value) {
+        if (value instanceof java.lang.Boolean) return Boolean;
+        if (value instanceof java.lang.Byte) return SByte;
+        if (value instanceof UByte) return Byte;
+        if (value instanceof Short) return Int16;
+        if (value instanceof UShort) return UInt16;
+        if (value instanceof Integer) return Int32;
+        if (value instanceof UInteger) return UInt32;
+        if (value instanceof Long) return Int64;
+        if (value instanceof ULong) return UInt64;
+        if (value instanceof java.lang.Float) return Float;
+        if (value instanceof java.lang.Double) return Double;
+
+        return null;
+    }
+
+    public static ValueType fromId(int id) {
+        for (ValueType type : values()) {
+            if (type.id == id) return type;
+        }
+
+        return null;
+    }
+
+}
@@ -19,7 +19,9 @@ package com.digitalpetri.opcua.sdk.server.items;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
+import com.codahale.metrics.Counter;
 import com.google.common.primitives.Ints;
 import com.digitalpetri.opcua.sdk.server.api.MonitoredItem;
 import com.digitalpetri.opcua.sdk.server.util.RingBuffer;
@@ -39,6 +41,7 @@ public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
     protected volatile boolean triggered = false;
 
     protected volatile RingBuffer<ValueType> queue;
+    protected volatile Counter queueOverflowCounter;
 
     protected volatile long clientHandle;
     protected volatile int queueSize;
@@ -80,11 +83,29 @@ public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
     }
 
     public synchronized boolean getNotifications(List<UaStructure> notifications, int max) {
+        return getNotifications(notifications, max, n -> true);
+    }
+
+    /**
+     * Move up to {@code max} queued notifications to {@code notifications}, stopping early at the first one
+     * {@code admit} rejects; it stays queued.
+     *
+     * @return {@code true} if the queue was emptied.
+     */
+    public synchronized boolean getNotifications(List<UaStructure> notifications,
+                                                 int max,
+                                                 Predicate<UaStructure> admit) {
+
         int queueSize = queue.size();
         int count = Math.min(queueSize, max);
 
         for (int i = 0; i < count; i++) {
-            notifications.add(wrapQueueValue(queue.remove()));
+            UaStructure notification = wrapQueueValue(queue.get(0));
+
+            if (!admit.test(notification)) break;
+
+            queue.remove();
+            notifications.add(notification);
         }
 
         boolean queueIsEmpty = queue.isEmpty();
@@ -128,6 +149,13 @@ public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
 
     protected abstract void enqueue(ValueType value);
 
+    /**
+     * @param queueOverflowCounter a {@link Counter} to increment each time a value is enqueued into a full queue.
+     */
+    public void setQueueOverflowCounter(Counter queueOverflowCounter) {
+        this.queueOverflowCounter = queueOverflowCounter;
+    }
+
     public void setMonitoringMode(MonitoringMode monitoringMode) {
         this.monitoringMode = monitoringMode;
 
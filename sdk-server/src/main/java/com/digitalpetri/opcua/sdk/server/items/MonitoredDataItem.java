@@ -87,6 +87,8 @@ public class MonitoredDataItem extends BaseMonitoredItem<DataValue> implements D
         if (queue.size() < queue.maxSize()) {
             queue.add(value);
         } else {
+            if (queueOverflowCounter != null) queueOverflowCounter.inc();
+
             if (getQueueSize() > 1) {
                 /* Set overflow if queueSize > 1... */
                 value = value.withStatus(value.getStatusCode().withOverflow());
@@ -0,0 +1,615 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.model;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.api.Namespace;
+import com.digitalpetri.opcua.sdk.server.api.UaNamespace;
+import com.digitalpetri.opcua.sdk.server.events.GeneralModelChangeEvent;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExpandedNodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.LocalizedText;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
+import com.digitalpetri.opcua.stack.core.types.structured.ModelChangeStructureDataType;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
+
+/**
+ * Stages node and reference additions and deletions and applies them to the address space together.
+ * <p>
+ * Operations are validated in the order they were staged, against the address space as the batch's earlier operations
+ * leave it. {@link #apply()} applies the batch only if every operation is valid; {@link #applyEach()} applies the
+ * valid operations and reports a status for each.
+ * <p>
+ * The batches of a server are validated and applied one at a time. Each new node receives all of its references
+ * before it is added to its namespace, the new nodes are added before any existing node is given a reference to them,
+ * and each existing node receives its new references in a single step. No node is seen partially wired, and nothing
+ * the batch adds can be reached by Browse until all of it is in place. One {@link GeneralModelChangeEvent} describing the whole batch is
+ * posted once it has been applied.
+ * <p>
+ * Nodes staged with {@link #addNode} should not be given references outside of the batch before it is applied.
+ */
+public class AddressSpaceBatch {
+
+    /**
+     * Above this many added nodes the model change event leaves out their NodeAdded entries; the existing nodes that
+     * gained references to them are still reported.
+     */
+    public static final int MAX_ADDED_NODE_CHANGES = 1000;
+
+    private final List<Operation> operations = Lists.newArrayList();
+
+    private final OpcUaServer server;
+
+    public AddressSpaceBatch(OpcUaServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Add {@code node} to its namespace without a parent.
+     *
+     * @param node the node to add.
+     * @return this {@link AddressSpaceBatch}.
+     */
+    public AddressSpaceBatch addNode(UaNode node) {
+        return addNode(node, null, null);
+    }
+
+    /**
+     * Add {@code node} to its namespace as a child of {@code parentNodeId}: the parent is given a forward reference of
+     * type {@code referenceTypeId} to the node, and the node the inverse reference back to its parent.
+     *
+     * @param node            the node to add.
+     * @param parentNodeId    the {@link NodeId} of the parent, or {@code null} to add the node without one.
+     * @param referenceTypeId the {@link NodeId} of the reference type linking parent and child.
+     * @return this {@link AddressSpaceBatch}.
+     */
+    public AddressSpaceBatch addNode(UaNode node, NodeId parentNodeId, NodeId referenceTypeId) {
+        Preconditions.checkNotNull(node, "node cannot be null");
+
+        operations.add(staging -> staging.addNode(node, parentNodeId, referenceTypeId));
+
+        return this;
+    }
+
+    /**
+     * @param reference     the reference to add to its source node.
+     * @param bidirectional whether to also add the inverse reference to the target node, if it is in this server.
+     * @return this {@link AddressSpaceBatch}.
+     */
+    public AddressSpaceBatch addReference(Reference reference, boolean bidirectional) {
+        Preconditions.checkNotNull(reference, "reference cannot be null");
+
+        operations.add(staging -> staging.addReference(reference, bidirectional));
+
+        return this;
+    }
+
+    /**
+     * @param nodeId                 the {@link NodeId} of the node to delete.
+     * @param deleteTargetReferences whether to also delete the references other nodes have to it.
+     * @return this {@link AddressSpaceBatch}.
+     */
+    public AddressSpaceBatch deleteNode(NodeId nodeId, boolean deleteTargetReferences) {
+        operations.add(staging -> staging.deleteNode(nodeId, deleteTargetReferences));
+
+        return this;
+    }
+
+    /**
+     * @param reference     the reference to delete from its source node. Its target NodeClass is ignored.
+     * @param bidirectional whether to also delete the inverse reference from the target node.
+     * @return this {@link AddressSpaceBatch}.
+     */
+    public AddressSpaceBatch deleteReference(Reference reference, boolean bidirectional) {
+        Preconditions.checkNotNull(reference, "reference cannot be null");
+
+        operations.add(staging -> staging.deleteReference(reference, bidirectional));
+
+        return this;
+    }
+
+    /**
+     * @return the number of operations staged.
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * Apply every operation, or none of them if any is invalid.
+     *
+     * @throws UaException with the status of the first invalid operation.
+     */
+    public void apply() throws UaException {
+        synchronized (server.getNamespaceManager().getBatchLock()) {
+            Staging staging = new Staging();
+
+            for (int i = 0; i < operations.size(); i++) {
+                StatusCode status = operations.get(i).stage(staging);
+
+                if (status.isBad()) {
+                    throw new UaException(status.getValue(), String.format("operation %d is invalid: %s", i, status));
+                }
+            }
+
+            commit(staging);
+        }
+    }
+
+    /**
+     * Apply the valid operations. An operation that depends on an invalid one, e.g. a reference to a node whose
+     * addition failed, fails in turn.
+     *
+     * @return the status of each operation, in the order they were staged.
+     */
+    public List<StatusCode> applyEach() {
+        synchronized (server.getNamespaceManager().getBatchLock()) {
+            Staging staging = new Staging();
+
+            List<StatusCode> results = Lists.newArrayListWithCapacity(operations.size());
+
+            for (Operation operation : operations) {
+                results.add(operation.stage(staging));
+            }
+
+            commit(staging);
+
+            return results;
+        }
+    }
+
+    private void commit(Staging staging) {
+        Map<NodeId, Integer> verbs = new LinkedHashMap<>();
+
+        /*
+         * Wire the new nodes, then publish them to their namespaces. Nothing existing references them yet.
+         */
+
+        Map<UaNamespace, List<UaNode>> byNamespace = new LinkedHashMap<>();
+
+        for (UaNode node : staging.added.values()) {
+            NodeId nodeId = node.getNodeId();
+
+            List<Reference> removals = staging.toRemove.remove(nodeId);
+            if (removals != null) node.removeReferences(removals);
+
+            List<Reference> additions = staging.toAdd.remove(nodeId);
+            if (additions != null) node.addReferences(additions, false);
+
+            byNamespace.computeIfAbsent(node.getNamespace(), ns -> new ArrayList<>()).add(node);
+        }
+
+        byNamespace.forEach(UaNamespace::addNodes);
+
+        if (staging.added.size() <= MAX_ADDED_NODE_CHANGES) {
+            staging.added.keySet().forEach(id -> verbs.merge(id, GeneralModelChangeEvent.NodeAdded, (a, b) -> a | b));
+        }
+
+        /*
+         * Link the existing nodes to the new ones and apply the remaining reference changes, one step per node.
+         */
+
+        staging.toRemove.forEach((nodeId, references) -> {
+            if (staging.deleted.containsKey(nodeId)) return;
+
+            staging.node(nodeId).ifPresent(node -> {
+                node.removeReferences(references);
+                verbs.merge(nodeId, GeneralModelChangeEvent.ReferenceDeleted, (a, b) -> a | b);
+            });
+        });
+
+        staging.toAdd.forEach((nodeId, references) -> {
+            if (staging.deleted.containsKey(nodeId)) return;
+
+            staging.node(nodeId).ifPresent(node -> {
+                node.addReferences(references);
+                verbs.merge(nodeId, GeneralModelChangeEvent.ReferenceAdded, (a, b) -> a | b);
+            });
+        });
+
+        /*
+         * Finally remove the deleted nodes.
+         */
+
+        staging.deleted.forEach((nodeId, node) -> {
+            node.getNamespace().removeNode(nodeId);
+            verbs.merge(nodeId, GeneralModelChangeEvent.NodeDeleted, (a, b) -> a | b);
+        });
+
+        if (!verbs.isEmpty()) {
+            postModelChangeEvent(staging, verbs);
+        }
+    }
+
+    private void postModelChangeEvent(Staging staging, Map<NodeId, Integer> verbs) {
+        ModelChangeStructureDataType[] changes = verbs.entrySet().stream()
+                .map(e -> new ModelChangeStructureDataType(
+                        e.getKey(),
+                        typeDefinition(staging, e.getKey()),
+                        ubyte(e.getValue())))
+                .toArray(ModelChangeStructureDataType[]::new);
+
+        DateTime now = DateTime.now();
+
+        GeneralModelChangeEvent event = new GeneralModelChangeEvent(
+                newEventId(),
+                Identifiers.GeneralModelChangeEventType,
+                Identifiers.Server,
+                "Server",
+                now,
+                now,
+                Optional.empty(),
+                LocalizedText.english("The address space has changed."),
+                ushort(100),
+                changes
+        );
+
+        server.getEventBus().post(event);
+    }
+
+    private NodeId typeDefinition(Staging staging, NodeId nodeId) {
+        UaNode node = staging.deleted.get(nodeId);
+
+        if (node == null) {
+            node = staging.node(nodeId).orElse(null);
+        }
+
+        if (node == null) return NodeId.NULL_VALUE;
+
+        return node.getReferences().stream()
+                .filter(Reference.HAS_TYPE_DEFINITION_PREDICATE)
+                .findFirst()
+                .flatMap(r -> r.getTargetNodeId().local())
+                .orElse(NodeId.NULL_VALUE);
+    }
+
+    private static ByteString newEventId() {
+        UUID uuid = UUID.randomUUID();
+
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+
+        return ByteString.of(buffer.array());
+    }
+
+    private interface Operation {
+        StatusCode stage(Staging staging);
+    }
+
+    /**
+     * The net effect of the operations validated so far.
+     * <p>
+     * An operation is checked in full before it changes anything here, so an invalid one leaves no trace.
+     */
+    private final class Staging {
+
+        private final Map<UShort, UaNamespace> namespaces = new HashMap<>();
+
+        private final Map<NodeId, UaNode> added = new LinkedHashMap<>();
+        private final Map<NodeId, UaNode> deleted = new LinkedHashMap<>();
+
+        private final Map<NodeId, List<Reference>> toAdd = new LinkedHashMap<>();
+        private final Map<NodeId, List<Reference>> toRemove = new LinkedHashMap<>();
+
+        /**
+         * The references of each node an operation has had to inspect, as they will be once the batch is applied.
+         */
+        private final Map<NodeId, Map<List<Object>, Reference>> views = new HashMap<>();
+
+        StatusCode addNode(UaNode node, NodeId parentNodeId, NodeId referenceTypeId) {
+            NodeId nodeId = node.getNodeId();
+
+            if (!nodeId.getNamespaceIndex().equals(node.getNamespace().getNamespaceIndex())) {
+                return new StatusCode(StatusCodes.Bad_NodeIdRejected);
+            }
+
+            namespaces.putIfAbsent(nodeId.getNamespaceIndex(), node.getNamespace());
+
+            if (added.containsKey(nodeId) || deleted.containsKey(nodeId) || node(nodeId).isPresent()) {
+                return new StatusCode(StatusCodes.Bad_NodeIdExists);
+            }
+
+            UaNode parent = null;
+
+            if (parentNodeId != null) {
+                parent = node(parentNodeId).orElse(null);
+
+                if (parent == null) {
+                    return new StatusCode(StatusCodes.Bad_ParentNodeIdInvalid);
+                }
+
+                if (!isReferenceType(referenceTypeId)) {
+                    return new StatusCode(StatusCodes.Bad_ReferenceTypeIdInvalid);
+                }
+            }
+
+            added.put(nodeId, node);
+
+            if (parent != null) {
+                stageAdd(parentNodeId, new Reference(
+                        parentNodeId, referenceTypeId, nodeId.expanded(), node.getNodeClass(), true));
+
+                stageAdd(nodeId, new Reference(
+                        nodeId, referenceTypeId, parentNodeId.expanded(), parent.getNodeClass(), false));
+            }
+
+            return StatusCode.GOOD;
+        }
+
+        StatusCode addReference(Reference reference, boolean bidirectional) {
+            NodeId sourceNodeId = reference.getSourceNodeId();
+            UaNode source = sourceNodeId != null ? node(sourceNodeId).orElse(null) : null;
+
+            if (source == null) {
+                return new StatusCode(StatusCodes.Bad_SourceNodeIdInvalid);
+            }
+
+            if (!isReferenceType(reference.getReferenceTypeId())) {
+                return new StatusCode(StatusCodes.Bad_ReferenceTypeIdInvalid);
+            }
+
+            if (reference.getTargetNodeId() == null || ExpandedNodeId.NULL_VALUE.equals(reference.getTargetNodeId())) {
+                return new StatusCode(StatusCodes.Bad_TargetNodeIdInvalid);
+            }
+
+            NodeId targetNodeId = local(reference.getTargetNodeId());
+            UaNode target = null;
+
+            if (targetNodeId != null && isResolvable(targetNodeId)) {
+                target = node(targetNodeId).orElse(null);
+
+                if (target == null) {
+                    return new StatusCode(StatusCodes.Bad_TargetNodeIdInvalid);
+                }
+            }
+
+            NodeClass targetNodeClass = reference.getTargetNodeClass();
+
+            if (target != null) {
+                if (targetNodeClass != null && targetNodeClass != target.getNodeClass()) {
+                    return new StatusCode(StatusCodes.Bad_NodeClassInvalid);
+                }
+
+                targetNodeClass = target.getNodeClass();
+            } else if (targetNodeClass == null) {
+                return new StatusCode(StatusCodes.Bad_NodeClassInvalid);
+            }
+
+            Reference forward = new Reference(
+                    sourceNodeId,
+                    reference.getReferenceTypeId(),
+                    reference.getTargetNodeId(),
+                    targetNodeClass,
+                    reference.isForward()
+            );
+
+            if (view(source).containsKey(key(forward))) {
+                return new StatusCode(StatusCodes.Bad_DuplicateReferenceNotAllowed);
+            }
+
+            stageAdd(sourceNodeId, forward);
+
+            if (bidirectional && target != null) {
+                Reference inverse = new Reference(
+                        targetNodeId,
+                        reference.getReferenceTypeId(),
+                        sourceNodeId.expanded(),
+                        source.getNodeClass(),
+                        !reference.isForward()
+                );
+
+                if (!view(target).containsKey(key(inverse))) {
+                    stageAdd(targetNodeId, inverse);
+                }
+            }
+
+            return StatusCode.GOOD;
+        }
+
+        StatusCode deleteNode(NodeId nodeId, boolean deleteTargetReferences) {
+            if (nodeId == null || added.containsKey(nodeId)) {
+                // A node the batch itself adds can't be deleted by it; its references to the node would dangle.
+                return new StatusCode(StatusCodes.Bad_NodeIdInvalid);
+            }
+
+            UaNode node = node(nodeId).orElse(null);
+
+            if (node == null) {
+                return new StatusCode(StatusCodes.Bad_NodeIdUnknown);
+            }
+
+            Collection<Reference> references = view(node).values();
+
+            if (deleteTargetReferences) {
+                ExpandedNodeId expanded = nodeId.expanded();
+
+                for (Reference reference : references) {
+                    NodeId targetNodeId = local(reference.getTargetNodeId());
+                    UaNode target = targetNodeId != null ? node(targetNodeId).orElse(null) : null;
+
+                    if (target == null || targetNodeId.equals(nodeId)) continue;
+
+                    Reference inverse = view(target).get(
+                            Arrays.asList(reference.getReferenceTypeId(), expanded, !reference.isForward()));
+
+                    if (inverse != null) {
+                        stageRemove(targetNodeId, inverse);
+                    }
+                }
+            }
+
+            deleted.put(nodeId, node);
+
+            toAdd.remove(nodeId);
+            toRemove.remove(nodeId);
+            views.remove(nodeId);
+
+            return StatusCode.GOOD;
+        }
+
+        StatusCode deleteReference(Reference reference, boolean bidirectional) {
+            NodeId sourceNodeId = reference.getSourceNodeId();
+            UaNode source = sourceNodeId != null ? node(sourceNodeId).orElse(null) : null;
+
+            if (source == null) {
+                return new StatusCode(StatusCodes.Bad_SourceNodeIdInvalid);
+            }
+
+            if (!isReferenceType(reference.getReferenceTypeId())) {
+                return new StatusCode(StatusCodes.Bad_ReferenceTypeIdInvalid);
+            }
+
+            Reference existing = view(source).get(key(reference));
+
+            if (existing == null) {
+                return new StatusCode(StatusCodes.Bad_NotFound);
+            }
+
+            stageRemove(sourceNodeId, existing);
+
+            if (bidirectional) {
+                NodeId targetNodeId = local(reference.getTargetNodeId());
+                UaNode target = targetNodeId != null ? node(targetNodeId).orElse(null) : null;
+
+                if (target != null) {
+                    Reference inverse = view(target).get(Arrays.asList(
+                            reference.getReferenceTypeId(), sourceNodeId.expanded(), !reference.isForward()));
+
+                    if (inverse != null) {
+                        stageRemove(targetNodeId, inverse);
+                    }
+                }
+            }
+
+            return StatusCode.GOOD;
+        }
+
+        /**
+         * @return the node with {@code nodeId} as it will be once the batch is applied.
+         */
+        Optional<UaNode> node(NodeId nodeId) {
+            if (deleted.containsKey(nodeId)) return Optional.empty();
+
+            UaNode node = added.get(nodeId);
+            if (node != null) return Optional.of(node);
+
+            UaNamespace namespace = namespace(nodeId);
+
+            return namespace != null ? namespace.getNode(nodeId) : Optional.empty();
+        }
+
+        /**
+         * @return {@code true} if the existence of {@code nodeId} can be checked, i.e. its namespace keeps
+         * {@link UaNode}s.
+         */
+        private boolean isResolvable(NodeId nodeId) {
+            return namespace(nodeId) != null;
+        }
+
+        /**
+         * The namespaces of the nodes being added are consulted first; a namespace may build its nodes with a batch
+         * before it has been registered with the server.
+         */
+        private UaNamespace namespace(NodeId nodeId) {
+            UaNamespace namespace = namespaces.get(nodeId.getNamespaceIndex());
+            if (namespace != null) return namespace;
+
+            Namespace registered = server.getNamespaceManager().getNamespace(nodeId);
+
+            return registered instanceof UaNamespace ? (UaNamespace) registered : null;
+        }
+
+        private boolean isReferenceType(NodeId referenceTypeId) {
+            return referenceTypeId != null && node(referenceTypeId)
+                    .map(n -> n.getNodeClass() == NodeClass.ReferenceType)
+                    .orElse(false);
+        }
+
+        private Map<List<Object>, Reference> view(UaNode node) {
+            return views.computeIfAbsent(node.getNodeId(), nodeId -> {
+                Map<List<Object>, Reference> view = new HashMap<>();
+
+                node.getReferences().forEach(r -> view.put(key(r), r));
+                toAdd.getOrDefault(nodeId, Collections.emptyList()).forEach(r -> view.put(key(r), r));
+                toRemove.getOrDefault(nodeId, Collections.emptyList()).forEach(r -> view.remove(key(r)));
+
+                return view;
+            });
+        }
+
+        private void stageAdd(NodeId nodeId, Reference reference) {
+            List<Reference> removals = toRemove.get(nodeId);
+
+            if (removals == null || !removals.remove(reference)) {
+                toAdd.computeIfAbsent(nodeId, id -> new ArrayList<>()).add(reference);
+            }
+
+            Map<List<Object>, Reference> view = views.get(nodeId);
+            if (view != null) view.put(key(reference), reference);
+        }
+
+        private void stageRemove(NodeId nodeId, Reference reference) {
+            List<Reference> additions = toAdd.get(nodeId);
+
+            if (additions == null || !additions.remove(reference)) {
+                toRemove.computeIfAbsent(nodeId, id -> new ArrayList<>()).add(reference);
+            }
+
+            Map<List<Object>, Reference> view = views.get(nodeId);
+            if (view != null) view.remove(key(reference));
+        }
+
+    }
+
+    /**
+     * References are the same if they agree on everything but the target NodeClass.
+     */
+    private static List<Object> key(Reference reference) {
+        return Arrays.asList(reference.getReferenceTypeId(), reference.getTargetNodeId(), reference.isForward());
+    }
+
+    private static NodeId local(ExpandedNodeId nodeId) {
+        return nodeId != null && nodeId.isLocal() && nodeId.getNamespaceUri() == null ?
+                nodeId.local().orElse(null) : null;
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.model;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import com.digitalpetri.opcua.stack.core.util.ExecutionQueue;
+import com.google.common.collect.Maps;
+
+/**
+ * An {@link AttributeObserver} that hands changes off to another {@link AttributeObserver} on an executor, so the
+ * thread changing an attribute doesn't run the observer's work.
+ * <p>
+ * Changes that arrive faster than they are delivered are coalesced: for each (node, attribute) only the latest value
+ * still waiting is delivered. Changes are delivered one at a time, and those to the same attribute in order.
+ * <p>
+ * Nodes only hold weak references to their observers, so register this observer rather than the delegate, and keep
+ * it reachable.
+ */
+public class AsyncAttributeObserver implements AttributeObserver {
+
+    /**
+     * Stands in for a {@code null} value, which the pending map can't hold.
+     */
+    private static final Object NULL = new Object();
+
+    private final Map<Key, Object> pending = Maps.newConcurrentMap();
+
+    private final AttributeObserver delegate;
+    private final ExecutionQueue queue;
+
+    /**
+     * @param delegate the {@link AttributeObserver} to deliver changes to.
+     * @param executor the {@link ExecutorService} to deliver changes on.
+     */
+    public AsyncAttributeObserver(AttributeObserver delegate, ExecutorService executor) {
+        this.delegate = delegate;
+        this.queue = new ExecutionQueue(executor);
+    }
+
+    @Override
+    public void attributeChanged(UaNode node, int attributeId, Object value) {
+        Key key = new Key(node, attributeId);
+
+        if (pending.put(key, value != null ? value : NULL) == null) {
+            queue.submit(() -> deliver(key));
+        }
+    }
+
+    /**
+     * @return the number of (node, attribute) changes waiting to be delivered.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private void deliver(Key key) {
+        Object value = pending.remove(key);
+
+        if (value != null) {
+            delegate.attributeChanged(key.node, key.attributeId, value != NULL ? value : null);
+        }
+    }
+
+    private static final class Key {
+
+        private final UaNode node;
+        private final int attributeId;
+
+        private Key(UaNode node, int attributeId) {
+            this.node = node;
+            this.attributeId = attributeId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return attributeId == key.attributeId && node == key.node;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(node) + attributeId;
+        }
+
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.model;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * An index of a node's references by the BrowseName of their target.
+ * <p>
+ * References whose target could not be resolved in the node's namespace when they were indexed are kept in a
+ * separate list, which callers must check against the BrowseName themselves.
+ * <p>
+ * Mutations are made while holding the owning {@link UaNode}'s lock; lookups are lock-free. The owning node discards
+ * its index when the BrowseName of a node it references changes, which relies on that node having the inverse
+ * reference, as nodes added through {@link AddressSpaceBatch} or a nodeset do.
+ */
+final class BrowseNameIndex {
+
+    private final Map<QualifiedName, List<Reference>> byBrowseName = Maps.newConcurrentMap();
+
+    private final List<Reference> unresolved = new CopyOnWriteArrayList<>();
+
+    void add(Reference reference, QualifiedName targetBrowseName) {
+        if (targetBrowseName == null) {
+            unresolved.add(reference);
+        } else {
+            byBrowseName.merge(targetBrowseName, ImmutableList.of(reference), (existing, added) ->
+                    ImmutableList.<Reference>builder().addAll(existing).addAll(added).build());
+        }
+    }
+
+    /**
+     * @return {@code true} if the reference was found and removed.
+     */
+    boolean remove(Reference reference, QualifiedName targetBrowseName) {
+        if (targetBrowseName == null) {
+            return unresolved.remove(reference);
+        }
+
+        List<Reference> existing = byBrowseName.get(targetBrowseName);
+
+        if (existing == null || !existing.contains(reference)) {
+            return unresolved.remove(reference);
+        }
+
+        ImmutableList.Builder<Reference> builder = ImmutableList.builder();
+        boolean removed = false;
+
+        for (Reference r : existing) {
+            if (!removed && r.equals(reference)) removed = true;
+            else builder.add(r);
+        }
+
+        List<Reference> remaining = builder.build();
+
+        if (remaining.isEmpty()) byBrowseName.remove(targetBrowseName);
+        else byBrowseName.put(targetBrowseName, remaining);
+
+        return true;
+    }
+
+    /**
+     * Move any unresolved references whose target's BrowseName can now be resolved into the index.
+     *
+     * @param resolver resolves the BrowseName of a reference's target, or returns {@code null}.
+     */
+    void resolve(Function<Reference, QualifiedName> resolver) {
+        for (Reference reference : unresolved) {
+            QualifiedName browseName = resolver.apply(reference);
+
+            if (browseName != null) {
+                add(reference, browseName);
+                unresolved.remove(reference);
+            }
+        }
+    }
+
+    /**
+     * @return references whose target is known to have {@code browseName}, in the order they were added.
+     */
+    List<Reference> get(QualifiedName browseName) {
+        List<Reference> references = byBrowseName.get(browseName);
+
+        return references != null ? references : ImmutableList.of();
+    }
+
+    /**
+     * @return references whose target's BrowseName was not known when they were indexed.
+     */
+    List<Reference> getUnresolved() {
+        return unresolved;
+    }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.sdk.server.util.NodeIdTable;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExpandedNodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The references of a single {@link UaNode}, stored compactly.
+ * <p>
+ * A reference whose source is the owning node and whose target is a local NodeId is stored as three array slots: the
+ * canonical {@link NodeIdTable} instances of its reference type and target, and a flags word holding the direction
+ * and target NodeClass. Any other reference is kept as a {@link Reference} object.
+ * <p>
+ * Mutations are made while holding the owning node's lock and publish a new snapshot; reads are lock-free. The
+ * {@link Reference} list handed to readers is built the first time a snapshot is read and reused until the next
+ * change, so only nodes that are actually browsed pay for it.
+ */
+final class ReferenceTable {
+
+    private static final int FORWARD_FLAG = 1;
+
+    private static final NodeClass[] NODE_CLASSES = NodeClass.values();
+
+    private volatile Snapshot snapshot =
+            new Snapshot(new NodeId[0], new ExpandedNodeId[0], new int[0], 0, ImmutableList.of());
+
+    private final NodeIdTable nodeIdTable;
+
+    ReferenceTable(NodeIdTable nodeIdTable) {
+        this.nodeIdTable = nodeIdTable;
+    }
+
+    void add(NodeId owner, Reference reference) {
+        Snapshot current = snapshot;
+
+        if (!compactable(owner, reference)) {
+            snapshot = current.withOthers(ImmutableList.<Reference>builder()
+                    .addAll(current.others).add(reference).build());
+            return;
+        }
+
+        current = current.ensureCapacity(current.size + 1);
+
+        set(current, current.size, reference);
+
+        snapshot = current.withSize(current.size + 1);
+    }
+
+    /**
+     * Add {@code references}, publishing them to readers in a single step.
+     *
+     * @return the number of inverse references added.
+     */
+    int addAll(NodeId owner, Collection<Reference> references) {
+        /* Grow once for the whole collection rather than doubling repeatedly. */
+        Snapshot current = snapshot.ensureCapacity(snapshot.size + references.size());
+        int size = current.size;
+        int inverse = 0;
+
+        ImmutableList.Builder<Reference> others = null;
+
+        for (Reference reference : references) {
+            if (reference.isInverse()) inverse++;
+
+            if (!compactable(owner, reference)) {
+                if (others == null) others = ImmutableList.<Reference>builder().addAll(current.others);
+                others.add(reference);
+                continue;
+            }
+
+            set(current, size++, reference);
+        }
+
+        snapshot = new Snapshot(
+                current.referenceTypes, current.targets, current.flags, size,
+                others != null ? others.build() : current.others);
+
+        return inverse;
+    }
+
+    boolean remove(NodeId owner, Reference reference) {
+        Snapshot current = snapshot;
+
+        int index = current.others.indexOf(reference);
+
+        if (index >= 0) {
+            snapshot = current.withOthers(ImmutableList.<Reference>builder()
+                    .addAll(current.others.subList(0, index))
+                    .addAll(current.others.subList(index + 1, current.others.size()))
+                    .build());
+            return true;
+        }
+
+        if (!compactable(owner, reference)) return false;
+
+        NodeId referenceTypeId = reference.getReferenceTypeId();
+        ExpandedNodeId targetNodeId = reference.getTargetNodeId();
+        int flags = flags(reference);
+
+        for (int i = 0; i < current.size; i++) {
+            if (current.flags[i] == flags &&
+                    current.referenceTypes[i].equals(referenceTypeId) &&
+                    current.targets[i].equals(targetNodeId)) {
+
+                snapshot = current.without(i);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    int size() {
+        Snapshot current = snapshot;
+
+        return current.size + current.others.size();
+    }
+
+    /**
+     * The references as {@link Reference} objects. The list is built once per snapshot; repeated calls between
+     * changes return the same instance.
+     *
+     * @param owner the current NodeId of the owning node, used as the source of compacted references.
+     */
+    ImmutableList<Reference> toList(NodeId owner) {
+        Snapshot current = snapshot;
+        Materialized materialized = current.materialized;
+
+        if (materialized != null && materialized.owner.equals(owner)) {
+            return materialized.references;
+        }
+
+        Reference[] references = new Reference[current.size + current.others.size()];
+
+        for (int i = 0; i < current.size; i++) {
+            int flags = current.flags[i];
+
+            references[i] = new Reference(
+                    owner,
+                    current.referenceTypes[i],
+                    current.targets[i],
+                    NODE_CLASSES[flags >>> 1],
+                    (flags & FORWARD_FLAG) != 0
+            );
+        }
+
+        int count = current.size;
+
+        for (Reference reference : current.others) {
+            references[count++] = reference;
+        }
+
+        ImmutableList<Reference> list = ImmutableList.copyOf(references);
+
+        /* Racing readers may each build a list; any of them is correct for this snapshot. */
+        current.materialized = new Materialized(owner, list);
+
+        return list;
+    }
+
+    private void set(Snapshot snapshot, int index, Reference reference) {
+        snapshot.referenceTypes[index] = nodeIdTable.canonical(reference.getReferenceTypeId());
+        snapshot.targets[index] = nodeIdTable.canonical(reference.getTargetNodeId());
+        snapshot.flags[index] = flags(reference);
+    }
+
+    private static boolean compactable(NodeId owner, Reference reference) {
+        ExpandedNodeId target = reference.getTargetNodeId();
+
+        return reference.getSourceNodeId().equals(owner) &&
+                reference.getTargetNodeClass() != null &&
+                target.isLocal() && target.getNamespaceUri() == null;
+    }
+
+    private static int flags(Reference reference) {
+        return (reference.getTargetNodeClass().ordinal() << 1) | (reference.isForward() ? FORWARD_FLAG : 0);
+    }
+
+    private static final class Materialized {
+        private final NodeId owner;
+        private final ImmutableList<Reference> references;
+
+        private Materialized(NodeId owner, ImmutableList<Reference> references) {
+            this.owner = owner;
+            this.references = references;
+        }
+    }
+
+    private static final class Snapshot {
+        private final NodeId[] referenceTypes;
+        private final ExpandedNodeId[] targets;
+        private final int[] flags;
+        private final int size;
+        private final ImmutableList<Reference> others;
+
+        private volatile Materialized materialized;
+
+        private Snapshot(NodeId[] referenceTypes,
+                         ExpandedNodeId[] targets,
+                         int[] flags,
+                         int size,
+                         ImmutableList<Reference> others) {
+
+            this.referenceTypes = referenceTypes;
+            this.targets = targets;
+            this.flags = flags;
+            this.size = size;
+            this.others = others;
+        }
+
+        private Snapshot withSize(int size) {
+            return new Snapshot(referenceTypes, targets, flags, size, others);
+        }
+
+        private Snapshot withOthers(ImmutableList<Reference> others) {
+            return new Snapshot(referenceTypes, targets, flags, size, others);
+        }
+
+        /**
+         * @return this snapshot if it has room for {@code capacity} references, otherwise a grown copy. Slots past
+         * {@code size} are never read, so writing them doesn't disturb readers of this snapshot.
+         */
+        private Snapshot ensureCapacity(int capacity) {
+            if (capacity <= flags.length) return this;
+
+            int length = Math.max(capacity, Math.max(4, flags.length * 2));
+
+            return new Snapshot(
+                    Arrays.copyOf(referenceTypes, length),
+                    Arrays.copyOf(targets, length),
+                    Arrays.copyOf(flags, length),
+                    size,
+                    others);
+        }
+
+        /**
+         * @return a copy without the reference at {@code index}. Never mutate arrays a reader may be using.
+         */
+        private Snapshot without(int index) {
+            int length = flags.length;
+            int tail = size - index - 1;
+
+            NodeId[] referenceTypes = new NodeId[length];
+            ExpandedNodeId[] targets = new ExpandedNodeId[length];
+            int[] flags = new int[length];
+
+            System.arraycopy(this.referenceTypes, 0, referenceTypes, 0, index);
+            System.arraycopy(this.referenceTypes, index + 1, referenceTypes, index, tail);
+            System.arraycopy(this.targets, 0, targets, 0, index);
+            System.arraycopy(this.targets, index + 1, targets, index, tail);
+            System.arraycopy(this.flags, 0, flags, 0, index);
+            System.arraycopy(this.flags, index + 1, flags, index, tail);
+
+            return new Snapshot(referenceTypes, targets, flags, size - 1, others);
+        }
+    }
+
+}
@@ -57,7 +57,7 @@ public class UaDataTypeNode extends UaNode implements DataTypeNode {
     }
 
     @Override
-    public synchronized void setIsAbstract(boolean isAbstract) {
+    public void setIsAbstract(boolean isAbstract) {
         this.isAbstract.set(isAbstract);
 
         fireAttributeChanged(AttributeIds.IsAbstract, isAbstract);
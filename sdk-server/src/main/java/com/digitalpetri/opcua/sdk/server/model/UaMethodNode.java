@@ -79,14 +79,14 @@ public class UaMethodNode extends UaNode implements MethodNode {
     }
 
     @Override
-    public synchronized void setExecutable(boolean executable) {
+    public void setExecutable(boolean executable) {
         this.executable = executable;
 
         fireAttributeChanged(AttributeIds.Executable, executable);
     }
 
     @Override
-    public synchronized void setUserExecutable(boolean userExecutable) {
+    public void setUserExecutable(boolean userExecutable) {
         this.userExecutable = userExecutable;
 
         fireAttributeChanged(AttributeIds.UserExecutable, userExecutable);
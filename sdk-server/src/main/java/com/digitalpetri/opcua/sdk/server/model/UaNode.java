@@ -17,13 +17,14 @@
 package com.digitalpetri.opcua.sdk.server.model;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import com.digitalpetri.opcua.sdk.server.api.UaNamespace;
@@ -53,9 +54,29 @@ public abstract class UaNode implements Node {
 
     private final AtomicInteger refCount = new AtomicInteger(0);
 
-    private final List<Reference> references = new CopyOnWriteArrayList<>();
+    private final ReferenceTable references;
 
-    private List<WeakReference<AttributeObserver>> observers;
+    private volatile BrowseNameIndex browseNameIndex;
+
+    private static final ObserverRef[] NO_OBSERVERS = new ObserverRef[0];
+
+    private static final AtomicReferenceFieldUpdater<UaNode, ObserverRef[]> OBSERVERS =
+            AtomicReferenceFieldUpdater.newUpdater(UaNode.class, ObserverRef[].class, "observers");
+
+    private volatile ObserverRef[] observers = NO_OBSERVERS;
+
+    /**
+     * Held while an attribute is assigned and its change queued, so that changes are queued in the order they were
+     * made. Observers are notified outside of it. Separate from the node's own lock, which guards its references.
+     */
+    private final Object attributeLock = new Object();
+
+    /**
+     * Changes queued but not yet delivered to observers, and whether a thread is delivering them; both guarded by
+     * {@link #attributeLock}. The queue is only created once the node has observers.
+     */
+    private ArrayDeque<AttributeChange> pendingChanges;
+    private boolean dispatching;
 
     private final UaNamespace namespace;
 
@@ -87,8 +108,9 @@ public abstract class UaNode implements Node {
                      Optional<UInteger> userWriteMask) {
 
         this.namespace = namespace;
+        this.references = new ReferenceTable(namespace.getNodeIdTable());
 
-        this.nodeId = nodeId;
+        this.nodeId = namespace.getNodeIdTable().canonical(nodeId);
         this.nodeClass = nodeClass;
         this.browseName = browseName;
         this.displayName = displayName;
@@ -133,52 +155,87 @@ public abstract class UaNode implements Node {
     }
 
     @Override
-    public synchronized void setNodeId(NodeId nodeId) {
-        this.nodeId = nodeId;
+    public void setNodeId(NodeId nodeId) {
+        synchronized (attributeLock) {
+            this.nodeId = namespace.getNodeIdTable().canonical(nodeId);
 
-        fireAttributeChanged(AttributeIds.NodeId, nodeId);
+            queueAttributeChanged(AttributeIds.NodeId, nodeId);
+        }
+
+        dispatchAttributeChanges();
     }
 
     @Override
-    public synchronized void setNodeClass(NodeClass nodeClass) {
-        this.nodeClass = nodeClass;
+    public void setNodeClass(NodeClass nodeClass) {
+        synchronized (attributeLock) {
+            this.nodeClass = nodeClass;
 
-        fireAttributeChanged(AttributeIds.NodeClass, nodeClass);
+            queueAttributeChanged(AttributeIds.NodeClass, nodeClass);
+        }
+
+        dispatchAttributeChanges();
     }
 
     @Override
-    public synchronized void setBrowseName(QualifiedName browseName) {
-        this.browseName = browseName;
+    public void setBrowseName(QualifiedName browseName) {
+        synchronized (attributeLock) {
+            this.browseName = browseName;
+
+            queueAttributeChanged(AttributeIds.BrowseName, browseName);
+        }
 
-        fireAttributeChanged(AttributeIds.BrowseName, browseName);
+        dispatchAttributeChanges();
+
+        // Nodes with a reference to this one may have indexed it under its old BrowseName.
+        for (Reference reference : getReferences()) {
+            getNode(reference.getTargetNodeId()).ifPresent(UaNode::onTargetBrowseNameChanged);
+        }
+
+        namespace.onNodeChanged(this);
     }
 
     @Override
-    public synchronized void setDisplayName(LocalizedText displayName) {
-        this.displayName = displayName;
+    public void setDisplayName(LocalizedText displayName) {
+        synchronized (attributeLock) {
+            this.displayName = displayName;
 
-        fireAttributeChanged(AttributeIds.DisplayName, displayName);
+            queueAttributeChanged(AttributeIds.DisplayName, displayName);
+        }
+
+        dispatchAttributeChanges();
     }
 
     @Override
-    public synchronized void setDescription(Optional<LocalizedText> description) {
-        this.description = description;
+    public void setDescription(Optional<LocalizedText> description) {
+        synchronized (attributeLock) {
+            this.description = description;
+
+            description.ifPresent(v -> queueAttributeChanged(AttributeIds.Description, v));
+        }
 
-        description.ifPresent(v -> fireAttributeChanged(AttributeIds.Description, v));
+        dispatchAttributeChanges();
     }
 
     @Override
-    public synchronized void setWriteMask(Optional<UInteger> writeMask) {
-        this.writeMask = writeMask;
+    public void setWriteMask(Optional<UInteger> writeMask) {
+        synchronized (attributeLock) {
+            this.writeMask = writeMask;
+
+            writeMask.ifPresent(v -> queueAttributeChanged(AttributeIds.WriteMask, v));
+        }
 
-        writeMask.ifPresent(v -> fireAttributeChanged(AttributeIds.WriteMask, v));
+        dispatchAttributeChanges();
     }
 
     @Override
-    public synchronized void setUserWriteMask(Optional<UInteger> userWriteMask) {
-        this.userWriteMask = userWriteMask;
+    public void setUserWriteMask(Optional<UInteger> userWriteMask) {
+        synchronized (attributeLock) {
+            this.userWriteMask = userWriteMask;
 
-        userWriteMask.ifPresent(v -> fireAttributeChanged(AttributeIds.UserWriteMask, v));
+            userWriteMask.ifPresent(v -> queueAttributeChanged(AttributeIds.UserWriteMask, v));
+        }
+
+        dispatchAttributeChanges();
     }
 
     public UaNamespace getNamespace() {
@@ -194,11 +251,18 @@ public abstract class UaNode implements Node {
     }
 
     public ImmutableList<Reference> getReferences() {
-        return ImmutableList.copyOf(references);
+        return references.toList(nodeId);
     }
 
     public synchronized void addReference(Reference reference) {
-        references.add(reference);
+        references.add(nodeId, reference);
+
+        BrowseNameIndex index = browseNameIndex;
+        if (index != null) {
+            index.add(reference, getTargetBrowseName(reference));
+        }
+
+        namespace.onNodeChanged(this);
 
         if (reference.isInverse()) {
             int count = refCount.incrementAndGet();
@@ -210,12 +274,50 @@ public abstract class UaNode implements Node {
         }
     }
 
-    public synchronized void addReferences(Collection<Reference> c) {
-        c.forEach(this::addReference);
+    /**
+     * Add all of {@code c} under a single acquisition of this node's lock; readers see either none or all of them.
+     */
+    public void addReferences(Collection<Reference> c) {
+        addReferences(c, true);
+    }
+
+    /**
+     * @param addToNamespace whether to add this node to its namespace if {@code c} gives it its first inverse
+     *                       reference. {@link AddressSpaceBatch} passes {@code false} and publishes the node itself.
+     */
+    synchronized void addReferences(Collection<Reference> c, boolean addToNamespace) {
+        if (c.isEmpty()) return;
+
+        int inverse = references.addAll(nodeId, c);
+
+        BrowseNameIndex index = browseNameIndex;
+        if (index != null) {
+            for (Reference reference : c) {
+                index.add(reference, getTargetBrowseName(reference));
+            }
+        }
+
+        namespace.onNodeChanged(this);
+
+        if (inverse > 0) {
+            int count = refCount.addAndGet(inverse);
+            LOGGER.debug("{} refCount={}", getNodeId(), count);
+
+            if (count == inverse && addToNamespace) {
+                namespace.addNode(this);
+            }
+        }
     }
 
     public synchronized void removeReference(Reference reference) {
-        references.remove(reference);
+        references.remove(nodeId, reference);
+
+        BrowseNameIndex index = browseNameIndex;
+        if (index != null && !index.remove(reference, getTargetBrowseName(reference))) {
+            browseNameIndex = null;
+        }
+
+        namespace.onNodeChanged(this);
 
         if (reference.isInverse()) {
             int count = refCount.decrementAndGet();
@@ -302,11 +404,7 @@ public abstract class UaNode implements Node {
     }
 
     public Optional<VariableNode> getPropertyNode(QualifiedName browseName) {
-        Node node = references.stream()
-                .filter(Reference.HAS_PROPERTY_PREDICATE)
-                .flatMap(r -> opt2stream(getNode(r.getTargetNodeId())))
-                .filter(n -> n.getBrowseName().equals(browseName))
-                .findFirst().orElse(null);
+        Node node = getChildNode(Reference.HAS_PROPERTY_PREDICATE, browseName).orElse(null);
 
         try {
             return Optional.ofNullable((VariableNode) node);
@@ -315,6 +413,101 @@ public abstract class UaNode implements Node {
         }
     }
 
+    /**
+     * Find the target of a forward reference of type {@code referenceTypeId} whose BrowseName is {@code browseName}.
+     * <p>
+     * Only targets in this node's namespace are considered.
+     *
+     * @param referenceTypeId the {@link NodeId} of the reference type; subtypes are not matched.
+     * @param browseName      the BrowseName of the target.
+     * @return the target {@link UaNode}, if found.
+     */
+    public Optional<UaNode> getChildNode(NodeId referenceTypeId, QualifiedName browseName) {
+        return getChildNode(r -> r.isForward() && r.getReferenceTypeId().equals(referenceTypeId), browseName);
+    }
+
+    private Optional<UaNode> getChildNode(Predicate<Reference> predicate, QualifiedName browseName) {
+        BrowseNameIndex index = getBrowseNameIndex();
+
+        for (Reference reference : index.get(browseName)) {
+            if (predicate.test(reference)) {
+                Optional<UaNode> node = getNode(reference.getTargetNodeId());
+
+                if (node.isPresent() && node.get().getBrowseName().equals(browseName)) return node;
+            }
+        }
+
+        for (Reference reference : index.getUnresolved()) {
+            if (predicate.test(reference)) {
+                Optional<UaNode> node = getNode(reference.getTargetNodeId());
+
+                if (node.isPresent() && node.get().getBrowseName().equals(browseName)) return node;
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Get the references whose target is known to have the BrowseName {@code browseName}, followed by any references
+     * whose target is outside this node's namespace and must be checked by the caller.
+     *
+     * @param browseName the BrowseName of the target.
+     * @return the candidate {@link Reference}s.
+     */
+    public List<Reference> getReferenceCandidates(QualifiedName browseName) {
+        BrowseNameIndex index = getBrowseNameIndex();
+
+        List<Reference> matches = index.get(browseName);
+        List<Reference> unresolved = index.getUnresolved();
+
+        if (unresolved.isEmpty()) {
+            return matches;
+        } else {
+            return ImmutableList.<Reference>builder().addAll(matches).addAll(unresolved).build();
+        }
+    }
+
+    /**
+     * Called when the BrowseName of a node this node has a reference to changes. The {@link BrowseNameIndex} is
+     * rebuilt on next use, and cached browse path translations through this node are invalidated.
+     */
+    private synchronized void onTargetBrowseNameChanged() {
+        browseNameIndex = null;
+
+        namespace.onNodeChanged(this);
+    }
+
+    private BrowseNameIndex getBrowseNameIndex() {
+        BrowseNameIndex index = browseNameIndex;
+
+        if (index == null) {
+            synchronized (this) {
+                index = browseNameIndex;
+
+                if (index == null) {
+                    index = new BrowseNameIndex();
+
+                    for (Reference reference : getReferences()) {
+                        index.add(reference, getTargetBrowseName(reference));
+                    }
+
+                    browseNameIndex = index;
+                }
+            }
+        } else if (!index.getUnresolved().isEmpty()) {
+            synchronized (this) {
+                index.resolve(this::getTargetBrowseName);
+            }
+        }
+
+        return index;
+    }
+
+    private QualifiedName getTargetBrowseName(Reference reference) {
+        return getNode(reference.getTargetNodeId()).map(UaNode::getBrowseName).orElse(null);
+    }
+
     public void addProperty(UaPropertyNode node) {
         addReference(new Reference(
                 getNodeId(),
@@ -356,11 +549,10 @@ public abstract class UaNode implements Node {
     }
 
     protected Optional<ObjectNode> getObjectComponent(QualifiedName browseName) {
-        ObjectNode node = (ObjectNode) references.stream()
-                .filter(Reference.HAS_COMPONENT_PREDICATE.and(r -> r.getTargetNodeClass() == NodeClass.Object))
-                .flatMap(r -> opt2stream(getNode(r.getTargetNodeId())))
-                .filter(n -> n.getBrowseName().equals(browseName))
-                .findFirst().orElse(null);
+        ObjectNode node = (ObjectNode) getChildNode(
+                Reference.HAS_COMPONENT_PREDICATE.and(r -> r.getTargetNodeClass() == NodeClass.Object),
+                browseName
+        ).orElse(null);
 
         return Optional.ofNullable(node);
     }
@@ -370,52 +562,200 @@ public abstract class UaNode implements Node {
     }
 
     protected Optional<VariableNode> getVariableComponent(QualifiedName browseName) {
-        VariableNode node = (VariableNode) references.stream()
-                .filter(Reference.HAS_COMPONENT_PREDICATE.and(r -> r.getTargetNodeClass() == NodeClass.Variable))
-                .flatMap(r -> opt2stream(getNode(r.getTargetNodeId())))
-                .filter(n -> n.getBrowseName().equals(browseName))
-                .findFirst().orElse(null);
+        VariableNode node = (VariableNode) getChildNode(
+                Reference.HAS_COMPONENT_PREDICATE.and(r -> r.getTargetNodeClass() == NodeClass.Variable),
+                browseName
+        ).orElse(null);
 
         return Optional.ofNullable(node);
     }
 
-    public synchronized void addAttributeObserver(AttributeObserver observer) {
-        if (observers == null) {
-            observers = new LinkedList<>();
+    /**
+     * Register an {@link AttributeObserver}. Only a weak reference to {@code observer} is held.
+     * <p>
+     * Observers are kept in an immutable array that is replaced on every change, so registering doesn't contend with
+     * the node's lock or with attribute changes being dispatched.
+     */
+    public void addAttributeObserver(AttributeObserver observer) {
+        while (true) {
+            ObserverRef[] current = observers;
+            ObserverRef[] retained = retain(current, null);
+
+            ObserverRef[] updated = Arrays.copyOf(retained, retained.length + 1);
+            updated[retained.length] = new ObserverRef(observer);
+
+            if (OBSERVERS.compareAndSet(this, current, updated)) return;
+        }
+    }
+
+    public void removeAttributeObserver(AttributeObserver observer) {
+        while (true) {
+            ObserverRef[] current = observers;
+            ObserverRef[] updated = retain(current, observer);
+
+            if (updated == current || OBSERVERS.compareAndSet(this, current, updated)) return;
         }
+    }
 
-        observers.add(new WeakReference<>(observer));
+    /**
+     * @return the lock held while an attribute is assigned and its change queued.
+     */
+    protected final Object getAttributeLock() {
+        return attributeLock;
     }
 
-    public synchronized void removeAttributeObserver(AttributeObserver observer) {
-        if (observers == null) return;
+    /**
+     * Notify the registered {@link AttributeObserver}s that an attribute changed.
+     * <p>
+     * Equivalent to {@link #queueAttributeChanged} under {@link #getAttributeLock()} followed by
+     * {@link #dispatchAttributeChanges()}.
+     */
+    protected void fireAttributeChanged(int attributeId, Object attributeValue) {
+        synchronized (attributeLock) {
+            queueAttributeChanged(attributeId, attributeValue);
+        }
 
-        Iterator<WeakReference<AttributeObserver>> iterator = observers.iterator();
+        dispatchAttributeChanges();
+    }
 
-        while (iterator.hasNext()) {
-            WeakReference<AttributeObserver> ref = iterator.next();
-            if (ref.get() == null || ref.get() == observer) {
-                iterator.remove();
-            }
+    /**
+     * Queue a change for the observers registered right now. Setters assign the attribute and call this while holding
+     * {@link #getAttributeLock()}, then call {@link #dispatchAttributeChanges()} once they have released it.
+     */
+    protected final void queueAttributeChanged(int attributeId, Object attributeValue) {
+        queueAttributeChanged(attributeId, attributeValue, false);
+    }
+
+    /**
+     * Queue a change to the Value assigned by a {@link ValueUpdater} cycle. Observers that are told of the cycle as a
+     * whole, {@link ValueUpdater.CycleObserver}s, are left out.
+     *
+     * @return {@code true} if a change was queued, i.e. any other observer is registered.
+     */
+    boolean queueCycleValueChanged(Object value) {
+        return queueAttributeChanged(AttributeIds.Value, value, true);
+    }
+
+    private boolean queueAttributeChanged(int attributeId, Object attributeValue, boolean cycle) {
+        ObserverRef[] refs = observers;
+
+        if (refs.length == 0 || cycle && !hasPerNodeObserver(refs)) return false;
+
+        if (pendingChanges == null) pendingChanges = new ArrayDeque<>(2);
+
+        pendingChanges.add(new AttributeChange(refs, attributeId, attributeValue, cycle));
+
+        return true;
+    }
+
+    private static boolean hasPerNodeObserver(ObserverRef[] refs) {
+        for (ObserverRef ref : refs) {
+            if (!(ref.get() instanceof ValueUpdater.CycleObserver)) return true;
         }
 
-        if (observers.isEmpty()) observers = null;
+        return false;
     }
 
-    protected synchronized void fireAttributeChanged(int attributeId, Object attributeValue) {
-        if (observers == null) return;
+    /**
+     * Deliver the queued changes on the calling thread, in the order they were queued. Must not be called while
+     * holding {@link #getAttributeLock()}.
+     * <p>
+     * Only one thread delivers a node's changes at a time: if another thread already is, it delivers these too and
+     * this returns immediately. Observers therefore see a node's changes in order, and the last value they see is the
+     * one the node holds.
+     */
+    protected final void dispatchAttributeChanges() {
+        // A thread that queued a change sees the queue it created; nothing was queued if there is none.
+        if (pendingChanges == null) return;
+
+        synchronized (attributeLock) {
+            if (dispatching || pendingChanges == null || pendingChanges.isEmpty()) return;
+
+            dispatching = true;
+        }
 
-        Iterator<WeakReference<AttributeObserver>> iterator = observers.iterator();
+        boolean cleared = false;
+
+        while (true) {
+            AttributeChange change;
+
+            synchronized (attributeLock) {
+                change = pendingChanges.poll();
+
+                if (change == null) {
+                    dispatching = false;
+                    break;
+                }
+            }
 
-        while (iterator.hasNext()) {
-            WeakReference<AttributeObserver> ref = iterator.next();
+            for (ObserverRef ref : change.observers) {
+                AttributeObserver observer = ref.get();
+
+                if (observer == null) {
+                    cleared = true;
+                    continue;
+                }
+
+                if (change.cycle && observer instanceof ValueUpdater.CycleObserver) continue;
+
+                try {
+                    observer.attributeChanged(this, change.attributeId, change.attributeValue);
+                } catch (Throwable t) {
+                    LOGGER.error("Error notifying observer of change to {} attribute {}.",
+                            getNodeId(), change.attributeId, t);
+                }
+            }
+        }
+
+        if (cleared) {
+            // Drop the observers that have been garbage collected.
+            removeAttributeObserver(null);
+        }
+    }
+
+    /**
+     * @return the references in {@code refs} that haven't been cleared and don't refer to {@code removed}; {@code refs}
+     * itself if that is all of them.
+     */
+    private static ObserverRef[] retain(ObserverRef[] refs, AttributeObserver removed) {
+        ObserverRef[] retained = new ObserverRef[refs.length];
+        int count = 0;
+
+        for (ObserverRef ref : refs) {
             AttributeObserver observer = ref.get();
-            if (observer != null) {
-                observer.attributeChanged(this, attributeId, attributeValue);
-            } else {
-                iterator.remove();
+
+            if (observer != null && observer != removed) {
+                retained[count++] = ref;
             }
         }
+
+        if (count == refs.length) return refs;
+
+        return count == 0 ? NO_OBSERVERS : Arrays.copyOf(retained, count);
+    }
+
+    private static final class ObserverRef extends WeakReference<AttributeObserver> {
+
+        private ObserverRef(AttributeObserver observer) {
+            super(observer);
+        }
+
+    }
+
+    private static final class AttributeChange {
+
+        private final ObserverRef[] observers;
+        private final int attributeId;
+        private final Object attributeValue;
+        private final boolean cycle;
+
+        private AttributeChange(ObserverRef[] observers, int attributeId, Object attributeValue, boolean cycle) {
+            this.observers = observers;
+            this.attributeId = attributeId;
+            this.attributeValue = attributeValue;
+            this.cycle = cycle;
+        }
+
     }
 
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.model;
+
+import java.util.UUID;
+
+import com.digitalpetri.opcua.sdk.server.api.UaNamespace;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExpandedNodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.LocalizedText;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
+import com.digitalpetri.opcua.stack.core.types.structured.AddNodesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.ObjectAttributes;
+import com.digitalpetri.opcua.stack.core.types.structured.VariableAttributes;
+
+/**
+ * Creates the {@link UaNode}s requested by AddNodes.
+ * <p>
+ * Objects and Variables can be created; the attributes of the request that are set override the defaults of
+ * {@link UaObjectNode.UaObjectNodeBuilder} and {@link UaVariableNode.UaVariableNodeBuilder}.
+ */
+public final class UaNodeFactory {
+
+    private UaNodeFactory() {}
+
+    /**
+     * @param namespace      the namespace the node will belong to.
+     * @param nodeId         the {@link NodeId} to give the node.
+     * @param item           the {@link AddNodesItem} describing the node.
+     * @param typeDefinition the {@link NodeId} of the node's type definition.
+     * @return the new, unpublished {@link UaNode}.
+     * @throws UaException if the NodeClass isn't supported or the attributes don't match it.
+     */
+    public static UaNode create(UaNamespace namespace,
+                                NodeId nodeId,
+                                AddNodesItem item,
+                                NodeId typeDefinition) throws UaException {
+
+        QualifiedName browseName = item.getBrowseName();
+
+        if (browseName == null || browseName.getName() == null || browseName.getName().isEmpty()) {
+            throw new UaException(StatusCodes.Bad_BrowseNameInvalid);
+        }
+
+        Object attributes = item.getNodeAttributes() != null ? item.getNodeAttributes().getObject() : null;
+
+        if (item.getNodeClass() == null) {
+            throw new UaException(StatusCodes.Bad_NodeClassInvalid);
+        }
+
+        switch (item.getNodeClass()) {
+            case Object:
+                if (!(attributes instanceof ObjectAttributes)) {
+                    throw new UaException(StatusCodes.Bad_NodeAttributesInvalid);
+                }
+                return createObject(namespace, nodeId, browseName, (ObjectAttributes) attributes, typeDefinition);
+
+            case Variable:
+                if (!(attributes instanceof VariableAttributes)) {
+                    throw new UaException(StatusCodes.Bad_NodeAttributesInvalid);
+                }
+                return createVariable(namespace, nodeId, browseName, (VariableAttributes) attributes, typeDefinition);
+
+            default:
+                throw new UaException(StatusCodes.Bad_NodeClassInvalid);
+        }
+    }
+
+    /**
+     * @return the type definition to use when AddNodes doesn't specify one for {@code item}.
+     */
+    public static NodeId defaultTypeDefinition(AddNodesItem item) {
+        return item.getNodeClass() == NodeClass.Variable ?
+                Identifiers.BaseDataVariableType : Identifiers.BaseObjectType;
+    }
+
+    /**
+     * @return the requested NodeId, or a new one in {@code namespace} if none was requested.
+     * @throws UaException if the requested NodeId isn't in {@code namespace}.
+     */
+    public static NodeId newNodeId(UaNamespace namespace, ExpandedNodeId requestedNewNodeId) throws UaException {
+        if (requestedNewNodeId == null || ExpandedNodeId.NULL_VALUE.equals(requestedNewNodeId)) {
+            return new NodeId(namespace.getNamespaceIndex(), UUID.randomUUID());
+        }
+
+        NodeId nodeId = requestedNewNodeId.local().orElse(null);
+
+        if (nodeId == null || !namespace.getNamespaceIndex().equals(nodeId.getNamespaceIndex())) {
+            throw new UaException(StatusCodes.Bad_NodeIdRejected);
+        }
+
+        return nodeId;
+    }
+
+    /**
+     * @return {@code nodeId} as a local {@link NodeId}.
+     * @throws UaException with {@code statusCode} if {@code nodeId} is null or not local.
+     */
+    public static NodeId local(ExpandedNodeId nodeId, long statusCode) throws UaException {
+        NodeId local = nodeId != null ? nodeId.local().orElse(null) : null;
+
+        if (local == null) throw new UaException(statusCode);
+
+        return local;
+    }
+
+    private static UaObjectNode createObject(UaNamespace namespace,
+                                             NodeId nodeId,
+                                             QualifiedName browseName,
+                                             ObjectAttributes attributes,
+                                             NodeId typeDefinition) {
+
+        UaObjectNode.UaObjectNodeBuilder builder = UaObjectNode.builder(namespace)
+                .setNodeId(nodeId)
+                .setBrowseName(browseName)
+                .setDisplayName(displayName(browseName, attributes.getDisplayName()))
+                .setTypeDefinition(typeDefinition);
+
+        if (attributes.getDescription() != null) builder.setDescription(attributes.getDescription());
+        if (attributes.getWriteMask() != null) builder.setWriteMask(attributes.getWriteMask());
+        if (attributes.getUserWriteMask() != null) builder.setUserWriteMask(attributes.getUserWriteMask());
+        if (attributes.getEventNotifier() != null) builder.setEventNotifier(attributes.getEventNotifier());
+
+        return builder.build();
+    }
+
+    private static UaVariableNode createVariable(UaNamespace namespace,
+                                                 NodeId nodeId,
+                                                 QualifiedName browseName,
+                                                 VariableAttributes attributes,
+                                                 NodeId typeDefinition) throws UaException {
+
+        if (attributes.getDataType() == null || attributes.getDataType().isNull()) {
+            throw new UaException(StatusCodes.Bad_NodeAttributesInvalid);
+        }
+
+        UaVariableNode.UaVariableNodeBuilder builder = UaVariableNode.builder(namespace)
+                .setNodeId(nodeId)
+                .setBrowseName(browseName)
+                .setDisplayName(displayName(browseName, attributes.getDisplayName()))
+                .setDataType(attributes.getDataType())
+                .setTypeDefinition(typeDefinition);
+
+        if (attributes.getDescription() != null) builder.setDescription(attributes.getDescription());
+        if (attributes.getWriteMask() != null) builder.setWriteMask(attributes.getWriteMask());
+        if (attributes.getUserWriteMask() != null) builder.setUserWriteMask(attributes.getUserWriteMask());
+        if (attributes.getValue() != null) builder.setValue(new DataValue(attributes.getValue()));
+        if (attributes.getValueRank() != null) builder.setValueRank(attributes.getValueRank());
+        if (attributes.getArrayDimensions() != null) builder.setArrayDimensions(attributes.getArrayDimensions());
+        if (attributes.getAccessLevel() != null) builder.setAccessLevel(attributes.getAccessLevel());
+        if (attributes.getUserAccessLevel() != null) builder.setUserAccessLevel(attributes.getUserAccessLevel());
+        if (attributes.getMinimumSamplingInterval() != null) {
+            builder.setMinimumSamplingInterval(attributes.getMinimumSamplingInterval());
+        }
+        if (attributes.getHistorizing() != null) builder.setHistorizing(attributes.getHistorizing());
+
+        return builder.build();
+    }
+
+    private static LocalizedText displayName(QualifiedName browseName, LocalizedText displayName) {
+        return displayName != null && displayName.getText() != null ?
+                displayName : LocalizedText.english(browseName.getName());
+    }
+
+}
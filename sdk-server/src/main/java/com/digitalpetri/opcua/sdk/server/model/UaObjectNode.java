@@ -87,7 +87,7 @@ public class UaObjectNode extends UaNode implements ObjectNode {
     }
 
     @Override
-    public synchronized void setEventNotifier(UByte eventNotifier) {
+    public void setEventNotifier(UByte eventNotifier) {
         this.eventNotifier = eventNotifier;
 
         fireAttributeChanged(AttributeIds.EventNotifier, eventNotifier);
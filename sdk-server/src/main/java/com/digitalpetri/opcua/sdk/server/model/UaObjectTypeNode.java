@@ -56,7 +56,7 @@ public class UaObjectTypeNode extends UaNode implements ObjectTypeNode {
     }
 
     @Override
-    public synchronized void setIsAbstract(boolean isAbstract) {
+    public void setIsAbstract(boolean isAbstract) {
         this.isAbstract = isAbstract;
 
         fireAttributeChanged(AttributeIds.IsAbstract, isAbstract);
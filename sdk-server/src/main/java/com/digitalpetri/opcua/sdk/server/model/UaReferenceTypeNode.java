@@ -72,21 +72,21 @@ public class UaReferenceTypeNode extends UaNode implements ReferenceTypeNode {
     }
 
     @Override
-    public synchronized void setIsAbstract(boolean isAbstract) {
+    public void setIsAbstract(boolean isAbstract) {
         this.isAbstract = isAbstract;
 
         fireAttributeChanged(AttributeIds.IsAbstract, isAbstract);
     }
 
     @Override
-    public synchronized void setSymmetric(boolean symmetric) {
+    public void setSymmetric(boolean symmetric) {
         this.symmetric = symmetric;
 
         fireAttributeChanged(AttributeIds.Symmetric, symmetric);
     }
 
     @Override
-    public synchronized void setInverseName(Optional<LocalizedText> inverseName) {
+    public void setInverseName(Optional<LocalizedText> inverseName) {
         this.inverseName = inverseName;
 
         inverseName.ifPresent(v -> fireAttributeChanged(AttributeIds.InverseName, v));
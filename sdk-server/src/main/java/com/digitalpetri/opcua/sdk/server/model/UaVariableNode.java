@@ -150,59 +150,99 @@ public class UaVariableNode extends UaNode implements VariableNode {
     }
 
     @Override
-    public synchronized void setValue(DataValue value) {
-        this.value = value;
+    public void setValue(DataValue value) {
+        synchronized (getAttributeLock()) {
+            this.value = value;
 
-        fireAttributeChanged(AttributeIds.Value, value);
+            queueAttributeChanged(AttributeIds.Value, value);
+        }
+
+        dispatchAttributeChanges();
+    }
+
+    /**
+     * Assign the value without notifying observers; {@link ValueUpdater} notifies them once the batch is applied, with
+     * the value the node holds by then.
+     */
+    void assignValue(DataValue value) {
+        this.value = value;
     }
 
     @Override
-    public synchronized void setDataType(NodeId dataType) {
-        this.dataType = dataType;
+    public void setDataType(NodeId dataType) {
+        synchronized (getAttributeLock()) {
+            this.dataType = dataType;
 
-        fireAttributeChanged(AttributeIds.DataType, dataType);
+            queueAttributeChanged(AttributeIds.DataType, dataType);
+        }
+
+        dispatchAttributeChanges();
     }
 
     @Override
-    public synchronized void setValueRank(Integer valueRank) {
-        this.valueRank = valueRank;
+    public void setValueRank(Integer valueRank) {
+        synchronized (getAttributeLock()) {
+            this.valueRank = valueRank;
 
-        fireAttributeChanged(AttributeIds.ValueRank, valueRank);
+            queueAttributeChanged(AttributeIds.ValueRank, valueRank);
+        }
+
+        dispatchAttributeChanges();
     }
 
     @Override
-    public synchronized void setArrayDimensions(Optional<UInteger[]> arrayDimensions) {
-        this.arrayDimensions = arrayDimensions;
+    public void setArrayDimensions(Optional<UInteger[]> arrayDimensions) {
+        synchronized (getAttributeLock()) {
+            this.arrayDimensions = arrayDimensions;
 
-        arrayDimensions.ifPresent(v -> fireAttributeChanged(AttributeIds.ArrayDimensions, v));
+            arrayDimensions.ifPresent(v -> queueAttributeChanged(AttributeIds.ArrayDimensions, v));
+        }
+
+        dispatchAttributeChanges();
     }
 
     @Override
-    public synchronized void setAccessLevel(UByte accessLevel) {
-        this.accessLevel = accessLevel;
+    public void setAccessLevel(UByte accessLevel) {
+        synchronized (getAttributeLock()) {
+            this.accessLevel = accessLevel;
+
+            queueAttributeChanged(AttributeIds.AccessLevel, accessLevel);
+        }
 
-        fireAttributeChanged(AttributeIds.AccessLevel, accessLevel);
+        dispatchAttributeChanges();
     }
 
     @Override
-    public synchronized void setUserAccessLevel(UByte userAccessLevel) {
-        this.userAccessLevel = userAccessLevel;
+    public void setUserAccessLevel(UByte userAccessLevel) {
+        synchronized (getAttributeLock()) {
+            this.userAccessLevel = userAccessLevel;
+
+            queueAttributeChanged(AttributeIds.UserAccessLevel, userAccessLevel);
+        }
 
-        fireAttributeChanged(AttributeIds.UserAccessLevel, userAccessLevel);
+        dispatchAttributeChanges();
     }
 
     @Override
     public void setMinimumSamplingInterval(Optional<Double> minimumSamplingInterval) {
-        this.minimumSamplingInterval = minimumSamplingInterval;
+        synchronized (getAttributeLock()) {
+            this.minimumSamplingInterval = minimumSamplingInterval;
+
+            minimumSamplingInterval.ifPresent(v -> queueAttributeChanged(AttributeIds.MinimumSamplingInterval, v));
+        }
 
-        minimumSamplingInterval.ifPresent(v -> fireAttributeChanged(AttributeIds.MinimumSamplingInterval, v));
+        dispatchAttributeChanges();
     }
 
     @Override
     public void setHistorizing(boolean historizing) {
-        this.historizing = historizing;
+        synchronized (getAttributeLock()) {
+            this.historizing = historizing;
+
+            queueAttributeChanged(AttributeIds.Historizing, historizing);
+        }
 
-        fireAttributeChanged(AttributeIds.Historizing, historizing);
+        dispatchAttributeChanges();
     }
 
     public Optional<ObjectNode> getModellingRuleNode() {
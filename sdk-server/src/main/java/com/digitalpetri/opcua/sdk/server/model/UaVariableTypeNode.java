@@ -88,35 +88,35 @@ public class UaVariableTypeNode extends UaNode implements VariableTypeNode {
     }
 
     @Override
-    public synchronized void setValue(Optional<DataValue> value) {
+    public void setValue(Optional<DataValue> value) {
         this.value = value;
 
         value.ifPresent(v -> fireAttributeChanged(AttributeIds.Value, v));
     }
 
     @Override
-    public synchronized void setDataType(NodeId dataType) {
+    public void setDataType(NodeId dataType) {
         this.dataType = dataType;
 
         fireAttributeChanged(AttributeIds.Value, dataType);
     }
 
     @Override
-    public synchronized void setValueRank(int valueRank) {
+    public void setValueRank(int valueRank) {
         this.valueRank = valueRank;
 
         fireAttributeChanged(AttributeIds.ValueRank, valueRank);
     }
 
     @Override
-    public synchronized void setArrayDimensions(Optional<UInteger[]> arrayDimensions) {
+    public void setArrayDimensions(Optional<UInteger[]> arrayDimensions) {
         this.arrayDimensions = arrayDimensions;
 
         arrayDimensions.ifPresent(v -> fireAttributeChanged(AttributeIds.ArrayDimensions, v));
     }
 
     @Override
-    public synchronized void setIsAbstract(boolean isAbstract) {
+    public void setIsAbstract(boolean isAbstract) {
         this.isAbstract = isAbstract;
 
         fireAttributeChanged(AttributeIds.IsAbstract, isAbstract);
@@ -64,14 +64,14 @@ public class UaViewNode extends UaNode implements ViewNode {
     }
 
     @Override
-    public synchronized void setContainsNoLoops(boolean containsNoLoops) {
+    public void setContainsNoLoops(boolean containsNoLoops) {
         this.containsNoLoops = containsNoLoops;
 
         fireAttributeChanged(AttributeIds.ContainsNoLoops, containsNoLoops);
     }
 
     @Override
-    public synchronized void setEventNotifier(UByte eventNotifier) {
+    public void setEventNotifier(UByte eventNotifier) {
         this.eventNotifier = eventNotifier;
 
         fireAttributeChanged(AttributeIds.EventNotifier, eventNotifier);
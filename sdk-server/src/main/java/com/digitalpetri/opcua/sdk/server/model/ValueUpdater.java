@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.digitalpetri.opcua.sdk.server.api.UaNamespace;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.google.common.collect.Lists;
+
+/**
+ * Applies the Values of many variables of a namespace in one update cycle, e.g. everything a device driver read in
+ * one scan.
+ * <p>
+ * Every value of a cycle is assigned before any observer is notified, so an observer reading a sibling variable sees
+ * the cycle's value. Each node's observers are then notified with the value the node holds, and finally each
+ * {@link UpdateListener} is notified once for the whole cycle. Observers that are {@link CycleObserver}s, such as the
+ * push bindings of a {@link com.digitalpetri.opcua.sdk.server.util.SubscriptionModel} attached with
+ * {@link com.digitalpetri.opcua.sdk.server.util.SubscriptionModel#setValueUpdater}, are left to the listener, so a
+ * variable that only they observe costs a single field assignment.
+ * <p>
+ * Variables that override {@link UaVariableNode#setValue} are updated through it, after the cycle is assigned.
+ */
+public class ValueUpdater {
+
+    private static final StatusCode NODE_ID_UNKNOWN = new StatusCode(StatusCodes.Bad_NodeIdUnknown);
+    private static final StatusCode NODE_CLASS_INVALID = new StatusCode(StatusCodes.Bad_NodeClassInvalid);
+
+    private final List<UpdateListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final UaNamespace namespace;
+
+    /**
+     * @param namespace the {@link UaNamespace} the variables belong to.
+     */
+    public ValueUpdater(UaNamespace namespace) {
+        this.namespace = namespace;
+    }
+
+    /**
+     * @param listener an {@link UpdateListener} to notify once per update cycle.
+     */
+    public void addUpdateListener(UpdateListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeUpdateListener(UpdateListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Apply one update cycle.
+     *
+     * @param nodeIds the {@link NodeId}s of the variables to update.
+     * @param values  the new values; {@code values[i]} is the value of {@code nodeIds[i]}.
+     * @return the result of each update.
+     */
+    public StatusCode[] update(NodeId[] nodeIds, DataValue[] values) {
+        if (nodeIds.length != values.length) {
+            throw new IllegalArgumentException("nodeIds.length != values.length");
+        }
+
+        StatusCode[] results = new StatusCode[nodeIds.length];
+        UaVariableNode[] nodes = new UaVariableNode[nodeIds.length];
+        int updated = 0;
+
+        for (int i = 0; i < nodeIds.length; i++) {
+            UaNode node = namespace.getNode(nodeIds[i]).orElse(null);
+
+            if (node instanceof UaVariableNode) {
+                nodes[i] = (UaVariableNode) node;
+                results[i] = StatusCode.GOOD;
+                updated++;
+
+                if (node.getClass() == UaVariableNode.class) {
+                    nodes[i].assignValue(values[i]);
+                }
+            } else {
+                results[i] = node == null ? NODE_ID_UNKNOWN : NODE_CLASS_INVALID;
+            }
+        }
+
+        for (int i = 0; i < nodes.length; i++) {
+            UaVariableNode node = nodes[i];
+
+            if (node == null) continue;
+
+            if (node.getClass() == UaVariableNode.class) {
+                boolean queued;
+
+                // A concurrent setValue may have replaced the value; report whatever the node holds now.
+                synchronized (node.getAttributeLock()) {
+                    queued = node.queueCycleValueChanged(node.getValue());
+                }
+
+                if (queued) node.dispatchAttributeChanges();
+            } else {
+                node.setValue(values[i]);
+            }
+        }
+
+        if (updated > 0 && !listeners.isEmpty()) {
+            List<UaVariableNode> cycle = Lists.newArrayListWithCapacity(updated);
+
+            for (UaVariableNode node : nodes) {
+                if (node != null) cycle.add(node);
+            }
+
+            List<UaVariableNode> unmodifiable = Collections.unmodifiableList(cycle);
+
+            for (UpdateListener listener : listeners) {
+                listener.onUpdate(unmodifiable);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * An {@link AttributeObserver} that is told of the Values a {@link ValueUpdater} assigns by one of its
+     * {@link UpdateListener}s, once per cycle, rather than node by node. It is still notified of every other change,
+     * including Values set with {@link UaVariableNode#setValue}.
+     */
+    public interface CycleObserver extends AttributeObserver {}
+
+    public interface UpdateListener {
+
+        /**
+         * Called once per update cycle, on the updating thread, after the changes of every updated node have been
+         * dispatched to its observers. A change is delivered by whichever thread is already dispatching that node's
+         * changes, so it may reach its observers after this is called.
+         *
+         * @param nodes the variables the cycle updated, in the order they were given.
+         */
+        void onUpdate(List<UaVariableNode> nodes);
+
+    }
+
+}
@@ -16,19 +16,24 @@
 
 package com.digitalpetri.opcua.sdk.server.namespaces;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import com.digitalpetri.opcua.sdk.server.api.DataItem;
 import com.digitalpetri.opcua.sdk.server.api.MethodInvocationHandler;
 import com.digitalpetri.opcua.sdk.server.api.MonitoredItem;
+import com.digitalpetri.opcua.sdk.server.api.OperationContext;
 import com.digitalpetri.opcua.sdk.server.api.OpcUaServerConfigLimits;
 import com.digitalpetri.opcua.sdk.server.api.UaNamespace;
+import com.digitalpetri.opcua.sdk.server.diagnostics.ServerMetrics;
+import com.digitalpetri.opcua.sdk.server.history.HistoryStoreManager;
 import com.digitalpetri.opcua.sdk.server.model.DerivedVariableNode;
 import com.digitalpetri.opcua.sdk.server.model.UaMethodNode;
 import com.digitalpetri.opcua.sdk.server.model.UaVariableNode;
@@ -48,6 +53,7 @@ import com.digitalpetri.opcua.sdk.server.model.UaNode;
 import com.digitalpetri.opcua.sdk.server.model.UaObjectNode;
 import com.digitalpetri.opcua.sdk.server.model.objects.ServerNode;
 import com.digitalpetri.opcua.sdk.server.util.AnnotationBasedInvocationHandler;
+import com.digitalpetri.opcua.sdk.server.util.NodeIndex;
 import com.digitalpetri.opcua.stack.core.Identifiers;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.UaException;
@@ -63,6 +69,14 @@ import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
 import com.digitalpetri.opcua.stack.core.types.enumerated.RedundancySupport;
 import com.digitalpetri.opcua.stack.core.types.enumerated.ServerState;
 import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.AddNodesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.AddNodesResult;
+import com.digitalpetri.opcua.stack.core.types.structured.AddReferencesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.DeleteNodesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.DeleteReferencesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadDetails;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadResult;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadValueId;
 import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
 import com.digitalpetri.opcua.stack.core.types.structured.WriteValue;
 import org.slf4j.Logger;
@@ -77,17 +91,25 @@ public class OpcUaNamespace implements UaNamespace {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final Map<NodeId, UaNode> nodes = Maps.newConcurrentMap();
+    private final NodeIndex nodeIndex = new NodeIndex(nodes::values, this::getNode);
 
     private final SubscriptionModel subscriptionModel;
+    private final HistoryStoreManager historyManager;
 
     private final OpcUaServer server;
 
     public OpcUaNamespace(OpcUaServer server) {
         this.server = server;
 
+        historyManager = new HistoryStoreManager(server.getHistoryStore(), this::getNode);
+
         loadNodes();
 
-        subscriptionModel = new SubscriptionModel(this, server.getExecutorService(), server.getScheduledExecutorService());
+        subscriptionModel = new SubscriptionModel(
+                this,
+                server.getExecutorService(),
+                server.getNamespaceExecutor(getNamespaceIndex()),
+                server.getClock());
 
         configureServerObject();
     }
@@ -129,6 +151,9 @@ public class OpcUaNamespace implements UaNamespace {
     @Override
     public void addNode(UaNode node) {
         nodes.put(node.getNodeId(), node);
+        nodeIndex.invalidate(node.getNodeId());
+
+        server.getHistoryRecorder().register(node);
     }
 
     @Override
@@ -143,7 +168,32 @@ public class OpcUaNamespace implements UaNamespace {
 
     @Override
     public Optional<UaNode> removeNode(NodeId nodeId) {
-        return Optional.ofNullable(nodes.remove(nodeId));
+        server.getNamespaceManager().onNodeChanged(nodeId);
+
+        UaNode node = nodes.remove(nodeId);
+        nodeIndex.invalidate(nodeId);
+
+        if (node != null) {
+            server.getHistoryRecorder().unregister(node);
+        }
+
+        return Optional.ofNullable(node);
+    }
+
+    @Override
+    public void onNodeChanged(UaNode node) {
+        server.getNamespaceManager().onNodeChanged(node.getNodeId());
+        nodeIndex.invalidate(node.getNodeId());
+    }
+
+    @Override
+    public boolean reportsNodeChanges() {
+        return true;
+    }
+
+    @Override
+    public Optional<NodeIndex> getNodeIndex() {
+        return Optional.of(nodeIndex);
     }
 
     @Override
@@ -199,6 +249,15 @@ public class OpcUaNamespace implements UaNamespace {
         future.complete(results);
     }
 
+    @Override
+    public void historyRead(HistoryReadDetails details,
+                            TimestampsToReturn timestamps,
+                            List<HistoryReadValueId> nodesToRead,
+                            CompletableFuture<List<HistoryReadResult>> future) {
+
+        historyManager.historyRead(details, timestamps, nodesToRead, future);
+    }
+
     @Override
     public void onDataItemsCreated(List<DataItem> dataItems) {
         subscriptionModel.onDataItemsCreated(dataItems);
@@ -267,6 +326,49 @@ public class OpcUaNamespace implements UaNamespace {
         }
     }
 
+    /**
+     * Nodes can't be added to or deleted from the standard namespace by Clients.
+     */
+    @Override
+    public void addNodes(OperationContext context,
+                         List<AddNodesItem> nodesToAdd,
+                         CompletableFuture<List<AddNodesResult>> future) {
+
+        AddNodesResult result = new AddNodesResult(new StatusCode(StatusCodes.Bad_NotSupported), NodeId.NULL_VALUE);
+
+        future.complete(Collections.nCopies(nodesToAdd.size(), result));
+    }
+
+    @Override
+    public void deleteNodes(OperationContext context,
+                            List<DeleteNodesItem> nodesToDelete,
+                            CompletableFuture<List<StatusCode>> future) {
+
+        StatusCode result = new StatusCode(StatusCodes.Bad_NotSupported);
+
+        future.complete(Collections.nCopies(nodesToDelete.size(), result));
+    }
+
+    @Override
+    public void addReferences(OperationContext context,
+                              List<AddReferencesItem> referencesToAdd,
+                              CompletableFuture<List<StatusCode>> future) {
+
+        StatusCode result = new StatusCode(StatusCodes.Bad_NotSupported);
+
+        future.complete(Collections.nCopies(referencesToAdd.size(), result));
+    }
+
+    @Override
+    public void deleteReferences(OperationContext context,
+                                 List<DeleteReferencesItem> referencesToDelete,
+                                 CompletableFuture<List<StatusCode>> future) {
+
+        StatusCode result = new StatusCode(StatusCodes.Bad_NotSupported);
+
+        future.complete(Collections.nCopies(referencesToDelete.size(), result));
+    }
+
     @Override
     public Optional<MethodInvocationHandler> getInvocationHandler(NodeId methodId) {
         return Optional.ofNullable(nodes.get(methodId))
@@ -304,9 +406,10 @@ public class OpcUaNamespace implements UaNamespace {
 
         replaceServerArrayNode();
         replaceNamespaceArrayNode();
+        replaceServerDiagnosticsSummaryNodes();
 
         serverNode.setAuditing(false);
-        serverNode.getServerDiagnostics().setEnabledFlag(false);
+        serverNode.getServerDiagnostics().setEnabledFlag(true);
         serverNode.setServiceLevel(ubyte(255));
 
         ServerStatusType serverStatus = serverNode.getServerStatus();
@@ -378,6 +481,57 @@ public class OpcUaNamespace implements UaNamespace {
         nodes.put(derived.getNodeId(), derived);
     }
 
+    /**
+     * Replace the children of ServerDiagnosticsSummary with nodes that read from {@link ServerMetrics}. The summary
+     * node assembles its value from its children, so it follows.
+     */
+    private void replaceServerDiagnosticsSummaryNodes() {
+        ServerMetrics metrics = server.getMetrics();
+
+        replaceDerivedNode(Identifiers.Server_ServerDiagnostics_ServerDiagnosticsSummary_ServerViewCount,
+                () -> uint(0));
+        replaceDerivedNode(Identifiers.Server_ServerDiagnostics_ServerDiagnosticsSummary_CurrentSessionCount,
+                () -> uint(metrics.getCurrentSessionCount()));
+        replaceDerivedNode(Identifiers.Server_ServerDiagnostics_ServerDiagnosticsSummary_CumulatedSessionCount,
+                () -> uint(metrics.getCumulatedSessions().getCount()));
+        replaceDerivedNode(Identifiers.Server_ServerDiagnostics_ServerDiagnosticsSummary_SecurityRejectedSessionCount,
+                () -> uint(metrics.getSecurityRejectedSessions().getCount()));
+        replaceDerivedNode(Identifiers.Server_ServerDiagnostics_ServerDiagnosticsSummary_RejectedSessionCount,
+                () -> uint(metrics.getRejectedSessions().getCount()));
+        replaceDerivedNode(Identifiers.Server_ServerDiagnostics_ServerDiagnosticsSummary_SessionTimeoutCount,
+                () -> uint(metrics.getSessionTimeouts().getCount()));
+        replaceDerivedNode(Identifiers.Server_ServerDiagnostics_ServerDiagnosticsSummary_SessionAbortCount,
+                () -> uint(0));
+        replaceDerivedNode(Identifiers.Server_ServerDiagnostics_ServerDiagnosticsSummary_PublishingIntervalCount,
+                () -> uint(metrics.getPublishingIntervalCount()));
+        replaceDerivedNode(Identifiers.Server_ServerDiagnostics_ServerDiagnosticsSummary_CurrentSubscriptionCount,
+                () -> uint(metrics.getCurrentSubscriptionCount()));
+        replaceDerivedNode(Identifiers.Server_ServerDiagnostics_ServerDiagnosticsSummary_CumulatedSubscriptionCount,
+                () -> uint(metrics.getCumulatedSubscriptions().getCount()));
+        replaceDerivedNode(Identifiers.Server_ServerDiagnostics_ServerDiagnosticsSummary_SecurityRejectedRequestsCount,
+                () -> uint(metrics.getSecurityRejectedRequests().getCount()));
+        replaceDerivedNode(Identifiers.Server_ServerDiagnostics_ServerDiagnosticsSummary_RejectedRequestsCount,
+                () -> uint(metrics.getRejectedRequests().getCount()));
+    }
+
+    private void replaceDerivedNode(NodeId nodeId, Supplier<Object> value) {
+        UaVariableNode originalNode = (UaVariableNode) nodes.get(nodeId);
+
+        if (originalNode == null) {
+            logger.warn("Node {} not found; not replaced with derived node.", nodeId);
+            return;
+        }
+
+        UaVariableNode derived = new DerivedVariableNode(this, originalNode) {
+            @Override
+            public DataValue getValue() {
+                return new DataValue(new Variant(value.get()));
+            }
+        };
+
+        nodes.put(derived.getNodeId(), derived);
+    }
+
     private void replaceNamespaceArrayNode() {
         UaVariableNode originalNode = (UaVariableNode) nodes.get(Identifiers.Server_NamespaceArray);
 
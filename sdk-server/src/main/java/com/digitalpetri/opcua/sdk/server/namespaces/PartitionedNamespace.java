@@ -0,0 +1,567 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.namespaces;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.sdk.server.NamespaceManager;
+import com.digitalpetri.opcua.sdk.server.api.DataItem;
+import com.digitalpetri.opcua.sdk.server.api.EventItem;
+import com.digitalpetri.opcua.sdk.server.api.MethodInvocationHandler;
+import com.digitalpetri.opcua.sdk.server.api.MonitoredItem;
+import com.digitalpetri.opcua.sdk.server.api.Namespace;
+import com.digitalpetri.opcua.sdk.server.api.OperationContext;
+import com.digitalpetri.opcua.sdk.server.services.helpers.HistoryReadHelper;
+import com.digitalpetri.opcua.sdk.server.util.PrefixTrie;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExpandedNodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.AddNodesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.AddNodesResult;
+import com.digitalpetri.opcua.stack.core.types.structured.AddReferencesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.CallMethodRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.CallMethodResult;
+import com.digitalpetri.opcua.stack.core.types.structured.DeleteNodesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.DeleteReferencesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadDetails;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadResult;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.WriteValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A {@link Namespace} whose string NodeIds are partitioned by prefix across several {@link Namespace}s, e.g. one per
+ * driver of a gateway. NodeIds whose identifier matches no prefix, and NodeIds that aren't strings, belong to the
+ * fallback namespace. When prefixes overlap the longest one wins.
+ * <p>
+ * {@link NamespaceManager} routes operations on a single node straight to its partition. Batches handed to this
+ * namespace are split by partition and their results gathered back in order.
+ *
+ * @see NamespaceManager#addPartition(UShort, String, Namespace)
+ */
+public class PartitionedNamespace implements Namespace {
+
+    /**
+     * How many NodeIds are drawn under a partition's prefix for a node added without one before it is rejected.
+     */
+    public static final int MAX_NODE_ID_ATTEMPTS = 8;
+
+    private final Map<String, Namespace> partitions = Maps.newLinkedHashMap();
+
+    private volatile PrefixTrie<Namespace> trie = new PrefixTrie<>();
+    private volatile PrefixTrie<String> prefixes = new PrefixTrie<>();
+    private volatile boolean readCacheEnabled;
+
+    private volatile Namespace fallback;
+
+    private final UShort namespaceIndex;
+    private final String namespaceUri;
+
+    /**
+     * @param namespaceIndex the index of the partitioned namespace.
+     * @param namespaceUri   the URI of the partitioned namespace.
+     * @param fallback       the {@link Namespace} of NodeIds that match no partition.
+     */
+    public PartitionedNamespace(UShort namespaceIndex, String namespaceUri, Namespace fallback) {
+        this.namespaceIndex = namespaceIndex;
+        this.namespaceUri = namespaceUri;
+        this.fallback = fallback;
+        this.readCacheEnabled = fallback.isReadCacheEnabled();
+    }
+
+    /**
+     * Route the string NodeIds starting with {@code prefix} to {@code namespace}, replacing any namespace already
+     * added with the same prefix.
+     *
+     * @param prefix    the prefix of the identifiers of the NodeIds {@code namespace} serves.
+     * @param namespace the {@link Namespace} serving those NodeIds.
+     */
+    public synchronized void addPartition(String prefix, Namespace namespace) {
+        partitions.put(prefix, namespace);
+
+        PrefixTrie<Namespace> newTrie = new PrefixTrie<>();
+        PrefixTrie<String> newPrefixes = new PrefixTrie<>();
+
+        partitions.forEach((p, n) -> {
+            newTrie.put(p, n);
+            newPrefixes.put(p, p);
+        });
+
+        updateReadCacheEnabled();
+
+        prefixes = newPrefixes;
+        trie = newTrie;
+    }
+
+    /**
+     * Replace the namespace of the NodeIds that match no partition. The partitions are kept.
+     *
+     * @param fallback the {@link Namespace} of NodeIds that match no partition.
+     */
+    public synchronized void setFallback(Namespace fallback) {
+        this.fallback = fallback;
+
+        updateReadCacheEnabled();
+    }
+
+    private void updateReadCacheEnabled() {
+        readCacheEnabled = fallback.isReadCacheEnabled() &&
+                partitions.values().stream().allMatch(Namespace::isReadCacheEnabled);
+    }
+
+    /**
+     * @return the {@link Namespace} serving {@code nodeId}; the fallback namespace if no partition does.
+     */
+    public Namespace getPartition(NodeId nodeId) {
+        if (nodeId != null) {
+            Object identifier = nodeId.getIdentifier();
+
+            if (identifier instanceof String) {
+                Namespace namespace = trie.longestPrefixMatch((String) identifier);
+
+                if (namespace != null) return namespace;
+            }
+        }
+
+        return fallback;
+    }
+
+    /**
+     * @return a snapshot of the partitions that have been added, not including the fallback namespace.
+     */
+    public synchronized List<Namespace> getPartitions() {
+        return ImmutableList.copyOf(partitions.values());
+    }
+
+    public Namespace getFallback() {
+        return fallback;
+    }
+
+    @Override
+    public UShort getNamespaceIndex() {
+        return namespaceIndex;
+    }
+
+    @Override
+    public String getNamespaceUri() {
+        return namespaceUri;
+    }
+
+    @Override
+    public boolean containsNodeId(NodeId nodeId) {
+        return getPartition(nodeId).containsNodeId(nodeId);
+    }
+
+    @Override
+    public Optional<List<Reference>> getReferences(NodeId nodeId) {
+        return getPartition(nodeId).getReferences(nodeId);
+    }
+
+    @Override
+    public <T> T getAttribute(NodeId nodeId, int attributeId) {
+        return getPartition(nodeId).getAttribute(nodeId, attributeId);
+    }
+
+    @Override
+    public boolean attributeExists(NodeId nodeId, int attributeId) {
+        return getPartition(nodeId).attributeExists(nodeId, attributeId);
+    }
+
+    @Override
+    public List<StatusCode> validateMonitoredItems(List<ReadValueId> readValueIds) {
+        Map<Namespace, List<Integer>> byPartition = partition(readValueIds, ReadValueId::getNodeId);
+
+        if (byPartition.size() == 1) {
+            return byPartition.keySet().iterator().next().validateMonitoredItems(readValueIds);
+        }
+
+        StatusCode[] results = new StatusCode[readValueIds.size()];
+
+        byPartition.forEach((namespace, indices) -> {
+            List<StatusCode> statusCodes = namespace.validateMonitoredItems(select(readValueIds, indices));
+
+            for (int j = 0; j < indices.size(); j++) {
+                results[indices.get(j)] = statusCodes.get(j);
+            }
+        });
+
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public void validateMonitoredItems(List<ReadValueId> readValueIds, CompletableFuture<List<StatusCode>> future) {
+        scatter(readValueIds, ReadValueId::getNodeId,
+                (namespace, ids, indices, f) -> namespace.validateMonitoredItems(ids, f),
+                future);
+    }
+
+    @Override
+    public void read(List<ReadValueId> readValueIds,
+                     Double maxAge,
+                     TimestampsToReturn timestamps,
+                     CompletableFuture<List<DataValue>> future) {
+
+        scatter(readValueIds, ReadValueId::getNodeId,
+                (namespace, ids, indices, f) -> namespace.read(ids, maxAge, timestamps, f),
+                future);
+    }
+
+    @Override
+    public void write(List<WriteValue> writeValues, CompletableFuture<List<StatusCode>> future) {
+        scatter(writeValues, WriteValue::getNodeId,
+                (namespace, values, indices, f) -> namespace.write(values, f),
+                future);
+    }
+
+    @Override
+    public boolean isReadCacheEnabled() {
+        return readCacheEnabled;
+    }
+
+    @Override
+    public void historyRead(HistoryReadDetails details,
+                            TimestampsToReturn timestamps,
+                            List<HistoryReadValueId> nodesToRead,
+                            CompletableFuture<List<HistoryReadResult>> future) {
+
+        scatter(nodesToRead, HistoryReadValueId::getNodeId,
+                (namespace, ids, indices, f) ->
+                        namespace.historyRead(HistoryReadHelper.detailsFor(details, indices), timestamps, ids, f),
+                future);
+    }
+
+    @Override
+    public void call(List<CallMethodRequest> requests, CompletableFuture<List<CallMethodResult>> future) {
+        scatter(requests, CallMethodRequest::getMethodId,
+                (namespace, rs, indices, f) -> namespace.call(rs, f),
+                future);
+    }
+
+    @Override
+    public Optional<MethodInvocationHandler> getInvocationHandler(NodeId methodId) {
+        return getPartition(methodId).getInvocationHandler(methodId);
+    }
+
+    @Override
+    public void onDataItemsCreated(List<DataItem> dataItems) {
+        forEachPartition(dataItems, Namespace::onDataItemsCreated);
+    }
+
+    @Override
+    public void onDataItemsModified(List<DataItem> dataItems) {
+        forEachPartition(dataItems, Namespace::onDataItemsModified);
+    }
+
+    @Override
+    public void onDataItemsDeleted(List<DataItem> dataItems) {
+        forEachPartition(dataItems, Namespace::onDataItemsDeleted);
+    }
+
+    @Override
+    public void onEventItemsCreated(List<EventItem> eventItems) {
+        forEachPartition(eventItems, Namespace::onEventItemsCreated);
+    }
+
+    @Override
+    public void onEventItemsModified(List<EventItem> eventItems) {
+        forEachPartition(eventItems, Namespace::onEventItemsModified);
+    }
+
+    @Override
+    public void onEventItemsDeleted(List<EventItem> eventItems) {
+        forEachPartition(eventItems, Namespace::onEventItemsDeleted);
+    }
+
+    @Override
+    public void onMonitoringModeChanged(List<MonitoredItem> monitoredItems) {
+        forEachPartition(monitoredItems, Namespace::onMonitoringModeChanged);
+    }
+
+    @Override
+    public NodeId addNode(Optional<ExpandedNodeId> requestedNodeId,
+                          QualifiedName browseName,
+                          NodeClass nodeClass,
+                          ExtensionObject nodeAttributes,
+                          ExpandedNodeId typeDefinition) throws UaException {
+
+        Namespace namespace = getPartition(requestedNodeId.flatMap(ExpandedNodeId::local).orElse(null));
+
+        return namespace.addNode(requestedNodeId, browseName, nodeClass, nodeAttributes, typeDefinition);
+    }
+
+    @Override
+    public void deleteNode(NodeId nodeId, boolean deleteTargetReferences) throws UaException {
+        getPartition(nodeId).deleteNode(nodeId, deleteTargetReferences);
+    }
+
+    @Override
+    public void addReference(NodeId sourceNodeId,
+                             NodeId referenceTypeId,
+                             boolean forward,
+                             String targetServerUri,
+                             ExpandedNodeId targetNodeId,
+                             NodeClass targetNodeClass) throws UaException {
+
+        getPartition(sourceNodeId).addReference(
+                sourceNodeId, referenceTypeId, forward, targetServerUri, targetNodeId, targetNodeClass);
+    }
+
+    @Override
+    public void deleteReference(NodeId sourceNodeId,
+                                NodeId referenceTypeId,
+                                boolean forward,
+                                ExpandedNodeId targetNodeId,
+                                boolean bidirectional) throws UaException {
+
+        getPartition(sourceNodeId).deleteReference(
+                sourceNodeId, referenceTypeId, forward, targetNodeId, bidirectional);
+    }
+
+    /**
+     * Nodes are added to the partition of their requested NodeId, or of their parent if no NodeId was requested.
+     * <p>
+     * A node added to a partition without a requested NodeId is given a new string NodeId under the partition's
+     * prefix, so that it is routed back to that partition afterwards. A new NodeId that falls under the longer prefix
+     * of another partition is drawn again; if none of {@link #MAX_NODE_ID_ATTEMPTS} does, the node is rejected with
+     * Bad_NodeIdRejected.
+     */
+    @Override
+    public void addNodes(OperationContext context,
+                         List<AddNodesItem> nodesToAdd,
+                         CompletableFuture<List<AddNodesResult>> future) {
+
+        List<AddNodesItem> items = Lists.newArrayListWithCapacity(nodesToAdd.size());
+        List<Integer> accepted = Lists.newArrayListWithCapacity(nodesToAdd.size());
+
+        for (int i = 0; i < nodesToAdd.size(); i++) {
+            AddNodesItem item = withPartitionNodeId(nodesToAdd.get(i));
+
+            if (item != null) {
+                items.add(item);
+                accepted.add(i);
+            }
+        }
+
+        if (accepted.size() == nodesToAdd.size()) {
+            scatter(items, PartitionedNamespace::routingNodeId,
+                    (namespace, partitionItems, indices, f) -> namespace.addNodes(context, partitionItems, f),
+                    future);
+            return;
+        }
+
+        AddNodesResult rejected = new AddNodesResult(new StatusCode(StatusCodes.Bad_NodeIdRejected), NodeId.NULL_VALUE);
+
+        AddNodesResult[] results = new AddNodesResult[nodesToAdd.size()];
+        Arrays.fill(results, rejected);
+
+        CompletableFuture<List<AddNodesResult>> acceptedFuture = new CompletableFuture<>();
+
+        acceptedFuture.whenComplete((acceptedResults, ex) -> {
+            if (ex != null) {
+                future.completeExceptionally(ex);
+            } else {
+                for (int i = 0; i < accepted.size(); i++) {
+                    results[accepted.get(i)] = acceptedResults.get(i);
+                }
+
+                future.complete(Arrays.asList(results));
+            }
+        });
+
+        scatter(items, PartitionedNamespace::routingNodeId,
+                (namespace, partitionItems, indices, f) -> namespace.addNodes(context, partitionItems, f),
+                acceptedFuture);
+    }
+
+    /**
+     * @return {@code item}, with a new NodeId under its partition's prefix if it needs one, or {@code null} if the
+     * new NodeId would be routed to a different partition.
+     */
+    private AddNodesItem withPartitionNodeId(AddNodesItem item) {
+        ExpandedNodeId requested = item.getRequestedNewNodeId();
+
+        if (requested != null && !ExpandedNodeId.NULL_VALUE.equals(requested)) return item;
+
+        NodeId parentNodeId = routingNodeId(item);
+
+        if (parentNodeId == null || !(parentNodeId.getIdentifier() instanceof String)) return item;
+
+        String prefix = prefixes.longestPrefixMatch((String) parentNodeId.getIdentifier());
+
+        if (prefix == null) return item;
+
+        Namespace partition = getPartition(parentNodeId);
+        NodeId nodeId = null;
+
+        for (int attempt = 0; attempt < MAX_NODE_ID_ATTEMPTS && nodeId == null; attempt++) {
+            NodeId candidate = new NodeId(namespaceIndex, prefix + UUID.randomUUID());
+
+            if (getPartition(candidate) == partition) nodeId = candidate;
+        }
+
+        if (nodeId == null) return null;
+
+        return new AddNodesItem(
+                item.getParentNodeId(),
+                item.getReferenceTypeId(),
+                nodeId.expanded(),
+                item.getBrowseName(),
+                item.getNodeClass(),
+                item.getNodeAttributes(),
+                item.getTypeDefinition());
+    }
+
+    @Override
+    public void deleteNodes(OperationContext context,
+                            List<DeleteNodesItem> nodesToDelete,
+                            CompletableFuture<List<StatusCode>> future) {
+
+        scatter(nodesToDelete, DeleteNodesItem::getNodeId,
+                (namespace, items, indices, f) -> namespace.deleteNodes(context, items, f),
+                future);
+    }
+
+    @Override
+    public void addReferences(OperationContext context,
+                              List<AddReferencesItem> referencesToAdd,
+                              CompletableFuture<List<StatusCode>> future) {
+
+        scatter(referencesToAdd, AddReferencesItem::getSourceNodeId,
+                (namespace, items, indices, f) -> namespace.addReferences(context, items, f),
+                future);
+    }
+
+    @Override
+    public void deleteReferences(OperationContext context,
+                                 List<DeleteReferencesItem> referencesToDelete,
+                                 CompletableFuture<List<StatusCode>> future) {
+
+        scatter(referencesToDelete, DeleteReferencesItem::getSourceNodeId,
+                (namespace, items, indices, f) -> namespace.deleteReferences(context, items, f),
+                future);
+    }
+
+    /**
+     * Group the indices of {@code items} by the partition serving each.
+     */
+    private <T> Map<Namespace, List<Integer>> partition(List<T> items, Function<T, NodeId> nodeId) {
+        Map<Namespace, List<Integer>> byPartition = Maps.newIdentityHashMap();
+
+        for (int i = 0; i < items.size(); i++) {
+            byPartition.computeIfAbsent(
+                    getPartition(nodeId.apply(items.get(i))),
+                    namespace -> Lists.newArrayList()).add(i);
+        }
+
+        return byPartition;
+    }
+
+    /**
+     * Hand each partition its share of {@code items}, then complete {@code future} with the results in order. A batch
+     * that falls entirely within one partition is handed over as is.
+     */
+    private <T, R> void scatter(List<T> items,
+                                Function<T, NodeId> nodeId,
+                                PartitionCall<T, R> call,
+                                CompletableFuture<List<R>> future) {
+
+        Map<Namespace, List<Integer>> byPartition = partition(items, nodeId);
+
+        if (byPartition.size() == 1) {
+            Map.Entry<Namespace, List<Integer>> entry = byPartition.entrySet().iterator().next();
+
+            call.apply(entry.getKey(), items, entry.getValue(), future);
+            return;
+        }
+
+        Object[] results = new Object[items.size()];
+        List<CompletableFuture<Void>> gathered = Lists.newArrayListWithCapacity(byPartition.size());
+
+        byPartition.forEach((namespace, indices) -> {
+            CompletableFuture<List<R>> partitionFuture = new CompletableFuture<>();
+
+            gathered.add(partitionFuture.thenAccept(partitionResults -> {
+                for (int j = 0; j < indices.size(); j++) {
+                    results[indices.get(j)] = partitionResults.get(j);
+                }
+            }));
+
+            call.apply(namespace, select(items, indices), indices, partitionFuture);
+        });
+
+        CompletableFuture.allOf(gathered.toArray(new CompletableFuture<?>[gathered.size()])).whenComplete((v, ex) -> {
+            if (ex != null) {
+                future.completeExceptionally(ex);
+            } else {
+                @SuppressWarnings("unchecked")
+                List<R> ordered = (List<R>) Arrays.asList(results);
+
+                future.complete(ordered);
+            }
+        });
+    }
+
+    private <T extends MonitoredItem> void forEachPartition(List<T> items, BiConsumer<Namespace, List<T>> consumer) {
+        Map<Namespace, List<Integer>> byPartition = partition(items, item -> item.getReadValueId().getNodeId());
+
+        if (byPartition.size() == 1) {
+            consumer.accept(byPartition.keySet().iterator().next(), items);
+        } else {
+            byPartition.forEach((namespace, indices) -> consumer.accept(namespace, select(items, indices)));
+        }
+    }
+
+    private static <T> List<T> select(List<T> items, List<Integer> indices) {
+        return indices.stream().map(items::get).collect(Collectors.toList());
+    }
+
+    private static NodeId routingNodeId(AddNodesItem item) {
+        ExpandedNodeId nodeId = item.getRequestedNewNodeId();
+
+        if (nodeId == null || ExpandedNodeId.NULL_VALUE.equals(nodeId)) {
+            nodeId = item.getParentNodeId();
+        }
+
+        return nodeId != null ? nodeId.local().orElse(null) : null;
+    }
+
+    private interface PartitionCall<T, R> {
+        void apply(Namespace namespace, List<T> items, List<Integer> indices, CompletableFuture<List<R>> future);
+    }
+
+}
@@ -0,0 +1,574 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.namespaces;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.api.DataItem;
+import com.digitalpetri.opcua.sdk.server.api.MethodInvocationHandler;
+import com.digitalpetri.opcua.sdk.server.api.MonitoredItem;
+import com.digitalpetri.opcua.sdk.server.api.ReadWriteManager;
+import com.digitalpetri.opcua.sdk.server.api.UaNamespace;
+import com.digitalpetri.opcua.sdk.server.model.UaMethodNode;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
+import com.digitalpetri.opcua.sdk.server.model.UaVariableNode;
+import com.digitalpetri.opcua.sdk.server.util.NamespaceExecutor;
+import com.digitalpetri.opcua.sdk.server.util.NodeIndex;
+import com.digitalpetri.opcua.sdk.server.util.SubscriptionModel;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExpandedNodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.WriteValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A base class for namespaces with many nodes that spreads them over shards by NodeId hash, so that reading, writing
+ * and sampling scale with the number of cores.
+ * <p>
+ * Each shard owns its nodes and has its own thread and {@link SubscriptionModel}. Reads, writes, sampling and value
+ * updates of a shard's nodes all run on that thread, so they are serialized per shard without locking and proceed in
+ * parallel across shards. Batches spanning several shards are split, run on each shard, and their results gathered
+ * back in order.
+ * <p>
+ * Operations wait for their shard's thread in a {@link NamespaceExecutor} queue of bounded depth. Once a shard's queue
+ * is full its share of a Read or Write fails with Bad_ResourceUnavailable, its samples are skipped, and
+ * {@link #updateValues} reports its values as not applied. The shards' threads are stopped when the server shuts down.
+ * <p>
+ * Lookups that don't touch a node's value, e.g. {@link #containsNodeId} and {@link #getReferences}, are answered on
+ * the calling thread. Subclasses add their nodes with {@link #addNode} and should change values from
+ * {@link #getExecutor(NodeId) the executor} of the node's shard, or with {@link #updateValues}.
+ */
+public abstract class ShardedNamespace implements UaNamespace {
+
+    /**
+     * The default number of operations that may wait for each shard's thread.
+     */
+    public static final int DEFAULT_MAX_QUEUE_DEPTH = 10_000;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Shard[] shards;
+    private final NodeIndex nodeIndex;
+
+    protected final OpcUaServer server;
+    private final UShort namespaceIndex;
+
+    /**
+     * Create a namespace with one shard per available processor.
+     */
+    protected ShardedNamespace(OpcUaServer server, UShort namespaceIndex) {
+        this(server, namespaceIndex, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param server         the {@link OpcUaServer}.
+     * @param namespaceIndex the index of this namespace.
+     * @param shardCount     the number of shards, and of threads.
+     */
+    protected ShardedNamespace(OpcUaServer server, UShort namespaceIndex, int shardCount) {
+        this(server, namespaceIndex, shardCount, DEFAULT_MAX_QUEUE_DEPTH);
+    }
+
+    /**
+     * @param server         the {@link OpcUaServer}.
+     * @param namespaceIndex the index of this namespace.
+     * @param shardCount     the number of shards, and of threads.
+     * @param maxQueueDepth  the maximum number of operations waiting for each shard's thread.
+     */
+    protected ShardedNamespace(OpcUaServer server, UShort namespaceIndex, int shardCount, int maxQueueDepth) {
+        this.server = server;
+        this.namespaceIndex = namespaceIndex;
+
+        shards = new Shard[Math.max(1, shardCount)];
+
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i, maxQueueDepth);
+        }
+
+        nodeIndex = new NodeIndex(this::nodes, this::getNode);
+    }
+
+    @Override
+    public UShort getNamespaceIndex() {
+        return namespaceIndex;
+    }
+
+    /**
+     * @return the executor of the shard owning {@code nodeId}. It throws {@link RejectedExecutionException} once the
+     * shard's queue is full.
+     */
+    public Executor getExecutor(NodeId nodeId) {
+        return shard(nodeId).executor;
+    }
+
+    /**
+     * @return the number of shards.
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Stop the shards' threads. Reads and writes made afterwards fail with Bad_ResourceUnavailable.
+     * <p>
+     * Called by the server when it shuts down.
+     */
+    @Override
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.thread.shutdown();
+        }
+    }
+
+    @Override
+    public boolean containsNodeId(NodeId nodeId) {
+        return shard(nodeId).nodes.containsKey(nodeId);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getAttribute(NodeId nodeId, int attributeId) {
+        UaNode node = shard(nodeId).nodes.get(nodeId);
+
+        if (node != null) {
+            try {
+                return (T) node.readAttribute(attributeId).getValue().getValue();
+            } catch (Throwable t) {
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean attributeExists(NodeId nodeId, int attributeId) {
+        UaNode node = shard(nodeId).nodes.get(nodeId);
+
+        return node != null && node.hasAttribute(attributeId);
+    }
+
+    @Override
+    public Optional<List<Reference>> getReferences(NodeId nodeId) {
+        return getNode(nodeId).map(UaNode::getReferences);
+    }
+
+    @Override
+    public void addNode(UaNode node) {
+        shard(node.getNodeId()).nodes.put(node.getNodeId(), node);
+        nodeIndex.invalidate(node.getNodeId());
+
+        server.getHistoryRecorder().register(node);
+    }
+
+    @Override
+    public Optional<UaNode> getNode(NodeId nodeId) {
+        return Optional.ofNullable(shard(nodeId).nodes.get(nodeId));
+    }
+
+    @Override
+    public Optional<UaNode> getNode(ExpandedNodeId nodeId) {
+        return nodeId.local().flatMap(this::getNode);
+    }
+
+    @Override
+    public Optional<UaNode> removeNode(NodeId nodeId) {
+        server.getNamespaceManager().onNodeChanged(nodeId);
+
+        UaNode node = shard(nodeId).nodes.remove(nodeId);
+        nodeIndex.invalidate(nodeId);
+
+        if (node != null) {
+            server.getHistoryRecorder().unregister(node);
+        }
+
+        return Optional.ofNullable(node);
+    }
+
+    @Override
+    public void onNodeChanged(UaNode node) {
+        server.getNamespaceManager().onNodeChanged(node.getNodeId());
+        nodeIndex.invalidate(node.getNodeId());
+    }
+
+    @Override
+    public boolean reportsNodeChanges() {
+        return true;
+    }
+
+    @Override
+    public Optional<NodeIndex> getNodeIndex() {
+        return Optional.of(nodeIndex);
+    }
+
+    /**
+     * Plain {@link UaVariableNode}s only change when written, so items monitoring them are reported by exception.
+     */
+    @Override
+    public boolean isPushCapable(NodeId nodeId) {
+        UaNode node = shard(nodeId).nodes.get(nodeId);
+
+        return node != null && node.getClass() == UaVariableNode.class;
+    }
+
+    /**
+     * Apply the values on the executors of the variables' shards. The results are known before the values are
+     * applied; values for the same shard are applied in order.
+     */
+    @Override
+    public StatusCode[] updateValues(NodeId[] nodeIds, DataValue[] values) {
+        StatusCode[] results = new StatusCode[nodeIds.length];
+        ValueUpdate[] updates = new ValueUpdate[shards.length];
+
+        for (int i = 0; i < nodeIds.length; i++) {
+            Shard shard = shard(nodeIds[i]);
+            UaNode node = shard.nodes.get(nodeIds[i]);
+
+            if (node instanceof UaVariableNode) {
+                if (updates[shard.index] == null) updates[shard.index] = new ValueUpdate();
+
+                updates[shard.index].add(i, (UaVariableNode) node, values[i]);
+                results[i] = StatusCode.GOOD;
+            } else {
+                results[i] = new StatusCode(node == null ?
+                        StatusCodes.Bad_NodeIdUnknown : StatusCodes.Bad_NodeClassInvalid);
+            }
+        }
+
+        for (int s = 0; s < shards.length; s++) {
+            ValueUpdate update = updates[s];
+
+            if (update == null) continue;
+
+            try {
+                shards[s].executor.execute(update);
+            } catch (RejectedExecutionException e) {
+                for (int i : update.indices) {
+                    results[i] = new StatusCode(StatusCodes.Bad_ResourceUnavailable);
+                }
+            }
+        }
+
+        return results;
+    }
+
+    @Override
+    public void read(List<ReadValueId> readValueIds,
+                     Double maxAge,
+                     TimestampsToReturn timestamps,
+                     CompletableFuture<List<DataValue>> future) {
+
+        scatter(readValueIds, ReadValueId::getNodeId,
+                (shard, ids) -> shard.read(ids, timestamps),
+                status -> new DataValue(status),
+                future);
+    }
+
+    @Override
+    public void write(List<WriteValue> writeValues, CompletableFuture<List<StatusCode>> future) {
+        scatter(writeValues, WriteValue::getNodeId,
+                Shard::write,
+                status -> status,
+                future);
+    }
+
+    @Override
+    public void onDataItemsCreated(List<DataItem> dataItems) {
+        forEachShard(dataItems, SubscriptionModel::onDataItemsCreated);
+    }
+
+    @Override
+    public void onDataItemsModified(List<DataItem> dataItems) {
+        forEachShard(dataItems, SubscriptionModel::onDataItemsModified);
+    }
+
+    @Override
+    public void onDataItemsDeleted(List<DataItem> dataItems) {
+        forEachShard(dataItems, SubscriptionModel::onDataItemsDeleted);
+    }
+
+    @Override
+    public void onMonitoringModeChanged(List<MonitoredItem> monitoredItems) {
+        forEachShard(monitoredItems, SubscriptionModel::onMonitoringModeChanged);
+    }
+
+    @Override
+    public Optional<MethodInvocationHandler> getInvocationHandler(NodeId methodId) {
+        UaNode node = shard(methodId).nodes.get(methodId);
+
+        if (node instanceof UaMethodNode) {
+            return ((UaMethodNode) node).getInvocationHandler();
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    private Shard shard(NodeId nodeId) {
+        int h = nodeId.hashCode();
+
+        return shards[Math.floorMod(h ^ (h >>> 16), shards.length)];
+    }
+
+    private Collection<UaNode> nodes() {
+        ImmutableList.Builder<UaNode> builder = ImmutableList.builder();
+
+        for (Shard shard : shards) {
+            builder.addAll(shard.nodes.values());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Run {@code operation} on each shard with its share of {@code items}, then complete {@code future} with the
+     * results in order.
+     *
+     * @param failure the result of each item of a shard whose executor rejected it or whose operation failed.
+     */
+    private <T, R> void scatter(List<T> items,
+                                Function<T, NodeId> nodeId,
+                                BiFunction<Shard, List<T>, List<R>> operation,
+                                Function<StatusCode, R> failure,
+                                CompletableFuture<List<R>> future) {
+
+        int[] shardOf = new int[items.size()];
+        int[] counts = new int[shards.length];
+        int involved = 0;
+
+        for (int i = 0; i < items.size(); i++) {
+            Shard shard = shard(nodeId.apply(items.get(i)));
+
+            shardOf[i] = shard.index;
+            if (counts[shard.index]++ == 0) involved++;
+        }
+
+        if (involved == 0) {
+            future.complete(Collections.emptyList());
+            return;
+        }
+
+        Object[] results = new Object[items.size()];
+        AtomicInteger remaining = new AtomicInteger(involved);
+
+        for (int s = 0; s < shards.length; s++) {
+            if (counts[s] == 0) continue;
+
+            Shard shard = shards[s];
+            int[] indices = new int[counts[s]];
+            List<T> shardItems;
+
+            if (counts[s] == items.size()) {
+                Arrays.setAll(indices, i -> i);
+                shardItems = items;
+            } else {
+                shardItems = Lists.newArrayListWithCapacity(counts[s]);
+
+                for (int i = 0, j = 0; i < items.size(); i++) {
+                    if (shardOf[i] == s) {
+                        indices[j++] = i;
+                        shardItems.add(items.get(i));
+                    }
+                }
+            }
+
+            Runnable task = () -> {
+                try {
+                    List<R> shardResults = operation.apply(shard, shardItems);
+
+                    for (int j = 0; j < indices.length; j++) {
+                        results[indices[j]] = shardResults.get(j);
+                    }
+                } catch (Throwable t) {
+                    logger.error("Uncaught Throwable on shard {} of namespace {}.", shard.index, namespaceIndex, t);
+
+                    fill(results, indices, failure.apply(new StatusCode(StatusCodes.Bad_InternalError)));
+                }
+
+                if (remaining.decrementAndGet() == 0) complete(future, results);
+            };
+
+            try {
+                shard.executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                fill(results, indices, failure.apply(new StatusCode(StatusCodes.Bad_ResourceUnavailable)));
+
+                if (remaining.decrementAndGet() == 0) complete(future, results);
+            }
+        }
+    }
+
+    private <T extends MonitoredItem> void forEachShard(List<T> items,
+                                                        BiConsumer<SubscriptionModel, List<T>> consumer) {
+
+        Map<Shard, List<T>> byShard = Maps.newIdentityHashMap();
+
+        for (T item : items) {
+            byShard.computeIfAbsent(shard(item.getReadValueId().getNodeId()), s -> Lists.newArrayList()).add(item);
+        }
+
+        byShard.forEach((shard, shardItems) -> consumer.accept(shard.subscriptionModel, shardItems));
+    }
+
+    private static void fill(Object[] results, int[] indices, Object value) {
+        for (int i : indices) {
+            results[i] = value;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> void complete(CompletableFuture<List<R>> future, Object[] results) {
+        future.complete((List<R>) Arrays.asList(results));
+    }
+
+    private final class Shard implements ReadWriteManager {
+
+        private final Map<NodeId, UaNode> nodes = Maps.newConcurrentMap();
+
+        private final int index;
+        private final ExecutorService thread;
+        private final NamespaceExecutor executor;
+        private final SubscriptionModel subscriptionModel;
+
+        private Shard(int index, int maxQueueDepth) {
+            this.index = index;
+
+            ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                    .setNameFormat("ua-namespace-" + namespaceIndex + "-shard-" + index)
+                    .setDaemon(true).build();
+
+            thread = Executors.newSingleThreadExecutor(threadFactory);
+
+            /*
+             * Operations are bounded by the executor's queue. The model's own bookkeeping goes straight to the thread
+             * so it is never rejected; its sampling reads go through the executor and read this shard directly, so a
+             * full queue skips a sample rather than failing it.
+             */
+            executor = new NamespaceExecutor(thread, 1, maxQueueDepth);
+
+            subscriptionModel = new SubscriptionModel(this, thread, executor, server.getClock());
+        }
+
+        @Override
+        public void read(List<ReadValueId> readValueIds,
+                         Double maxAge,
+                         TimestampsToReturn timestamps,
+                         CompletableFuture<List<DataValue>> future) {
+
+            future.complete(read(readValueIds, timestamps));
+        }
+
+        @Override
+        public void write(List<WriteValue> writeValues, CompletableFuture<List<StatusCode>> future) {
+            future.complete(write(writeValues));
+        }
+
+        private List<DataValue> read(List<ReadValueId> readValueIds, TimestampsToReturn timestamps) {
+            List<DataValue> results = Lists.newArrayListWithCapacity(readValueIds.size());
+
+            for (ReadValueId id : readValueIds) {
+                UaNode node = nodes.get(id.getNodeId());
+
+                if (node != null) {
+                    results.add(node.readAttribute(id.getAttributeId().intValue(), timestamps, id.getIndexRange()));
+                } else {
+                    results.add(new DataValue(new StatusCode(StatusCodes.Bad_NodeIdUnknown)));
+                }
+            }
+
+            return results;
+        }
+
+        private List<StatusCode> write(List<WriteValue> writeValues) {
+            List<StatusCode> results = Lists.newArrayListWithCapacity(writeValues.size());
+
+            for (WriteValue writeValue : writeValues) {
+                try {
+                    UaNode node = Optional.ofNullable(nodes.get(writeValue.getNodeId()))
+                            .orElseThrow(() -> new UaException(StatusCodes.Bad_NodeIdUnknown));
+
+                    node.writeAttribute(
+                            server.getNamespaceManager(),
+                            writeValue.getAttributeId().intValue(),
+                            writeValue.getValue(),
+                            writeValue.getIndexRange()
+                    );
+
+                    results.add(StatusCode.GOOD);
+                } catch (UaException e) {
+                    results.add(e.getStatusCode());
+                }
+            }
+
+            return results;
+        }
+
+    }
+
+    /**
+     * The values of one {@link #updateValues} call that belong to one shard.
+     */
+    private static final class ValueUpdate implements Runnable {
+
+        private final List<Integer> indices = Lists.newArrayList();
+        private final List<UaVariableNode> nodes = Lists.newArrayList();
+        private final List<DataValue> values = Lists.newArrayList();
+
+        private void add(int index, UaVariableNode node, DataValue value) {
+            indices.add(index);
+            nodes.add(node);
+            values.add(value);
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < nodes.size(); i++) {
+                nodes.get(i).setValue(values.get(i));
+            }
+        }
+
+    }
+
+}
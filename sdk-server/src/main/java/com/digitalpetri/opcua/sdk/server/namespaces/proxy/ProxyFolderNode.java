@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.namespaces.proxy;
+
+import java.util.Optional;
+
+import com.digitalpetri.opcua.sdk.core.nodes.ObjectNode;
+import com.digitalpetri.opcua.stack.core.types.builtin.LocalizedText;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UByte;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * The folder a {@link ProxyNamespace} organizes the upstream server's objects under. Its attributes are fixed; the
+ * setters throw {@link UnsupportedOperationException}.
+ */
+public class ProxyFolderNode implements ObjectNode {
+
+    private final NodeId nodeId;
+    private final QualifiedName browseName;
+
+    ProxyFolderNode(NodeId nodeId, QualifiedName browseName) {
+        this.nodeId = nodeId;
+        this.browseName = browseName;
+    }
+
+    @Override
+    public NodeId getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public NodeClass getNodeClass() {
+        return NodeClass.Object;
+    }
+
+    @Override
+    public QualifiedName getBrowseName() {
+        return browseName;
+    }
+
+    @Override
+    public LocalizedText getDisplayName() {
+        return LocalizedText.english(browseName.getName());
+    }
+
+    @Override
+    public Optional<LocalizedText> getDescription() {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<UInteger> getWriteMask() {
+        return Optional.of(uint(0));
+    }
+
+    @Override
+    public Optional<UInteger> getUserWriteMask() {
+        return Optional.of(uint(0));
+    }
+
+    @Override
+    public UByte getEventNotifier() {
+        return ubyte(0);
+    }
+
+    @Override
+    public void setNodeId(NodeId nodeId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNodeClass(NodeClass nodeClass) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setBrowseName(QualifiedName browseName) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setDisplayName(LocalizedText displayName) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setDescription(Optional<LocalizedText> description) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setWriteMask(Optional<UInteger> writeMask) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setUserWriteMask(Optional<UInteger> userWriteMask) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setEventNotifier(UByte eventNotifier) {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -0,0 +1,1069 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.namespaces.proxy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import com.digitalpetri.opcua.sdk.client.OpcUaClient;
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.sdk.server.NamespaceManager;
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.api.DataItem;
+import com.digitalpetri.opcua.sdk.server.api.EventItem;
+import com.digitalpetri.opcua.sdk.server.api.MonitoredItem;
+import com.digitalpetri.opcua.sdk.server.api.Namespace;
+import com.digitalpetri.opcua.sdk.server.api.NamespaceExecutorStrategy;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.DiagnosticInfo;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExpandedNodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.enumerated.BrowseDirection;
+import com.digitalpetri.opcua.stack.core.types.enumerated.BrowseResultMask;
+import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.BrowseDescription;
+import com.digitalpetri.opcua.stack.core.types.structured.BrowseResult;
+import com.digitalpetri.opcua.stack.core.types.structured.CallMethodRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.CallMethodResult;
+import com.digitalpetri.opcua.stack.core.types.structured.CallRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.CallResponse;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadDetails;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadResult;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.ReferenceDescription;
+import com.digitalpetri.opcua.stack.core.types.structured.ViewDescription;
+import com.digitalpetri.opcua.stack.core.types.structured.WriteValue;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.digitalpetri.opcua.sdk.core.util.ConversionUtil.a;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * A {@link Namespace} mirroring the address space of an upstream server through an {@link OpcUaClient}, so several
+ * servers can be aggregated behind one endpoint.
+ * <p>
+ * The upstream server's objects are organized under a folder named {@code name} in the Objects folder. Upstream nodes
+ * outside namespace 0 get string NodeIds starting with {@code name + "/"} (see {@link ProxyNodeIds}); namespace 0 is
+ * the same on every server, so its nodes aren't mirrored, and the upstream's own Server object isn't reachable.
+ * <p>
+ * Browse results and attributes other than Value are cached for a time-to-live. Values are always read upstream, with
+ * the requested maxAge passed on; Reads with a non-zero maxAge are answered from the server's read cache when they
+ * can be. Writes, history reads and method calls are forwarded as they are.
+ * <p>
+ * DataItems sampling the same upstream value share one upstream monitored item; see
+ * {@link ProxySubscriptionModel}. Events aren't proxied, so the EventNotifier attribute can't be monitored.
+ * <p>
+ * {@link #containsNodeId}, {@link #getReferences}, {@link #getAttribute}, {@link #attributeExists} and
+ * {@link #validateMonitoredItems(List)} are synchronous. On a cache miss they wait for the upstream server for at most
+ * {@link #MAX_LOOKUP_WAIT_MILLIS}, and at most {@link #MAX_PENDING_LOOKUPS} of them wait at once; past either bound
+ * they answer from the caches alone, and the upstream request carries on filling them. The server only calls them on
+ * the namespace's executor, so a proxy should still be given a {@link NamespaceExecutorStrategy.Type#Dedicated} one.
+ * Monitored items are validated without waiting; see {@link #validateMonitoredItems(List, CompletableFuture)}.
+ * <p>
+ * The upstream NamespaceArray is read in the background when the namespace is created. Until it has been read, or
+ * the timeout has passed, asynchronous operations wait for it and synchronous lookups answer from the caches alone.
+ * <p>
+ * Several upstream servers can share a namespace index by adding each proxy as a partition with its
+ * {@link #getPrefix() prefix}; see {@link NamespaceManager#addPartition(UShort, String, Namespace)}.
+ */
+public class ProxyNamespace implements Namespace {
+
+    public static final long DEFAULT_CACHE_TTL_MILLIS = 5000L;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000L;
+    public static final double DEFAULT_PUBLISHING_INTERVAL = 100.0;
+
+    /**
+     * The longest a synchronous lookup waits for the upstream server before answering from the caches.
+     */
+    public static final long MAX_LOOKUP_WAIT_MILLIS = 1000L;
+
+    /**
+     * The most synchronous lookups waiting for the upstream server at once.
+     */
+    public static final int MAX_PENDING_LOOKUPS = 16;
+
+    private static final ViewDescription NO_VIEW =
+            new ViewDescription(NodeId.NULL_VALUE, DateTime.MIN_VALUE, uint(0));
+
+    private static final UInteger MAX_REFERENCES_PER_NODE = uint(1000);
+
+    /**
+     * The most nodes whose references, and attributes whose values, are cached.
+     */
+    private static final long MAX_CACHED_NODES = 10_000L;
+    private static final long MAX_CACHED_ATTRIBUTES = 100_000L;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Cache<NodeId, Optional<List<Reference>>> references;
+    private final Cache<List<Object>, DataValue> attributes;
+
+    private final Semaphore lookups = new Semaphore(MAX_PENDING_LOOKUPS);
+
+    /**
+     * Completed once the upstream NamespaceArray has first been read, or has failed or timed out.
+     */
+    private final CompletableFuture<Void> upstreamNamespacesRead = new CompletableFuture<>();
+
+    private final ProxySubscriptionModel subscriptionModel;
+    private final ProxyNodeIds nodeIds;
+    private final ProxyFolderNode folderNode;
+
+    private final OpcUaServer server;
+    private final UShort namespaceIndex;
+    private final String namespaceUri;
+    private final OpcUaClient client;
+    private final long timeoutMillis;
+
+    public ProxyNamespace(OpcUaServer server,
+                          UShort namespaceIndex,
+                          String namespaceUri,
+                          String name,
+                          OpcUaClient client) {
+
+        this(server, namespaceIndex, namespaceUri, name, client,
+                DEFAULT_CACHE_TTL_MILLIS, DEFAULT_TIMEOUT_MILLIS, DEFAULT_PUBLISHING_INTERVAL);
+    }
+
+    /**
+     * @param server             the server this namespace belongs to.
+     * @param namespaceIndex     the index of this namespace.
+     * @param namespaceUri       the URI of this namespace.
+     * @param name               the name of the folder the upstream objects are organized under.
+     * @param client             a connected client of the upstream server.
+     * @param cacheTtlMillis     how long browse results and attributes other than Value are cached.
+     * @param timeoutMillis      how long attribute reads, and the first read of the upstream NamespaceArray, wait for
+     *                           the upstream server; synchronous lookups wait at most
+     *                           {@link #MAX_LOOKUP_WAIT_MILLIS}.
+     * @param publishingInterval the publishing interval of the upstream subscription.
+     */
+    public ProxyNamespace(OpcUaServer server,
+                          UShort namespaceIndex,
+                          String namespaceUri,
+                          String name,
+                          OpcUaClient client,
+                          long cacheTtlMillis,
+                          long timeoutMillis,
+                          double publishingInterval) {
+
+        this.server = server;
+        this.namespaceIndex = namespaceIndex;
+        this.namespaceUri = namespaceUri;
+        this.client = client;
+        this.timeoutMillis = timeoutMillis;
+
+        nodeIds = new ProxyNodeIds(namespaceIndex, name + "/", server.getNamespaceManager().getNamespaceTable());
+
+        folderNode = new ProxyFolderNode(new NodeId(namespaceIndex, nodeIds.getPrefix()),
+                new QualifiedName(namespaceIndex, name));
+
+        references = CacheBuilder.newBuilder()
+                .expireAfterWrite(cacheTtlMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(MAX_CACHED_NODES)
+                .build();
+
+        attributes = CacheBuilder.newBuilder()
+                .expireAfterWrite(cacheTtlMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(MAX_CACHED_ATTRIBUTES)
+                .build();
+
+        subscriptionModel = new ProxySubscriptionModel(
+                client, nodeIds, server.getExecutorService(), publishingInterval);
+
+        try {
+            server.getUaNamespace().addReference(
+                    Identifiers.ObjectsFolder,
+                    Identifiers.Organizes,
+                    true, server.getServerTable().getUri(0),
+                    folderNode.getNodeId().expanded(), NodeClass.Object);
+        } catch (UaException e) {
+            logger.error("Error adding reference to Objects folder.", e);
+        }
+
+        ScheduledFuture<?> timeout = server.getScheduledExecutorService().schedule(() -> {
+            if (upstreamNamespacesRead.complete(null)) {
+                logger.warn("Timed out reading the upstream NamespaceArray.");
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+        refreshUpstreamNamespaces().whenComplete((v, ex) -> {
+            timeout.cancel(false);
+
+            if (ex != null) logger.warn("Error reading the upstream NamespaceArray.", ex);
+
+            upstreamNamespacesRead.complete(null);
+        });
+    }
+
+    /**
+     * Read the upstream server's NamespaceArray, which maps the namespace URIs in this namespace's NodeIds to upstream
+     * namespace indices, and clear the caches. Called, without waiting, when the namespace is created; call it again
+     * after the upstream server restarts, in case its namespace indices changed.
+     */
+    public CompletableFuture<Void> refreshUpstreamNamespaces() {
+        ReadValueId readValueId = new ReadValueId(
+                Identifiers.Server_NamespaceArray, uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE);
+
+        return client.read(0.0, TimestampsToReturn.Neither, Collections.singletonList(readValueId))
+                .thenAccept(response -> {
+                    DataValue value = response.getResults()[0];
+                    Object namespaceArray = value.getValue() != null ? value.getValue().getValue() : null;
+
+                    if (!(namespaceArray instanceof String[])) {
+                        throw new CompletionException(new UaException(value.getStatusCode().isGood() ?
+                                StatusCodes.Bad_TypeMismatch : value.getStatusCode().getValue()));
+                    }
+
+                    nodeIds.setUpstreamNamespaces((String[]) namespaceArray);
+
+                    references.invalidateAll();
+                    attributes.invalidateAll();
+                });
+    }
+
+    /**
+     * @return the prefix of the NodeIds in this namespace, e.g. to add it as a partition of a shared namespace.
+     */
+    public String getPrefix() {
+        return nodeIds.getPrefix();
+    }
+
+    public ProxyNodeIds getNodeIds() {
+        return nodeIds;
+    }
+
+    public ProxySubscriptionModel getSubscriptionModel() {
+        return subscriptionModel;
+    }
+
+    public OpcUaClient getClient() {
+        return client;
+    }
+
+    /**
+     * Delete the upstream subscription. The client is left connected.
+     */
+    @Override
+    public void shutdown() {
+        subscriptionModel.shutdown();
+    }
+
+    @Override
+    public UShort getNamespaceIndex() {
+        return namespaceIndex;
+    }
+
+    @Override
+    public String getNamespaceUri() {
+        return namespaceUri;
+    }
+
+    @Override
+    public boolean containsNodeId(NodeId nodeId) {
+        if (folderNode.getNodeId().equals(nodeId)) return true;
+
+        if (nodeIds.toUpstream(nodeId) == null || nodeId.getNamespaceIndex().intValue() == 0) return false;
+
+        Optional<List<Reference>> cached = references.getIfPresent(nodeId);
+
+        if (cached != null) return cached.isPresent();
+
+        return lookupAttributes(Collections.singletonList(key(nodeId, AttributeIds.NodeClass)))
+                .get(0).getStatusCode().isGood();
+    }
+
+    @Override
+    public <T> T getAttribute(NodeId nodeId, int attributeId) {
+        if (folderNode.getNodeId().equals(nodeId)) {
+            return (T) folderNode.readAttribute(attributeId).getValue().getValue();
+        }
+
+        if (nodeIds.toUpstream(nodeId) == null) return null;
+
+        DataValue value = lookupAttributes(Collections.singletonList(key(nodeId, attributeId))).get(0);
+
+        return value.getStatusCode().isGood() && value.getValue() != null ? (T) value.getValue().getValue() : null;
+    }
+
+    @Override
+    public boolean attributeExists(NodeId nodeId, int attributeId) {
+        List<DataValue> values = lookupAttributes(
+                Collections.singletonList(key(nodeId, validationAttribute(attributeId))));
+
+        return validate(values, Collections.singletonList(attributeId)).get(0).isGood();
+    }
+
+    @Override
+    public Optional<List<Reference>> getReferences(NodeId nodeId) {
+        boolean folder = folderNode.getNodeId().equals(nodeId);
+
+        NodeId upstreamId = folder ? Identifiers.ObjectsFolder : nodeIds.toUpstream(nodeId);
+
+        if (upstreamId == null || nodeId.getNamespaceIndex().intValue() == 0) return Optional.empty();
+
+        Optional<List<Reference>> cached = references.getIfPresent(nodeId);
+
+        if (cached != null) return cached;
+
+        return lookup(() -> browseReferences(nodeId, upstreamId, folder)).orElse(Optional.empty());
+    }
+
+    /**
+     * Validate the items the same way as {@link #validateMonitoredItems(List, CompletableFuture)}, from the caches if
+     * the upstream server doesn't answer in time.
+     */
+    @Override
+    public List<StatusCode> validateMonitoredItems(List<ReadValueId> readValueIds) {
+        List<Integer> attributeIds = attributeIds(readValueIds);
+
+        return validateItems(lookupAttributes(validationKeys(readValueIds)), attributeIds);
+    }
+
+    /**
+     * Read the attributes of all the items with one upstream Read, then check them the way the default
+     * implementation does. Events aren't proxied, so items monitoring EventNotifier are rejected.
+     * <p>
+     * {@code future} is completed when the upstream server answers, or with Bad_Timeout if it hasn't within the
+     * timeout; nothing waits for it.
+     */
+    @Override
+    public void validateMonitoredItems(List<ReadValueId> readValueIds, CompletableFuture<List<StatusCode>> future) {
+        List<Integer> attributeIds = attributeIds(readValueIds);
+
+        readAttributes(validationKeys(readValueIds))
+                .thenApply(values -> validateItems(values, attributeIds))
+                .whenComplete((results, ex) -> {
+                    if (results != null) future.complete(results);
+                    else future.completeExceptionally(ex);
+                });
+    }
+
+    @Override
+    public void read(List<ReadValueId> readValueIds,
+                     Double maxAge,
+                     TimestampsToReturn timestamps,
+                     CompletableFuture<List<DataValue>> future) {
+
+        if (!upstreamNamespacesRead.isDone()) {
+            upstreamNamespacesRead.thenRun(() -> read(readValueIds, maxAge, timestamps, future));
+            return;
+        }
+
+        DataValue[] results = new DataValue[readValueIds.size()];
+
+        List<Integer> indices = Lists.newArrayList();
+        List<ReadValueId> upstreamIds = Lists.newArrayList();
+
+        for (int i = 0; i < results.length; i++) {
+            ReadValueId id = readValueIds.get(i);
+            NodeId nodeId = id.getNodeId();
+            int attributeId = id.getAttributeId().intValue();
+
+            if (folderNode.getNodeId().equals(nodeId)) {
+                results[i] = folderNode.readAttribute(attributeId, timestamps, id.getIndexRange());
+                continue;
+            }
+
+            NodeId upstreamId = nodeIds.toUpstream(nodeId);
+
+            if (upstreamId == null || nodeId.getNamespaceIndex().intValue() == 0) {
+                results[i] = new DataValue(new StatusCode(StatusCodes.Bad_NodeIdUnknown));
+                continue;
+            }
+
+            if (attributeId != AttributeIds.Value && id.getIndexRange() == null) {
+                DataValue cached = attributes.getIfPresent(key(nodeId, attributeId));
+
+                if (cached != null) {
+                    results[i] = cached;
+                    continue;
+                }
+            }
+
+            indices.add(i);
+            upstreamIds.add(new ReadValueId(upstreamId, id.getAttributeId(), id.getIndexRange(), id.getDataEncoding()));
+        }
+
+        if (upstreamIds.isEmpty()) {
+            future.complete(Arrays.asList(results));
+            return;
+        }
+
+        double upstreamMaxAge = maxAge != null ? maxAge : 0.0;
+
+        client.read(upstreamMaxAge, timestamps, upstreamIds).whenComplete((response, ex) -> {
+            DataValue[] values = response != null ? response.getResults() : null;
+
+            for (int j = 0; j < indices.size(); j++) {
+                int i = indices.get(j);
+                ReadValueId id = readValueIds.get(i);
+
+                if (values != null && j < values.length) {
+                    results[i] = fromUpstream(id.getNodeId(), id.getAttributeId().intValue(), values[j]);
+
+                    if (id.getIndexRange() == null) cache(id.getNodeId(), id.getAttributeId().intValue(), results[i]);
+                } else {
+                    results[i] = new DataValue(ProxySubscriptionModel.statusCode(ex));
+                }
+            }
+
+            future.complete(Arrays.asList(results));
+        });
+    }
+
+    @Override
+    public void write(List<WriteValue> writeValues, CompletableFuture<List<StatusCode>> future) {
+        if (!upstreamNamespacesRead.isDone()) {
+            upstreamNamespacesRead.thenRun(() -> write(writeValues, future));
+            return;
+        }
+
+        StatusCode[] results = new StatusCode[writeValues.size()];
+
+        List<Integer> indices = Lists.newArrayList();
+        List<WriteValue> upstreamValues = Lists.newArrayList();
+
+        for (int i = 0; i < results.length; i++) {
+            WriteValue value = writeValues.get(i);
+            NodeId nodeId = value.getNodeId();
+
+            if (folderNode.getNodeId().equals(nodeId)) {
+                results[i] = new StatusCode(StatusCodes.Bad_NotWritable);
+                continue;
+            }
+
+            NodeId upstreamId = nodeIds.toUpstream(nodeId);
+
+            if (upstreamId == null || nodeId.getNamespaceIndex().intValue() == 0) {
+                results[i] = new StatusCode(StatusCodes.Bad_NodeIdUnknown);
+                continue;
+            }
+
+            attributes.invalidate(key(nodeId, value.getAttributeId().intValue()));
+
+            indices.add(i);
+            upstreamValues.add(new WriteValue(
+                    upstreamId, value.getAttributeId(), value.getIndexRange(), value.getValue()));
+        }
+
+        if (upstreamValues.isEmpty()) {
+            future.complete(Arrays.asList(results));
+            return;
+        }
+
+        client.write(upstreamValues).whenComplete((response, ex) -> {
+            StatusCode[] statusCodes = response != null ? response.getResults() : null;
+
+            for (int j = 0; j < indices.size(); j++) {
+                results[indices.get(j)] = statusCodes != null && j < statusCodes.length ?
+                        statusCodes[j] : ProxySubscriptionModel.statusCode(ex);
+            }
+
+            future.complete(Arrays.asList(results));
+        });
+    }
+
+    @Override
+    public void historyRead(HistoryReadDetails details,
+                            TimestampsToReturn timestamps,
+                            List<HistoryReadValueId> nodesToRead,
+                            CompletableFuture<List<HistoryReadResult>> future) {
+
+        if (!upstreamNamespacesRead.isDone()) {
+            upstreamNamespacesRead.thenRun(() -> historyRead(details, timestamps, nodesToRead, future));
+            return;
+        }
+
+        List<HistoryReadValueId> upstreamIds = Lists.newArrayListWithCapacity(nodesToRead.size());
+
+        for (HistoryReadValueId id : nodesToRead) {
+            NodeId upstreamId = nodeIds.toUpstream(id.getNodeId());
+
+            upstreamIds.add(new HistoryReadValueId(
+                    upstreamId != null ? upstreamId : NodeId.NULL_VALUE,
+                    id.getIndexRange(), id.getDataEncoding(), id.getContinuationPoint()));
+        }
+
+        client.historyRead(details, timestamps, false, upstreamIds).whenComplete((response, ex) -> {
+            HistoryReadResult[] results = response != null ? response.getResults() : null;
+
+            List<HistoryReadResult> list = Lists.newArrayListWithCapacity(nodesToRead.size());
+
+            for (int i = 0; i < nodesToRead.size(); i++) {
+                list.add(results != null && i < results.length ? results[i] :
+                        new HistoryReadResult(ProxySubscriptionModel.statusCode(ex), null, null));
+            }
+
+            future.complete(list);
+        });
+    }
+
+    @Override
+    public void call(List<CallMethodRequest> requests, CompletableFuture<List<CallMethodResult>> future) {
+        if (!upstreamNamespacesRead.isDone()) {
+            upstreamNamespacesRead.thenRun(() -> call(requests, future));
+            return;
+        }
+
+        List<CallMethodRequest> upstreamRequests = Lists.newArrayListWithCapacity(requests.size());
+
+        for (CallMethodRequest request : requests) {
+            NodeId objectId = nodeIds.toUpstream(request.getObjectId());
+            NodeId methodId = nodeIds.toUpstream(request.getMethodId());
+
+            upstreamRequests.add(new CallMethodRequest(
+                    objectId != null ? objectId : NodeId.NULL_VALUE,
+                    methodId != null ? methodId : NodeId.NULL_VALUE,
+                    request.getInputArguments()));
+        }
+
+        client.getSession().thenCompose(session -> {
+            CallRequest request = new CallRequest(
+                    client.newRequestHeader(session.getAuthToken()),
+                    a(upstreamRequests, CallMethodRequest.class));
+
+            return client.<CallResponse>sendRequest(request);
+        }).whenComplete((response, ex) -> {
+            CallMethodResult[] results = response != null ? response.getResults() : null;
+
+            List<CallMethodResult> list = Lists.newArrayListWithCapacity(requests.size());
+
+            for (int i = 0; i < requests.size(); i++) {
+                list.add(results != null && i < results.length ? results[i] : new CallMethodResult(
+                        ProxySubscriptionModel.statusCode(ex),
+                        new StatusCode[0], new DiagnosticInfo[0], new Variant[0]));
+            }
+
+            future.complete(list);
+        });
+    }
+
+    @Override
+    public void onDataItemsCreated(List<DataItem> dataItems) {
+        // The folder's attributes never change; its items get their one value now.
+        for (DataItem item : dataItems) {
+            ReadValueId readValueId = item.getReadValueId();
+
+            if (folderNode.getNodeId().equals(readValueId.getNodeId())) {
+                item.setValue(folderNode.readAttribute(
+                        readValueId.getAttributeId().intValue(),
+                        item.getTimestampsToReturn(),
+                        readValueId.getIndexRange()));
+            }
+        }
+
+        subscriptionModel.onDataItemsCreated(upstream(dataItems));
+    }
+
+    @Override
+    public void onDataItemsModified(List<DataItem> dataItems) {
+        subscriptionModel.onDataItemsModified(upstream(dataItems));
+    }
+
+    @Override
+    public void onDataItemsDeleted(List<DataItem> dataItems) {
+        subscriptionModel.onDataItemsDeleted(upstream(dataItems));
+    }
+
+    @Override
+    public void onMonitoringModeChanged(List<MonitoredItem> monitoredItems) {
+        subscriptionModel.onMonitoringModeChanged(upstream(monitoredItems));
+    }
+
+    @Override
+    public void onEventItemsCreated(List<EventItem> eventItems) {
+        logger.debug("{} event items created; events aren't proxied.", eventItems.size());
+    }
+
+    private static List<List<Object>> validationKeys(List<ReadValueId> readValueIds) {
+        return readValueIds.stream()
+                .map(id -> key(id.getNodeId(), validationAttribute(id.getAttributeId().intValue())))
+                .collect(Collectors.toList());
+    }
+
+    private static List<Integer> attributeIds(List<ReadValueId> readValueIds) {
+        return readValueIds.stream()
+                .map(id -> id.getAttributeId().intValue())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * {@link #validate} the items, then reject those monitoring EventNotifier.
+     */
+    private static List<StatusCode> validateItems(List<DataValue> values, List<Integer> attributeIds) {
+        List<StatusCode> results = validate(values, attributeIds);
+
+        for (int i = 0; i < results.size(); i++) {
+            if (attributeIds.get(i) == AttributeIds.EventNotifier && results.get(i).isGood()) {
+                results.set(i, new StatusCode(StatusCodes.Bad_NotSupported));
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Check that each node has the attribute at index i of {@code attributeIds}, given the values read for
+     * {@link #validationAttribute its validation attribute}.
+     */
+    private static List<StatusCode> validate(List<DataValue> values, List<Integer> attributeIds) {
+        List<StatusCode> results = Lists.newArrayListWithCapacity(values.size());
+
+        for (int i = 0; i < values.size(); i++) {
+            int attributeId = attributeIds.get(i);
+            DataValue value = values.get(i);
+            long status = value.getStatusCode().getValue();
+
+            if (status == StatusCodes.Bad_NodeIdUnknown || status == StatusCodes.Bad_AttributeIdInvalid) {
+                results.add(new StatusCode(status));
+            } else if (!value.getStatusCode().isGood()) {
+                results.add(value.getStatusCode());
+            } else if (attributeId == AttributeIds.Value) {
+                Object nodeClass = value.getValue().getValue();
+
+                results.add(nodeClass == NodeClass.Variable || nodeClass == NodeClass.VariableType ?
+                        StatusCode.GOOD : new StatusCode(StatusCodes.Bad_AttributeIdInvalid));
+            } else {
+                results.add(StatusCode.GOOD);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * @return the attribute read to check that a node has {@code attributeId}: Value is checked by the node's
+     * NodeClass rather than read.
+     */
+    private static int validationAttribute(int attributeId) {
+        return attributeId == AttributeIds.Value ? AttributeIds.NodeClass : attributeId;
+    }
+
+    /**
+     * Wait a bounded time for {@code lookup}, for a synchronous method.
+     *
+     * @return the lookup's result, or empty if it failed, didn't finish within {@link #MAX_LOOKUP_WAIT_MILLIS}, or
+     * wasn't started because {@link #MAX_PENDING_LOOKUPS} are already waiting. A lookup that didn't finish in time
+     * still fills the caches when it does.
+     */
+    private <T> Optional<T> lookup(Supplier<CompletableFuture<T>> lookup) {
+        if (!upstreamNamespacesRead.isDone() || !lookups.tryAcquire()) return Optional.empty();
+
+        CompletableFuture<T> future;
+
+        try {
+            future = lookup.get();
+        } catch (Throwable t) {
+            lookups.release();
+            logger.warn("Error starting upstream lookup.", t);
+            return Optional.empty();
+        }
+
+        future.whenComplete((r, ex) -> lookups.release());
+
+        long waitMillis = Math.min(timeoutMillis, MAX_LOOKUP_WAIT_MILLIS);
+
+        try {
+            return Optional.ofNullable(future.get(waitMillis, TimeUnit.MILLISECONDS));
+        } catch (ExecutionException e) {
+            logger.debug("Upstream lookup failed.", e.getCause());
+            return Optional.empty();
+        } catch (TimeoutException e) {
+            logger.debug("Upstream lookup still pending; answering from the caches.");
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Read attributes other than Value for a synchronous method: with {@link #readAttributes} if it answers in time,
+     * otherwise from the cache alone.
+     */
+    private List<DataValue> lookupAttributes(List<List<Object>> keys) {
+        return lookup(() -> readAttributes(keys)).orElseGet(() -> cachedAttributes(keys));
+    }
+
+    /**
+     * @return the cached value of each attribute, in order; attributes that aren't cached have a
+     * Bad_ResourceUnavailable value.
+     */
+    private List<DataValue> cachedAttributes(List<List<Object>> keys) {
+        List<DataValue> results = Lists.newArrayListWithCapacity(keys.size());
+
+        for (List<Object> key : keys) {
+            NodeId nodeId = (NodeId) key.get(0);
+            int attributeId = (Integer) key.get(1);
+
+            if (folderNode.getNodeId().equals(nodeId)) {
+                results.add(folderNode.readAttribute(attributeId));
+            } else if (upstreamNamespacesRead.isDone() &&
+                    (nodeIds.toUpstream(nodeId) == null || nodeId.getNamespaceIndex().intValue() == 0)) {
+                results.add(new DataValue(new StatusCode(StatusCodes.Bad_NodeIdUnknown)));
+            } else {
+                DataValue cached = attributes.getIfPresent(key);
+
+                results.add(cached != null ?
+                        cached : new DataValue(new StatusCode(StatusCodes.Bad_ResourceUnavailable)));
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Read attributes other than Value, from the cache or with one upstream Read for those that aren't cached.
+     *
+     * @param keys the (NodeId, attribute id) of each attribute.
+     * @return the value of each attribute, in order. Attributes the upstream server hasn't answered within the timeout
+     * have a Bad_Timeout value.
+     */
+    private CompletableFuture<List<DataValue>> readAttributes(List<List<Object>> keys) {
+        if (!upstreamNamespacesRead.isDone()) {
+            return upstreamNamespacesRead.thenCompose(v -> readAttributes(keys));
+        }
+
+        DataValue[] results = new DataValue[keys.size()];
+
+        List<Integer> indices = Lists.newArrayList();
+        List<ReadValueId> upstreamIds = Lists.newArrayList();
+
+        for (int i = 0; i < results.length; i++) {
+            List<Object> key = keys.get(i);
+            NodeId nodeId = (NodeId) key.get(0);
+            int attributeId = (Integer) key.get(1);
+
+            if (folderNode.getNodeId().equals(nodeId)) {
+                results[i] = folderNode.readAttribute(attributeId);
+                continue;
+            }
+
+            NodeId upstreamId = nodeIds.toUpstream(nodeId);
+
+            if (upstreamId == null || nodeId.getNamespaceIndex().intValue() == 0) {
+                results[i] = new DataValue(new StatusCode(StatusCodes.Bad_NodeIdUnknown));
+                continue;
+            }
+
+            DataValue cached = attributes.getIfPresent(key);
+
+            if (cached != null) {
+                results[i] = cached;
+            } else {
+                indices.add(i);
+                upstreamIds.add(new ReadValueId(upstreamId, uint(attributeId), null, QualifiedName.NULL_VALUE));
+            }
+        }
+
+        if (upstreamIds.isEmpty()) return CompletableFuture.completedFuture(Arrays.asList(results));
+
+        CompletableFuture<List<DataValue>> future = new CompletableFuture<>();
+
+        ScheduledFuture<?> timeout = server.getScheduledExecutorService().schedule(
+                () -> future.complete(fill(results, indices, new StatusCode(StatusCodes.Bad_Timeout))),
+                timeoutMillis, TimeUnit.MILLISECONDS);
+
+        client.read(0.0, TimestampsToReturn.Neither, upstreamIds).whenComplete((response, ex) -> {
+            timeout.cancel(false);
+
+            DataValue[] values = response != null ? response.getResults() : null;
+
+            if (values == null) {
+                future.complete(fill(results, indices, ProxySubscriptionModel.statusCode(ex)));
+                return;
+            }
+
+            DataValue[] read = results.clone();
+
+            for (int j = 0; j < indices.size(); j++) {
+                int i = indices.get(j);
+                List<Object> key = keys.get(i);
+                NodeId nodeId = (NodeId) key.get(0);
+                int attributeId = (Integer) key.get(1);
+
+                if (j < values.length) {
+                    read[i] = fromUpstream(nodeId, attributeId, values[j]);
+                    cache(nodeId, attributeId, read[i]);
+                } else {
+                    read[i] = new DataValue(new StatusCode(StatusCodes.Bad_UnexpectedError));
+                }
+            }
+
+            future.complete(Arrays.asList(read));
+        });
+
+        return future;
+    }
+
+    /**
+     * @return a copy of {@code results} with the value at each of {@code indices} failed with {@code statusCode}.
+     */
+    private static List<DataValue> fill(DataValue[] results, List<Integer> indices, StatusCode statusCode) {
+        DataValue[] filled = results.clone();
+
+        for (int i : indices) {
+            filled[i] = new DataValue(statusCode);
+        }
+
+        return Arrays.asList(filled);
+    }
+
+    /**
+     * @return {@code value} with the NodeIds, browse names and NodeClass of the upstream server translated.
+     */
+    private DataValue fromUpstream(NodeId nodeId, int attributeId, DataValue value) {
+        Object o = value.getValue() != null ? value.getValue().getValue() : null;
+
+        if (o == null) return value;
+
+        Object translated = o;
+
+        switch (attributeId) {
+            case AttributeIds.NodeId:
+                translated = nodeId;
+                break;
+            case AttributeIds.DataType:
+                if (o instanceof NodeId) {
+                    NodeId dataType = nodeIds.toDownstream((NodeId) o);
+                    translated = dataType != null ? dataType : NodeId.NULL_VALUE;
+                }
+                break;
+            case AttributeIds.BrowseName:
+                if (o instanceof QualifiedName) translated = nodeIds.toDownstream((QualifiedName) o);
+                break;
+            case AttributeIds.NodeClass:
+                if (o instanceof Number) translated = nodeClass(((Number) o).intValue());
+                break;
+        }
+
+        if (translated == o) return value;
+
+        return new DataValue(
+                new Variant(translated),
+                value.getStatusCode(),
+                value.getSourceTime(),
+                value.getServerTime());
+    }
+
+    /**
+     * Cache an attribute other than Value if it was read, or if the node or attribute doesn't exist.
+     */
+    private void cache(NodeId nodeId, int attributeId, DataValue value) {
+        if (attributeId == AttributeIds.Value) return;
+
+        long status = value.getStatusCode().getValue();
+
+        if (value.getStatusCode().isGood() ||
+                status == StatusCodes.Bad_NodeIdUnknown ||
+                status == StatusCodes.Bad_AttributeIdInvalid) {
+
+            attributes.put(key(nodeId, attributeId), value);
+        }
+    }
+
+    /**
+     * Browse the references of {@code nodeId} upstream and cache them, or cache that the node doesn't exist.
+     *
+     * @return the references, or empty if the node doesn't exist or the Browse failed.
+     */
+    private CompletableFuture<Optional<List<Reference>>> browseReferences(NodeId nodeId,
+                                                                          NodeId upstreamId,
+                                                                          boolean folder) {
+
+        return browse(upstreamId).handle((descriptions, ex) -> {
+            if (descriptions != null) {
+                List<Reference> list = folder ? folderReferences(descriptions) : Lists.newArrayList();
+
+                if (!folder) {
+                    for (ReferenceDescription description : descriptions) {
+                        reference(nodeId, description).ifPresent(list::add);
+                    }
+                }
+
+                Optional<List<Reference>> result = Optional.of(list);
+                references.put(nodeId, result);
+                return result;
+            }
+
+            if (ProxySubscriptionModel.statusCode(ex).getValue() == StatusCodes.Bad_NodeIdUnknown) {
+                references.put(nodeId, Optional.empty());
+            } else {
+                logger.warn("Error browsing {} upstream.", upstreamId, ex);
+            }
+
+            return Optional.empty();
+        });
+    }
+
+    /**
+     * Browse all references of an upstream node, in both directions, following continuation points.
+     */
+    private CompletableFuture<List<ReferenceDescription>> browse(NodeId upstreamId) {
+        BrowseDescription description = new BrowseDescription(
+                upstreamId,
+                BrowseDirection.Both,
+                Identifiers.References,
+                true,
+                uint(0),
+                uint(BrowseResultMask.All.getValue())
+        );
+
+        return client.browse(NO_VIEW, MAX_REFERENCES_PER_NODE, Collections.singletonList(description))
+                .thenCompose(response -> collect(response.getResults()[0], Lists.newArrayList()));
+    }
+
+    private CompletableFuture<List<ReferenceDescription>> collect(BrowseResult result,
+                                                                  List<ReferenceDescription> descriptions) {
+
+        if (!result.getStatusCode().isGood()) {
+            CompletableFuture<List<ReferenceDescription>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new UaException(result.getStatusCode().getValue()));
+            return failed;
+        }
+
+        if (result.getReferences() != null) {
+            Collections.addAll(descriptions, result.getReferences());
+        }
+
+        ByteString continuationPoint = result.getContinuationPoint();
+
+        if (continuationPoint != null && continuationPoint.isNotNull()) {
+            return client.browseNext(false, Collections.singletonList(continuationPoint))
+                    .thenCompose(response -> collect(response.getResults()[0], descriptions));
+        }
+
+        return CompletableFuture.completedFuture(descriptions);
+    }
+
+    /**
+     * Translate a browsed reference, caching the target's BrowseName, DisplayName and NodeClass along the way since
+     * a Browse asks for them next.
+     *
+     * @return the reference, or empty if its type's namespace isn't in the upstream NamespaceArray.
+     */
+    private Optional<Reference> reference(NodeId sourceId, ReferenceDescription description) {
+        NodeId referenceTypeId = nodeIds.toDownstream(description.getReferenceTypeId());
+
+        if (referenceTypeId == null) return Optional.empty();
+
+        ExpandedNodeId targetId = nodeIds.toDownstream(description.getNodeId());
+
+        targetId.local().filter(id -> id.getNamespaceIndex().equals(namespaceIndex)).ifPresent(id -> {
+            if (description.getBrowseName() != null) {
+                cache(id, AttributeIds.BrowseName,
+                        dv(nodeIds.toDownstream(description.getBrowseName())));
+            }
+            if (description.getDisplayName() != null) {
+                cache(id, AttributeIds.DisplayName, dv(description.getDisplayName()));
+            }
+            if (description.getNodeClass() != null) {
+                cache(id, AttributeIds.NodeClass, dv(description.getNodeClass()));
+            }
+        });
+
+        return Optional.of(new Reference(
+                sourceId,
+                referenceTypeId,
+                targetId,
+                description.getNodeClass(),
+                description.getIsForward()));
+    }
+
+    /**
+     * The folder's references: its type, its parent, and the upstream Objects folder's forward references to nodes
+     * outside namespace 0.
+     */
+    private List<Reference> folderReferences(List<ReferenceDescription> descriptions) {
+        NodeId folderId = folderNode.getNodeId();
+
+        List<Reference> list = Lists.newArrayList();
+
+        list.add(new Reference(
+                folderId, Identifiers.HasTypeDefinition,
+                Identifiers.FolderType.expanded(), NodeClass.ObjectType, true));
+
+        list.add(new Reference(
+                folderId, Identifiers.Organizes,
+                Identifiers.ObjectsFolder.expanded(), NodeClass.Object, false));
+
+        for (ReferenceDescription description : descriptions) {
+            ExpandedNodeId targetId = description.getNodeId();
+
+            if (description.getIsForward() && targetId.getNamespaceIndex().intValue() != 0) {
+                reference(folderId, description).ifPresent(list::add);
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * @return the items monitoring upstream nodes, i.e. all but the folder's.
+     */
+    private <T extends MonitoredItem> List<T> upstream(List<T> items) {
+        return items.stream()
+                .filter(item -> !folderNode.getNodeId().equals(item.getReadValueId().getNodeId()))
+                .collect(Collectors.toList());
+    }
+
+    private static List<Object> key(NodeId nodeId, int attributeId) {
+        return Arrays.asList(nodeId, attributeId);
+    }
+
+    private static DataValue dv(Object o) {
+        return new DataValue(new Variant(o), StatusCode.GOOD, null, null);
+    }
+
+    private static NodeClass nodeClass(int value) {
+        for (NodeClass nodeClass : NodeClass.values()) {
+            if (nodeClass.getValue() == value) return nodeClass;
+        }
+
+        return NodeClass.Unspecified;
+    }
+
+}
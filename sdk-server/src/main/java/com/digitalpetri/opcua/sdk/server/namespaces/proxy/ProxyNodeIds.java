@@ -0,0 +1,281 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.namespaces.proxy;
+
+import java.util.Base64;
+import java.util.Map;
+import java.util.UUID;
+
+import com.digitalpetri.opcua.sdk.core.NamespaceTable;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExpandedNodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.enumerated.IdType;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
+
+/**
+ * Maps NodeIds between an upstream server and the {@link ProxyNamespace} mirroring it.
+ * <p>
+ * An upstream NodeId outside namespace 0 becomes a string NodeId in the proxy's namespace: the prefix followed by
+ * "nsu=&lt;namespace URI&gt;;" and "i=", "s=", "g=" or "b=" (base64) and the identifier, e.g.
+ * "plc1/nsu=urn:acme:plc;s=Line1.Speed". The URI is used rather than the upstream's namespace index, which can change
+ * when the upstream server restarts; '%' and ';' in it are escaped as "%25" and "%3B". NodeIds in namespace 0 are the
+ * same on every server and map to themselves.
+ * <p>
+ * Browse names are qualified by the index of the same namespace URI in the proxy server's namespace table, which it is
+ * added to when first seen.
+ * <p>
+ * Upstream namespace indices are resolved with the upstream NamespaceArray, see {@link #setUpstreamNamespaces}; until
+ * it is set only namespace 0 can be mapped.
+ */
+public class ProxyNodeIds {
+
+    private volatile UpstreamNamespaces upstreamNamespaces = new UpstreamNamespaces(new String[0]);
+
+    private final UShort namespaceIndex;
+    private final String prefix;
+    private final NamespaceTable namespaceTable;
+
+    /**
+     * @param namespaceIndex the index of the proxy's namespace.
+     * @param prefix         the prefix of the NodeIds in the proxy's namespace.
+     * @param namespaceTable the proxy server's namespace table.
+     */
+    public ProxyNodeIds(UShort namespaceIndex, String prefix, NamespaceTable namespaceTable) {
+        this.namespaceIndex = namespaceIndex;
+        this.prefix = prefix;
+        this.namespaceTable = namespaceTable;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @param namespaceArray the value of the upstream server's NamespaceArray.
+     */
+    public void setUpstreamNamespaces(String[] namespaceArray) {
+        upstreamNamespaces = new UpstreamNamespaces(namespaceArray);
+    }
+
+    /**
+     * @param upstreamId a NodeId on the upstream server.
+     * @return the NodeId mirroring it in the proxy's namespace, or {@code null} if its namespace index isn't in the
+     * upstream NamespaceArray.
+     */
+    public NodeId toDownstream(NodeId upstreamId) {
+        int index = upstreamId.getNamespaceIndex().intValue();
+
+        if (index == 0) return upstreamId;
+
+        String namespaceUri = upstreamNamespaces.getUri(index);
+
+        if (namespaceUri == null) return null;
+
+        return toDownstream(namespaceUri, upstreamId.getIdentifier(), upstreamId.getType());
+    }
+
+    /**
+     * A target that is on another server, or whose namespace isn't known upstream, is returned unchanged.
+     *
+     * @param upstreamId an ExpandedNodeId returned by the upstream server.
+     * @return the ExpandedNodeId mirroring it in the proxy's namespace.
+     */
+    public ExpandedNodeId toDownstream(ExpandedNodeId upstreamId) {
+        if (!upstreamId.isLocal()) return upstreamId;
+
+        String namespaceUri = upstreamId.getNamespaceUri();
+
+        if (namespaceUri == null || namespaceUri.isEmpty()) {
+            int index = upstreamId.getNamespaceIndex().intValue();
+
+            if (index == 0) return upstreamId;
+
+            namespaceUri = upstreamNamespaces.getUri(index);
+        } else if (NamespaceTable.OpcUaNamespace.equals(namespaceUri)) {
+            NodeId nodeId = createNodeId(ushort(0), upstreamId.getIdentifier(), upstreamId.getType());
+
+            return nodeId != null ? nodeId.expanded() : upstreamId;
+        }
+
+        if (namespaceUri == null) return upstreamId;
+
+        NodeId nodeId = toDownstream(namespaceUri, upstreamId.getIdentifier(), upstreamId.getType());
+
+        return nodeId != null ? nodeId.expanded() : upstreamId;
+    }
+
+    /**
+     * Browse names outside namespace 0 are qualified by the index of their namespace URI in the proxy server's
+     * namespace table, or by the proxy's namespace if the upstream index isn't in the upstream NamespaceArray.
+     */
+    public QualifiedName toDownstream(QualifiedName upstreamName) {
+        if (upstreamName == null || upstreamName.getNamespaceIndex().intValue() == 0) return upstreamName;
+
+        String namespaceUri = upstreamNamespaces.getUri(upstreamName.getNamespaceIndex().intValue());
+
+        if (namespaceUri == null) return new QualifiedName(namespaceIndex, upstreamName.getName());
+
+        UShort index = namespaceTable.getIndex(namespaceUri);
+
+        if (index == null) {
+            synchronized (namespaceTable) {
+                index = namespaceTable.getIndex(namespaceUri);
+
+                if (index == null) index = namespaceTable.addUri(namespaceUri);
+            }
+        }
+
+        return new QualifiedName(index, upstreamName.getName());
+    }
+
+    /**
+     * @param downstreamId a NodeId in the proxy's namespace, or in namespace 0.
+     * @return the upstream NodeId it mirrors, or {@code null} if it doesn't mirror one, or its namespace URI isn't in
+     * the upstream NamespaceArray.
+     */
+    public NodeId toUpstream(NodeId downstreamId) {
+        if (downstreamId == null) return null;
+
+        int index = downstreamId.getNamespaceIndex().intValue();
+
+        if (index == 0) return downstreamId;
+        if (index != namespaceIndex.intValue()) return null;
+
+        Object identifier = downstreamId.getIdentifier();
+
+        if (!(identifier instanceof String)) return null;
+
+        String s = (String) identifier;
+
+        if (!s.startsWith(prefix) || !s.startsWith("nsu=", prefix.length())) return null;
+
+        int separator = s.indexOf(';', prefix.length());
+
+        if (separator < 0 || separator + 3 > s.length() || s.charAt(separator + 2) != '=') return null;
+
+        try {
+            String namespaceUri = unescape(s.substring(prefix.length() + 4, separator));
+            UShort upstreamIndex = upstreamNamespaces.getIndex(namespaceUri);
+
+            if (upstreamIndex == null) return null;
+
+            String value = s.substring(separator + 3);
+
+            switch (s.charAt(separator + 1)) {
+                case 'i':
+                    return createNodeId(upstreamIndex, uint(Long.parseLong(value)), IdType.Numeric);
+                case 's':
+                    return createNodeId(upstreamIndex, value, IdType.String);
+                case 'g':
+                    return createNodeId(upstreamIndex, UUID.fromString(value), IdType.Guid);
+                case 'b':
+                    ByteString bytes = new ByteString(Base64.getDecoder().decode(value));
+                    return createNodeId(upstreamIndex, bytes, IdType.Opaque);
+                default:
+                    return null;
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private NodeId toDownstream(String namespaceUri, Object identifier, IdType type) {
+        StringBuilder sb = new StringBuilder(prefix).append("nsu=").append(escape(namespaceUri)).append(';');
+
+        switch (type) {
+            case Numeric:
+                sb.append("i=").append(identifier);
+                break;
+            case String:
+                sb.append("s=").append(identifier);
+                break;
+            case Guid:
+                sb.append("g=").append(identifier);
+                break;
+            case Opaque:
+                sb.append("b=").append(Base64.getEncoder().encodeToString(((ByteString) identifier).bytes()));
+                break;
+            default:
+                return null;
+        }
+
+        return new NodeId(namespaceIndex, sb.toString());
+    }
+
+    private static String escape(String namespaceUri) {
+        return namespaceUri.replace("%", "%25").replace(";", "%3B");
+    }
+
+    private static String unescape(String escaped) {
+        return escaped.replace("%3B", ";").replace("%25", "%");
+    }
+
+    private static NodeId createNodeId(UShort namespaceIndex, Object identifier, IdType type) {
+        switch (type) {
+            case Numeric:
+                return new NodeId(namespaceIndex, (UInteger) identifier);
+            case String:
+                return new NodeId(namespaceIndex, (String) identifier);
+            case Guid:
+                return new NodeId(namespaceIndex, (UUID) identifier);
+            case Opaque:
+                return new NodeId(namespaceIndex, (ByteString) identifier);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * An upstream NamespaceArray, indexed both ways.
+     */
+    private static final class UpstreamNamespaces {
+
+        private final String[] uris;
+        private final Map<String, UShort> indices;
+
+        private UpstreamNamespaces(String[] uris) {
+            this.uris = uris.clone();
+
+            Map<String, UShort> map = Maps.newHashMap();
+
+            for (int i = 1; i < uris.length; i++) {
+                if (uris[i] != null) map.putIfAbsent(uris[i], ushort(i));
+            }
+
+            indices = ImmutableMap.copyOf(map);
+        }
+
+        private String getUri(int index) {
+            return index > 0 && index < uris.length ? uris[index] : null;
+        }
+
+        private UShort getIndex(String uri) {
+            return indices.get(uri);
+        }
+
+    }
+
+}
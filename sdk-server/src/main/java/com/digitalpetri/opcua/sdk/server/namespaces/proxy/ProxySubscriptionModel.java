@@ -0,0 +1,391 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.namespaces.proxy;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.digitalpetri.opcua.sdk.client.OpcUaClient;
+import com.digitalpetri.opcua.sdk.client.subscriptions.OpcUaMonitoredItem;
+import com.digitalpetri.opcua.sdk.client.subscriptions.OpcUaSubscription;
+import com.digitalpetri.opcua.sdk.client.subscriptions.OpcUaSubscriptionManager;
+import com.digitalpetri.opcua.sdk.server.api.DataItem;
+import com.digitalpetri.opcua.sdk.server.api.MonitoredItem;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.enumerated.DataChangeTrigger;
+import com.digitalpetri.opcua.stack.core.types.enumerated.DeadbandType;
+import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.DataChangeFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoringParameters;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.digitalpetri.opcua.stack.core.util.ExecutionQueue;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * Monitors the upstream values a {@link ProxyNamespace}'s {@link DataItem}s sample, with as few upstream monitored
+ * items as possible.
+ * <p>
+ * DataItems sampling the same (node, attribute, index range, sampling interval) share one upstream monitored item, and
+ * every notification it receives is delivered to each of them. An item joining an upstream item that already has a
+ * value gets that value straight away. Upstream items report every change of status, value or source timestamp, and
+ * each DataItem applies its own filter. Upstream items are deleted when their last DataItem is deleted, modified away,
+ * or stops sampling.
+ * <p>
+ * All upstream items live in one subscription, created on first use. The subscription's publish loop is run by an
+ * {@link OpcUaSubscriptionManager} of its own, so the client mustn't have other subscriptions.
+ */
+public class ProxySubscriptionModel {
+
+    public static final int MAX_ITEMS_PER_CALL = 1000;
+
+    /**
+     * The most values an upstream item queues between publishes.
+     */
+    private static final int MAX_QUEUE_SIZE = 100;
+
+    /**
+     * The widest trigger, so an upstream item reports every change any of its DataItems' filters could ask for.
+     */
+    private static final DataChangeFilter UPSTREAM_FILTER = new DataChangeFilter(
+            DataChangeTrigger.StatusValueTimestamp,
+            uint(DeadbandType.None.getValue()),
+            0.0
+    );
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final AtomicLong clientHandles = new AtomicLong(1L);
+
+    private final Map<List<Object>, UpstreamItem> upstreamItems = Maps.newHashMap();
+
+    private final Map<DataItem, UpstreamItem> attached = Maps.newHashMap();
+
+    private CompletableFuture<OpcUaSubscription> subscription;
+
+    private final ExecutionQueue executionQueue;
+
+    private final OpcUaClient client;
+    private final OpcUaSubscriptionManager subscriptionManager;
+    private final ProxyNodeIds nodeIds;
+    private final double publishingInterval;
+
+    /**
+     * @param client             the client connected to the upstream server.
+     * @param nodeIds            maps the DataItems' NodeIds to upstream NodeIds.
+     * @param executor           the executor bookkeeping runs on.
+     * @param publishingInterval the publishing interval of the upstream subscription.
+     */
+    public ProxySubscriptionModel(OpcUaClient client,
+                                  ProxyNodeIds nodeIds,
+                                  Executor executor,
+                                  double publishingInterval) {
+
+        this.client = client;
+        this.nodeIds = nodeIds;
+        this.publishingInterval = publishingInterval;
+
+        subscriptionManager = new OpcUaSubscriptionManager(client);
+        executionQueue = new ExecutionQueue(executor);
+    }
+
+    public void onDataItemsCreated(List<DataItem> items) {
+        executionQueue.submit(() -> update(items, false));
+    }
+
+    public void onDataItemsModified(List<DataItem> items) {
+        executionQueue.submit(() -> update(items, false));
+    }
+
+    public void onDataItemsDeleted(List<DataItem> items) {
+        executionQueue.submit(() -> update(items, true));
+    }
+
+    public void onMonitoringModeChanged(List<MonitoredItem> items) {
+        List<DataItem> dataItems = Lists.newArrayListWithCapacity(items.size());
+
+        for (MonitoredItem item : items) {
+            if (item instanceof DataItem) dataItems.add((DataItem) item);
+        }
+
+        executionQueue.submit(() -> update(dataItems, false));
+    }
+
+    /**
+     * Waits for pending bookkeeping, so it mustn't be called from the bookkeeping executor.
+     *
+     * @return the number of upstream monitored items, created or being created.
+     */
+    public int getUpstreamItemCount() {
+        CompletableFuture<Integer> count = new CompletableFuture<>();
+
+        executionQueue.submit(() -> count.complete(upstreamItems.size()));
+
+        return count.join();
+    }
+
+    /**
+     * Delete the upstream subscription; the DataItems get no further values.
+     */
+    public void shutdown() {
+        executionQueue.submit(() -> {
+            upstreamItems.values().forEach(item -> item.deleted = true);
+            upstreamItems.clear();
+            attached.clear();
+
+            if (subscription != null) {
+                subscription.thenAccept(subscriptionManager::deleteSubscription);
+                subscription = null;
+            }
+        });
+    }
+
+    /**
+     * Attach each of {@code items} to the upstream item for its current key, detaching it from the one it was
+     * attached to before, then create the upstream items that are new and delete the ones left without items.
+     *
+     * @param deleted {@code true} if the items have been deleted and should only be detached.
+     */
+    private void update(List<DataItem> items, boolean deleted) {
+        List<UpstreamItem> created = Lists.newArrayList();
+        Set<UpstreamItem> released = Sets.newHashSet();
+
+        for (DataItem item : items) {
+            UpstreamItem current = attached.get(item);
+            List<Object> key = !deleted && item.isSamplingEnabled() ? key(item) : null;
+
+            if (current != null && current.key.equals(key)) continue;
+
+            if (current != null) {
+                attached.remove(item);
+                current.dataItems.remove(item);
+
+                if (current.dataItems.isEmpty()) released.add(current);
+            }
+
+            if (key != null) {
+                UpstreamItem upstreamItem = upstreamItems.get(key);
+
+                if (upstreamItem == null) {
+                    upstreamItem = new UpstreamItem(key, item.getSamplingInterval());
+                    upstreamItems.put(key, upstreamItem);
+                    created.add(upstreamItem);
+                }
+
+                upstreamItem.add(item);
+                attached.put(item, upstreamItem);
+                released.remove(upstreamItem);
+            } else if (!deleted && item.isSamplingEnabled()) {
+                item.setValue(new DataValue(new StatusCode(StatusCodes.Bad_NodeIdUnknown)));
+            }
+        }
+
+        for (UpstreamItem upstreamItem : released) {
+            upstreamItem.deleted = true;
+            upstreamItems.remove(upstreamItem.key);
+        }
+
+        if (!created.isEmpty()) create(created);
+        if (!released.isEmpty()) delete(released);
+    }
+
+    private void create(List<UpstreamItem> items) {
+        CompletableFuture<OpcUaSubscription> s = subscription();
+
+        for (List<UpstreamItem> partition : Lists.partition(items, MAX_ITEMS_PER_CALL)) {
+            List<MonitoredItemCreateRequest> requests = Lists.newArrayListWithCapacity(partition.size());
+
+            for (UpstreamItem item : partition) {
+                int queueSize = (int) Math.min(MAX_QUEUE_SIZE,
+                        Math.max(1L, (long) Math.ceil(publishingInterval / Math.max(1d, item.samplingInterval))));
+
+                MonitoringParameters parameters = new MonitoringParameters(
+                        uint(clientHandles.getAndIncrement()), item.samplingInterval,
+                        new ExtensionObject(UPSTREAM_FILTER), uint(queueSize), true);
+
+                requests.add(new MonitoredItemCreateRequest(
+                        item.readValueId, MonitoringMode.Reporting, parameters));
+            }
+
+            s.thenCompose(sub -> sub.createMonitoredItems(client, TimestampsToReturn.Both, requests))
+                    .whenComplete((monitoredItems, ex) -> {
+                        // Attach consumers before the first Publish can deliver the items' initial values.
+                        if (monitoredItems != null) {
+                            for (int i = 0; i < monitoredItems.size(); i++) {
+                                monitoredItems.get(i).setValueConsumer(partition.get(i)::onValue);
+                            }
+                        }
+
+                        executionQueue.submit(() -> onCreated(partition, monitoredItems, ex));
+                    });
+        }
+    }
+
+    private void onCreated(List<UpstreamItem> items, List<OpcUaMonitoredItem> monitoredItems, Throwable ex) {
+        List<OpcUaMonitoredItem> orphans = Lists.newArrayList();
+
+        for (int i = 0; i < items.size(); i++) {
+            UpstreamItem item = items.get(i);
+            OpcUaMonitoredItem monitoredItem = monitoredItems != null ? monitoredItems.get(i) : null;
+
+            if (monitoredItem != null && monitoredItem.getStatusCode().isGood()) {
+                item.monitoredItem = monitoredItem;
+
+                // Released while it was being created.
+                if (item.deleted) orphans.add(monitoredItem);
+            } else {
+                StatusCode statusCode = monitoredItem != null ? monitoredItem.getStatusCode() : statusCode(ex);
+
+                logger.debug("Upstream monitored item for {} failed: {}", item.readValueId.getNodeId(), statusCode);
+
+                item.onValue(new DataValue(statusCode));
+
+                // Detach its DataItems so they, and the next DataItem with this key, try again when modified.
+                upstreamItems.remove(item.key, item);
+                item.dataItems.forEach(attached::remove);
+            }
+        }
+
+        if (!orphans.isEmpty()) deleteMonitoredItems(orphans);
+    }
+
+    private void delete(Collection<UpstreamItem> items) {
+        List<OpcUaMonitoredItem> monitoredItems = Lists.newArrayListWithCapacity(items.size());
+
+        for (UpstreamItem item : items) {
+            if (item.monitoredItem != null) monitoredItems.add(item.monitoredItem);
+        }
+
+        if (!monitoredItems.isEmpty()) deleteMonitoredItems(monitoredItems);
+    }
+
+    private void deleteMonitoredItems(List<OpcUaMonitoredItem> monitoredItems) {
+        monitoredItems.forEach(item -> item.setValueConsumer(null));
+
+        CompletableFuture<OpcUaSubscription> s = subscription;
+
+        if (s == null) return;
+
+        for (List<OpcUaMonitoredItem> partition : Lists.partition(monitoredItems, MAX_ITEMS_PER_CALL)) {
+            s.thenCompose(sub -> sub.deleteMonitoredItems(client, partition)).whenComplete((results, ex) -> {
+                if (ex != null) logger.warn("Error deleting upstream monitored items.", ex);
+            });
+        }
+    }
+
+    /**
+     * @return the upstream subscription, created if this is the first use or a previous attempt failed.
+     */
+    private CompletableFuture<OpcUaSubscription> subscription() {
+        if (subscription == null || subscription.isCompletedExceptionally()) {
+            subscription = subscriptionManager.createSubscription(publishingInterval);
+        }
+
+        return subscription;
+    }
+
+    /**
+     * @return the key of the upstream item {@code item} shares, or {@code null} if its node isn't upstream.
+     */
+    private List<Object> key(DataItem item) {
+        ReadValueId readValueId = item.getReadValueId();
+        NodeId upstreamId = nodeIds.toUpstream(readValueId.getNodeId());
+
+        if (upstreamId == null) return null;
+
+        return Arrays.asList(
+                upstreamId,
+                readValueId.getAttributeId(),
+                readValueId.getIndexRange(),
+                item.getSamplingInterval());
+    }
+
+    static StatusCode statusCode(Throwable ex) {
+        Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+
+        return cause instanceof UaException ?
+                ((UaException) cause).getStatusCode() : new StatusCode(StatusCodes.Bad_CommunicationError);
+    }
+
+    /**
+     * An upstream monitored item and the DataItems sharing it.
+     */
+    private static class UpstreamItem {
+
+        private final Set<DataItem> dataItems = Collections.newSetFromMap(Maps.newConcurrentMap());
+
+        private volatile DataValue lastValue;
+
+        private OpcUaMonitoredItem monitoredItem;
+        private boolean deleted;
+
+        private final List<Object> key;
+        private final ReadValueId readValueId;
+        private final double samplingInterval;
+
+        private UpstreamItem(List<Object> key, double samplingInterval) {
+            this.key = key;
+            this.samplingInterval = samplingInterval;
+
+            readValueId = new ReadValueId(
+                    (NodeId) key.get(0), (UInteger) key.get(1), (String) key.get(2), QualifiedName.NULL_VALUE);
+        }
+
+        private void add(DataItem item) {
+            dataItems.add(item);
+
+            DataValue value = lastValue;
+
+            if (value != null) {
+                item.setValue(DataValue.derivedValue(value, item.getTimestampsToReturn()));
+            }
+        }
+
+        private void onValue(DataValue value) {
+            lastValue = value;
+
+            for (DataItem item : dataItems) {
+                item.setValue(DataValue.derivedValue(value, item.getTimestampsToReturn()));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.namespaces.tags;
+
+import java.util.Arrays;
+
+/**
+ * A folder in a {@link TagStore}: its path, name and parent, and the numbers of the folders and tags directly in it.
+ * <p>
+ * Children are only ever appended, by the store; readers see a consistent prefix without locking.
+ */
+public class TagFolder {
+
+    private volatile int[] folders = new int[0];
+    private volatile int folderCount = 0;
+
+    private volatile int[] tags = new int[16];
+    private volatile int tagCount = 0;
+
+    private final int index;
+    private final String path;
+    private final String name;
+    private final int parent;
+
+    TagFolder(int index, String path, String name, int parent) {
+        this.index = index;
+        this.path = path;
+        this.name = name;
+        this.parent = parent;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the index of the parent folder, or -1 for the root folder.
+     */
+    public int getParent() {
+        return parent;
+    }
+
+    public int[] getFolders() {
+        int count = folderCount;
+        return Arrays.copyOf(folders, count);
+    }
+
+    public int[] getTags() {
+        int count = tagCount;
+        return Arrays.copyOf(tags, count);
+    }
+
+    /**
+     * @return the number of folders and tags directly in this folder. Children are only ever appended, so this changes
+     * whenever the children do.
+     */
+    public int getChildCount() {
+        return folderCount + tagCount;
+    }
+
+    void addFolder(int folder) {
+        int count = folderCount;
+        if (count == folders.length) folders = Arrays.copyOf(folders, Math.max(4, count * 2));
+        folders[count] = folder;
+        folderCount = count + 1;
+    }
+
+    void addTag(int tag) {
+        int count = tagCount;
+        if (count == tags.length) tags = Arrays.copyOf(tags, count * 2);
+        tags[count] = tag;
+        tagCount = count + 1;
+    }
+
+}
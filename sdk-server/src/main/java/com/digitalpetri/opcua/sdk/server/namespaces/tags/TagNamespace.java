@@ -0,0 +1,342 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.namespaces.tags;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.sdk.core.nodes.Node;
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.api.DataItem;
+import com.digitalpetri.opcua.sdk.server.api.MonitoredItem;
+import com.digitalpetri.opcua.sdk.server.api.Namespace;
+import com.digitalpetri.opcua.sdk.server.util.SubscriptionModel;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.WriteValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Namespace} over a {@link TagStore}, for address spaces of millions of variables.
+ * <p>
+ * No {@code UaNode}s are created: reads, writes and browses go straight to the store, and {@link TagNode} and
+ * {@link TagFolderNode} flyweights are created per operation where a {@link Node} is needed. Folders are Objects of
+ * FolderType and tags are Variables of BaseDataVariableType; both are identified by string NodeIds holding their
+ * paths. The root folder is organized under the Objects folder.
+ * <p>
+ * A folder's references are built once and rebuilt only when a folder or tag is added to it.
+ * <p>
+ * Monitored items are sampled by a {@link SubscriptionModel}.
+ */
+public class TagNamespace implements Namespace {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<Integer, FolderReferences> folderReferences = Maps.newConcurrentMap();
+
+    private final SubscriptionModel subscriptionModel;
+
+    private final OpcUaServer server;
+    private final UShort namespaceIndex;
+    private final String namespaceUri;
+    private final TagStore store;
+
+    public TagNamespace(OpcUaServer server, UShort namespaceIndex, String namespaceUri, TagStore store) {
+        this.server = server;
+        this.namespaceIndex = namespaceIndex;
+        this.namespaceUri = namespaceUri;
+        this.store = store;
+
+        subscriptionModel = new SubscriptionModel(
+                this,
+                server.getExecutorService(),
+                server.getNamespaceExecutor(namespaceIndex),
+                server.getClock());
+
+        try {
+            server.getUaNamespace().addReference(
+                    Identifiers.ObjectsFolder,
+                    Identifiers.Organizes,
+                    true, server.getServerTable().getUri(0),
+                    folderNodeId(store.getRootFolder()).expanded(), NodeClass.Object);
+        } catch (UaException e) {
+            logger.error("Error adding reference to Objects folder.", e);
+        }
+    }
+
+    public TagStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return the {@link NodeId} of {@code tag}.
+     */
+    public NodeId getNodeId(int tag) {
+        return new NodeId(namespaceIndex, store.getPath(tag));
+    }
+
+    /**
+     * @return a flyweight for the tag or folder identified by {@code nodeId}, if there is one.
+     */
+    public Optional<Node> getNode(NodeId nodeId) {
+        String path = path(nodeId);
+        if (path == null) return Optional.empty();
+
+        int tag = store.indexOf(path);
+        if (tag >= 0) return Optional.of(new TagNode(store, namespaceIndex, tag));
+
+        TagFolder folder = store.getFolder(path);
+        if (folder != null) return Optional.of(new TagFolderNode(folder, namespaceIndex));
+
+        return Optional.empty();
+    }
+
+    @Override
+    public UShort getNamespaceIndex() {
+        return namespaceIndex;
+    }
+
+    @Override
+    public String getNamespaceUri() {
+        return namespaceUri;
+    }
+
+    @Override
+    public boolean containsNodeId(NodeId nodeId) {
+        String path = path(nodeId);
+
+        return path != null && (store.indexOf(path) >= 0 || store.getFolder(path) != null);
+    }
+
+    @Override
+    public <T> T getAttribute(NodeId nodeId, int attributeId) {
+        Optional<Node> node = getNode(nodeId);
+        if (node.isPresent()) {
+            try {
+                Variant value = node.get().readAttribute(attributeId).getValue();
+
+                return value != null ? (T) value.getValue() : null;
+            } catch (IndexOutOfBoundsException e) {
+                logger.debug("Tag {} is not in the store.", nodeId, e);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean attributeExists(NodeId nodeId, int attributeId) {
+        return getNode(nodeId).map(node -> node.hasAttribute(attributeId)).orElse(false);
+    }
+
+    @Override
+    public Optional<List<Reference>> getReferences(NodeId nodeId) {
+        String path = path(nodeId);
+        if (path == null) return Optional.empty();
+
+        int tag = store.indexOf(path);
+
+        if (tag >= 0) {
+            List<Reference> references = Lists.newArrayListWithCapacity(2);
+
+            references.add(new Reference(
+                    nodeId, Identifiers.HasTypeDefinition,
+                    Identifiers.BaseDataVariableType.expanded(), NodeClass.VariableType, true));
+
+            references.add(new Reference(
+                    nodeId, Identifiers.Organizes,
+                    folderNodeId(store.getTagFolder(tag)).expanded(), NodeClass.Object, false));
+
+            return Optional.of(references);
+        }
+
+        TagFolder folder = store.getFolder(path);
+
+        if (folder != null) {
+            int childCount = folder.getChildCount();
+
+            FolderReferences cached = folderReferences.get(folder.getIndex());
+
+            if (cached == null || cached.childCount != childCount) {
+                cached = new FolderReferences(childCount, buildReferences(nodeId, folder));
+                folderReferences.put(folder.getIndex(), cached);
+            }
+
+            return Optional.of(cached.references);
+        }
+
+        return Optional.empty();
+    }
+
+    @Override
+    public void read(List<ReadValueId> readValueIds,
+                     Double maxAge,
+                     TimestampsToReturn timestamps,
+                     CompletableFuture<List<DataValue>> future) {
+
+        List<DataValue> results = Lists.newArrayListWithCapacity(readValueIds.size());
+
+        for (ReadValueId id : readValueIds) {
+            Optional<Node> node = getNode(id.getNodeId());
+
+            if (node.isPresent()) {
+                results.add(node.get().readAttribute(
+                        id.getAttributeId().intValue(),
+                        timestamps,
+                        id.getIndexRange()
+                ));
+            } else {
+                results.add(new DataValue(new StatusCode(StatusCodes.Bad_NodeIdUnknown)));
+            }
+        }
+
+        future.complete(results);
+    }
+
+    @Override
+    public void write(List<WriteValue> writeValues, CompletableFuture<List<StatusCode>> future) {
+        List<StatusCode> results = Lists.newArrayListWithCapacity(writeValues.size());
+
+        for (WriteValue writeValue : writeValues) {
+            try {
+                Node node = getNode(writeValue.getNodeId())
+                        .orElseThrow(() -> new UaException(StatusCodes.Bad_NodeIdUnknown));
+
+                node.writeAttribute(
+                        server.getNamespaceManager(),
+                        writeValue.getAttributeId().intValue(),
+                        writeValue.getValue(),
+                        writeValue.getIndexRange()
+                );
+
+                results.add(StatusCode.GOOD);
+            } catch (UaException e) {
+                results.add(e.getStatusCode());
+            } catch (IllegalArgumentException e) {
+                results.add(new StatusCode(StatusCodes.Bad_TypeMismatch));
+            }
+        }
+
+        future.complete(results);
+    }
+
+    /**
+     * Reads are served straight from the store, which is cheaper than going through the read cache.
+     */
+    @Override
+    public boolean isReadCacheEnabled() {
+        return false;
+    }
+
+    @Override
+    public void onDataItemsCreated(List<DataItem> dataItems) {
+        subscriptionModel.onDataItemsCreated(dataItems);
+    }
+
+    @Override
+    public void onDataItemsModified(List<DataItem> dataItems) {
+        subscriptionModel.onDataItemsModified(dataItems);
+    }
+
+    @Override
+    public void onDataItemsDeleted(List<DataItem> dataItems) {
+        subscriptionModel.onDataItemsDeleted(dataItems);
+    }
+
+    @Override
+    public void onMonitoringModeChanged(List<MonitoredItem> monitoredItems) {
+        subscriptionModel.onMonitoringModeChanged(monitoredItems);
+    }
+
+    /**
+     * @return the references of {@code folder}: its type definition, its parent, and every folder and tag in it.
+     */
+    private List<Reference> buildReferences(NodeId nodeId, TagFolder folder) {
+        int[] folders = folder.getFolders();
+        int[] tags = folder.getTags();
+
+        ImmutableList.Builder<Reference> references = ImmutableList.builder();
+
+        references.add(new Reference(
+                nodeId, Identifiers.HasTypeDefinition,
+                Identifiers.FolderType.expanded(), NodeClass.ObjectType, true));
+
+        NodeId parent = folder.getParent() >= 0 ?
+                folderNodeId(store.getFolder(folder.getParent())) : Identifiers.ObjectsFolder;
+
+        references.add(new Reference(
+                nodeId, Identifiers.Organizes,
+                parent.expanded(), NodeClass.Object, false));
+
+        for (int child : folders) {
+            references.add(new Reference(
+                    nodeId, Identifiers.Organizes,
+                    folderNodeId(store.getFolder(child)).expanded(), NodeClass.Object, true));
+        }
+
+        for (int child : tags) {
+            references.add(new Reference(
+                    nodeId, Identifiers.Organizes,
+                    getNodeId(child).expanded(), NodeClass.Variable, true));
+        }
+
+        return references.build();
+    }
+
+    private NodeId folderNodeId(TagFolder folder) {
+        return new NodeId(namespaceIndex, folder.getPath());
+    }
+
+    /**
+     * @return the path {@code nodeId} identifies in this namespace, or {@code null} if it can't identify a tag or
+     * folder.
+     */
+    private String path(NodeId nodeId) {
+        if (nodeId == null || !namespaceIndex.equals(nodeId.getNamespaceIndex())) return null;
+
+        Object identifier = nodeId.getIdentifier();
+
+        return identifier instanceof String ? (String) identifier : null;
+    }
+
+    private static class FolderReferences {
+        private final int childCount;
+        private final List<Reference> references;
+
+        private FolderReferences(int childCount, List<Reference> references) {
+            this.childCount = childCount;
+            this.references = references;
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.namespaces.tags;
+
+import java.util.Optional;
+
+import com.digitalpetri.opcua.sdk.core.nodes.VariableNode;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.LocalizedText;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UByte;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+/**
+ * A flyweight {@link VariableNode} over one tag of a {@link TagStore}. Every attribute is read from, and the Value
+ * written to, the store; nothing is cached, so instances are cheap to create per request and never go stale.
+ * <p>
+ * Only the Value attribute can be written; the other setters throw {@link UnsupportedOperationException}.
+ */
+public class TagNode implements VariableNode {
+
+    private final TagStore store;
+    private final UShort namespaceIndex;
+    private final int tag;
+
+    TagNode(TagStore store, UShort namespaceIndex, int tag) {
+        this.store = store;
+        this.namespaceIndex = namespaceIndex;
+        this.tag = tag;
+    }
+
+    /**
+     * @return the number of this node's tag in its {@link TagStore}.
+     */
+    public int getTag() {
+        return tag;
+    }
+
+    @Override
+    public NodeId getNodeId() {
+        return new NodeId(namespaceIndex, store.getPath(tag));
+    }
+
+    @Override
+    public NodeClass getNodeClass() {
+        return NodeClass.Variable;
+    }
+
+    @Override
+    public QualifiedName getBrowseName() {
+        return new QualifiedName(namespaceIndex, store.getName(tag));
+    }
+
+    @Override
+    public LocalizedText getDisplayName() {
+        return LocalizedText.english(store.getName(tag));
+    }
+
+    @Override
+    public Optional<LocalizedText> getDescription() {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<UInteger> getWriteMask() {
+        return Optional.of(uint(0));
+    }
+
+    @Override
+    public Optional<UInteger> getUserWriteMask() {
+        return Optional.of(uint(0));
+    }
+
+    @Override
+    public DataValue getValue() {
+        return store.getValue(tag);
+    }
+
+    @Override
+    public NodeId getDataType() {
+        return new NodeId(0, store.getType(tag).getId());
+    }
+
+    @Override
+    public Integer getValueRank() {
+        return -1;
+    }
+
+    @Override
+    public Optional<UInteger[]> getArrayDimensions() {
+        return Optional.empty();
+    }
+
+    @Override
+    public UByte getAccessLevel() {
+        return ubyte(store.getAccessLevel(tag));
+    }
+
+    @Override
+    public UByte getUserAccessLevel() {
+        return ubyte(store.getAccessLevel(tag));
+    }
+
+    @Override
+    public Optional<Double> getMinimumSamplingInterval() {
+        return Optional.of(0.0);
+    }
+
+    @Override
+    public Boolean getHistorizing() {
+        return false;
+    }
+
+    @Override
+    public void setValue(DataValue value) {
+        store.setValue(tag, value);
+    }
+
+    @Override
+    public void setNodeId(NodeId nodeId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNodeClass(NodeClass nodeClass) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setBrowseName(QualifiedName browseName) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setDisplayName(LocalizedText displayName) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setDescription(Optional<LocalizedText> description) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setWriteMask(Optional<UInteger> writeMask) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setUserWriteMask(Optional<UInteger> userWriteMask) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setDataType(NodeId dataType) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setValueRank(Integer valueRank) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setArrayDimensions(Optional<UInteger[]> arrayDimensions) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setAccessLevel(UByte accessLevel) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setUserAccessLevel(UByte userAccessLevel) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setMinimumSamplingInterval(Optional<Double> minimumSamplingInterval) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setHistorizing(boolean historizing) {
+        throw new UnsupportedOperationException();
+    }
+
+}
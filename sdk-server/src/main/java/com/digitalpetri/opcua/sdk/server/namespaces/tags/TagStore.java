@@ -0,0 +1,457 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.namespaces.tags;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+import com.digitalpetri.opcua.sdk.server.history.ValueType;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * A fixed-capacity, off-heap store of scalar tags, for address spaces too large to hold as {@code UaVariableNode}s.
+ * <p>
+ * Tags are numbered in the order they are added. Their current value, status and timestamps are kept in direct
+ * {@link ByteBuffer} columns indexed by tag number; their attributes are kept in a compact table alongside, with the
+ * tag paths as UTF-8 in one buffer and an open-addressing hash table from path to tag number. The only per-tag heap
+ * cost is one int in the child list of the tag's folder.
+ * <p>
+ * Folders are few and are kept on heap. Paths are '/'-separated and start with the root folder's name; a tag's path is
+ * its folder's path followed by its name.
+ * <p>
+ * Tags can be added concurrently with reads and writes, but never removed.
+ */
+public class TagStore {
+
+    public static final int DEFAULT_STRIPES = 64;
+
+    private static final int VALUE_BYTES = 8;
+    private static final int STATUS_BYTES = 4;
+    private static final int TIME_BYTES = 8;
+    private static final int ATTRIBUTE_BYTES = 16;
+    private static final int FLAG_BYTES = 1;
+
+    /**
+     * Set in a tag's flags when its value is null rather than the zero held in the value column.
+     */
+    private static final byte NULL_VALUE = 0x01;
+
+    /**
+     * Milliseconds between the DateTime epoch (1601-01-01) and the Java epoch.
+     */
+    private static final long EPOCH_DELTA_MILLIS = 11644473600000L;
+    private static final long TICKS_PER_MILLI = 10_000L;
+
+    /*
+     * Attribute table row: type (1), access level (1), name length (2), name offset (4), folder (4), path length (4).
+     */
+    private static final int TYPE_OFFSET = 0;
+    private static final int ACCESS_OFFSET = 1;
+    private static final int NAME_LENGTH_OFFSET = 2;
+    private static final int PATH_OFFSET_OFFSET = 4;
+    private static final int FOLDER_OFFSET = 8;
+    private static final int PATH_LENGTH_OFFSET = 12;
+
+    private final ByteBuffer values;
+    private final ByteBuffer statuses;
+    private final ByteBuffer sourceTimes;
+    private final ByteBuffer serverTimes;
+    private final ByteBuffer flags;
+    private final ByteBuffer attributes;
+    private final ByteBuffer paths;
+    private final ByteBuffer index;
+
+    private final List<TagFolder> folders = Lists.newCopyOnWriteArrayList();
+    private final Map<String, TagFolder> foldersByPath = Maps.newConcurrentMap();
+
+    private final Striped<Lock> locks;
+    private final int capacity;
+    private final int indexMask;
+
+    private volatile int size = 0;
+
+    /**
+     * @param rootName      the name of the root folder.
+     * @param capacity      the maximum number of tags.
+     * @param pathsCapacity the number of bytes available for the UTF-8 encoded tag paths.
+     */
+    public TagStore(String rootName, int capacity, int pathsCapacity) {
+        this(rootName, capacity, pathsCapacity, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param rootName      the name of the root folder.
+     * @param capacity      the maximum number of tags.
+     * @param pathsCapacity the number of bytes available for the UTF-8 encoded tag paths.
+     * @param stripes       the number of locks guarding the value columns.
+     */
+    public TagStore(String rootName, int capacity, int pathsCapacity, int stripes) {
+        if (capacity <= 0 || capacity > Integer.MAX_VALUE / ATTRIBUTE_BYTES) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+
+        this.capacity = capacity;
+
+        values = column(capacity, VALUE_BYTES);
+        statuses = column(capacity, STATUS_BYTES);
+        sourceTimes = column(capacity, TIME_BYTES);
+        serverTimes = column(capacity, TIME_BYTES);
+        flags = column(capacity, FLAG_BYTES);
+        attributes = column(capacity, ATTRIBUTE_BYTES);
+        paths = column(pathsCapacity, 1);
+
+        int slots = Integer.highestOneBit(capacity) << 2;
+        index = column(slots, 4);
+        indexMask = slots - 1;
+
+        locks = Striped.lock(stripes);
+
+        TagFolder root = new TagFolder(0, rootName, rootName, -1);
+        folders.add(root);
+        foldersByPath.put(rootName, root);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of tags in the store.
+     */
+    public int size() {
+        return size;
+    }
+
+    public TagFolder getRootFolder() {
+        return folders.get(0);
+    }
+
+    public TagFolder getFolder(int folder) {
+        return folders.get(folder);
+    }
+
+    /**
+     * @return the folder at {@code path}, or {@code null} if there is none.
+     */
+    public TagFolder getFolder(String path) {
+        return foldersByPath.get(path);
+    }
+
+    /**
+     * Get the folder at {@code path}, creating it and any missing parents.
+     *
+     * @param path a path starting with the root folder's name.
+     * @return the folder at {@code path}.
+     */
+    public synchronized TagFolder addFolder(String path) {
+        TagFolder folder = foldersByPath.get(path);
+        if (folder != null) return folder;
+
+        int separator = path.lastIndexOf('/');
+        if (separator < 0) {
+            throw new IllegalArgumentException("path not under root folder: " + path);
+        }
+
+        TagFolder parent = addFolder(path.substring(0, separator));
+
+        folder = new TagFolder(folders.size(), path, path.substring(separator + 1), parent.getIndex());
+        folders.add(folder);
+        foldersByPath.put(path, folder);
+        parent.addFolder(folder.getIndex());
+
+        return folder;
+    }
+
+    /**
+     * Add a tag. Its value is null, with status Bad_WaitingForInitialData, until first set.
+     *
+     * @param folderPath  the path of the folder to add the tag to; created if missing.
+     * @param name        the name of the tag.
+     * @param type        the type of the tag's value.
+     * @param accessLevel the tag's AccessLevel mask.
+     * @return the number of the new tag.
+     * @throws IllegalStateException    if the store is full.
+     * @throws IllegalArgumentException if a tag with the same path already exists.
+     */
+    public synchronized int addTag(String folderPath, String name, ValueType type, int accessLevel) {
+        TagFolder folder = addFolder(folderPath);
+
+        byte[] path = (folderPath + "/" + name).getBytes(StandardCharsets.UTF_8);
+        int nameLength = name.getBytes(StandardCharsets.UTF_8).length;
+
+        if (size == capacity || path.length > paths.remaining()) {
+            throw new IllegalStateException("tag store full");
+        }
+        if (nameLength > 0xFFFF) {
+            throw new IllegalArgumentException("name too long: " + name);
+        }
+        if (indexOf(path) >= 0) {
+            throw new IllegalArgumentException("duplicate tag: " + folderPath + "/" + name);
+        }
+
+        int tag = size;
+        int pathOffset = paths.position();
+        paths.put(path);
+
+        int row = tag * ATTRIBUTE_BYTES;
+        attributes.put(row + TYPE_OFFSET, (byte) type.getId());
+        attributes.put(row + ACCESS_OFFSET, (byte) accessLevel);
+        attributes.putShort(row + NAME_LENGTH_OFFSET, (short) nameLength);
+        attributes.putInt(row + PATH_OFFSET_OFFSET, pathOffset);
+        attributes.putInt(row + FOLDER_OFFSET, folder.getIndex());
+        attributes.putInt(row + PATH_LENGTH_OFFSET, path.length);
+
+        statuses.putInt(tag * STATUS_BYTES, (int) StatusCodes.Bad_WaitingForInitialData);
+        flags.put(tag * FLAG_BYTES, NULL_VALUE);
+
+        int slot = hash(path, 0, path.length) & indexMask;
+        while (index.getInt(slot * 4) != 0) {
+            slot = (slot + 1) & indexMask;
+        }
+        index.putInt(slot * 4, tag + 1);
+
+        // Publishes the columns written above to readers that check the size first, before the folder makes the tag
+        // reachable by Browse.
+        size = tag + 1;
+
+        folder.addTag(tag);
+
+        return tag;
+    }
+
+    /**
+     * @return the number of the tag at {@code path}, or -1 if there is none.
+     */
+    public int indexOf(String path) {
+        return indexOf(path.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private int indexOf(byte[] path) {
+        int limit = size;
+        int slot = hash(path, 0, path.length) & indexMask;
+
+        while (true) {
+            int entry = index.getInt(slot * 4);
+            if (entry == 0) return -1;
+
+            int tag = entry - 1;
+            if (tag < limit && pathEquals(tag, path)) return tag;
+
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    public String getPath(int tag) {
+        int row = checkIndex(tag) * ATTRIBUTE_BYTES;
+
+        return string(attributes.getInt(row + PATH_OFFSET_OFFSET), attributes.getInt(row + PATH_LENGTH_OFFSET));
+    }
+
+    public String getName(int tag) {
+        int row = checkIndex(tag) * ATTRIBUTE_BYTES;
+        int nameLength = attributes.getShort(row + NAME_LENGTH_OFFSET) & 0xFFFF;
+        int pathEnd = attributes.getInt(row + PATH_OFFSET_OFFSET) + attributes.getInt(row + PATH_LENGTH_OFFSET);
+
+        return string(pathEnd - nameLength, nameLength);
+    }
+
+    /**
+     * @return the folder {@code tag} is in.
+     */
+    public TagFolder getTagFolder(int tag) {
+        return folders.get(attributes.getInt(checkIndex(tag) * ATTRIBUTE_BYTES + FOLDER_OFFSET));
+    }
+
+    public ValueType getType(int tag) {
+        return ValueType.fromId(attributes.get(checkIndex(tag) * ATTRIBUTE_BYTES + TYPE_OFFSET));
+    }
+
+    public int getAccessLevel(int tag) {
+        return attributes.get(checkIndex(tag) * ATTRIBUTE_BYTES + ACCESS_OFFSET) & 0xFF;
+    }
+
+    /**
+     * @return the current value of {@code tag}, with both timestamps.
+     */
+    public DataValue getValue(int tag) {
+        ValueType type = getType(tag);
+
+        long bits, status, sourceTime, serverTime;
+        boolean isNull;
+
+        Lock lock = locks.getAt(tag % locks.size());
+        lock.lock();
+        try {
+            bits = values.getLong(tag * VALUE_BYTES);
+            status = statuses.getInt(tag * STATUS_BYTES) & 0xFFFFFFFFL;
+            sourceTime = sourceTimes.getLong(tag * TIME_BYTES);
+            serverTime = serverTimes.getLong(tag * TIME_BYTES);
+            isNull = (flags.get(tag * FLAG_BYTES) & NULL_VALUE) != 0;
+        } finally {
+            lock.unlock();
+        }
+
+        Variant variant = isNull ? Variant.NULL_VALUE : new Variant(type.fromBits(bits));
+
+        return new DataValue(
+                variant,
+                new StatusCode(status),
+                sourceTime != 0L ? new DateTime(sourceTime) : null,
+                serverTime != 0L ? new DateTime(serverTime) : null);
+    }
+
+    /**
+     * Set the value of {@code tag}. Numeric and Boolean values are converted to the tag's type; a missing value is
+     * stored as a null {@link Variant}, with the status it came with.
+     *
+     * @throws IllegalArgumentException if the value is neither numeric nor Boolean.
+     */
+    public void setValue(int tag, DataValue value) {
+        Object o = value.getValue() != null ? value.getValue().getValue() : null;
+
+        if (o != null && ValueType.of(o) == null) {
+            throw new IllegalArgumentException("not a scalar numeric or Boolean value: " + o);
+        }
+
+        long bits = o != null ? getType(tag).toBits(o) : 0L;
+        long status = value.getStatusCode() != null ? value.getStatusCode().getValue() : StatusCodes.Good;
+
+        set(tag, bits, o == null, status, ticks(value.getSourceTime()), ticks(value.getServerTime()));
+    }
+
+    /**
+     * Set the value of {@code tag} without creating any objects; for drivers updating many tags per scan.
+     *
+     * @param tag        the tag to set.
+     * @param value      the new value, converted to the tag's type.
+     * @param status     the new status code.
+     * @param sourceTime the source timestamp, in DateTime ticks.
+     */
+    public void setValue(int tag, double value, long status, long sourceTime) {
+        ValueType type = getType(tag);
+
+        long bits;
+        if (type == ValueType.Boolean) {
+            bits = value != 0d ? 1L : 0L;
+        } else if (type.isFloatingPoint()) {
+            bits = Double.doubleToRawLongBits(value);
+        } else {
+            bits = (long) value;
+        }
+
+        set(tag, bits, false, status, sourceTime, now());
+    }
+
+    /**
+     * Set the values of many tags at once, all with the same status and source timestamp.
+     *
+     * @see #setValue(int, double, long, long)
+     */
+    public void setValues(int[] tags, double[] values, long status, long sourceTime) {
+        if (tags.length != values.length) {
+            throw new IllegalArgumentException("tags.length != values.length");
+        }
+
+        for (int i = 0; i < tags.length; i++) {
+            setValue(tags[i], values[i], status, sourceTime);
+        }
+    }
+
+    private void set(int tag, long bits, boolean isNull, long status, long sourceTime, long serverTime) {
+        checkIndex(tag);
+
+        Lock lock = locks.getAt(tag % locks.size());
+        lock.lock();
+        try {
+            values.putLong(tag * VALUE_BYTES, bits);
+            statuses.putInt(tag * STATUS_BYTES, (int) status);
+            sourceTimes.putLong(tag * TIME_BYTES, sourceTime);
+            serverTimes.putLong(tag * TIME_BYTES, serverTime);
+            flags.put(tag * FLAG_BYTES, isNull ? NULL_VALUE : 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int checkIndex(int tag) {
+        if (tag < 0 || tag >= size) {
+            throw new IndexOutOfBoundsException("tag: " + tag);
+        }
+
+        return tag;
+    }
+
+    private boolean pathEquals(int tag, byte[] path) {
+        int row = tag * ATTRIBUTE_BYTES;
+        if (attributes.getInt(row + PATH_LENGTH_OFFSET) != path.length) return false;
+
+        int offset = attributes.getInt(row + PATH_OFFSET_OFFSET);
+        for (int i = 0; i < path.length; i++) {
+            if (paths.get(offset + i) != path[i]) return false;
+        }
+
+        return true;
+    }
+
+    private String string(int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = paths.get(offset + i);
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer column(int rows, int width) {
+        return ByteBuffer.allocateDirect(rows * width).order(ByteOrder.nativeOrder());
+    }
+
+    private static long ticks(DateTime time) {
+        return time != null && !time.isNull() ? time.getUtcTime() : now();
+    }
+
+    /**
+     * @return the current time in DateTime ticks, without creating a {@link DateTime}.
+     */
+    private static long now() {
+        return (System.currentTimeMillis() + EPOCH_DELTA_MILLIS) * TICKS_PER_MILLI;
+    }
+
+    /**
+     * FNV-1a, spread so the low bits used for the slot depend on every byte.
+     */
+    private static int hash(byte[] bytes, int offset, int length) {
+        int h = 0x811C9DC5;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ (bytes[i] & 0xFF)) * 0x01000193;
+        }
+
+        return h ^ (h >>> 16);
+    }
+
+}
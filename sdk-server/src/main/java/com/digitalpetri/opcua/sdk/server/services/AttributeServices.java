@@ -16,10 +16,13 @@
 
 package com.digitalpetri.opcua.sdk.server.services;
 
+import com.digitalpetri.opcua.sdk.server.services.helpers.HistoryReadHelper;
 import com.digitalpetri.opcua.sdk.server.services.helpers.ReadHelper;
 import com.digitalpetri.opcua.sdk.server.services.helpers.WriteHelper;
 import com.digitalpetri.opcua.stack.core.application.services.AttributeServiceSet;
 import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadResponse;
 import com.digitalpetri.opcua.stack.core.types.structured.ReadRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.ReadResponse;
 import com.digitalpetri.opcua.stack.core.types.structured.WriteRequest;
@@ -29,19 +32,33 @@ public class AttributeServices implements AttributeServiceSet {
 
     private final ServiceMetric readMetric = new ServiceMetric();
     private final ServiceMetric writeMetric = new ServiceMetric();
+    private final ServiceMetric historyReadMetric = new ServiceMetric();
+
+    private final ServiceContext context;
+
+    public AttributeServices(ServiceContext context) {
+        this.context = context;
+    }
 
     @Override
     public void onRead(ServiceRequest<ReadRequest, ReadResponse> service) {
         readMetric.record(service);
 
-        ReadHelper.read(service);
+        ReadHelper.read(context, service);
     }
 
     @Override
     public void onWrite(ServiceRequest<WriteRequest, WriteResponse> service) {
         writeMetric.record(service);
 
-        WriteHelper.write(service);
+        WriteHelper.write(context, service);
+    }
+
+    @Override
+    public void onHistoryRead(ServiceRequest<HistoryReadRequest, HistoryReadResponse> service) {
+        historyReadMetric.record(service);
+
+        HistoryReadHelper.read(context, service);
     }
 
 }
@@ -17,18 +17,25 @@
 package com.digitalpetri.opcua.sdk.server.services;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 import com.digitalpetri.opcua.sdk.server.api.Namespace;
+import com.digitalpetri.opcua.sdk.server.diagnostics.ServerMetrics.NamespaceOperation;
 import com.digitalpetri.opcua.sdk.server.util.Pending;
 import com.digitalpetri.opcua.sdk.server.util.PendingCall;
+import com.digitalpetri.opcua.sdk.server.util.RegisteredNodes;
 import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.application.services.MethodServiceSet;
 import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
 import com.digitalpetri.opcua.stack.core.types.builtin.DiagnosticInfo;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
 import com.digitalpetri.opcua.stack.core.types.structured.CallMethodRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.CallMethodResult;
@@ -43,15 +50,24 @@ public class MethodServices implements MethodServiceSet {
 
     private final ServiceMetric callCounter = new ServiceMetric();
 
+    private final ServiceContext context;
+
+    public MethodServices(ServiceContext context) {
+        this.context = context;
+    }
+
     @Override
     public void onCall(ServiceRequest<CallRequest, CallResponse> service) {
         callCounter.record(service);
 
-        OpcUaServer server = service.attr(ServiceAttributes.ServerKey).get();
+        OpcUaServer server = context.getServer();
 
         CallRequest request = service.getRequest();
 
+        RegisteredNodes registeredNodes = context.getSession().getRegisteredNodes();
+
         List<PendingCall> pendingCalls = Arrays.stream(request.getMethodsToCall())
+                .map(registeredNodes::resolve)
                 .map(PendingCall::new)
                 .collect(Collectors.toList());
 
@@ -73,7 +89,17 @@ public class MethodServices implements MethodServiceSet {
 
             CompletableFuture<List<CallMethodResult>> future = Pending.callback(pending);
 
-            server.getExecutorService().execute(() -> namespace.call(requests, future));
+            server.getMetrics().recordNamespaceOperation(namespace, NamespaceOperation.Call, future);
+
+            try {
+                server.getNamespaceExecutor(index).execute(() -> namespace.call(requests, future));
+            } catch (RejectedExecutionException e) {
+                CallMethodResult result = new CallMethodResult(
+                        new StatusCode(StatusCodes.Bad_ResourceUnavailable),
+                        new StatusCode[0], new DiagnosticInfo[0], new Variant[0]);
+
+                future.complete(Collections.nCopies(requests.size(), result));
+            }
         });
 
         /*
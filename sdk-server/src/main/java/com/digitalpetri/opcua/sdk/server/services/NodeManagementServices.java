@@ -16,6 +16,7 @@
 
 package com.digitalpetri.opcua.sdk.server.services;
 
+import com.digitalpetri.opcua.sdk.server.services.helpers.NodeManagementHelper;
 import com.digitalpetri.opcua.stack.core.UaException;
 import com.digitalpetri.opcua.stack.core.application.services.NodeManagementServiceSet;
 import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
@@ -28,8 +29,6 @@ import com.digitalpetri.opcua.stack.core.types.structured.DeleteNodesResponse;
 import com.digitalpetri.opcua.stack.core.types.structured.DeleteReferencesRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.DeleteReferencesResponse;
 
-import static com.digitalpetri.opcua.stack.core.StatusCodes.Bad_ServiceUnsupported;
-
 public class NodeManagementServices implements NodeManagementServiceSet {
 
     private final ServiceMetric addNodesMetric = new ServiceMetric();
@@ -37,32 +36,38 @@ public class NodeManagementServices implements NodeManagementServiceSet {
     private final ServiceMetric addReferencesMetric = new ServiceMetric();
     private final ServiceMetric deleteReferencesMetric = new ServiceMetric();
 
+    private final ServiceContext context;
+
+    public NodeManagementServices(ServiceContext context) {
+        this.context = context;
+    }
+
     @Override
     public void onAddNodes(ServiceRequest<AddNodesRequest, AddNodesResponse> service) throws UaException {
         addNodesMetric.record(service);
 
-        service.setServiceFault(Bad_ServiceUnsupported);
+        NodeManagementHelper.addNodes(context, service);
     }
 
     @Override
     public void onDeleteNodes(ServiceRequest<DeleteNodesRequest, DeleteNodesResponse> service) throws UaException {
         deleteNodesMetric.record(service);
 
-        service.setServiceFault(Bad_ServiceUnsupported);
+        NodeManagementHelper.deleteNodes(context, service);
     }
 
     @Override
     public void onAddReferences(ServiceRequest<AddReferencesRequest, AddReferencesResponse> service) throws UaException {
         addReferencesMetric.record(service);
 
-        service.setServiceFault(Bad_ServiceUnsupported);
+        NodeManagementHelper.addReferences(context, service);
     }
 
     @Override
     public void onDeleteReferences(ServiceRequest<DeleteReferencesRequest, DeleteReferencesResponse> service) throws UaException {
         deleteReferencesMetric.record(service);
 
-        service.setServiceFault(Bad_ServiceUnsupported);
+        NodeManagementHelper.deleteReferences(context, service);
     }
 
 }
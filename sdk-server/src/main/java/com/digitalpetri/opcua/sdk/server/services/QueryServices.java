@@ -16,6 +16,7 @@
 
 package com.digitalpetri.opcua.sdk.server.services;
 
+import com.digitalpetri.opcua.sdk.server.services.helpers.QueryHelper;
 import com.digitalpetri.opcua.stack.core.UaException;
 import com.digitalpetri.opcua.stack.core.application.services.QueryServiceSet;
 import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
@@ -24,25 +25,29 @@ import com.digitalpetri.opcua.stack.core.types.structured.QueryFirstResponse;
 import com.digitalpetri.opcua.stack.core.types.structured.QueryNextRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.QueryNextResponse;
 
-import static com.digitalpetri.opcua.stack.core.StatusCodes.Bad_ServiceUnsupported;
-
 public class QueryServices implements QueryServiceSet {
 
     private final ServiceMetric queryFirstMetric = new ServiceMetric();
     private final ServiceMetric queryNextMetric = new ServiceMetric();
 
+    private final ServiceContext context;
+
+    public QueryServices(ServiceContext context) {
+        this.context = context;
+    }
+
     @Override
     public void onQueryFirst(ServiceRequest<QueryFirstRequest, QueryFirstResponse> service) throws UaException {
         queryFirstMetric.record(service);
 
-        service.setServiceFault(Bad_ServiceUnsupported);
+        QueryHelper.queryFirst(context, service);
     }
 
     @Override
     public void onQueryNext(ServiceRequest<QueryNextRequest, QueryNextResponse> service) throws UaException {
         queryNextMetric.record(service);
 
-        service.setServiceFault(Bad_ServiceUnsupported);
+        QueryHelper.queryNext(context, service);
     }
 
 }
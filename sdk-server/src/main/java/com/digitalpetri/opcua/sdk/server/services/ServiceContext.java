@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.services;
+
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.Session;
+import com.digitalpetri.opcua.sdk.server.api.OperationContext;
+
+/**
+ * The server and Session a service request is handled for.
+ * <p>
+ * Each Session creates one and hands it to its service sets, which pass it on to the service helpers.
+ */
+public final class ServiceContext implements OperationContext {
+
+    private final OpcUaServer server;
+    private final Session session;
+
+    public ServiceContext(OpcUaServer server, Session session) {
+        this.server = server;
+        this.session = session;
+    }
+
+    @Override
+    public OpcUaServer getServer() {
+        return server;
+    }
+
+    @Override
+    public Session getSession() {
+        return session;
+    }
+
+}
@@ -53,7 +53,10 @@ public class SubscriptionServices implements SubscriptionServiceSet {
 
     private final SubscriptionManager subscriptionManager;
 
-    public SubscriptionServices(SubscriptionManager subscriptionManager) {
+    private final ServiceContext context;
+
+    public SubscriptionServices(ServiceContext context, SubscriptionManager subscriptionManager) {
+        this.context = context;
         this.subscriptionManager = subscriptionManager;
     }
 
@@ -89,8 +92,8 @@ public class SubscriptionServices implements SubscriptionServiceSet {
 
     @Override
     public void onTransferSubscriptions(ServiceRequest<TransferSubscriptionsRequest, TransferSubscriptionsResponse> service) {
-        OpcUaServer server = service.attr(ServiceAttributes.ServerKey).get();
-        Session session = service.attr(ServiceAttributes.SessionKey).get();
+        OpcUaServer server = context.getServer();
+        Session session = context.getSession();
 
         TransferSubscriptionsRequest request = service.getRequest();
         UInteger[] subscriptionIds = request.getSubscriptionIds();
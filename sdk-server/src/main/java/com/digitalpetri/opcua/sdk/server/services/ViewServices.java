@@ -18,6 +18,7 @@ package com.digitalpetri.opcua.sdk.server.services;
 
 import com.digitalpetri.opcua.sdk.server.NamespaceManager;
 import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.Session;
 import com.digitalpetri.opcua.sdk.server.services.helpers.BrowseHelper;
 import com.digitalpetri.opcua.sdk.server.services.helpers.TranslateBrowsePathsHelper;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
@@ -45,32 +46,38 @@ public class ViewServices implements ViewServiceSet {
 
     private final BrowseHelper browseHelper = new BrowseHelper();
 
+    private final ServiceContext context;
+
+    public ViewServices(ServiceContext context) {
+        this.context = context;
+    }
+
     @Override
     public void onBrowse(ServiceRequest<BrowseRequest, BrowseResponse> service) {
         browseCounter.record(service);
 
-        browseHelper.browse(service);
+        browseHelper.browse(context, service);
     }
 
     @Override
     public void onBrowseNext(ServiceRequest<BrowseNextRequest, BrowseNextResponse> service) {
         browseNextCounter.record(service);
 
-        browseHelper.browseNext(service);
+        browseHelper.browseNext(context, service);
     }
 
     @Override
     public void onTranslateBrowsePaths(ServiceRequest<TranslateBrowsePathsToNodeIdsRequest, TranslateBrowsePathsToNodeIdsResponse> service) {
         translateBrowsePathsCounter.record(service);
 
-        NamespaceManager namespaceManager = service.attr(ServiceAttributes.ServerKey).get().getNamespaceManager();
+        NamespaceManager namespaceManager = context.getServer().getNamespaceManager();
 
-        new TranslateBrowsePathsHelper(namespaceManager).onTranslateBrowsePaths(service);
+        new TranslateBrowsePathsHelper(namespaceManager).onTranslateBrowsePaths(context, service);
     }
 
     @Override
     public void onRegisterNodes(ServiceRequest<RegisterNodesRequest, RegisterNodesResponse> service) throws UaException {
-        OpcUaServer server = service.attr(ServiceAttributes.ServerKey).get();
+        OpcUaServer server = context.getServer();
 
         RegisterNodesRequest request = service.getRequest();
 
@@ -84,15 +91,19 @@ public class ViewServices implements ViewServiceSet {
             throw new UaException(StatusCodes.Bad_TooManyOperations);
         }
 
+        Session session = context.getSession();
+
+        NodeId[] registeredNodeIds = session.getRegisteredNodes().register(nodeIds);
+
         service.setResponse(new RegisterNodesResponse(
                 service.createResponseHeader(StatusCode.GOOD),
-                nodeIds
+                registeredNodeIds
         ));
     }
 
     @Override
     public void onUnregisterNodes(ServiceRequest<UnregisterNodesRequest, UnregisterNodesResponse> service) throws UaException {
-        OpcUaServer server = service.attr(ServiceAttributes.ServerKey).get();
+        OpcUaServer server = context.getServer();
 
         UnregisterNodesRequest request = service.getRequest();
 
@@ -106,6 +117,10 @@ public class ViewServices implements ViewServiceSet {
             throw new UaException(StatusCodes.Bad_TooManyOperations);
         }
 
+        Session session = context.getSession();
+
+        session.getRegisteredNodes().unregister(nodeIds);
+
         service.setResponse(new UnregisterNodesResponse(service.createResponseHeader(StatusCode.GOOD)));
     }
 
@@ -18,23 +18,26 @@ package com.digitalpetri.opcua.sdk.server.services.helpers;
 
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.primitives.Ints;
 import com.digitalpetri.opcua.sdk.core.AttributeIds;
 import com.digitalpetri.opcua.sdk.core.Reference;
 import com.digitalpetri.opcua.sdk.server.NamespaceManager;
 import com.digitalpetri.opcua.sdk.server.OpcUaServer;
-import com.digitalpetri.opcua.sdk.server.services.ServiceAttributes;
+import com.digitalpetri.opcua.sdk.server.services.ServiceContext;
+import com.digitalpetri.opcua.sdk.server.util.ContinuationPointStore;
+import com.digitalpetri.opcua.sdk.server.util.RegisteredNodes;
 import com.digitalpetri.opcua.sdk.server.util.PendingBrowse;
 import com.digitalpetri.opcua.stack.core.Identifiers;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
@@ -47,6 +50,7 @@ import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
 import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
 import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
 import com.digitalpetri.opcua.stack.core.types.enumerated.BrowseResultMask;
 import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
 import com.digitalpetri.opcua.stack.core.types.structured.BrowseDescription;
@@ -57,7 +61,6 @@ import com.digitalpetri.opcua.stack.core.types.structured.BrowseResponse;
 import com.digitalpetri.opcua.stack.core.types.structured.BrowseResult;
 import com.digitalpetri.opcua.stack.core.types.structured.ReferenceDescription;
 import com.digitalpetri.opcua.stack.core.types.structured.ResponseHeader;
-import com.digitalpetri.opcua.stack.core.util.NonceUtil;
 
 import static com.digitalpetri.opcua.sdk.server.util.FutureUtils.sequence;
 import static com.digitalpetri.opcua.sdk.server.util.UaEnumUtil.browseResultMasks;
@@ -71,10 +74,11 @@ public class BrowseHelper {
     private static final BrowseResult NodeIdUnknownResult =
             new BrowseResult(new StatusCode(StatusCodes.Bad_NodeIdUnknown), ByteString.NULL_VALUE, new ReferenceDescription[0]);
 
-    private final Map<ByteString, BrowseContinuationPoint> continuations = Maps.newConcurrentMap();
+    private static final BrowseResult ResourceUnavailableResult =
+            new BrowseResult(new StatusCode(StatusCodes.Bad_ResourceUnavailable), ByteString.NULL_VALUE, new ReferenceDescription[0]);
 
-    public void browse(ServiceRequest<BrowseRequest, BrowseResponse> service) {
-        OpcUaServer server = service.attr(ServiceAttributes.ServerKey).get();
+    public void browse(ServiceContext context, ServiceRequest<BrowseRequest, BrowseResponse> service) {
+        OpcUaServer server = context.getServer();
 
         BrowseRequest request = service.getRequest();
 
@@ -83,17 +87,26 @@ public class BrowseHelper {
             return;
         }
 
+        RegisteredNodes registeredNodes = context.getSession().getRegisteredNodes();
+
         List<PendingBrowse> pendingBrowses = Arrays.stream(request.getNodesToBrowse())
+                .map(registeredNodes::resolve)
                 .map(PendingBrowse::new).collect(Collectors.toList());
 
         pendingBrowses.stream().forEach(pending -> {
             Browse browse = new Browse(
                     pending.getInput(),
                     request.getRequestedMaxReferencesPerNode(),
-                    server,
+                    context,
                     pending.getFuture());
 
-            server.getExecutorService().execute(browse);
+            UShort namespaceIndex = pending.getInput().getNodeId().getNamespaceIndex();
+
+            try {
+                server.getNamespaceExecutor(namespaceIndex).execute(browse);
+            } catch (RejectedExecutionException e) {
+                pending.getFuture().complete(ResourceUnavailableResult);
+            }
         });
 
         List<CompletableFuture<BrowseResult>> futures =
@@ -109,8 +122,8 @@ public class BrowseHelper {
         });
     }
 
-    public void browseNext(ServiceRequest<BrowseNextRequest, BrowseNextResponse> service) {
-        OpcUaServer server = service.attr(ServiceAttributes.ServerKey).get();
+    public void browseNext(ServiceContext context, ServiceRequest<BrowseNextRequest, BrowseNextResponse> service) {
+        OpcUaServer server = context.getServer();
 
         BrowseNextRequest request = service.getRequest();
 
@@ -119,7 +132,7 @@ public class BrowseHelper {
 
             service.setServiceFault(StatusCodes.Bad_TooManyOperations);
         } else {
-            server.getExecutorService().execute(new BrowseNext(service));
+            server.getExecutorService().execute(new BrowseNext(context, service));
         }
     }
 
@@ -127,17 +140,19 @@ public class BrowseHelper {
 
         private final BrowseDescription description;
         private final UInteger maxReferences;
+        private final ServiceContext context;
         private final OpcUaServer server;
         private final CompletableFuture<BrowseResult> future;
 
         private Browse(BrowseDescription description,
                        UInteger maxReferences,
-                       OpcUaServer server,
+                       ServiceContext context,
                        CompletableFuture<BrowseResult> future) {
 
             this.description = description;
             this.maxReferences = maxReferences;
-            this.server = server;
+            this.context = context;
+            this.server = context.getServer();
             this.future = future;
         }
 
@@ -153,41 +168,29 @@ public class BrowseHelper {
         }
 
         private BrowseResult browse(List<Reference> references) {
-            Stream<Reference> filtered = references.stream()
-                    .filter(this::directionFilter)
-                    .filter(this::referenceTypeFilter)
-                    .filter(this::nodeClassFilter)
-                    .distinct();
-
-            List<ReferenceDescription> descriptions =
-                    filtered.map(this::referenceDescription).collect(Collectors.toList());
-
+            // Filtered lazily over the node's own reference list: a continuation point holds a cursor into that
+            // list, not a copy of it or a set of what it has returned.
+            Iterator<Reference> filtered = Iterators.filter(references.iterator(),
+                    r -> directionFilter(r) && referenceTypeFilter(r) && nodeClassFilter(r));
 
             int max = maxReferences.longValue() == 0 ?
                     Integer.MAX_VALUE :
                     Ints.saturatedCast(maxReferences.longValue());
 
-            return browseResult(descriptions, max);
-        }
+            BrowseContinuationPoint c = new BrowseContinuationPoint(filtered, this::referenceDescription, max);
 
-        private BrowseResult browseResult(List<ReferenceDescription> references, int max) {
-            if (references.size() > max) {
-                if (continuations.size() >
-                        server.getConfig().getLimits().getMaxBrowseContinuationPoints().intValue()) {
+            ReferenceDescription[] page = c.nextPage();
 
-                    return new BrowseResult(Bad_NoContinuationPoints, null, new ReferenceDescription[0]);
-                } else {
-                    List<ReferenceDescription> subList = references.subList(0, max);
-                    List<ReferenceDescription> current = Lists.newArrayList(subList);
-                    subList.clear();
+            if (!c.hasNext()) {
+                return new BrowseResult(StatusCode.GOOD, null, page);
+            }
 
-                    BrowseContinuationPoint c = new BrowseContinuationPoint(references, max);
-                    continuations.put(c.identifier, c);
+            ByteString identifier = context.getSession().getBrowseContinuationPoints().add(c);
 
-                    return new BrowseResult(StatusCode.GOOD, c.identifier, current.toArray(new ReferenceDescription[current.size()]));
-                }
+            if (identifier == null) {
+                return new BrowseResult(Bad_NoContinuationPoints, null, new ReferenceDescription[0]);
             } else {
-                return new BrowseResult(StatusCode.GOOD, null, references.toArray(new ReferenceDescription[references.size()]));
+                return new BrowseResult(StatusCode.GOOD, identifier, page);
             }
         }
 
@@ -269,9 +272,11 @@ public class BrowseHelper {
 
     private class BrowseNext implements Runnable {
 
+        private final ContinuationPointStore<BrowseContinuationPoint> continuationPoints;
         private final ServiceRequest<BrowseNextRequest, BrowseNextResponse> service;
 
-        private BrowseNext(ServiceRequest<BrowseNextRequest, BrowseNextResponse> service) {
+        private BrowseNext(ServiceContext context, ServiceRequest<BrowseNextRequest, BrowseNextResponse> service) {
+            this.continuationPoints = context.getSession().getBrowseContinuationPoints();
             this.service = service;
         }
 
@@ -300,7 +305,7 @@ public class BrowseHelper {
         }
 
         private BrowseResult release(ByteString bs) {
-            BrowseContinuationPoint c = continuations.remove(bs);
+            BrowseContinuationPoint c = continuationPoints.remove(bs);
 
             return c != null ?
                     new BrowseResult(StatusCode.GOOD, null, null) :
@@ -308,55 +313,65 @@ public class BrowseHelper {
         }
 
         private BrowseResult references(ByteString bs) {
-            BrowseContinuationPoint c = continuations.remove(bs);
+            BrowseContinuationPoint c = continuationPoints.remove(bs);
 
-            if (c != null) {
-                int max = c.max;
-                List<ReferenceDescription> references = c.references;
+            if (c == null) {
+                return new BrowseResult(Bad_ContinuationPointInvalid, null, null);
+            }
 
-                if (references.size() > max) {
-                    List<ReferenceDescription> subList = references.subList(0, max);
-                    List<ReferenceDescription> current = Lists.newArrayList(subList);
-                    subList.clear();
+            ReferenceDescription[] page = c.nextPage();
 
-                    continuations.put(c.identifier, c);
+            if (!c.hasNext()) {
+                return new BrowseResult(StatusCode.GOOD, null, page);
+            }
 
-                    return new BrowseResult(
-                            StatusCode.GOOD,
-                            c.identifier,
-                            current.toArray(new ReferenceDescription[current.size()])
-                    );
-                } else {
-                    return new BrowseResult(
-                            StatusCode.GOOD,
-                            null,
-                            references.toArray(new ReferenceDescription[references.size()])
-                    );
-                }
+            if (continuationPoints.put(bs, c)) {
+                return new BrowseResult(StatusCode.GOOD, bs, page);
             } else {
-                return new BrowseResult(Bad_ContinuationPointInvalid, null, null);
+                return new BrowseResult(Bad_NoContinuationPoints, null, new ReferenceDescription[0]);
             }
         }
 
     }
 
+    /**
+     * A cursor over the references still to be returned for one browsed node.
+     * <p>
+     * ReferenceDescriptions are only built for the page being returned, so a continuation point over a huge folder
+     * holds the node's references but not a description of each.
+     */
     public static class BrowseContinuationPoint {
-        private final List<ReferenceDescription> references;
+
+        private final Iterator<Reference> references;
+        private final Function<Reference, ReferenceDescription> describe;
         private final int max;
-        private final ByteString identifier;
 
-        public BrowseContinuationPoint(List<ReferenceDescription> references, int max) {
-            this(references, max, generateId());
-        }
+        public BrowseContinuationPoint(Iterator<Reference> references,
+                                       Function<Reference, ReferenceDescription> describe,
+                                       int max) {
 
-        public BrowseContinuationPoint(List<ReferenceDescription> references, int max, ByteString identifier) {
-            this.references = Collections.synchronizedList(references);
+            this.references = references;
+            this.describe = describe;
             this.max = max;
-            this.identifier = identifier;
         }
 
-        private static ByteString generateId() {
-            return NonceUtil.generateNonce(16);
+        public boolean hasNext() {
+            return references.hasNext();
+        }
+
+        /**
+         * @return the descriptions of, at most, the next {@code max} references.
+         */
+        public ReferenceDescription[] nextPage() {
+            List<ReferenceDescription> page = Lists.newArrayListWithCapacity(Math.min(max, 64));
+
+            while (page.size() < max && references.hasNext()) {
+                page.add(describe.apply(references.next()));
+            }
+
+            return page.toArray(new ReferenceDescription[page.size()]);
         }
+
     }
+
 }
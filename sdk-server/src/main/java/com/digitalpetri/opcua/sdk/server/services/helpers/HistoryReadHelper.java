@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.services.helpers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.api.Namespace;
+import com.digitalpetri.opcua.sdk.server.diagnostics.ServerMetrics.NamespaceOperation;
+import com.digitalpetri.opcua.sdk.server.services.ServiceContext;
+import com.digitalpetri.opcua.sdk.server.util.ContinuationPointStore;
+import com.digitalpetri.opcua.sdk.server.util.Pending;
+import com.digitalpetri.opcua.sdk.server.util.PendingHistoryRead;
+import com.digitalpetri.opcua.sdk.server.util.RegisteredNodes;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.DiagnosticInfo;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadDetails;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadResponse;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadResult;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadProcessedDetails;
+import com.digitalpetri.opcua.stack.core.types.structured.ResponseHeader;
+import com.google.common.collect.Lists;
+
+import static com.digitalpetri.opcua.sdk.core.util.ConversionUtil.a;
+import static com.digitalpetri.opcua.sdk.server.util.FutureUtils.sequence;
+
+public class HistoryReadHelper {
+
+    public static void read(ServiceContext context, ServiceRequest<HistoryReadRequest, HistoryReadResponse> service) {
+        HistoryReadRequest request = service.getRequest();
+
+        OpcUaServer server = context.getServer();
+
+        if (request.getNodesToRead() == null || request.getNodesToRead().length == 0) {
+            service.setServiceFault(StatusCodes.Bad_NothingToDo);
+            return;
+        }
+
+        RegisteredNodes registeredNodes = context.getSession().getRegisteredNodes();
+
+        HistoryReadValueId[] nodesToRead = Arrays.stream(request.getNodesToRead())
+                .map(registeredNodes::resolve)
+                .toArray(HistoryReadValueId[]::new);
+
+        if (nodesToRead.length > server.getConfig().getLimits().getMaxNodesPerHistoryReadData().longValue()) {
+            service.setServiceFault(StatusCodes.Bad_TooManyOperations);
+            return;
+        }
+
+        TimestampsToReturn timestamps = request.getTimestampsToReturn();
+
+        if (timestamps == null || timestamps == TimestampsToReturn.Neither) {
+            service.setServiceFault(StatusCodes.Bad_TimestampsToReturnInvalid);
+            return;
+        }
+
+        Object details = request.getHistoryReadDetails() != null ?
+                request.getHistoryReadDetails().getObject() : null;
+
+        if (!(details instanceof HistoryReadDetails)) {
+            service.setServiceFault(StatusCodes.Bad_HistoryOperationInvalid);
+            return;
+        }
+
+        if (details instanceof ReadProcessedDetails) {
+            NodeId[] aggregateTypes = ((ReadProcessedDetails) details).getAggregateType();
+
+            if (aggregateTypes == null || aggregateTypes.length != nodesToRead.length) {
+                service.setServiceFault(StatusCodes.Bad_AggregateListMismatch);
+                return;
+            }
+        }
+
+        ContinuationPointStore<HistoryContinuationPoint> continuationPoints =
+                context.getSession().getHistoryContinuationPoints();
+
+        if (Boolean.TRUE.equals(request.getReleaseContinuationPoints())) {
+            for (HistoryReadValueId id : nodesToRead) {
+                if (isPresent(id.getContinuationPoint())) {
+                    continuationPoints.remove(id.getContinuationPoint());
+                }
+            }
+
+            HistoryReadResult released = new HistoryReadResult(StatusCode.GOOD, null, null);
+
+            service.setResponse(new HistoryReadResponse(
+                    service.createResponseHeader(),
+                    a(Collections.nCopies(nodesToRead.length, released), HistoryReadResult.class),
+                    new DiagnosticInfo[0]));
+
+            return;
+        }
+
+        /*
+         * Swap the client's continuation points for the ones the namespaces handed out; a continuation point that is
+         * unknown, expired or belongs to another node fails its operation without reaching the namespace.
+         */
+
+        PendingHistoryRead[] pending = new PendingHistoryRead[nodesToRead.length];
+        List<Integer> toRead = Lists.newArrayListWithCapacity(nodesToRead.length);
+
+        for (int i = 0; i < nodesToRead.length; i++) {
+            HistoryReadValueId id = nodesToRead[i];
+            ByteString namespaceContinuationPoint = null;
+
+            if (isPresent(id.getContinuationPoint())) {
+                HistoryContinuationPoint cp = continuationPoints.remove(id.getContinuationPoint());
+
+                if (cp == null || !cp.nodeId.equals(id.getNodeId())) {
+                    pending[i] = new PendingHistoryRead(id);
+                    pending[i].getFuture().complete(new HistoryReadResult(
+                            new StatusCode(StatusCodes.Bad_ContinuationPointInvalid), null, null));
+                    continue;
+                }
+
+                namespaceContinuationPoint = cp.continuationPoint;
+            }
+
+            pending[i] = new PendingHistoryRead(new HistoryReadValueId(
+                    id.getNodeId(), id.getIndexRange(), id.getDataEncoding(), namespaceContinuationPoint));
+
+            toRead.add(i);
+        }
+
+        /*
+         * Group the remaining reads by namespace and call historyRead asynchronously for each.
+         */
+
+        Map<UShort, List<Integer>> byNamespace = toRead.stream()
+                .collect(Collectors.groupingBy(i -> nodesToRead[i].getNodeId().getNamespaceIndex()));
+
+        byNamespace.keySet().forEach(index -> {
+            List<Integer> indices = byNamespace.get(index);
+
+            List<PendingHistoryRead> namespacePending = indices.stream()
+                    .map(i -> pending[i])
+                    .collect(Collectors.toList());
+
+            List<HistoryReadValueId> ids = namespacePending.stream()
+                    .map(PendingHistoryRead::getInput)
+                    .collect(Collectors.toList());
+
+            HistoryReadDetails namespaceDetails = detailsFor((HistoryReadDetails) details, indices);
+
+            Namespace namespace = server.getNamespaceManager().getNamespace(index);
+
+            CompletableFuture<List<HistoryReadResult>> future = Pending.callback(namespacePending);
+
+            server.getMetrics().recordNamespaceOperation(namespace, NamespaceOperation.HistoryRead, future);
+
+            try {
+                server.getNamespaceExecutor(index).execute(
+                        () -> namespace.historyRead(namespaceDetails, timestamps, ids, future));
+            } catch (RejectedExecutionException e) {
+                HistoryReadResult result = new HistoryReadResult(
+                        new StatusCode(StatusCodes.Bad_ResourceUnavailable), null, null);
+
+                future.complete(Collections.nCopies(ids.size(), result));
+            }
+        });
+
+        /*
+         * When all reads have completed, register the continuation points of partial results with the Session and
+         * send a HistoryReadResponse.
+         */
+
+        List<CompletableFuture<HistoryReadResult>> futures = Arrays.stream(pending)
+                .map(PendingHistoryRead::getFuture)
+                .collect(Collectors.toList());
+
+        sequence(futures).thenAcceptAsync(results -> {
+            HistoryReadResult[] response = new HistoryReadResult[results.size()];
+
+            for (int i = 0; i < results.size(); i++) {
+                HistoryReadResult result = results.get(i);
+
+                if (isPresent(result.getContinuationPoint())) {
+                    ByteString id = continuationPoints.add(
+                            new HistoryContinuationPoint(nodesToRead[i].getNodeId(), result.getContinuationPoint()));
+
+                    result = id != null ?
+                            new HistoryReadResult(result.getStatusCode(), id, result.getHistoryData()) :
+                            new HistoryReadResult(new StatusCode(StatusCodes.Bad_NoContinuationPoints), null, null);
+                }
+
+                response[i] = result;
+            }
+
+            ResponseHeader header = service.createResponseHeader();
+
+            service.setResponse(new HistoryReadResponse(header, response, new DiagnosticInfo[0]));
+        }, server.getExecutorService());
+    }
+
+    /**
+     * ReadProcessed carries one aggregate type per node; give each namespace the ones for its own nodes.
+     *
+     * @param details the details of the whole read.
+     * @param indices the indices of the nodes being handed on, in the node list {@code details} was built for.
+     * @return the details for those nodes.
+     */
+    public static HistoryReadDetails detailsFor(HistoryReadDetails details, List<Integer> indices) {
+        if (details instanceof ReadProcessedDetails) {
+            ReadProcessedDetails processed = (ReadProcessedDetails) details;
+
+            NodeId[] aggregateTypes = indices.stream()
+                    .map(i -> processed.getAggregateType()[i])
+                    .toArray(NodeId[]::new);
+
+            return new ReadProcessedDetails(
+                    processed.getStartTime(),
+                    processed.getEndTime(),
+                    processed.getProcessingInterval(),
+                    aggregateTypes,
+                    processed.getAggregateConfiguration());
+        }
+
+        return details;
+    }
+
+    private static boolean isPresent(ByteString continuationPoint) {
+        return continuationPoint != null && continuationPoint.bytes() != null && continuationPoint.bytes().length > 0;
+    }
+
+    /**
+     * A history continuation point handed out to a client: the node it was issued for and the continuation point the
+     * node's namespace returned.
+     */
+    public static final class HistoryContinuationPoint {
+
+        private final NodeId nodeId;
+        private final ByteString continuationPoint;
+
+        private HistoryContinuationPoint(NodeId nodeId, ByteString continuationPoint) {
+            this.nodeId = nodeId;
+            this.continuationPoint = continuationPoint;
+        }
+
+    }
+
+}
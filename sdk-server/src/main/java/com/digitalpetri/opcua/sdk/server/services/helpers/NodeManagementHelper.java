@@ -0,0 +1,290 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.services.helpers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.api.Namespace;
+import com.digitalpetri.opcua.sdk.server.diagnostics.ServerMetrics.NamespaceOperation;
+import com.digitalpetri.opcua.sdk.server.services.ServiceContext;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
+import com.digitalpetri.opcua.stack.core.types.builtin.DiagnosticInfo;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExpandedNodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.structured.AddNodesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.AddNodesRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.AddNodesResponse;
+import com.digitalpetri.opcua.stack.core.types.structured.AddNodesResult;
+import com.digitalpetri.opcua.stack.core.types.structured.AddReferencesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.AddReferencesRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.AddReferencesResponse;
+import com.digitalpetri.opcua.stack.core.types.structured.DeleteNodesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.DeleteNodesRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.DeleteNodesResponse;
+import com.digitalpetri.opcua.stack.core.types.structured.DeleteReferencesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.DeleteReferencesRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.DeleteReferencesResponse;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.digitalpetri.opcua.sdk.core.util.ConversionUtil.a;
+import static com.digitalpetri.opcua.sdk.server.util.FutureUtils.sequence;
+
+/**
+ * Handles the NodeManagement services by grouping the operations of a request by namespace and handing each group to
+ * its namespace's {@link com.digitalpetri.opcua.sdk.server.api.NodeManager} on the namespace executor, so that a
+ * namespace can apply its whole share of the request at once.
+ */
+public class NodeManagementHelper {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NodeManagementHelper.class);
+
+    private static final StatusCode RESOURCE_UNAVAILABLE = new StatusCode(StatusCodes.Bad_ResourceUnavailable);
+    private static final StatusCode INTERNAL_ERROR = new StatusCode(StatusCodes.Bad_InternalError);
+
+    public static void addNodes(ServiceContext context, ServiceRequest<AddNodesRequest, AddNodesResponse> service) {
+        AddNodesItem[] nodesToAdd = service.getRequest().getNodesToAdd();
+
+        if (!checkOperations(context, service, nodesToAdd)) return;
+
+        execute(context, service, nodesToAdd,
+                item -> namespaceIndex(context.getServer(), item),
+                item -> new AddNodesResult(new StatusCode(invalidStatus(item)), NodeId.NULL_VALUE),
+                (namespace, items, future) -> namespace.addNodes(context, items, future),
+                status -> new AddNodesResult(status, NodeId.NULL_VALUE),
+                results -> service.setResponse(new AddNodesResponse(
+                        service.createResponseHeader(),
+                        a(results, AddNodesResult.class),
+                        new DiagnosticInfo[0])));
+    }
+
+    public static void deleteNodes(ServiceContext context,
+                                   ServiceRequest<DeleteNodesRequest, DeleteNodesResponse> service) {
+
+        DeleteNodesItem[] nodesToDelete = service.getRequest().getNodesToDelete();
+
+        if (!checkOperations(context, service, nodesToDelete)) return;
+
+        execute(context, service, nodesToDelete,
+                item -> item.getNodeId() != null ? item.getNodeId().getNamespaceIndex() : null,
+                item -> new StatusCode(StatusCodes.Bad_NodeIdInvalid),
+                (namespace, items, future) -> namespace.deleteNodes(context, items, future),
+                status -> status,
+                results -> service.setResponse(new DeleteNodesResponse(
+                        service.createResponseHeader(),
+                        a(results, StatusCode.class),
+                        new DiagnosticInfo[0])));
+    }
+
+    public static void addReferences(ServiceContext context,
+                                     ServiceRequest<AddReferencesRequest, AddReferencesResponse> service) {
+
+        AddReferencesItem[] referencesToAdd = service.getRequest().getReferencesToAdd();
+
+        if (!checkOperations(context, service, referencesToAdd)) return;
+
+        execute(context, service, referencesToAdd,
+                item -> item.getSourceNodeId() != null ? item.getSourceNodeId().getNamespaceIndex() : null,
+                item -> new StatusCode(StatusCodes.Bad_SourceNodeIdInvalid),
+                (namespace, items, future) -> namespace.addReferences(context, items, future),
+                status -> status,
+                results -> service.setResponse(new AddReferencesResponse(
+                        service.createResponseHeader(),
+                        a(results, StatusCode.class),
+                        new DiagnosticInfo[0])));
+    }
+
+    public static void deleteReferences(ServiceContext context,
+                                        ServiceRequest<DeleteReferencesRequest, DeleteReferencesResponse> service) {
+
+        DeleteReferencesItem[] referencesToDelete = service.getRequest().getReferencesToDelete();
+
+        if (!checkOperations(context, service, referencesToDelete)) return;
+
+        execute(context, service, referencesToDelete,
+                item -> item.getSourceNodeId() != null ? item.getSourceNodeId().getNamespaceIndex() : null,
+                item -> new StatusCode(StatusCodes.Bad_SourceNodeIdInvalid),
+                (namespace, items, future) -> namespace.deleteReferences(context, items, future),
+                status -> status,
+                results -> service.setResponse(new DeleteReferencesResponse(
+                        service.createResponseHeader(),
+                        a(results, StatusCode.class),
+                        new DiagnosticInfo[0])));
+    }
+
+    private static boolean checkOperations(ServiceContext context, ServiceRequest<?, ?> service, Object[] operations) {
+        if (operations == null || operations.length == 0) {
+            service.setServiceFault(StatusCodes.Bad_NothingToDo);
+            return false;
+        }
+
+        long max = context.getServer().getConfig().getLimits().getMaxNodesPerNodeManagement().longValue();
+
+        if (operations.length > max) {
+            service.setServiceFault(StatusCodes.Bad_TooManyOperations);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Hand each namespace its operations, then complete with the results in request order.
+     * <p>
+     * A namespace whose executor is saturated fails its operations with Bad_ResourceUnavailable; one that throws,
+     * fails its future or returns the wrong number of results fails its operations with Bad_InternalError. The other
+     * namespaces' results are unaffected.
+     *
+     * @param namespaceIndex the index of the namespace an operation belongs to, or {@code null} if it can't be routed.
+     * @param invalid        the result of an operation that can't be routed.
+     * @param call           invokes the namespace with its operations.
+     * @param failed         the result of an operation that failed with the given status.
+     * @param onComplete     receives the results.
+     */
+    private static <T, R> void execute(ServiceContext context,
+                                       ServiceRequest<?, ?> service,
+                                       T[] operations,
+                                       Function<T, UShort> namespaceIndex,
+                                       Function<T, R> invalid,
+                                       NamespaceCall<T, R> call,
+                                       Function<StatusCode, R> failed,
+                                       Consumer<List<R>> onComplete) {
+
+        OpcUaServer server = context.getServer();
+
+        Object[] results = new Object[operations.length];
+
+        Map<UShort, List<Integer>> byNamespace = Maps.newHashMap();
+
+        for (int i = 0; i < operations.length; i++) {
+            UShort index = namespaceIndex.apply(operations[i]);
+
+            if (index != null) {
+                byNamespace.computeIfAbsent(index, k -> Lists.newArrayList()).add(i);
+            } else {
+                results[i] = invalid.apply(operations[i]);
+            }
+        }
+
+        List<CompletableFuture<Void>> futures = byNamespace.entrySet().stream().map(e -> {
+            UShort index = e.getKey();
+            List<Integer> indices = e.getValue();
+
+            List<T> items = indices.stream()
+                    .map(i -> operations[i])
+                    .collect(Collectors.toList());
+
+            Namespace namespace = server.getNamespaceManager().getNamespace(index);
+
+            CompletableFuture<List<R>> future = new CompletableFuture<>();
+
+            server.getMetrics().recordNamespaceOperation(namespace, NamespaceOperation.NodeManagement, future);
+
+            try {
+                server.getNamespaceExecutor(index).execute(() -> {
+                    try {
+                        call.apply(namespace, items, future);
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                future.complete(Collections.nCopies(items.size(), failed.apply(RESOURCE_UNAVAILABLE)));
+            }
+
+            return future.handle((namespaceResults, ex) -> {
+                if (ex != null || namespaceResults == null || namespaceResults.size() != indices.size()) {
+                    LOGGER.error("NodeManagement failed in namespace {}.", index, ex);
+
+                    R internalError = failed.apply(INTERNAL_ERROR);
+                    indices.forEach(i -> results[i] = internalError);
+                } else {
+                    for (int i = 0; i < indices.size(); i++) {
+                        results[indices.get(i)] = namespaceResults.get(i);
+                    }
+                }
+
+                return (Void) null;
+            });
+        }).collect(Collectors.toList());
+
+        sequence(futures).thenAcceptAsync(v -> {
+            @SuppressWarnings("unchecked")
+            List<R> list = (List<R>) Arrays.asList(results);
+
+            onComplete.accept(list);
+        }, server.getExecutorService()).exceptionally(ex -> {
+            LOGGER.error("Error completing NodeManagement request.", ex);
+            service.setServiceFault(StatusCodes.Bad_InternalError);
+            return null;
+        });
+    }
+
+    /**
+     * AddNodes are handled by the namespace of the requested NodeId or, if no NodeId was requested, by the namespace
+     * of the parent. Namespace 0 doesn't take new nodes, so children of its nodes go to the namespace configured by
+     * {@link com.digitalpetri.opcua.sdk.server.api.OpcUaServerConfig#getNodeManagementNamespaceUri()}, if any.
+     */
+    private static UShort namespaceIndex(OpcUaServer server, AddNodesItem item) {
+        ExpandedNodeId nodeId = item.getRequestedNewNodeId();
+
+        if (nodeId != null && !ExpandedNodeId.NULL_VALUE.equals(nodeId)) {
+            return nodeId.local().map(NodeId::getNamespaceIndex).orElse(null);
+        }
+
+        UShort parentIndex = item.getParentNodeId() != null ?
+                item.getParentNodeId().local().map(NodeId::getNamespaceIndex).orElse(null) : null;
+
+        if (parentIndex != null && parentIndex.intValue() == 0) {
+            String namespaceUri = server.getConfig().getNodeManagementNamespaceUri();
+
+            if (namespaceUri != null) {
+                UShort index = server.getNamespaceManager().getNamespaceTable().getIndex(namespaceUri);
+
+                if (index != null) return index;
+            }
+        }
+
+        return parentIndex;
+    }
+
+    private static long invalidStatus(AddNodesItem item) {
+        ExpandedNodeId nodeId = item.getRequestedNewNodeId();
+
+        return nodeId == null || ExpandedNodeId.NULL_VALUE.equals(nodeId) ?
+                StatusCodes.Bad_ParentNodeIdInvalid : StatusCodes.Bad_NodeIdRejected;
+    }
+
+    private interface NamespaceCall<T, R> {
+        void apply(Namespace namespace, List<T> items, CompletableFuture<List<R>> future);
+    }
+
+}
@@ -0,0 +1,590 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.services.helpers;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.sdk.server.NamespaceManager;
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.api.Namespace;
+import com.digitalpetri.opcua.sdk.server.api.UaNamespace;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
+import com.digitalpetri.opcua.sdk.server.services.ServiceContext;
+import com.digitalpetri.opcua.sdk.server.util.ContentFilterEvaluator;
+import com.digitalpetri.opcua.sdk.server.util.ContentFilterEvaluator.OperandResolver;
+import com.digitalpetri.opcua.sdk.server.util.ContinuationPointStore;
+import com.digitalpetri.opcua.sdk.server.util.NodeIndex;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DiagnosticInfo;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
+import com.digitalpetri.opcua.stack.core.types.structured.AttributeOperand;
+import com.digitalpetri.opcua.stack.core.types.structured.NodeTypeDescription;
+import com.digitalpetri.opcua.stack.core.types.structured.ParsingResult;
+import com.digitalpetri.opcua.stack.core.types.structured.QueryDataDescription;
+import com.digitalpetri.opcua.stack.core.types.structured.QueryDataSet;
+import com.digitalpetri.opcua.stack.core.types.structured.QueryFirstRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.QueryFirstResponse;
+import com.digitalpetri.opcua.stack.core.types.structured.QueryNextRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.QueryNextResponse;
+import com.digitalpetri.opcua.stack.core.types.structured.RelativePathElement;
+import com.digitalpetri.opcua.stack.core.types.structured.SimpleAttributeOperand;
+import com.digitalpetri.opcua.stack.core.types.structured.ViewDescription;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import static com.digitalpetri.opcua.sdk.core.util.ConversionUtil.a;
+
+/**
+ * QueryFirst and QueryNext over the nodes of the namespaces that keep a {@link NodeIndex}.
+ * <p>
+ * Candidates are the instances of each requested type, and of its subtypes when asked for, taken from the indexes.
+ * The filter is evaluated one page at a time, so a continuation point holds a cursor over the indexes rather than
+ * results.
+ * Views aren't supported, and values are returned for the first node each QueryDataDescription's path leads to.
+ */
+public class QueryHelper {
+
+    /**
+     * The page size used when the client leaves MaxDataSetsToReturn at 0.
+     */
+    public static final int DEFAULT_MAX_DATA_SETS = 1000;
+
+    /**
+     * The most candidates examined for one page; a selective filter returns a short page rather than scanning on.
+     */
+    public static final int MAX_CANDIDATES_PER_PAGE = 10000;
+
+    public static void queryFirst(ServiceContext context,
+                                  ServiceRequest<QueryFirstRequest, QueryFirstResponse> service) {
+
+        OpcUaServer server = context.getServer();
+        QueryFirstRequest request = service.getRequest();
+
+        NodeTypeDescription[] nodeTypes = request.getNodeTypes();
+
+        if (nodeTypes == null || nodeTypes.length == 0) {
+            service.setServiceFault(StatusCodes.Bad_NothingToDo);
+            return;
+        }
+
+        ViewDescription view = request.getView();
+
+        if (view != null && view.getViewId() != null && !NodeId.NULL_VALUE.equals(view.getViewId())) {
+            service.setServiceFault(StatusCodes.Bad_ViewIdUnknown);
+            return;
+        }
+
+        server.getExecutorService().execute(() -> {
+            NamespaceManager namespaceManager = server.getNamespaceManager();
+
+            List<QueryType> types = Lists.newArrayListWithCapacity(nodeTypes.length);
+            ParsingResult[] parsingResults = new ParsingResult[nodeTypes.length];
+            boolean parsed = true;
+
+            for (int i = 0; i < nodeTypes.length; i++) {
+                QueryType type = parse(namespaceManager, nodeTypes[i]);
+
+                parsingResults[i] = type.parsingResult;
+                parsed &= type.parsingResult.getStatusCode().isGood();
+
+                types.add(type);
+            }
+
+            ContentFilterEvaluator filter = ContentFilterEvaluator.parse(request.getFilter());
+
+            if (!parsed || !filter.isValid()) {
+                service.setResponse(new QueryFirstResponse(
+                        service.createResponseHeader(),
+                        new QueryDataSet[0],
+                        ByteString.NULL_VALUE,
+                        parsed ? new ParsingResult[0] : parsingResults,
+                        new DiagnosticInfo[0],
+                        filter.getResult()));
+
+                return;
+            }
+
+            long maxDataSets = request.getMaxDataSetsToReturn() != null ?
+                    request.getMaxDataSetsToReturn().longValue() : 0L;
+
+            QueryContinuationPoint c = new QueryContinuationPoint(
+                    namespaceManager,
+                    types,
+                    filter,
+                    maxDataSets > 0 ? (int) Math.min(maxDataSets, Integer.MAX_VALUE) : DEFAULT_MAX_DATA_SETS);
+
+            QueryDataSet[] page = c.nextPage();
+            ByteString continuationPoint = ByteString.NULL_VALUE;
+
+            if (c.hasNext()) {
+                continuationPoint = context.getSession().getQueryContinuationPoints().add(c);
+
+                if (continuationPoint == null) {
+                    service.setServiceFault(StatusCodes.Bad_NoContinuationPoints);
+                    return;
+                }
+            }
+
+            service.setResponse(new QueryFirstResponse(
+                    service.createResponseHeader(),
+                    page,
+                    continuationPoint,
+                    new ParsingResult[0],
+                    new DiagnosticInfo[0],
+                    filter.getResult()));
+        });
+    }
+
+    public static void queryNext(ServiceContext context,
+                                 ServiceRequest<QueryNextRequest, QueryNextResponse> service) {
+
+        OpcUaServer server = context.getServer();
+        QueryNextRequest request = service.getRequest();
+
+        ContinuationPointStore<QueryContinuationPoint> continuationPoints =
+                context.getSession().getQueryContinuationPoints();
+
+        ByteString bs = request.getContinuationPoint();
+        QueryContinuationPoint c = bs != null ? continuationPoints.remove(bs) : null;
+
+        if (c == null) {
+            service.setServiceFault(StatusCodes.Bad_ContinuationPointInvalid);
+            return;
+        }
+
+        if (Boolean.TRUE.equals(request.getReleaseContinuationPoint())) {
+            service.setResponse(new QueryNextResponse(
+                    service.createResponseHeader(), new QueryDataSet[0], ByteString.NULL_VALUE));
+
+            return;
+        }
+
+        server.getExecutorService().execute(() -> {
+            QueryDataSet[] page = c.nextPage();
+            ByteString revised = ByteString.NULL_VALUE;
+
+            if (c.hasNext()) {
+                if (!continuationPoints.put(bs, c)) {
+                    service.setServiceFault(StatusCodes.Bad_NoContinuationPoints);
+                    return;
+                }
+
+                revised = bs;
+            }
+
+            service.setResponse(new QueryNextResponse(service.createResponseHeader(), page, revised));
+        });
+    }
+
+    private static QueryType parse(NamespaceManager namespaceManager, NodeTypeDescription description) {
+        QueryDataDescription[] dataToReturn = description.getDataToReturn() != null ?
+                description.getDataToReturn() : new QueryDataDescription[0];
+
+        Optional<UaNode> typeNode = description.getTypeDefinitionNode() != null ?
+                description.getTypeDefinitionNode().local().flatMap(id -> node(namespaceManager, id)) :
+                Optional.empty();
+
+        boolean typeValid = typeNode
+                .map(n -> n.getNodeClass() == NodeClass.ObjectType || n.getNodeClass() == NodeClass.VariableType)
+                .orElse(false);
+
+        StatusCode[] dataStatusCodes = new StatusCode[dataToReturn.length];
+        boolean dataValid = true;
+
+        for (int i = 0; i < dataToReturn.length; i++) {
+            long attributeId = dataToReturn[i].getAttributeId() != null ?
+                    dataToReturn[i].getAttributeId().longValue() : 0L;
+
+            if (attributeId >= AttributeIds.NodeId && attributeId <= AttributeIds.UserExecutable) {
+                dataStatusCodes[i] = StatusCode.GOOD;
+            } else {
+                dataStatusCodes[i] = new StatusCode(StatusCodes.Bad_AttributeIdInvalid);
+                dataValid = false;
+            }
+        }
+
+        ParsingResult parsingResult;
+
+        if (!typeValid) {
+            parsingResult = new ParsingResult(
+                    new StatusCode(StatusCodes.Bad_TypeDefinitionInvalid), dataStatusCodes, new DiagnosticInfo[0]);
+        } else if (!dataValid) {
+            parsingResult = new ParsingResult(
+                    new StatusCode(StatusCodes.Bad_InvalidArgument), dataStatusCodes, new DiagnosticInfo[0]);
+        } else {
+            parsingResult = new ParsingResult(StatusCode.GOOD, dataStatusCodes, new DiagnosticInfo[0]);
+        }
+
+        Set<NodeId> typeIds = Sets.newLinkedHashSet();
+
+        if (typeValid) {
+            NodeId typeId = typeNode.get().getNodeId();
+
+            typeIds.add(typeId);
+
+            if (Boolean.TRUE.equals(description.getIncludeSubTypes())) {
+                addSubtypes(namespaceManager, typeId, typeIds);
+            }
+        }
+
+        return new QueryType(typeIds, dataToReturn, parsingResult);
+    }
+
+    private static void addSubtypes(NamespaceManager namespaceManager, NodeId typeId, Set<NodeId> typeIds) {
+        List<Reference> references = namespaceManager.getReferences(typeId).orElse(Collections.emptyList());
+
+        for (Reference reference : references) {
+            if (reference.isForward() && Identifiers.HasSubtype.equals(reference.getReferenceTypeId())) {
+                Optional<NodeId> subtypeId = namespaceManager.toNodeId(reference.getTargetNodeId());
+
+                if (subtypeId.isPresent() && typeIds.add(subtypeId.get())) {
+                    addSubtypes(namespaceManager, subtypeId.get(), typeIds);
+                }
+            }
+        }
+    }
+
+    private static Optional<UaNode> node(NamespaceManager namespaceManager, NodeId nodeId) {
+        Namespace namespace = namespaceManager.getNamespace(nodeId);
+
+        return namespace instanceof UaNamespace ?
+                ((UaNamespace) namespace).getNode(nodeId) :
+                Optional.empty();
+    }
+
+    private static Optional<NodeId> typeDefinition(UaNode node) {
+        return node.getReferences().stream()
+                .filter(Reference.HAS_TYPE_DEFINITION_PREDICATE)
+                .findFirst()
+                .flatMap(r -> r.getTargetNodeId().local());
+    }
+
+    /**
+     * @return {@code true} if {@code typeId} is {@code superTypeId} or one of its subtypes.
+     */
+    private static boolean isSubtypeOf(NamespaceManager namespaceManager, NodeId typeId, NodeId superTypeId) {
+        Set<NodeId> visited = Sets.newHashSet();
+
+        while (typeId != null && visited.add(typeId)) {
+            if (typeId.equals(superTypeId)) return true;
+
+            typeId = namespaceManager.getReferences(typeId).orElse(Collections.emptyList()).stream()
+                    .filter(r -> r.isInverse() && Identifiers.HasSubtype.equals(r.getReferenceTypeId()))
+                    .findFirst()
+                    .flatMap(r -> namespaceManager.toNodeId(r.getTargetNodeId()))
+                    .orElse(null);
+        }
+
+        return false;
+    }
+
+    /**
+     * A requested type: the type and, if asked for, its subtypes, plus the data to return for its instances.
+     */
+    private static final class QueryType {
+
+        private final Set<NodeId> typeIds;
+        private final QueryDataDescription[] dataToReturn;
+        private final ParsingResult parsingResult;
+
+        private QueryType(Set<NodeId> typeIds, QueryDataDescription[] dataToReturn, ParsingResult parsingResult) {
+            this.typeIds = typeIds;
+            this.dataToReturn = dataToReturn;
+            this.parsingResult = parsingResult;
+        }
+
+    }
+
+    /**
+     * A cursor over the candidates of a query still to be evaluated.
+     * <p>
+     * Candidates are taken from the indexes one type and namespace at a time, as the cursor reaches them; the filter
+     * and the data to return are only evaluated for the page being returned, and nodes removed in the meantime are
+     * skipped. At most {@link #MAX_CANDIDATES_PER_PAGE} candidates are examined per page, so a page may hold fewer
+     * than the requested number of data sets even though more follow.
+     */
+    public static class QueryContinuationPoint {
+
+        private final Iterator<Source> sources;
+
+        private final NamespaceManager namespaceManager;
+        private final ContentFilterEvaluator filter;
+        private final int max;
+
+        private QueryType type;
+        private Iterator<NodeId> candidates = Collections.emptyIterator();
+
+        private QueryContinuationPoint(NamespaceManager namespaceManager,
+                                       List<QueryType> types,
+                                       ContentFilterEvaluator filter,
+                                       int max) {
+
+            this.namespaceManager = namespaceManager;
+            this.filter = filter;
+            this.max = max;
+
+            List<Source> sources = Lists.newArrayList();
+            Set<NodeId> typeIds = Sets.newHashSet();
+
+            for (QueryType type : types) {
+                for (NodeId typeId : type.typeIds) {
+                    // A node has a single TypeDefinition, so each type is looked up once and no node is seen twice.
+                    if (!typeIds.add(typeId)) continue;
+
+                    for (Namespace namespace : namespaceManager.getNamespaces()) {
+                        if (namespace instanceof UaNamespace) {
+                            sources.add(new Source((UaNamespace) namespace, typeId, type));
+                        }
+                    }
+                }
+            }
+
+            this.sources = sources.iterator();
+        }
+
+        public synchronized boolean hasNext() {
+            return advance();
+        }
+
+        /**
+         * @return the next page of up to {@code max} matching data sets.
+         */
+        public synchronized QueryDataSet[] nextPage() {
+            List<QueryDataSet> page = Lists.newArrayList();
+            int examined = 0;
+
+            while (page.size() < max && examined < MAX_CANDIDATES_PER_PAGE && advance()) {
+                NodeId nodeId = candidates.next();
+                examined++;
+
+                Optional<UaNode> node = node(namespaceManager, nodeId);
+
+                if (!node.isPresent()) continue;
+
+                NodeResolver resolver = new NodeResolver(namespaceManager, node.get());
+
+                if (!filter.evaluate(resolver)) continue;
+
+                QueryDataDescription[] dataToReturn = type.dataToReturn;
+                Variant[] values = new Variant[dataToReturn.length];
+
+                for (int i = 0; i < dataToReturn.length; i++) {
+                    QueryDataDescription data = dataToReturn[i];
+
+                    RelativePathElement[] elements = data.getRelativePath() != null ?
+                            data.getRelativePath().getElements() : null;
+
+                    Object value = resolver.read(
+                            resolver.follow(node.get(), elements),
+                            data.getAttributeId().intValue(),
+                            data.getIndexRange());
+
+                    values[i] = value != null ? new Variant(value) : Variant.NULL_VALUE;
+                }
+
+                NodeId typeDefinitionId = typeDefinition(node.get()).orElse(NodeId.NULL_VALUE);
+
+                page.add(new QueryDataSet(nodeId.expanded(), typeDefinitionId.expanded(), values));
+            }
+
+            return a(page, QueryDataSet.class);
+        }
+
+        /**
+         * Move on to the next source with candidates left, if the current one is exhausted.
+         *
+         * @return {@code true} if there is a candidate left.
+         */
+        private boolean advance() {
+            while (!candidates.hasNext()) {
+                if (!sources.hasNext()) return false;
+
+                Source source = sources.next();
+                Optional<NodeIndex> index = source.namespace.getNodeIndex();
+
+                if (index.isPresent()) {
+                    type = source.type;
+                    candidates = index.get().getInstances(source.typeId).iterator();
+                }
+            }
+
+            return true;
+        }
+
+    }
+
+    /**
+     * The instances of one type in one namespace.
+     */
+    private static final class Source {
+
+        private final UaNamespace namespace;
+        private final NodeId typeId;
+        private final QueryType type;
+
+        private Source(UaNamespace namespace, NodeId typeId, QueryType type) {
+            this.namespace = namespace;
+            this.typeId = typeId;
+            this.type = type;
+        }
+
+    }
+
+    /**
+     * Resolves filter operands against one candidate node.
+     */
+    private static final class NodeResolver implements OperandResolver {
+
+        private final NamespaceManager namespaceManager;
+        private final UaNode node;
+
+        private NodeResolver(NamespaceManager namespaceManager, UaNode node) {
+            this.namespaceManager = namespaceManager;
+            this.node = node;
+        }
+
+        @Override
+        public Object resolve(SimpleAttributeOperand operand) {
+            NodeId typeDefinitionId = operand.getTypeDefinitionId();
+
+            if (typeDefinitionId != null &&
+                    !NodeId.NULL_VALUE.equals(typeDefinitionId) &&
+                    !isOfType(typeDefinitionId)) {
+
+                return null;
+            }
+
+            UaNode target = node;
+
+            if (operand.getBrowsePath() != null) {
+                for (QualifiedName browseName : operand.getBrowsePath()) {
+                    if (target == null) break;
+
+                    target = child(target, browseName);
+                }
+            }
+
+            return read(target, operand.getAttributeId().intValue(), operand.getIndexRange());
+        }
+
+        @Override
+        public Object resolve(AttributeOperand operand) {
+            NodeId typeDefinitionId = operand.getNodeId();
+
+            if (typeDefinitionId != null &&
+                    !NodeId.NULL_VALUE.equals(typeDefinitionId) &&
+                    !isOfType(typeDefinitionId)) {
+
+                return null;
+            }
+
+            RelativePathElement[] elements = operand.getBrowsePath() != null ?
+                    operand.getBrowsePath().getElements() : null;
+
+            return read(follow(node, elements), operand.getAttributeId().intValue(), operand.getIndexRange());
+        }
+
+        @Override
+        public boolean isOfType(NodeId typeDefinitionId) {
+            return typeDefinition(node)
+                    .map(typeId -> isSubtypeOf(namespaceManager, typeId, typeDefinitionId))
+                    .orElse(false);
+        }
+
+        /**
+         * @return the value of the attribute, or {@code null} if {@code target} is {@code null} or the attribute
+         * can't be read.
+         */
+        private Object read(UaNode target, int attributeId, String indexRange) {
+            if (target == null) return null;
+
+            DataValue value = target.readAttribute(attributeId, null, indexRange);
+
+            if (value.getStatusCode() != null && !value.getStatusCode().isGood()) return null;
+
+            return value.getValue() != null ? value.getValue().getValue() : null;
+        }
+
+        /**
+         * @return the first node {@code elements} lead to from {@code start}, or {@code null} if there is none.
+         */
+        private UaNode follow(UaNode start, RelativePathElement[] elements) {
+            UaNode current = start;
+
+            if (elements == null) return current;
+
+            for (RelativePathElement element : elements) {
+                if (current == null) return null;
+
+                current = next(current, element);
+            }
+
+            return current;
+        }
+
+        private UaNode next(UaNode current, RelativePathElement element) {
+            NodeId referenceTypeId = element.getReferenceTypeId();
+            boolean includeSubtypes = Boolean.TRUE.equals(element.getIncludeSubtypes());
+            boolean inverse = Boolean.TRUE.equals(element.getIsInverse());
+            QualifiedName targetName = element.getTargetName();
+
+            Iterator<Reference> references = current.getReferences().stream()
+                    .filter(r -> r.isInverse() == inverse)
+                    .filter(r -> referenceTypeId == null || NodeId.NULL_VALUE.equals(referenceTypeId) ||
+                            r.getReferenceTypeId().equals(referenceTypeId) ||
+                            (includeSubtypes && r.subtypeOf(referenceTypeId, namespaceManager)))
+                    .iterator();
+
+            while (references.hasNext()) {
+                Optional<UaNode> target = namespaceManager.toNodeId(references.next().getTargetNodeId())
+                        .flatMap(id -> node(namespaceManager, id));
+
+                if (target.isPresent() && (targetName == null || targetName.equals(QualifiedName.NULL_VALUE) ||
+                        targetName.equals(target.get().getBrowseName()))) {
+
+                    return target.get();
+                }
+            }
+
+            return null;
+        }
+
+        private UaNode child(UaNode current, QualifiedName browseName) {
+            RelativePathElement element = new RelativePathElement(
+                    Identifiers.HierarchicalReferences, false, true, browseName);
+
+            return next(current, element);
+        }
+
+    }
+
+}
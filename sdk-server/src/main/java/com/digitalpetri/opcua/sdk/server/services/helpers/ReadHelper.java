@@ -17,21 +17,26 @@
 package com.digitalpetri.opcua.sdk.server.services.helpers;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 import com.digitalpetri.opcua.sdk.server.api.Namespace;
-import com.digitalpetri.opcua.sdk.server.services.ServiceAttributes;
+import com.digitalpetri.opcua.sdk.server.diagnostics.ServerMetrics.NamespaceOperation;
+import com.digitalpetri.opcua.sdk.server.services.ServiceContext;
 import com.digitalpetri.opcua.sdk.server.util.Pending;
 import com.digitalpetri.opcua.sdk.server.OpcUaServer;
 import com.digitalpetri.opcua.sdk.server.util.PendingRead;
+import com.digitalpetri.opcua.sdk.server.util.RegisteredNodes;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
 import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
 import com.digitalpetri.opcua.stack.core.types.builtin.DiagnosticInfo;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
 import com.digitalpetri.opcua.stack.core.types.structured.ReadRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.ReadResponse;
 import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
@@ -42,10 +47,10 @@ import static com.digitalpetri.opcua.sdk.server.util.FutureUtils.sequence;
 
 public class ReadHelper {
 
-    public static void read(ServiceRequest<ReadRequest, ReadResponse> service) {
+    public static void read(ServiceContext context, ServiceRequest<ReadRequest, ReadResponse> service) {
         ReadRequest request = service.getRequest();
 
-        OpcUaServer server = service.attr(ServiceAttributes.ServerKey).get();
+        OpcUaServer server = context.getServer();
 
         if (request.getNodesToRead().length == 0) {
             service.setServiceFault(StatusCodes.Bad_NothingToDo);
@@ -67,7 +72,10 @@ public class ReadHelper {
             return;
         }
 
+        RegisteredNodes registeredNodes = context.getSession().getRegisteredNodes();
+
         List<PendingRead> pendingReads = Arrays.stream(request.getNodesToRead())
+                .map(registeredNodes::resolve)
                 .map(PendingRead::new)
                 .collect(Collectors.toList());
 
@@ -89,8 +97,21 @@ public class ReadHelper {
 
             CompletableFuture<List<DataValue>> future = Pending.callback(pending);
 
-            server.getExecutorService().execute(
-                    () -> namespace.read(readValueIds, request.getMaxAge(), request.getTimestampsToReturn(), future));
+            server.getMetrics().recordNamespaceOperation(namespace, NamespaceOperation.Read, future);
+
+            if (request.getMaxAge() > 0d && namespace.isReadCacheEnabled()) {
+                server.getNamespaceManager().getReadCache().read(
+                        readValueIds,
+                        request.getMaxAge(),
+                        request.getTimestampsToReturn(),
+                        (misses, missFuture) -> read(
+                                server, index, namespace, misses,
+                                request.getMaxAge(), TimestampsToReturn.Both, missFuture),
+                        future);
+            } else {
+                read(server, index, namespace, readValueIds,
+                        request.getMaxAge(), request.getTimestampsToReturn(), future);
+            }
         });
 
 		/*
@@ -111,4 +132,22 @@ public class ReadHelper {
         }, server.getExecutorService());
     }
 
+    private static void read(OpcUaServer server,
+                             UShort index,
+                             Namespace namespace,
+                             List<ReadValueId> readValueIds,
+                             Double maxAge,
+                             TimestampsToReturn timestamps,
+                             CompletableFuture<List<DataValue>> future) {
+
+        try {
+            server.getNamespaceExecutor(index).execute(
+                    () -> namespace.read(readValueIds, maxAge, timestamps, future));
+        } catch (RejectedExecutionException e) {
+            DataValue value = new DataValue(StatusCodes.Bad_ResourceUnavailable);
+
+            future.complete(Collections.nCopies(readValueIds.size(), value));
+        }
+    }
+
 }
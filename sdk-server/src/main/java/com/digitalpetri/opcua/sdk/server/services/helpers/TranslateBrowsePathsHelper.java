@@ -19,14 +19,23 @@ package com.digitalpetri.opcua.sdk.server.services.helpers;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.digitalpetri.opcua.sdk.core.AttributeIds;
 import com.digitalpetri.opcua.sdk.core.Reference;
 import com.digitalpetri.opcua.sdk.server.NamespaceManager;
 import com.digitalpetri.opcua.sdk.server.OpcUaServer;
-import com.digitalpetri.opcua.sdk.server.services.ServiceAttributes;
+import com.digitalpetri.opcua.sdk.server.api.Namespace;
+import com.digitalpetri.opcua.sdk.server.api.UaNamespace;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
+import com.digitalpetri.opcua.sdk.server.services.ServiceContext;
+import com.digitalpetri.opcua.sdk.server.util.BrowsePathCache;
+import com.digitalpetri.opcua.sdk.server.util.RegisteredNodes;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.UaException;
 import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
@@ -45,6 +54,7 @@ import com.digitalpetri.opcua.stack.core.types.structured.TranslateBrowsePathsTo
 import com.digitalpetri.opcua.stack.core.types.structured.TranslateBrowsePathsToNodeIdsResponse;
 
 import static com.digitalpetri.opcua.sdk.core.util.ConversionUtil.a;
+import static com.digitalpetri.opcua.sdk.server.util.FutureUtils.sequence;
 import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
 
 public class TranslateBrowsePathsHelper {
@@ -56,9 +66,10 @@ public class TranslateBrowsePathsHelper {
     }
 
     public void onTranslateBrowsePaths(
+            ServiceContext context,
             ServiceRequest<TranslateBrowsePathsToNodeIdsRequest, TranslateBrowsePathsToNodeIdsResponse> service) {
 
-        OpcUaServer server = service.attr(ServiceAttributes.ServerKey).get();
+        OpcUaServer server = context.getServer();
 
         BrowsePath[] browsePaths = service.getRequest().getBrowsePaths();
 
@@ -67,34 +78,110 @@ public class TranslateBrowsePathsHelper {
 
             service.setServiceFault(StatusCodes.Bad_TooManyOperations);
         } else {
-            List<BrowsePathResult> results = Arrays.stream(browsePaths)
-                    .map(this::translate)
+            RegisteredNodes registeredNodes = context.getSession().getRegisteredNodes();
+
+            List<CompletableFuture<BrowsePathResult>> futures = Arrays.stream(browsePaths)
+                    .map(registeredNodes::resolve)
+                    .map(browsePath -> translate(server, browsePath))
                     .collect(Collectors.toList());
 
-            ResponseHeader header = service.createResponseHeader();
-            TranslateBrowsePathsToNodeIdsResponse response = new TranslateBrowsePathsToNodeIdsResponse(
-                    header, a(results, BrowsePathResult.class), new DiagnosticInfo[0]);
+            sequence(futures).thenAccept(results -> {
+                ResponseHeader header = service.createResponseHeader();
+                TranslateBrowsePathsToNodeIdsResponse response = new TranslateBrowsePathsToNodeIdsResponse(
+                        header, a(results, BrowsePathResult.class), new DiagnosticInfo[0]);
 
-            service.setResponse(response);
+                service.setResponse(response);
+            });
         }
     }
 
-    private BrowsePathResult translate(BrowsePath browsePath) {
+    /**
+     * Translate {@code browsePath} on the executor of its starting node's namespace, since following it may wait for
+     * the namespace, e.g. a proxy asking its upstream server. Empty paths and cached results are answered on the
+     * calling thread.
+     */
+    private CompletableFuture<BrowsePathResult> translate(OpcUaServer server, BrowsePath browsePath) {
         NodeId startingNode = browsePath.getStartingNode();
         RelativePath relativePath = browsePath.getRelativePath();
+        RelativePathElement[] elements = relativePath.getElements();
+
+        if (elements == null || elements.length == 0) {
+            return CompletableFuture.completedFuture(
+                    new BrowsePathResult(new StatusCode(StatusCodes.Bad_NothingToDo), new BrowsePathTarget[0]));
+        }
+
+        BrowsePathResult cached = namespaceManager.getBrowsePathCache().get(startingNode, relativePath);
+
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+
+        CompletableFuture<BrowsePathResult> future = new CompletableFuture<>();
 
         try {
-            List<BrowsePathTarget> targets = follow(startingNode, Lists.newArrayList(relativePath.getElements()));
+            server.getNamespaceExecutor(startingNode.getNamespaceIndex()).execute(() -> {
+                try {
+                    future.complete(translate(startingNode, relativePath, elements));
+                } catch (Throwable t) {
+                    future.complete(new BrowsePathResult(
+                            new StatusCode(StatusCodes.Bad_InternalError), new BrowsePathTarget[0]));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.complete(new BrowsePathResult(
+                    new StatusCode(StatusCodes.Bad_ResourceUnavailable), new BrowsePathTarget[0]));
+        }
+
+        return future;
+    }
+
+    private BrowsePathResult translate(NodeId startingNode,
+                                       RelativePath relativePath,
+                                       RelativePathElement[] elements) {
 
-            return new BrowsePathResult(StatusCode.GOOD, targets.toArray(new BrowsePathTarget[targets.size()]));
+        BrowsePathCache cache = namespaceManager.getBrowsePathCache();
+
+        long generation = cache.getGeneration();
+        Set<NodeId> traversed = Sets.newHashSet();
+
+        BrowsePathResult result;
+
+        try {
+            List<BrowsePathTarget> targets = follow(startingNode, Lists.newArrayList(elements), traversed);
+
+            result = new BrowsePathResult(StatusCode.GOOD, targets.toArray(new BrowsePathTarget[targets.size()]));
         } catch (UaException e) {
-            return new BrowsePathResult(e.getStatusCode(), new BrowsePathTarget[0]);
+            result = new BrowsePathResult(e.getStatusCode(), new BrowsePathTarget[0]);
         }
+
+        // A failed translation may start succeeding when a node is added, which doesn't notify the nodes traversed.
+        if (result.getStatusCode().isGood() && cacheable(traversed)) {
+            cache.put(startingNode, relativePath, result, traversed, generation);
+        }
+
+        return result;
     }
 
-    private List<BrowsePathTarget> follow(NodeId nodeId, List<RelativePathElement> elements) throws UaException {
+    /**
+     * A result can only be cached if every node it depends on belongs to a {@link UaNamespace} that reports changes
+     * to their references and BrowseNames.
+     */
+    private boolean cacheable(Set<NodeId> traversed) {
+        for (NodeId nodeId : traversed) {
+            Namespace namespace = namespaceManager.getNamespace(nodeId);
+
+            if (!(namespace instanceof UaNamespace) || !((UaNamespace) namespace).reportsNodeChanges()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private List<BrowsePathTarget> follow(NodeId nodeId,
+                                          List<RelativePathElement> elements,
+                                          Set<NodeId> traversed) throws UaException {
+
         if (elements.size() == 1) {
-            List<ExpandedNodeId> targets = target(nodeId, elements.get(0));
+            List<ExpandedNodeId> targets = target(nodeId, elements.get(0), traversed);
 
             if (targets.isEmpty()) throw new UaException(StatusCodes.Bad_NoMatch);
 
@@ -103,27 +190,33 @@ public class TranslateBrowsePathsHelper {
                     .collect(Collectors.toList());
         } else {
             RelativePathElement e = elements.remove(0);
-            ExpandedNodeId eNext = next(nodeId, e);
+            ExpandedNodeId eNext = next(nodeId, e, traversed);
 
             Optional<NodeId> next = namespaceManager.toNodeId(eNext);
 
             if (next.isPresent()) {
-                return follow(next.get(), elements);
+                return follow(next.get(), elements, traversed);
             } else {
                 return Lists.newArrayList(new BrowsePathTarget(eNext, uint(elements.size())));
             }
         }
     }
 
-    private ExpandedNodeId next(NodeId nodeId, RelativePathElement element) throws UaException {
+    private ExpandedNodeId next(NodeId nodeId,
+                                RelativePathElement element,
+                                Set<NodeId> traversed) throws UaException {
         NodeId referenceTypeId = element.getReferenceTypeId();
         boolean includeSubtypes = element.getIncludeSubtypes();
         QualifiedName targetName = element.getTargetName();
 
-        List<Reference> references = namespaceManager.getReferences(nodeId)
-                .orElseThrow(() -> new UaException(StatusCodes.Bad_NodeIdUnknown));
+        traversed.add(nodeId);
+
+        List<Reference> references = references(nodeId, targetName);
 
         return references.stream()
+                /* Record every target examined; the result depends on each of their BrowseNames... */
+                .peek(r -> namespaceManager.toNodeId(r.getTargetNodeId()).ifPresent(traversed::add))
+
                 /* Filter for references of the requested type or its subtype, if allowed... */
                 .filter(r -> r.getReferenceTypeId().equals(referenceTypeId) ||
                         (includeSubtypes && r.subtypeOf(referenceTypeId, namespaceManager)))
@@ -144,15 +237,21 @@ public class TranslateBrowsePathsHelper {
                 .findFirst().orElseThrow(() -> new UaException(StatusCodes.Bad_NoMatch));
     }
 
-    private List<ExpandedNodeId> target(NodeId nodeId, RelativePathElement element) throws UaException {
+    private List<ExpandedNodeId> target(NodeId nodeId,
+                                        RelativePathElement element,
+                                        Set<NodeId> traversed) throws UaException {
         NodeId referenceTypeId = element.getReferenceTypeId();
         boolean includeSubtypes = element.getIncludeSubtypes();
         QualifiedName targetName = element.getTargetName();
 
-        List<Reference> references = namespaceManager.getReferences(nodeId)
-                .orElseThrow(() -> new UaException(StatusCodes.Bad_NodeIdUnknown));
+        traversed.add(nodeId);
+
+        List<Reference> references = references(nodeId, targetName);
 
         return references.stream()
+                /* Record every target examined; the result depends on each of their BrowseNames... */
+                .peek(r -> namespaceManager.toNodeId(r.getTargetNodeId()).ifPresent(traversed::add))
+
                 /* Filter for references of the requested type or its subtype, if allowed... */
                 .filter(r -> r.getReferenceTypeId().equals(referenceTypeId) ||
                         (includeSubtypes && r.subtypeOf(referenceTypeId, namespaceManager)))
@@ -173,6 +272,29 @@ public class TranslateBrowsePathsHelper {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Get the references of {@code nodeId} that may lead to a target named {@code targetName}.
+     * <p>
+     * Nodes belonging to a {@link UaNamespace} are looked up in their BrowseName index; otherwise all references
+     * are returned. Either way the caller still checks each target's BrowseName.
+     */
+    private List<Reference> references(NodeId nodeId, QualifiedName targetName) throws UaException {
+        if (targetName != null && !targetName.equals(QualifiedName.NULL_VALUE)) {
+            Namespace namespace = namespaceManager.getNamespace(nodeId);
+
+            if (namespace instanceof UaNamespace) {
+                Optional<UaNode> node = ((UaNamespace) namespace).getNode(nodeId);
+
+                if (node.isPresent()) {
+                    return node.get().getReferenceCandidates(targetName);
+                }
+            }
+        }
+
+        return namespaceManager.getReferences(nodeId)
+                .orElseThrow(() -> new UaException(StatusCodes.Bad_NodeIdUnknown));
+    }
+
     private boolean matchesTarget(QualifiedName browseName, QualifiedName targetName) {
         return targetName == null ||
                 targetName.equals(QualifiedName.NULL_VALUE) ||
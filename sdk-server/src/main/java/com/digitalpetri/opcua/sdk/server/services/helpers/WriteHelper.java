@@ -17,16 +17,21 @@
 package com.digitalpetri.opcua.sdk.server.services.helpers;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 import com.digitalpetri.opcua.sdk.server.api.Namespace;
-import com.digitalpetri.opcua.sdk.server.services.ServiceAttributes;
+import com.digitalpetri.opcua.sdk.server.diagnostics.ServerMetrics.NamespaceOperation;
+import com.digitalpetri.opcua.sdk.server.services.ServiceContext;
 import com.digitalpetri.opcua.sdk.server.util.FutureUtils;
 import com.digitalpetri.opcua.sdk.server.util.Pending;
 import com.digitalpetri.opcua.sdk.server.util.PendingWrite;
+import com.digitalpetri.opcua.sdk.server.util.ReadCache;
+import com.digitalpetri.opcua.sdk.server.util.RegisteredNodes;
 import com.digitalpetri.opcua.sdk.server.OpcUaServer;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
@@ -42,10 +47,10 @@ import static com.digitalpetri.opcua.sdk.core.util.ConversionUtil.a;
 
 public class WriteHelper {
 
-    public static void write(ServiceRequest<WriteRequest, WriteResponse> service) {
+    public static void write(ServiceContext context, ServiceRequest<WriteRequest, WriteResponse> service) {
         WriteRequest request = service.getRequest();
 
-        OpcUaServer server = service.attr(ServiceAttributes.ServerKey).get();
+        OpcUaServer server = context.getServer();
 
         if (request.getNodesToWrite().length == 0) {
             service.setServiceFault(StatusCodes.Bad_NothingToDo);
@@ -57,7 +62,10 @@ public class WriteHelper {
             return;
         }
 
+        RegisteredNodes registeredNodes = context.getSession().getRegisteredNodes();
+
         List<PendingWrite> pendingWrites = Arrays.stream(request.getNodesToWrite())
+                .map(registeredNodes::resolve)
                 .map(PendingWrite::new)
                 .collect(Collectors.toList());
 
@@ -75,7 +83,19 @@ public class WriteHelper {
 
             CompletableFuture<List<StatusCode>> future = Pending.callback(pending);
 
-            server.getExecutorService().execute(() -> namespace.write(writeValues, future));
+            server.getMetrics().recordNamespaceOperation(namespace, NamespaceOperation.Write, future);
+
+            ReadCache readCache = server.getNamespaceManager().getReadCache();
+
+            future.whenComplete((results, ex) -> writeValues.forEach(v -> readCache.invalidate(v.getNodeId())));
+
+            try {
+                server.getNamespaceExecutor(index).execute(() -> namespace.write(writeValues, future));
+            } catch (RejectedExecutionException e) {
+                StatusCode statusCode = new StatusCode(StatusCodes.Bad_ResourceUnavailable);
+
+                future.complete(Collections.nCopies(writeValues.size(), statusCode));
+            }
         });
 
         List<CompletableFuture<StatusCode>> futures = pendingWrites.stream()
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import java.lang.reflect.Array;
+import java.util.UUID;
+
+import com.digitalpetri.opcua.stack.core.serialization.UaStructure;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExpandedNodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.LocalizedText;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.builtin.XmlElement;
+import com.digitalpetri.opcua.stack.core.types.structured.EventFieldList;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoredItemNotification;
+import com.google.common.base.Utf8;
+
+/**
+ * Estimates the binary encoded size of notifications, so a Subscription can keep its NotificationMessages within the
+ * client's maximum response message size without encoding them twice.
+ * <p>
+ * Sizes of built-in types are exact; structures inside ExtensionObjects that aren't already encoded are counted as
+ * {@link #STRUCTURE_SIZE} bytes.
+ */
+final class EncodedSizeEstimator {
+
+    /**
+     * The size assumed for a structure that hasn't been encoded yet.
+     */
+    static final int STRUCTURE_SIZE = 64;
+
+    /**
+     * An upper bound on the size of a PublishResponse without its notifications or available sequence numbers:
+     * response header, subscription id, NotificationMessage header and the two ExtensionObject wrappers.
+     */
+    static final int PUBLISH_RESPONSE_OVERHEAD = 256;
+
+    private EncodedSizeEstimator() {}
+
+    static long estimate(UaStructure notification) {
+        if (notification instanceof MonitoredItemNotification) {
+            return 4 + estimate(((MonitoredItemNotification) notification).getValue());
+        } else if (notification instanceof EventFieldList) {
+            Variant[] fields = ((EventFieldList) notification).getEventFields();
+
+            long size = 4 + 4;
+            if (fields != null) {
+                for (Variant field : fields) {
+                    size += estimate(field);
+                }
+            }
+            return size;
+        } else {
+            return STRUCTURE_SIZE;
+        }
+    }
+
+    static long estimate(DataValue value) {
+        if (value == null) return 1;
+
+        long size = 1;
+        if (value.getValue() != null) size += estimate(value.getValue());
+        if (value.getStatusCode() != null) size += 4;
+        if (value.getSourceTime() != null) size += 8 + 2;
+        if (value.getServerTime() != null) size += 8 + 2;
+        return size;
+    }
+
+    static long estimate(Variant variant) {
+        Object value = variant != null ? variant.getValue() : null;
+
+        return 1 + (value != null ? estimateValue(value) : 0);
+    }
+
+    private static long estimateValue(Object value) {
+        if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+
+            long size = 4;
+            boolean nested = false;
+            for (int i = 0; i < length; i++) {
+                Object element = Array.get(value, i);
+                nested |= element != null && element.getClass().isArray();
+                size += element != null ? estimateValue(element) : 0;
+            }
+            // Nested arrays are flattened, their lengths replaced by a dimensions array.
+            return nested ? size + 4 : size;
+        }
+
+        if (value instanceof Boolean || value instanceof Byte) return 1;
+        if (value instanceof Short) return 2;
+        if (value instanceof Integer || value instanceof Float) return 4;
+        if (value instanceof Long || value instanceof Double) return 8;
+        if (value instanceof Number) return 8;
+        if (value instanceof String) return 4 + Utf8.encodedLength((String) value);
+        if (value instanceof UUID) return 16;
+        if (value instanceof ByteString) return 4 + Math.max(0, ((ByteString) value).length());
+        if (value instanceof XmlElement) return 4 + string(((XmlElement) value).getFragment());
+        if (value instanceof NodeId) return nodeId((NodeId) value);
+        if (value instanceof ExpandedNodeId) return expandedNodeId((ExpandedNodeId) value);
+        if (value instanceof QualifiedName) return 2 + 4 + string(((QualifiedName) value).getName());
+        if (value instanceof LocalizedText) {
+            LocalizedText text = (LocalizedText) value;
+            return 1 + 4 + string(text.getLocale()) + 4 + string(text.getText());
+        }
+        if (value instanceof DataValue) return estimate((DataValue) value);
+        if (value instanceof Variant) return estimate((Variant) value);
+        if (value instanceof ExtensionObject) return extensionObject((ExtensionObject) value);
+
+        // DateTime, StatusCode and the unsigned types are all covered by their widest case.
+        return 8;
+    }
+
+    private static long nodeId(NodeId nodeId) {
+        Object identifier = nodeId.getIdentifier();
+
+        if (identifier instanceof String) return 3 + 4 + Utf8.encodedLength((String) identifier);
+        if (identifier instanceof UUID) return 3 + 16;
+        if (identifier instanceof ByteString) return 3 + 4 + Math.max(0, ((ByteString) identifier).length());
+        return 7;
+    }
+
+    private static long expandedNodeId(ExpandedNodeId nodeId) {
+        Object identifier = nodeId.getIdentifier();
+
+        long size;
+        if (identifier instanceof String) size = 3 + 4 + Utf8.encodedLength((String) identifier);
+        else if (identifier instanceof UUID) size = 3 + 16;
+        else if (identifier instanceof ByteString) size = 3 + 4 + Math.max(0, ((ByteString) identifier).length());
+        else size = 7;
+
+        return size + 4 + string(nodeId.getNamespaceUri()) + 4;
+    }
+
+    private static long extensionObject(ExtensionObject extensionObject) {
+        Object body = extensionObject.getObject();
+
+        long size = 7 + 1 + 4;
+        if (body instanceof ByteString) return size + Math.max(0, ((ByteString) body).length());
+        if (body instanceof XmlElement) return size + string(((XmlElement) body).getFragment());
+        return size + STRUCTURE_SIZE;
+    }
+
+    private static long string(String s) {
+        return s != null ? Utf8.encodedLength(s) : 0;
+    }
+
+}
@@ -118,6 +118,13 @@ public class PublishQueue {
         return serviceQueue.poll();
     }
 
+    /**
+     * @return the number of queued Publish requests.
+     */
+    public synchronized int size() {
+        return serviceQueue.size();
+    }
+
     public static class WaitingSubscription {
 
         private final Date waitingSince = new Date();
@@ -16,7 +16,6 @@
 
 package com.digitalpetri.opcua.sdk.server.subscriptions;
 
-import java.math.RoundingMode;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -24,18 +23,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
+import com.codahale.metrics.Counter;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.PeekingIterator;
-import com.google.common.math.DoubleMath;
 import com.google.common.primitives.Ints;
 import com.digitalpetri.opcua.sdk.server.Session;
 import com.digitalpetri.opcua.sdk.server.items.BaseMonitoredItem;
+import com.digitalpetri.opcua.sdk.server.util.FixedRateClock.Schedule;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
 import com.digitalpetri.opcua.stack.core.serialization.UaStructure;
@@ -93,6 +93,8 @@ public class Subscription {
     private volatile long lifetimeCounter;
 
     private volatile double publishingInterval;
+    private Schedule publishingSchedule;
+    private double scheduledInterval;
     private volatile long lifetimeCount;
     private volatile long maxKeepAliveCount;
     private volatile int maxNotificationsPerPublish;
@@ -161,7 +163,10 @@ public class Subscription {
     }
 
     public synchronized void addMonitoredItems(List<BaseMonitoredItem<?>> createdItems) {
+        Counter queueOverflows = subscriptionManager.getServer().getMetrics().getMonitoredItemQueueOverflows();
+
         for (BaseMonitoredItem<?> item : createdItems) {
+            item.setQueueOverflowCounter(queueOverflows);
             itemsById.put(item.getId(), item);
         }
 
@@ -371,7 +376,12 @@ public class Subscription {
     }
 
     /**
-     * Gather {@link MonitoredItemNotification}s and send them using {@code service}, if present.
+     * Gather notifications and send them using {@code service}, then keep sending with queued PublishRequests while
+     * notifications remain. When none are queued the Subscription waits in the PublishQueue for the next one.
+     * <p>
+     * Each message is cut when it holds {@code maxNotificationsPerPublish} notifications or its estimated encoded size
+     * reaches the response size budget. The rest stay queued in their items, and {@code iterator} resumes at the item
+     * that didn't fit.
      *
      * @param iterator a {@link PeekingIterator} over the current {@link BaseMonitoredItem}s.
      * @param service  a {@link ServiceRequest}, if available.
@@ -379,37 +389,80 @@ public class Subscription {
     private void gatherAndSend(PeekingIterator<BaseMonitoredItem<?>> iterator,
                                Optional<ServiceRequest<PublishRequest, PublishResponse>> service) {
 
-        if (service.isPresent()) {
-            List<UaStructure> notifications = Lists.newArrayList();
+        while (service.isPresent()) {
+            List<UaStructure> notifications = gather(iterator, maxNotificationsPerPublish, responseSizeBudget());
 
-            while (notifications.size() < maxNotificationsPerPublish && iterator.hasNext()) {
-                BaseMonitoredItem<?> item = iterator.peek();
+            moreNotifications = iterator.hasNext();
 
-                boolean gatheredAllForItem = gather(item, notifications, maxNotificationsPerPublish);
+            sendNotifications(service.get(), notifications);
 
-                if (gatheredAllForItem && iterator.hasNext()) {
-                    iterator.next();
-                }
-            }
+            if (!moreNotifications) return;
 
-            moreNotifications = iterator.hasNext();
+            service = Optional.ofNullable(publishQueue().poll());
+        }
 
-            sendNotifications(service.get(), notifications);
+        publishQueue().addSubscription(this);
+    }
+
+    /**
+     * Gather the notifications for one NotificationMessage, advancing {@code iterator} past each item emptied.
+     * <p>
+     * Gathering stops after {@code max} notifications or once their estimated encoded size reaches {@code budget}; a
+     * notification that doesn't fit stays queued in its item, and {@code iterator} is left at that item.
+     *
+     * @param iterator a {@link PeekingIterator} over the items with notifications to send.
+     * @param max      the maximum number of notifications to gather.
+     * @param budget   the encoded size the notifications may take.
+     * @return the notifications gathered.
+     */
+    static List<UaStructure> gather(PeekingIterator<BaseMonitoredItem<?>> iterator, int max, long budget) {
+        List<UaStructure> notifications = Lists.newArrayList();
+        long[] remaining = {budget};
+
+        Predicate<UaStructure> admit = notification -> {
+            long size = EncodedSizeEstimator.estimate(notification);
 
-            if (moreNotifications) {
-                gatherAndSend(iterator, Optional.ofNullable(publishQueue().poll()));
+            // A notification that can never fit is sent alone rather than blocking its item forever.
+            if (notifications.isEmpty() || size <= remaining[0]) {
+                remaining[0] -= size;
+                return true;
+            } else {
+                remaining[0] = 0L;
+                return false;
             }
-        } else {
-            if (moreNotifications) {
-                publishQueue().addSubscription(this);
+        };
+
+        while (notifications.size() < max && remaining[0] > 0L && iterator.hasNext()) {
+            BaseMonitoredItem<?> item = iterator.peek();
+
+            boolean gatheredAllForItem = item.getNotifications(notifications, max - notifications.size(), admit);
+
+            if (gatheredAllForItem && iterator.hasNext()) {
+                iterator.next();
             }
         }
+
+        return notifications;
     }
 
-    private boolean gather(BaseMonitoredItem<?> item, List<UaStructure> notifications, int maxNotifications) {
-        int max = maxNotifications - notifications.size();
+    /**
+     * @return the encoded size the notifications of one PublishResponse may take: the smaller of the client's
+     * maximum response message size and the server's maximum message size, less the response's own overhead.
+     */
+    private long responseSizeBudget() {
+        long budget = Long.MAX_VALUE;
+
+        long clientMax = subscriptionManager.getSession().getMaxResponseMessageSize();
+        if (clientMax > 0L) budget = Math.min(budget, clientMax);
+
+        long serverMax = subscriptionManager.getServer().getChannelConfig().getMaxMessageSize();
+        if (serverMax > 0L) budget = Math.min(budget, serverMax);
+
+        if (budget == Long.MAX_VALUE) return budget;
 
-        return item.getNotifications(notifications, max);
+        long overhead = EncodedSizeEstimator.PUBLISH_RESPONSE_OVERHEAD + 4L * (availableMessages.size() + 1);
+
+        return Math.max(1L, budget - overhead);
     }
 
     private void sendNotifications(ServiceRequest<PublishRequest, PublishResponse> service,
@@ -452,6 +505,8 @@ public class Subscription {
         );
 
         availableMessages.put(notificationMessage.getSequenceNumber(), notificationMessage);
+        subscriptionManager.getServer().getMetrics().getNotifications().mark(notifications.size());
+
         UInteger[] available = getAvailableSequenceNumbers();
 
         UInteger requestHandle = service.getRequest().getRequestHeader().getRequestHandle();
@@ -480,6 +535,15 @@ public class Subscription {
 
         logger.debug("[id={}] {} -> {}", subscriptionId, previousState, state);
 
+        if (state == State.Closed && publishingSchedule != null) {
+            publishingSchedule.cancel();
+            publishingSchedule = null;
+        }
+
+        if (state == State.Late && previousState != State.Late) {
+            subscriptionManager.getServer().getMetrics().getLateSubscriptionTransitions().inc();
+        }
+
         StateListener listener = stateListener.get();
 
         if (listener != null) {
@@ -515,6 +579,17 @@ public class Subscription {
         return priority;
     }
 
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * @return the number of NotificationMessages held for retransmission.
+     */
+    public int getRetransmissionQueueSize() {
+        return availableMessages.size();
+    }
+
     public synchronized UInteger[] getAvailableSequenceNumbers() {
         Set<UInteger> uIntegers = availableMessages.keySet();
         UInteger[] available = uIntegers.toArray(new UInteger[uIntegers.size()]);
@@ -587,14 +662,25 @@ public class Subscription {
 
             setState(State.Closing);
         } else {
-            long interval = DoubleMath.roundToLong(publishingInterval, RoundingMode.UP);
+            publishingSchedule().scheduleNext(this::onPublishingTimer);
+        }
+    }
 
-            subscriptionManager.getServer().getScheduledExecutorService().schedule(
-                    this::onPublishingTimer,
-                    interval,
-                    TimeUnit.MILLISECONDS
-            );
+    /**
+     * @return the {@link Schedule} of the publishing timer, replaced when the publishing interval is revised so the
+     * timer keeps a fixed rate rather than drifting by the time each cycle takes.
+     */
+    private Schedule publishingSchedule() {
+        double interval = publishingInterval;
+
+        if (publishingSchedule == null || scheduledInterval != interval) {
+            if (publishingSchedule != null) publishingSchedule.cancel();
+
+            publishingSchedule = subscriptionManager.getServer().getClock().newSchedule(interval);
+            scheduledInterval = interval;
         }
+
+        return publishingSchedule;
     }
 
     public synchronized StatusCode acknowledge(UInteger sequenceNumber) {
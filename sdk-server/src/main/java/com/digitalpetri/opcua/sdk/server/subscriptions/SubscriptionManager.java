@@ -17,9 +17,12 @@
 package com.digitalpetri.opcua.sdk.server.subscriptions;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -36,15 +39,15 @@ import com.digitalpetri.opcua.sdk.server.OpcUaServer;
 import com.digitalpetri.opcua.sdk.server.Session;
 import com.digitalpetri.opcua.sdk.server.api.EventItem;
 import com.digitalpetri.opcua.sdk.server.api.MonitoredItem;
+import com.digitalpetri.opcua.sdk.server.api.Namespace;
 import com.digitalpetri.opcua.sdk.server.items.MonitoredDataItem;
+import com.digitalpetri.opcua.sdk.server.util.RegisteredNodes;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.UaException;
 import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
 import com.digitalpetri.opcua.stack.core.types.builtin.DiagnosticInfo;
-import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
 import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
 import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
-import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UByte;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
 import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
@@ -69,6 +72,7 @@ import com.digitalpetri.opcua.stack.core.types.structured.MonitoringParameters;
 import com.digitalpetri.opcua.stack.core.types.structured.NotificationMessage;
 import com.digitalpetri.opcua.stack.core.types.structured.PublishRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.PublishResponse;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
 import com.digitalpetri.opcua.stack.core.types.structured.RepublishRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.RepublishResponse;
 import com.digitalpetri.opcua.stack.core.types.structured.ResponseHeader;
@@ -82,7 +86,6 @@ import com.digitalpetri.opcua.stack.core.types.structured.SubscriptionAcknowledg
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
 import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
 
 public class SubscriptionManager {
@@ -143,6 +146,7 @@ public class SubscriptionManager {
 
         subscriptions.put(subscriptionId, subscription);
         server.getSubscriptions().put(subscriptionId, subscription);
+        server.getMetrics().getCumulatedSubscriptions().inc();
 
         subscription.setStateListener((s, ps, cs) -> {
             if (cs == State.Closed) {
@@ -302,149 +306,241 @@ public class SubscriptionManager {
                 throw new UaException(StatusCodes.Bad_NothingToDo);
             }
 
+            RegisteredNodes registeredNodes = session.getRegisteredNodes();
+            NamespaceManager namespaceManager = server.getNamespaceManager();
+
             MonitoredItemCreateResult[] createResults = new MonitoredItemCreateResult[itemsToCreate.length];
-            List<BaseMonitoredItem<?>> createdItems = Lists.newArrayListWithCapacity(itemsToCreate.length);
+            ReadValueId[] itemsToMonitor = new ReadValueId[itemsToCreate.length];
 
-            synchronized (subscription) {
-                for (int i = 0; i < itemsToCreate.length; i++) {
-                    MonitoredItemCreateRequest createRequest = itemsToCreate[i];
-                    NodeId nodeId = createRequest.getItemToMonitor().getNodeId();
-                    UInteger attributeId = createRequest.getItemToMonitor().getAttributeId();
-                    QualifiedName dataEncoding = createRequest.getItemToMonitor().getDataEncoding();
+            /*
+             * Validate the items with one call per namespace, on the namespace's executor. Nothing here touches the
+             * subscription, so it's done without holding its lock.
+             */
 
-                    try {
-                        NamespaceManager namespaceManager = server.getNamespaceManager();
+            Map<UShort, List<Integer>> indicesByNamespace = Maps.newHashMap();
 
-                        if (!namespaceManager.containsNodeId(nodeId)) {
-                            throw new UaException(StatusCodes.Bad_NodeIdUnknown);
-                        }
+            for (int i = 0; i < itemsToCreate.length; i++) {
+                itemsToMonitor[i] = registeredNodes.resolve(itemsToCreate[i].getItemToMonitor());
+
+                indicesByNamespace.computeIfAbsent(
+                        itemsToMonitor[i].getNodeId().getNamespaceIndex(),
+                        index -> Lists.newArrayList()).add(i);
+            }
+
+            List<CompletableFuture<Void>> validated = Lists.newArrayListWithCapacity(indicesByNamespace.size());
+
+            indicesByNamespace.forEach((namespaceIndex, indices) -> {
+                List<ReadValueId> readValueIds = indices.stream()
+                        .map(i -> itemsToMonitor[i])
+                        .collect(Collectors.toList());
+
+                Namespace namespace = namespaceManager.getNamespace(namespaceIndex);
+                CompletableFuture<List<StatusCode>> future = new CompletableFuture<>();
 
-                        if (!namespaceManager.attributeExists(nodeId, attributeId)) {
-                            throw new UaException(StatusCodes.Bad_AttributeIdInvalid);
+                validated.add(future.handle((statusCodes, ex) -> {
+                    for (int j = 0; j < indices.size(); j++) {
+                        StatusCode statusCode = statusCodes != null ?
+                                statusCodes.get(j) : new StatusCode(StatusCodes.Bad_InternalError);
+
+                        if (!statusCode.isGood()) {
+                            createResults[indices.get(j)] =
+                                    new MonitoredItemCreateResult(statusCode, uint(0), 0d, uint(0), null);
                         }
+                    }
 
-                        if (dataEncoding.isNotNull()) {
-                            if (attributeId.intValue() != AttributeIds.Value) {
-                                throw new UaException(StatusCodes.Bad_DataEncodingInvalid,
-                                        "data encoding invalid for non-value attribute");
-                            }
-                            if (!dataEncoding.equals(DEFAULT_BINARY_ENCODING) &&
-                                    !dataEncoding.equals(DEFAULT_XML_ENCODING)) {
-                                throw new UaException(StatusCodes.Bad_DataEncodingUnsupported,
-                                        "data encoding not supported: " + dataEncoding.getName());
-                            }
+                    return null;
+                }));
+
+                try {
+                    server.getNamespaceExecutor(namespaceIndex).execute(() -> {
+                        try {
+                            namespace.validateMonitoredItems(readValueIds, future);
+                        } catch (Throwable t) {
+                            future.completeExceptionally(t);
                         }
+                    });
+                } catch (RejectedExecutionException e) {
+                    future.complete(Collections.nCopies(
+                            indices.size(), new StatusCode(StatusCodes.Bad_ResourceUnavailable)));
+                }
+            });
 
-                        MonitoringParameters parameters = createRequest.getRequestedParameters();
-
-                        BaseMonitoredItem<?> item;
-
-                        if (attributeId.intValue() == AttributeIds.EventNotifier) {
-                            // TODO Why would this be not present?
-                            UByte eventNotifier = namespaceManager
-                                    .<UByte>getAttribute(nodeId, AttributeIds.EventNotifier).orElse(ubyte(0));
-
-                            if ((eventNotifier.intValue() & 1) == 1) {
-                                item = new MonitoredEventItem(
-                                        uint(subscription.nextItemId()),
-                                        createRequest.getItemToMonitor(),
-                                        createRequest.getMonitoringMode(),
-                                        timestamps,
-                                        parameters.getClientHandle(),
-                                        0.0,
-                                        parameters.getQueueSize(),
-                                        parameters.getDiscardOldest(),
-                                        parameters.getFilter()
-                                );
-                            } else {
-                                throw new UaException(StatusCodes.Bad_AttributeIdInvalid);
-                            }
-                        } else {
-                            double samplingInterval = parameters.getSamplingInterval();
-                            double minSupportedSampleRate = server.getConfig().getLimits().getMinSupportedSampleRate();
-                            double maxSupportedSampleRate = server.getConfig().getLimits().getMaxSupportedSampleRate();
+            CompletableFuture.allOf(validated.toArray(new CompletableFuture<?>[validated.size()]))
+                    .thenRunAsync(() -> createValidatedItems(
+                            service, subscription, itemsToCreate, itemsToMonitor, timestamps, createResults),
+                            server.getExecutorService())
+                    .exceptionally(ex -> {
+                        logger.error("Error creating monitored items on subscriptionId={}", subscriptionId, ex);
+                        service.setServiceFault(StatusCodes.Bad_InternalError);
+                        return null;
+                    });
+        } catch (UaException e) {
+            service.setServiceFault(e);
+        }
+    }
 
-                            if (samplingInterval < 0) samplingInterval = subscription.getPublishingInterval();
-                            if (samplingInterval < minSupportedSampleRate) samplingInterval = minSupportedSampleRate;
-                            if (samplingInterval > maxSupportedSampleRate) samplingInterval = maxSupportedSampleRate;
+    /**
+     * Create the items that passed validation, i.e. those without a result yet, add them to the subscription and
+     * notify their namespaces, then respond.
+     * <p>
+     * The subscription may have been deleted, closed or transferred while the items were being validated; if so, the
+     * items still without a result fail with Bad_SubscriptionIdInvalid rather than being added to it.
+     */
+    private void createValidatedItems(
+            ServiceRequest<CreateMonitoredItemsRequest, CreateMonitoredItemsResponse> service,
+            Subscription subscription,
+            MonitoredItemCreateRequest[] itemsToCreate,
+            ReadValueId[] itemsToMonitor,
+            TimestampsToReturn timestamps,
+            MonitoredItemCreateResult[] createResults) {
+
+        /*
+         * Create the valid items, then add them to the subscription in one step. Deleting the subscription closes it
+         * under the same lock, so items are never added to a subscription that is already gone.
+         */
+
+        List<BaseMonitoredItem<?>> createdItems = Lists.newArrayListWithCapacity(itemsToCreate.length);
 
-                            String indexRange = createRequest.getItemToMonitor().getIndexRange();
-                            if (indexRange != null) {
-                                NumericRange.parse(indexRange);
-                            }
+        synchronized (subscription) {
+            boolean subscriptionValid = subscription.getState() != State.Closed &&
+                    subscriptions.get(subscription.getId()) == subscription;
 
-                            item = new MonitoredDataItem(
-                                    uint(subscription.nextItemId()),
-                                    createRequest.getItemToMonitor(),
-                                    createRequest.getMonitoringMode(),
-                                    timestamps,
-                                    parameters.getClientHandle(),
-                                    samplingInterval,
-                                    parameters.getFilter(),
-                                    parameters.getQueueSize(),
-                                    parameters.getDiscardOldest()
-                            );
-                        }
+            for (int i = 0; i < itemsToCreate.length; i++) {
+                if (createResults[i] != null) continue;
 
-                        createdItems.add(item);
+                if (!subscriptionValid) {
+                    createResults[i] = new MonitoredItemCreateResult(
+                            new StatusCode(StatusCodes.Bad_SubscriptionIdInvalid), uint(0), 0d, uint(0), null);
+                    continue;
+                }
 
-                        createResults[i] = new MonitoredItemCreateResult(
-                                StatusCode.GOOD,
-                                item.getId(),
-                                item.getSamplingInterval(),
-                                uint(item.getQueueSize()),
-                                item.getFilterResult()
-                        );
-                    } catch (UaException e) {
-                        createResults[i] = new MonitoredItemCreateResult(e.getStatusCode(), uint(0), 0d, uint(0), null);
-                    }
+                try {
+                    BaseMonitoredItem<?> item = createMonitoredItem(
+                            subscription, itemsToCreate[i], itemsToMonitor[i], timestamps);
+
+                    createdItems.add(item);
+
+                    createResults[i] = new MonitoredItemCreateResult(
+                            StatusCode.GOOD,
+                            item.getId(),
+                            item.getSamplingInterval(),
+                            uint(item.getQueueSize()),
+                            item.getFilterResult()
+                    );
+                } catch (UaException e) {
+                    createResults[i] = new MonitoredItemCreateResult(e.getStatusCode(), uint(0), 0d, uint(0), null);
                 }
+            }
 
+            if (subscriptionValid) {
                 subscription.addMonitoredItems(createdItems);
             }
+        }
 
-            /*
-             * Notify namespaces of the items we just created.
-             */
+        /*
+         * Notify namespaces of the items we just created.
+         */
 
-            Map<UShort, List<BaseMonitoredItem<?>>> byNamespace = createdItems.stream()
-                    .collect(Collectors.groupingBy(item -> item.getReadValueId().getNodeId().getNamespaceIndex()));
+        Map<UShort, List<BaseMonitoredItem<?>>> byNamespace = createdItems.stream()
+                .collect(Collectors.groupingBy(item -> item.getReadValueId().getNodeId().getNamespaceIndex()));
 
-            byNamespace.entrySet().forEach(entry -> {
-                UShort namespaceIndex = entry.getKey();
+        byNamespace.entrySet().forEach(entry -> {
+            UShort namespaceIndex = entry.getKey();
 
-                List<BaseMonitoredItem<?>> items = entry.getValue();
-                List<DataItem> dataItems = Lists.newArrayList();
-                List<EventItem> eventItems = Lists.newArrayList();
+            List<BaseMonitoredItem<?>> items = entry.getValue();
+            List<DataItem> dataItems = Lists.newArrayList();
+            List<EventItem> eventItems = Lists.newArrayList();
 
 
-                for (BaseMonitoredItem<?> item : items) {
-                    if (item instanceof MonitoredDataItem) {
-                        dataItems.add((DataItem) item);
-                    } else if (item instanceof MonitoredEventItem) {
-                        eventItems.add((EventItem) item);
-                    }
+            for (BaseMonitoredItem<?> item : items) {
+                if (item instanceof MonitoredDataItem) {
+                    dataItems.add((DataItem) item);
+                } else if (item instanceof MonitoredEventItem) {
+                    eventItems.add((EventItem) item);
                 }
+            }
 
-                if (!dataItems.isEmpty()) {
-                    server.getNamespaceManager().getNamespace(namespaceIndex).onDataItemsCreated(dataItems);
-                }
-                if (!eventItems.isEmpty()) {
-                    server.getNamespaceManager().getNamespace(namespaceIndex).onEventItemsCreated(eventItems);
-                }
-            });
+            if (!dataItems.isEmpty()) {
+                server.getNamespaceManager().getNamespace(namespaceIndex).onDataItemsCreated(dataItems);
+            }
+            if (!eventItems.isEmpty()) {
+                server.getNamespaceManager().getNamespace(namespaceIndex).onEventItemsCreated(eventItems);
+            }
+        });
 
-            /*
-             * Build and return the final results now that namespaces have had a chance to revise items.
-             */
+        /*
+         * Build and return the final results now that namespaces have had a chance to revise items.
+         */
 
-            ResponseHeader header = service.createResponseHeader();
-            CreateMonitoredItemsResponse response = new CreateMonitoredItemsResponse(
-                    header, createResults, new DiagnosticInfo[0]);
+        ResponseHeader header = service.createResponseHeader();
+        CreateMonitoredItemsResponse response = new CreateMonitoredItemsResponse(
+                header, createResults, new DiagnosticInfo[0]);
 
-            service.setResponse(response);
-        } catch (UaException e) {
-            service.setServiceFault(e);
+        service.setResponse(response);
+    }
+
+    /**
+     * Create a monitored item for an item that has already been validated by its namespace.
+     */
+    private BaseMonitoredItem<?> createMonitoredItem(Subscription subscription,
+                                                     MonitoredItemCreateRequest createRequest,
+                                                     ReadValueId itemToMonitor,
+                                                     TimestampsToReturn timestamps) throws UaException {
+
+        UInteger attributeId = itemToMonitor.getAttributeId();
+        QualifiedName dataEncoding = itemToMonitor.getDataEncoding();
+
+        if (dataEncoding.isNotNull()) {
+            if (attributeId.intValue() != AttributeIds.Value) {
+                throw new UaException(StatusCodes.Bad_DataEncodingInvalid,
+                        "data encoding invalid for non-value attribute");
+            }
+            if (!dataEncoding.equals(DEFAULT_BINARY_ENCODING) &&
+                    !dataEncoding.equals(DEFAULT_XML_ENCODING)) {
+                throw new UaException(StatusCodes.Bad_DataEncodingUnsupported,
+                        "data encoding not supported: " + dataEncoding.getName());
+            }
+        }
+
+        MonitoringParameters parameters = createRequest.getRequestedParameters();
+
+        if (attributeId.intValue() == AttributeIds.EventNotifier) {
+            return new MonitoredEventItem(
+                    uint(subscription.nextItemId()),
+                    itemToMonitor,
+                    createRequest.getMonitoringMode(),
+                    timestamps,
+                    parameters.getClientHandle(),
+                    0.0,
+                    parameters.getQueueSize(),
+                    parameters.getDiscardOldest(),
+                    parameters.getFilter()
+            );
+        } else {
+            double samplingInterval = parameters.getSamplingInterval();
+            double minSupportedSampleRate = server.getConfig().getLimits().getMinSupportedSampleRate();
+            double maxSupportedSampleRate = server.getConfig().getLimits().getMaxSupportedSampleRate();
+
+            if (samplingInterval < 0) samplingInterval = subscription.getPublishingInterval();
+            if (samplingInterval < minSupportedSampleRate) samplingInterval = minSupportedSampleRate;
+            if (samplingInterval > maxSupportedSampleRate) samplingInterval = maxSupportedSampleRate;
+
+            String indexRange = itemToMonitor.getIndexRange();
+            if (indexRange != null) {
+                NumericRange.parse(indexRange);
+            }
+
+            return new MonitoredDataItem(
+                    uint(subscription.nextItemId()),
+                    itemToMonitor,
+                    createRequest.getMonitoringMode(),
+                    timestamps,
+                    parameters.getClientHandle(),
+                    samplingInterval,
+                    parameters.getFilter(),
+                    parameters.getQueueSize(),
+                    parameters.getDiscardOldest()
+            );
         }
     }
 
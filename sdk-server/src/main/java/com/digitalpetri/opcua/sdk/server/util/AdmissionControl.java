@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
+import com.google.common.collect.Lists;
+
+/**
+ * Limits the requests, and the operations within them, that one Session may have in flight at once.
+ * <p>
+ * A request that fits the remaining budget is handled immediately on the calling thread. Otherwise it waits, in
+ * arrival order, until earlier requests complete; once {@code maxQueued} requests are waiting, further requests are
+ * rejected with Bad_TooManyOperations. A request larger than the whole operation budget is admitted only when nothing
+ * else is in flight, so it is slowed rather than starved.
+ */
+public class AdmissionControl {
+
+    public interface ServiceHandler {
+        void handle() throws UaException;
+    }
+
+    private final Deque<Admission> waiting = new ArrayDeque<>();
+
+    private int requests = 0;
+    private long operations = 0L;
+
+    private final int maxRequests;
+    private final long maxOperations;
+    private final int maxQueued;
+    private final Executor executor;
+
+    /**
+     * @param maxRequests   the maximum number of requests in flight.
+     * @param maxOperations the maximum number of operations, summed over the requests in flight.
+     * @param maxQueued     the maximum number of requests waiting to be admitted.
+     * @param executor      the executor requests admitted after waiting are handled on.
+     */
+    public AdmissionControl(int maxRequests, long maxOperations, int maxQueued, Executor executor) {
+        this.maxRequests = maxRequests;
+        this.maxOperations = maxOperations;
+        this.maxQueued = maxQueued;
+        this.executor = executor;
+    }
+
+    /**
+     * Handle {@code service} now or once the budget allows.
+     *
+     * @param service        the {@link ServiceRequest}; its permits are released when its future completes.
+     * @param operationCount the number of operations in the request, e.g. the number of nodes to read.
+     * @param handler        the {@link ServiceHandler} that handles the request.
+     * @throws UaException with Bad_TooManyOperations if the request can neither be admitted nor queued.
+     */
+    public void admit(ServiceRequest<?, ?> service, int operationCount, ServiceHandler handler) throws UaException {
+        Admission admission = new Admission(service, Math.max(1, operationCount), handler);
+
+        synchronized (this) {
+            if (waiting.isEmpty() && fits(admission.operations)) {
+                acquire(admission);
+            } else if (waiting.size() < maxQueued) {
+                waiting.add(admission);
+                return;
+            } else {
+                throw new UaException(StatusCodes.Bad_TooManyOperations);
+            }
+        }
+
+        admission.handle();
+    }
+
+    private boolean fits(long operationCount) {
+        if (requests == 0) return true;
+
+        return requests < maxRequests && operations + operationCount <= maxOperations;
+    }
+
+    private void acquire(Admission admission) {
+        requests++;
+        operations += admission.operations;
+
+        admission.service.getFuture().whenComplete((r, ex) -> release(admission));
+    }
+
+    private void release(Admission admission) {
+        List<Admission> admitted = Lists.newArrayList();
+
+        synchronized (this) {
+            requests--;
+            operations -= admission.operations;
+
+            while (!waiting.isEmpty() && fits(waiting.peek().operations)) {
+                Admission next = waiting.poll();
+                acquire(next);
+                admitted.add(next);
+            }
+        }
+
+        admitted.forEach(a -> executor.execute(a::handle));
+    }
+
+    /**
+     * @return the number of requests in flight.
+     */
+    public synchronized int getRequestCount() {
+        return requests;
+    }
+
+    /**
+     * @return the number of operations in flight.
+     */
+    public synchronized long getOperationCount() {
+        return operations;
+    }
+
+    /**
+     * @return the number of requests waiting to be admitted.
+     */
+    public synchronized int getQueuedCount() {
+        return waiting.size();
+    }
+
+    private static class Admission {
+
+        private final ServiceRequest<?, ?> service;
+        private final long operations;
+        private final ServiceHandler handler;
+
+        private Admission(ServiceRequest<?, ?> service, long operations, ServiceHandler handler) {
+            this.service = service;
+            this.operations = operations;
+            this.handler = handler;
+        }
+
+        private void handle() {
+            try {
+                handler.handle();
+            } catch (UaException e) {
+                service.setServiceFault(e);
+            } catch (Throwable t) {
+                service.setServiceFault(new UaException(StatusCodes.Bad_InternalError, t));
+            }
+        }
+
+    }
+
+}
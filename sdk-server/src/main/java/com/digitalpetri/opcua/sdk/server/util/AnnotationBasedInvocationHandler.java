@@ -16,7 +16,9 @@
 
 package com.digitalpetri.opcua.sdk.server.util;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
 import java.lang.reflect.ParameterizedType;
@@ -24,13 +26,15 @@ import java.lang.reflect.Type;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.digitalpetri.opcua.sdk.server.api.MethodInvocationHandler;
 import com.digitalpetri.opcua.sdk.server.api.UaNamespace;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
 import com.digitalpetri.opcua.sdk.server.model.UaObjectNode;
 import com.google.common.collect.Lists;
+import com.google.common.primitives.Primitives;
 import com.digitalpetri.opcua.sdk.core.ValueRank;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.UaException;
@@ -47,14 +51,29 @@ import com.digitalpetri.opcua.stack.core.util.TypeUtil;
 
 import static com.digitalpetri.opcua.sdk.core.util.ConversionUtil.a;
 
+/**
+ * A {@link MethodInvocationHandler} that invokes the {@link UaMethod}-annotated method of an object.
+ * <p>
+ * The annotated method is called with an {@link InvocationContext}, its input arguments, and an {@link Out} for each
+ * output argument, in that order. The call completes once the method has returned and every {@link Out} has been set,
+ * or as soon as {@link InvocationContext#setFailure(UaException)} is called; an {@link Out} may be set after the
+ * method returns, e.g. from a callback, without holding a thread while it waits.
+ * <p>
+ * By default the method is invoked on the calling thread, which for a Call request is already a thread of the
+ * server's executor. Supply an {@link Executor} if the method may block.
+ */
 public class AnnotationBasedInvocationHandler implements MethodInvocationHandler {
 
-    private final Method annotatedMethod;
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    private final MethodHandle methodHandle;
+    private final Class<?>[] inputTypes;
 
     private final UaNamespace nodeManager;
     private final List<Argument> inputArguments;
     private final List<Argument> outputArguments;
     private final Object annotatedObject;
+    private final Executor executor;
 
     public AnnotationBasedInvocationHandler(UaNamespace nodeManager,
                                             Argument[] inputArguments,
@@ -69,14 +88,52 @@ public class AnnotationBasedInvocationHandler implements MethodInvocationHandler
                                             List<Argument> outputArguments,
                                             Object annotatedObject) {
 
+        this(nodeManager, inputArguments, outputArguments, annotatedObject, DIRECT_EXECUTOR);
+    }
+
+    public AnnotationBasedInvocationHandler(UaNamespace nodeManager,
+                                            List<Argument> inputArguments,
+                                            List<Argument> outputArguments,
+                                            Object annotatedObject,
+                                            Executor executor) {
+
         this.nodeManager = nodeManager;
         this.inputArguments = inputArguments;
         this.outputArguments = outputArguments;
         this.annotatedObject = annotatedObject;
+        this.executor = executor;
 
-        annotatedMethod = Arrays.stream(annotatedObject.getClass().getMethods())
+        Method annotatedMethod = Arrays.stream(annotatedObject.getClass().getMethods())
                 .filter(m -> m.isAnnotationPresent(UaMethod.class))
                 .findFirst().orElseThrow(() -> new RuntimeException("no @UaMethod annotated annotatedMethod found"));
+
+        int parameterCount = annotatedMethod.getParameterCount();
+
+        if (parameterCount != 1 + inputArguments.size() + outputArguments.size()) {
+            throw new RuntimeException(String.format(
+                    "@UaMethod %s has %d parameters, expected %d (context, %d inputs, %d outputs)",
+                    annotatedMethod.getName(), parameterCount, 1 + inputArguments.size() + outputArguments.size(),
+                    inputArguments.size(), outputArguments.size()));
+        }
+
+        Class<?>[] parameterTypes = annotatedMethod.getParameterTypes();
+
+        inputTypes = new Class<?>[inputArguments.size()];
+        for (int i = 0; i < inputTypes.length; i++) {
+            inputTypes[i] = Primitives.wrap(parameterTypes[1 + i]);
+        }
+
+        try {
+            annotatedMethod.setAccessible(true);
+
+            methodHandle = MethodHandles.lookup()
+                    .unreflect(annotatedMethod)
+                    .bindTo(annotatedObject)
+                    .asSpreader(Object[].class, parameterCount)
+                    .asType(MethodType.methodType(void.class, Object[].class));
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("@UaMethod not accessible: " + annotatedMethod, e);
+        }
     }
 
     public Argument[] getInputArguments() {
@@ -89,104 +146,103 @@ public class AnnotationBasedInvocationHandler implements MethodInvocationHandler
 
     @Override
     public void invoke(CallMethodRequest request, CompletableFuture<CallMethodResult> future) {
-        NodeId objectId = request.getObjectId();
-
         Variant[] inputVariants = request.getInputArguments();
+        if (inputVariants == null) inputVariants = new Variant[0];
 
-        if (inputVariants.length != inputArguments.size()) {
-            future.complete(new CallMethodResult(
-                    new StatusCode(StatusCodes.Bad_ArgumentsMissing),
-                    new StatusCode[0], new DiagnosticInfo[0], new Variant[0]
-            ));
+        if (inputVariants.length < inputTypes.length) {
+            future.complete(failure(StatusCodes.Bad_ArgumentsMissing, new StatusCode[0]));
+            return;
         }
 
-        Object[] inputs = new Object[inputVariants.length];
-        StatusCode[] inputArgumentResults = new StatusCode[inputVariants.length];
+        if (inputVariants.length > inputTypes.length) {
+            future.complete(failure(StatusCodes.Bad_TooManyArguments, new StatusCode[0]));
+            return;
+        }
 
-        for (int i = 0; i < inputVariants.length; i++) {
-            Argument argument = inputArguments.get(i);
+        int inputCount = inputTypes.length;
+        int outputCount = outputArguments.size();
 
-            Variant variant = inputVariants[i];
+        /* The context, inputs, and outputs, in the order the annotated method declares them. */
+        Object[] parameters = new Object[1 + inputCount + outputCount];
+        StatusCode[] inputArgumentResults = new StatusCode[inputCount];
+        boolean inputsValid = true;
 
-            boolean dataTypeMatch = variant.getDataType()
-                    .map(type -> type.equals(argument.getDataType()))
-                    .orElse(false);
+        for (int i = 0; i < inputCount; i++) {
+            Object value = inputVariants[i] != null ? inputVariants[i].getValue() : null;
 
-            if (!dataTypeMatch) {
-                inputArgumentResults[i] = new StatusCode(StatusCodes.Bad_TypeMismatch);
-            } else {
+            if (inputTypes[i].isInstance(value)) {
                 inputArgumentResults[i] = StatusCode.GOOD;
+                parameters[1 + i] = value;
+            } else {
+                inputArgumentResults[i] = new StatusCode(StatusCodes.Bad_TypeMismatch);
+                inputsValid = false;
             }
-
-            inputs[i] = variant.getValue();
         }
 
-        int outputCount = outputArguments.size();
-        CountDownLatch latch = new CountDownLatch(outputCount);
-        Object[] outputs = new Object[outputCount];
-
-        for (int i = 0; i < outputCount; i++) {
-            outputs[i] = new OutImpl<>(latch);
+        if (!inputsValid) {
+            future.complete(failure(StatusCodes.Bad_InvalidArgument, inputArgumentResults));
+            return;
         }
 
-        // TODO Implement an AsyncCountDownLatch and ditch this thread
+        UaNode node = nodeManager.getNode(request.getObjectId()).orElse(null);
 
-        new Thread(() -> {
-            try {
-                Object[] parameters = new Object[1 + inputs.length + outputs.length];
+        if (!(node instanceof UaObjectNode)) {
+            future.complete(failure(StatusCodes.Bad_NodeIdUnknown, inputArgumentResults));
+            return;
+        }
 
-                UaObjectNode objectNode = (UaObjectNode) nodeManager.getNode(objectId)
-                        .orElseThrow(() -> new Exception("owner Object node found"));
+        /*
+         * Counted down once per Out and once when the method returns, so the result is assembled only after both the
+         * method has returned and every output has been set.
+         */
+        OutImpl<?>[] outputs = new OutImpl<?>[outputCount];
 
-                InvocationContext context = new InvocationContextImpl(objectNode, future, inputArgumentResults, latch);
+        AsyncCountDownLatch latch = new AsyncCountDownLatch(outputCount + 1, () -> {
+            Variant[] values = new Variant[outputCount];
+            for (int i = 0; i < outputCount; i++) {
+                values[i] = new Variant(outputs[i].get());
+            }
 
-                parameters[0] = context;
+            future.complete(new CallMethodResult(
+                    StatusCode.GOOD, inputArgumentResults,
+                    new DiagnosticInfo[0], values
+            ));
+        });
 
-                System.arraycopy(inputs, 0, parameters, 1, inputs.length);
-                System.arraycopy(outputs, 0, parameters, 1 + inputs.length, outputs.length);
+        for (int i = 0; i < outputCount; i++) {
+            outputs[i] = new OutImpl<>(latch);
+            parameters[1 + inputCount + i] = outputs[i];
+        }
 
-                annotatedMethod.invoke(annotatedObject, parameters);
-                latch.await();
+        parameters[0] = new InvocationContextImpl((UaObjectNode) node, future, inputArgumentResults);
 
-                // Check if they called context.setFailure(...)
-                if (!future.isDone()) {
-                    Variant[] values = new Variant[outputCount];
-                    for (int i = 0; i < outputCount; i++) {
-                        values[i] = new Variant(((OutImpl<?>) outputs[i]).get());
-                    }
+        executor.execute(() -> {
+            try {
+                methodHandle.invokeExact(parameters);
 
-                    future.complete(new CallMethodResult(
-                            StatusCode.GOOD, inputArgumentResults,
-                            new DiagnosticInfo[0], values
-                    ));
-                }
-            } catch (InvocationTargetException e) {
-                Throwable targetException = e.getTargetException();
-
-                if (targetException instanceof UaException) {
-                    StatusCode statusCode = ((UaException) targetException).getStatusCode();
-
-                    future.complete(new CallMethodResult(
-                            statusCode, inputArgumentResults,
-                            new DiagnosticInfo[0], new Variant[0]
-                    ));
-                } else {
-                    future.complete(new CallMethodResult(
-                            new StatusCode(StatusCodes.Bad_InternalError),
-                            inputArgumentResults, new DiagnosticInfo[0], new Variant[0]
-                    ));
-                }
+                latch.countDown();
+            } catch (UaException e) {
+                future.complete(failure(e.getStatusCode().getValue(), inputArgumentResults));
             } catch (Throwable t) {
-                future.complete(new CallMethodResult(
-                        new StatusCode(StatusCodes.Bad_InternalError),
-                        inputArgumentResults, new DiagnosticInfo[0], new Variant[0]
-                ));
+                future.complete(failure(StatusCodes.Bad_InternalError, inputArgumentResults));
             }
-        }).start();
+        });
     }
 
+    private static CallMethodResult failure(long statusCode, StatusCode[] inputArgumentResults) {
+        return new CallMethodResult(
+                new StatusCode(statusCode), inputArgumentResults,
+                new DiagnosticInfo[0], new Variant[0]
+        );
+    }
 
     public static AnnotationBasedInvocationHandler fromAnnotatedObject(UaNamespace namespace, Object annotatedObject) throws Exception {
+        return fromAnnotatedObject(namespace, annotatedObject, DIRECT_EXECUTOR);
+    }
+
+    public static AnnotationBasedInvocationHandler fromAnnotatedObject(UaNamespace namespace,
+                                                                       Object annotatedObject,
+                                                                       Executor executor) throws Exception {
         // TODO Make this work when parameter types are not built-in types
 
         Method annotatedMethod = Arrays.stream(annotatedObject.getClass().getMethods())
@@ -256,7 +312,8 @@ public class AnnotationBasedInvocationHandler implements MethodInvocationHandler
                 namespace,
                 inputArguments,
                 outputArguments,
-                annotatedObject
+                annotatedObject,
+                executor
         );
     }
 
@@ -273,29 +330,53 @@ public class AnnotationBasedInvocationHandler implements MethodInvocationHandler
         void setFailure(UaException failure);
     }
 
-    private static class OutImpl<T> implements Out<T> {
+    /**
+     * A latch that runs an action, on the thread of the final count down, instead of blocking a waiting thread.
+     */
+    private static class AsyncCountDownLatch {
 
-        private final AtomicReference<T> value = new AtomicReference<>();
+        private final AtomicInteger count;
+        private final Runnable action;
 
+        AsyncCountDownLatch(int count, Runnable action) {
+            this.count = new AtomicInteger(count);
+            this.action = action;
+        }
+
+        void countDown() {
+            if (count.decrementAndGet() == 0) {
+                action.run();
+            }
+        }
+
+    }
+
+    private static class OutImpl<T> implements Out<T> {
+
+        private volatile T value;
         private volatile boolean set = false;
-        private final CountDownLatch latch;
 
-        public OutImpl(CountDownLatch latch) {
+        private final AsyncCountDownLatch latch;
+
+        OutImpl(AsyncCountDownLatch latch) {
             this.latch = latch;
         }
 
         @Override
-        public synchronized void set(T value) {
-            this.value.set(value);
+        public void set(T value) {
+            boolean first;
 
-            if (!set) {
-                latch.countDown();
+            synchronized (this) {
+                this.value = value;
+                first = !set;
                 set = true;
             }
+
+            if (first) latch.countDown();
         }
 
         T get() {
-            return value.get();
+            return value;
         }
 
     }
@@ -304,17 +385,14 @@ public class AnnotationBasedInvocationHandler implements MethodInvocationHandler
         private final UaObjectNode objectNode;
         private final CompletableFuture<CallMethodResult> future;
         private final StatusCode[] inputArgumentResults;
-        private final CountDownLatch latch;
 
         private InvocationContextImpl(UaObjectNode objectNode,
                                       CompletableFuture<CallMethodResult> future,
-                                      StatusCode[] inputArgumentResults,
-                                      CountDownLatch latch) {
+                                      StatusCode[] inputArgumentResults) {
 
             this.objectNode = objectNode;
             this.inputArgumentResults = inputArgumentResults;
             this.future = future;
-            this.latch = latch;
         }
 
         @Override
@@ -324,14 +402,7 @@ public class AnnotationBasedInvocationHandler implements MethodInvocationHandler
 
         @Override
         public void setFailure(UaException failure) {
-            StatusCode statusCode = failure.getStatusCode();
-
-            future.complete(new CallMethodResult(
-                    statusCode, inputArgumentResults,
-                    new DiagnosticInfo[0], new Variant[0]
-            ));
-
-            while (latch.getCount() > 0) latch.countDown();
+            future.complete(failure(failure.getStatusCode().getValue(), inputArgumentResults));
         }
     }
 
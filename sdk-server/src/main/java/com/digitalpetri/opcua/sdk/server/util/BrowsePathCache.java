@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.structured.BrowsePathResult;
+import com.digitalpetri.opcua.stack.core.types.structured.RelativePath;
+import com.digitalpetri.opcua.stack.core.types.structured.RelativePathElement;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Caches the results of translating browse paths, keyed by (startingNode, RelativePath).
+ * <p>
+ * Each entry remembers the nodes that were traversed to produce it. When the references or BrowseName of a node
+ * change, {@link #invalidate(NodeId)} removes every entry that traversed that node.
+ */
+public class BrowsePathCache {
+
+    public static final long DEFAULT_MAXIMUM_SIZE = 100000L;
+
+    private final AtomicLong generation = new AtomicLong(0L);
+
+    private final Map<NodeId, Set<List<Object>>> keysByNode = Maps.newConcurrentMap();
+
+    private final Cache<List<Object>, Entry> cache;
+
+    public BrowsePathCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public BrowsePathCache(long maximumSize) {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .removalListener((RemovalListener<List<Object>, Entry>) notification -> {
+                    Entry entry = notification.getValue();
+
+                    if (entry != null) {
+                        boolean replaced = notification.getCause() == RemovalCause.REPLACED;
+
+                        for (NodeId nodeId : entry.traversed) {
+                            unindex(notification.getKey(), nodeId, replaced);
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Remove {@code key} from the keys indexed under {@code nodeId}. When the entry was replaced, the key stays
+     * indexed under any node the replacing entry also traversed.
+     */
+    private void unindex(List<Object> key, NodeId nodeId, boolean replaced) {
+        keysByNode.computeIfPresent(nodeId, (id, keys) -> {
+            if (replaced) {
+                Entry current = cache.getIfPresent(key);
+
+                if (current != null && current.traversed.contains(id)) return keys;
+            }
+
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    /**
+     * @return the current generation. Pass this to {@link #put} so results computed concurrently with an
+     * invalidation are discarded rather than cached.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @param startingNode the starting node of the browse path.
+     * @param relativePath the {@link RelativePath} to follow.
+     * @return the cached {@link BrowsePathResult}, or {@code null} if not cached.
+     */
+    public BrowsePathResult get(NodeId startingNode, RelativePath relativePath) {
+        Entry entry = cache.getIfPresent(key(startingNode, relativePath));
+
+        return entry != null ? entry.result : null;
+    }
+
+    /**
+     * Cache a {@link BrowsePathResult}.
+     *
+     * @param startingNode the starting node of the browse path.
+     * @param relativePath the {@link RelativePath} that was followed.
+     * @param result       the result of following the path.
+     * @param traversed    the nodes whose references or BrowseName the result depends on.
+     * @param generation   the value of {@link #getGeneration()} before the result was computed.
+     */
+    public void put(NodeId startingNode,
+                    RelativePath relativePath,
+                    BrowsePathResult result,
+                    Set<NodeId> traversed,
+                    long generation) {
+
+        if (this.generation.get() != generation) return;
+
+        List<Object> key = key(startingNode, relativePath);
+
+        for (NodeId nodeId : traversed) {
+            keysByNode.computeIfAbsent(nodeId, id -> Collections.newSetFromMap(Maps.newConcurrentMap())).add(key);
+        }
+
+        cache.put(key, new Entry(result, traversed));
+
+        if (this.generation.get() != generation) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Invalidate every cached result that traversed {@code nodeId}.
+     *
+     * @param nodeId the {@link NodeId} of a node whose references or BrowseName changed.
+     */
+    public void invalidate(NodeId nodeId) {
+        generation.incrementAndGet();
+
+        Set<List<Object>> keys = keysByNode.remove(nodeId);
+
+        if (keys != null) {
+            cache.invalidateAll(keys);
+        }
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+
+        cache.invalidateAll();
+        keysByNode.clear();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private static List<Object> key(NodeId startingNode, RelativePath relativePath) {
+        RelativePathElement[] elements = relativePath.getElements();
+        int length = elements != null ? elements.length : 0;
+
+        List<Object> key = Lists.newArrayListWithCapacity(1 + length * 4);
+        key.add(startingNode);
+
+        for (int i = 0; i < length; i++) {
+            RelativePathElement element = elements[i];
+            key.add(element.getReferenceTypeId());
+            key.add(element.getIsInverse());
+            key.add(element.getIncludeSubtypes());
+            key.add(element.getTargetName());
+        }
+
+        return key;
+    }
+
+    private static class Entry {
+        private final BrowsePathResult result;
+        private final Set<NodeId> traversed;
+
+        private Entry(BrowsePathResult result, Set<NodeId> traversed) {
+            this.result = result;
+            this.traversed = traversed;
+        }
+    }
+
+}
@@ -0,0 +1,502 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.types.builtin.DiagnosticInfo;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.enumerated.FilterOperator;
+import com.digitalpetri.opcua.stack.core.types.structured.AttributeOperand;
+import com.digitalpetri.opcua.stack.core.types.structured.ContentFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.ContentFilterElement;
+import com.digitalpetri.opcua.stack.core.types.structured.ContentFilterElementResult;
+import com.digitalpetri.opcua.stack.core.types.structured.ContentFilterResult;
+import com.digitalpetri.opcua.stack.core.types.structured.ElementOperand;
+import com.digitalpetri.opcua.stack.core.types.structured.FilterOperand;
+import com.digitalpetri.opcua.stack.core.types.structured.LiteralOperand;
+import com.digitalpetri.opcua.stack.core.types.structured.SimpleAttributeOperand;
+
+/**
+ * A parsed {@link ContentFilter} that can be evaluated against any number of candidates.
+ * <p>
+ * Supported operators: Equals, IsNull, GreaterThan, LessThan, GreaterThanOrEqual, LessThanOrEqual, Like, Not,
+ * Between, InList, And, Or, Cast, BitwiseAnd, BitwiseOr and OfType. InView and RelatedTo are reported as
+ * Bad_FilterOperatorUnsupported.
+ * <p>
+ * Evaluation follows the three-valued logic of the specification: an operand that can't be resolved, or a comparison
+ * between values that can't be compared, is NULL rather than FALSE, and a candidate only matches when the first
+ * element evaluates to TRUE.
+ */
+public class ContentFilterEvaluator {
+
+    private static final ContentFilterResult EMPTY_RESULT =
+            new ContentFilterResult(new ContentFilterElementResult[0], new DiagnosticInfo[0]);
+
+    private final FilterOperator[] operators;
+    private final Object[][] operands;
+    private final Pattern[] patterns;
+    private final ContentFilterResult result;
+    private final boolean valid;
+
+    private ContentFilterEvaluator(FilterOperator[] operators,
+                                   Object[][] operands,
+                                   Pattern[] patterns,
+                                   ContentFilterResult result,
+                                   boolean valid) {
+
+        this.operators = operators;
+        this.operands = operands;
+        this.patterns = patterns;
+        this.result = result;
+        this.valid = valid;
+    }
+
+    /**
+     * @return the {@link ContentFilterResult} describing the problems found while parsing, if any.
+     */
+    public ContentFilterResult getResult() {
+        return result;
+    }
+
+    /**
+     * @return {@code true} if the filter can be evaluated.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * @param resolver resolves attribute operands and type checks for the candidate being evaluated.
+     * @return {@code true} if the candidate passes the filter. An empty filter passes every candidate.
+     */
+    public boolean evaluate(OperandResolver resolver) {
+        return operators.length == 0 || Boolean.TRUE.equals(evaluate(0, resolver));
+    }
+
+    /**
+     * Parse {@code filter}, validating its operators and operands.
+     *
+     * @param filter the {@link ContentFilter} to parse; may be {@code null}.
+     * @return a {@link ContentFilterEvaluator}; check {@link #isValid()} before evaluating.
+     */
+    public static ContentFilterEvaluator parse(ContentFilter filter) {
+        ContentFilterElement[] elements = filter != null ? filter.getElements() : null;
+
+        if (elements == null || elements.length == 0) {
+            return new ContentFilterEvaluator(
+                    new FilterOperator[0], new Object[0][], new Pattern[0], EMPTY_RESULT, true);
+        }
+
+        FilterOperator[] operators = new FilterOperator[elements.length];
+        Object[][] operands = new Object[elements.length][];
+        Pattern[] patterns = new Pattern[elements.length];
+        ContentFilterElementResult[] elementResults = new ContentFilterElementResult[elements.length];
+
+        boolean valid = true;
+
+        for (int i = 0; i < elements.length; i++) {
+            FilterOperator operator = elements[i].getFilterOperator();
+            ExtensionObject[] xos = elements[i].getFilterOperands();
+
+            if (xos == null) xos = new ExtensionObject[0];
+
+            StatusCode[] operandResults = new StatusCode[xos.length];
+            long status = StatusCodes.Good;
+
+            if (!isSupported(operator)) {
+                status = StatusCodes.Bad_FilterOperatorUnsupported;
+            } else if (!operandCountMatches(operator, xos.length)) {
+                status = StatusCodes.Bad_FilterOperandCountMismatch;
+            }
+
+            operators[i] = operator;
+            operands[i] = new Object[xos.length];
+
+            for (int j = 0; j < xos.length; j++) {
+                Object operand = xos[j] != null ? xos[j].getObject() : null;
+
+                if (isValidOperand(operand, i, elements.length) && (operator != FilterOperator.OfType ||
+                        operand instanceof LiteralOperand && literal(operand) instanceof NodeId)) {
+
+                    operands[i][j] = operand;
+                    operandResults[j] = StatusCode.GOOD;
+                } else {
+                    operandResults[j] = new StatusCode(StatusCodes.Bad_FilterOperandInvalid);
+
+                    if (status == StatusCodes.Good) status = StatusCodes.Bad_FilterOperandInvalid;
+                }
+            }
+
+            if (status != StatusCodes.Good) {
+                valid = false;
+            } else if (operator == FilterOperator.Like && operands[i][1] instanceof LiteralOperand &&
+                    literal(operands[i][1]) instanceof String) {
+
+                patterns[i] = like((String) literal(operands[i][1]));
+            }
+
+            elementResults[i] = new ContentFilterElementResult(
+                    new StatusCode(status), operandResults, new DiagnosticInfo[0]);
+        }
+
+        ContentFilterResult result = valid ? EMPTY_RESULT :
+                new ContentFilterResult(elementResults, new DiagnosticInfo[0]);
+
+        return new ContentFilterEvaluator(operators, operands, patterns, result, valid);
+    }
+
+    private static boolean isSupported(FilterOperator operator) {
+        return operator != null && operator != FilterOperator.InView && operator != FilterOperator.RelatedTo;
+    }
+
+    private static boolean operandCountMatches(FilterOperator operator, int count) {
+        switch (operator) {
+            case IsNull:
+            case Not:
+            case OfType:
+                return count == 1;
+            case Between:
+                return count == 3;
+            case InList:
+                return count >= 2;
+            default:
+                return count == 2;
+        }
+    }
+
+    /**
+     * ElementOperands may only refer to later elements, which keeps the filter free of cycles.
+     */
+    private static boolean isValidOperand(Object operand, int elementIndex, int elementCount) {
+        if (operand instanceof ElementOperand) {
+            long index = ((ElementOperand) operand).getIndex().longValue();
+
+            return index > elementIndex && index < elementCount;
+        }
+
+        return operand instanceof LiteralOperand ||
+                operand instanceof SimpleAttributeOperand ||
+                operand instanceof AttributeOperand;
+    }
+
+    private Object evaluate(int index, OperandResolver resolver) {
+        Object[] ops = operands[index];
+
+        switch (operators[index]) {
+            case Equals: {
+                Object a = value(ops[0], resolver);
+                Object b = value(ops[1], resolver);
+                return a == null || b == null ? null : valueEquals(a, b);
+            }
+
+            case IsNull:
+                return value(ops[0], resolver) == null;
+
+            case GreaterThan: {
+                Integer c = compare(value(ops[0], resolver), value(ops[1], resolver));
+                return c != null ? c > 0 : null;
+            }
+
+            case LessThan: {
+                Integer c = compare(value(ops[0], resolver), value(ops[1], resolver));
+                return c != null ? c < 0 : null;
+            }
+
+            case GreaterThanOrEqual: {
+                Integer c = compare(value(ops[0], resolver), value(ops[1], resolver));
+                return c != null ? c >= 0 : null;
+            }
+
+            case LessThanOrEqual: {
+                Integer c = compare(value(ops[0], resolver), value(ops[1], resolver));
+                return c != null ? c <= 0 : null;
+            }
+
+            case Like: {
+                Object a = value(ops[0], resolver);
+
+                if (a == null) return null;
+
+                Pattern pattern = patterns[index];
+
+                if (pattern == null) {
+                    Object p = value(ops[1], resolver);
+
+                    if (!(p instanceof String)) return null;
+
+                    pattern = like((String) p);
+                }
+
+                return pattern.matcher(a.toString()).matches();
+            }
+
+            case Not: {
+                Object a = value(ops[0], resolver);
+                return a instanceof Boolean ? !((Boolean) a) : null;
+            }
+
+            case Between: {
+                Object a = value(ops[0], resolver);
+                Integer low = compare(a, value(ops[1], resolver));
+                Integer high = compare(a, value(ops[2], resolver));
+                return low != null && high != null ? low >= 0 && high <= 0 : null;
+            }
+
+            case InList: {
+                Object a = value(ops[0], resolver);
+
+                if (a == null) return null;
+
+                for (int i = 1; i < ops.length; i++) {
+                    Object b = value(ops[i], resolver);
+
+                    if (b != null && valueEquals(a, b)) return true;
+                }
+
+                return false;
+            }
+
+            case And: {
+                Object a = value(ops[0], resolver);
+
+                if (Boolean.FALSE.equals(a)) return false;
+
+                Object b = value(ops[1], resolver);
+
+                if (Boolean.FALSE.equals(b)) return false;
+
+                return Boolean.TRUE.equals(a) && Boolean.TRUE.equals(b) ? true : null;
+            }
+
+            case Or: {
+                Object a = value(ops[0], resolver);
+
+                if (Boolean.TRUE.equals(a)) return true;
+
+                Object b = value(ops[1], resolver);
+
+                if (Boolean.TRUE.equals(b)) return true;
+
+                return Boolean.FALSE.equals(a) && Boolean.FALSE.equals(b) ? false : null;
+            }
+
+            case Cast: {
+                Object target = value(ops[1], resolver);
+                return target instanceof NodeId ? cast(value(ops[0], resolver), (NodeId) target) : null;
+            }
+
+            case BitwiseAnd: {
+                Object a = value(ops[0], resolver);
+                Object b = value(ops[1], resolver);
+                return isIntegral(a) && isIntegral(b) ? ((Number) a).longValue() & ((Number) b).longValue() : null;
+            }
+
+            case BitwiseOr: {
+                Object a = value(ops[0], resolver);
+                Object b = value(ops[1], resolver);
+                return isIntegral(a) && isIntegral(b) ? ((Number) a).longValue() | ((Number) b).longValue() : null;
+            }
+
+            case OfType:
+                return resolver.isOfType((NodeId) literal(ops[0]));
+
+            default:
+                return null;
+        }
+    }
+
+    private Object value(Object operand, OperandResolver resolver) {
+        if (operand instanceof LiteralOperand) {
+            return literal(operand);
+        } else if (operand instanceof ElementOperand) {
+            return evaluate(((ElementOperand) operand).getIndex().intValue(), resolver);
+        } else if (operand instanceof SimpleAttributeOperand) {
+            return resolver.resolve((SimpleAttributeOperand) operand);
+        } else if (operand instanceof AttributeOperand) {
+            return resolver.resolve((AttributeOperand) operand);
+        } else {
+            return null;
+        }
+    }
+
+    private static Object literal(Object operand) {
+        Variant value = ((LiteralOperand) operand).getValue();
+
+        return value != null ? value.getValue() : null;
+    }
+
+    private static boolean valueEquals(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return compareNumbers((Number) a, (Number) b) == 0;
+        }
+
+        return Objects.equals(a, b);
+    }
+
+    /**
+     * @return the comparison of {@code a} and {@code b}, or {@code null} if they aren't both numbers or both strings.
+     */
+    private static Integer compare(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return compareNumbers((Number) a, (Number) b);
+        } else if (a instanceof String && b instanceof String) {
+            return ((String) a).compareTo((String) b);
+        } else {
+            return null;
+        }
+    }
+
+    private static int compareNumbers(Number a, Number b) {
+        if (isIntegral(a) && isIntegral(b)) {
+            return Long.compare(a.longValue(), b.longValue());
+        } else {
+            return Double.compare(a.doubleValue(), b.doubleValue());
+        }
+    }
+
+    private static boolean isIntegral(Object o) {
+        return o instanceof Number && !(o instanceof Float || o instanceof Double);
+    }
+
+    /**
+     * Cast {@code value} to the built-in type {@code dataTypeId}; only Boolean, the numeric types and String are
+     * supported.
+     */
+    private static Object cast(Object value, NodeId dataTypeId) {
+        if (value == null) return null;
+
+        if (Identifiers.String.equals(dataTypeId)) {
+            return value.toString();
+        }
+
+        if (Identifiers.Boolean.equals(dataTypeId)) {
+            if (value instanceof Boolean) return value;
+            if (value instanceof Number) return ((Number) value).doubleValue() != 0d;
+            if (value instanceof String) return Boolean.parseBoolean((String) value);
+            return null;
+        }
+
+        Number n;
+
+        if (value instanceof Number) {
+            n = (Number) value;
+        } else if (value instanceof Boolean) {
+            n = ((Boolean) value) ? 1 : 0;
+        } else if (value instanceof String) {
+            try {
+                n = Double.parseDouble((String) value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+
+        if (Identifiers.Double.equals(dataTypeId)) return n.doubleValue();
+        if (Identifiers.Float.equals(dataTypeId)) return n.floatValue();
+        if (Identifiers.SByte.equals(dataTypeId) || Identifiers.Byte.equals(dataTypeId) ||
+                Identifiers.Int16.equals(dataTypeId) || Identifiers.UInt16.equals(dataTypeId) ||
+                Identifiers.Int32.equals(dataTypeId) || Identifiers.UInt32.equals(dataTypeId) ||
+                Identifiers.Int64.equals(dataTypeId) || Identifiers.UInt64.equals(dataTypeId)) {
+
+            return n.longValue();
+        }
+
+        return null;
+    }
+
+    /**
+     * Translate a Like pattern into a regular expression. Literal patterns are translated once, when the filter is
+     * parsed; patterns that come from an attribute are translated per candidate.
+     * <p>
+     * In a pattern, '%' matches any string, '_' any single character, '[...]' any character in the list (or not in
+     * it, when it starts with '^' or '!'), and '\' escapes the next character.
+     */
+    private static Pattern like(String pattern) {
+        StringBuilder regex = new StringBuilder();
+
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+
+            if (c == '\\' && i + 1 < pattern.length()) {
+                regex.append(Pattern.quote(String.valueOf(pattern.charAt(++i))));
+            } else if (c == '%') {
+                regex.append(".*");
+            } else if (c == '_') {
+                regex.append('.');
+            } else if (c == '[' && pattern.indexOf(']', i + 1) > i + 1) {
+                int end = pattern.indexOf(']', i + 1);
+                String list = pattern.substring(i + 1, end);
+
+                regex.append('[');
+
+                if (list.length() > 1 && (list.charAt(0) == '^' || list.charAt(0) == '!')) {
+                    regex.append('^');
+                    list = list.substring(1);
+                }
+
+                for (char l : list.toCharArray()) {
+                    if (l == '-' || Character.isLetterOrDigit(l)) {
+                        regex.append(l);
+                    } else {
+                        regex.append('\\').append(l);
+                    }
+                }
+
+                regex.append(']');
+                i = end;
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Resolves the operands that depend on the candidate being evaluated.
+     */
+    public interface OperandResolver {
+
+        /**
+         * @return the value of the attribute {@code operand} selects on the candidate, or {@code null} if it doesn't
+         * exist.
+         */
+        Object resolve(SimpleAttributeOperand operand);
+
+        /**
+         * @return the value of the attribute {@code operand} selects on the candidate, or {@code null} if it doesn't
+         * exist.
+         */
+        Object resolve(AttributeOperand operand);
+
+        /**
+         * @return {@code true} if the candidate's type is {@code typeDefinitionId} or one of its subtypes.
+         */
+        boolean isOfType(NodeId typeDefinitionId);
+
+    }
+
+}
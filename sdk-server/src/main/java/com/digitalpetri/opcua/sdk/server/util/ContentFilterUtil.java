@@ -14,51 +14,39 @@ import com.digitalpetri.opcua.stack.core.types.structured.SimpleAttributeOperand
 
 public class ContentFilterUtil {
 
-    /*
-     * Operands: SimpleAttributeOperand
-     * Operators: Equals, IsNull, GreaterThan, LessThan, GreaterThanOrEqual, LessThanOrEqual, Like, Not, Between,
-     * InList, And, Or, Cast, BitwiseAnd, BitwiseOr and OfType.
-     */
-
-    public void apply(ContentFilter filter) throws UaException {
-        ContentFilterElement[] elements = filter.getElements();
-
-        for (int i = 0; i < elements.length; i++) {
-            ContentFilterElement element = elements[i];
-
-            FilterOperator operator = element.getFilterOperator();
-            SimpleAttributeOperand[] operands = extract(element.getFilterOperands());
-
-            throw new UaException(StatusCodes.Bad_FilterOperandInvalid);
-        }
-    }
-
-    private SimpleAttributeOperand[] extract(ExtensionObject[] operandXos) {
-        return Arrays.stream(operandXos)
-                .map(xo -> (SimpleAttributeOperand) xo.getObject())
-                .toArray(SimpleAttributeOperand[]::new);
-    }
 
-    private boolean apply(FilterOperator operator, FilterOperand[] operands) {
-        if (operator == FilterOperator.Equals) {
-            SimpleAttributeOperand op0 = (SimpleAttributeOperand) operands[0];
-            AttributeOperand op1 = (AttributeOperand) operands[1];
+package com.digitalpetri.opcua.sdk.server.util;
 
-            op0.getAttributeId();
-            op0.getBrowsePath();
-            op0.getIndexRange();
-            op0.getTypeDefinitionId();
-        }
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.structured.ContentFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.ContentFilterElementResult;
 
-        return false;
-    }
+/**
+ * @deprecated use {@link ContentFilterEvaluator}, which also evaluates the filter and reports a status per element
+ * and operand.
+ */
+@Deprecated
+public class ContentFilterUtil {
 
-    private class EqualsOperator {
+    /**
+     * Validate {@code filter}.
+     *
+     * @param filter the {@link ContentFilter} to validate.
+     * @throws UaException with the status of the first invalid element if the filter can't be evaluated.
+     */
+    public void apply(ContentFilter filter) throws UaException {
+        ContentFilterEvaluator evaluator = ContentFilterEvaluator.parse(filter);
 
-        public void apply(FilterOperand[] operands) throws UaException {
+        if (evaluator.isValid()) return;
 
+        for (ContentFilterElementResult result : evaluator.getResult().getElementResults()) {
+            if (result.getStatusCode().isBad()) {
+                throw new UaException(result.getStatusCode());
+            }
         }
 
+        throw new UaException(StatusCodes.Bad_ContentFilterInvalid);
     }
 
 }
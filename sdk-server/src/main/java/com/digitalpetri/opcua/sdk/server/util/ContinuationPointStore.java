@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.util.NonceUtil;
+
+/**
+ * A Session's continuation points of one kind (Browse, Query, History), bounded in number and expired when unused.
+ * <p>
+ * Entries are kept in order of last use, so expiry is checked lazily from the oldest end whenever the store is
+ * touched; no timer is needed. A continuation point being worked on is {@link #remove(ByteString) removed} and then
+ * {@link #put(ByteString, Object) put} back if it has more to return, which also keeps two requests from using the
+ * same continuation point at once.
+ *
+ * @param <T> the type of the continuation state.
+ */
+public class ContinuationPointStore<T> {
+
+    private final Map<ByteString, Entry<T>> entries = new LinkedHashMap<>();
+
+    private final int capacity;
+    private final long timeoutNanos;
+
+    /**
+     * @param capacity      the maximum number of continuation points.
+     * @param timeoutMillis how long an unused continuation point is kept.
+     */
+    public ContinuationPointStore(int capacity, long timeoutMillis) {
+        this.capacity = capacity;
+        this.timeoutNanos = TimeUnit.NANOSECONDS.convert(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param value the continuation state.
+     * @return the identifier of the new continuation point, or {@code null} if the store is full, in which case the
+     * caller should report Bad_NoContinuationPoints.
+     */
+    public synchronized ByteString add(T value) {
+        ByteString identifier = NonceUtil.generateNonce(16);
+
+        return put(identifier, value) ? identifier : null;
+    }
+
+    /**
+     * Store {@code value} under {@code identifier}, e.g. to put back a continuation point that was removed to be
+     * worked on.
+     *
+     * @return {@code true} if stored; {@code false} if the store is full.
+     */
+    public synchronized boolean put(ByteString identifier, T value) {
+        long now = System.nanoTime();
+
+        purgeExpired(now);
+
+        entries.remove(identifier);
+
+        if (entries.size() >= capacity) {
+            return false;
+        }
+
+        entries.put(identifier, new Entry<>(value, now));
+
+        return true;
+    }
+
+    /**
+     * @return the continuation state stored under {@code identifier}, or {@code null} if it is unknown or expired.
+     */
+    public synchronized T remove(ByteString identifier) {
+        purgeExpired(System.nanoTime());
+
+        Entry<T> entry = entries.remove(identifier);
+
+        return entry != null ? entry.value : null;
+    }
+
+    public synchronized int size() {
+        purgeExpired(System.nanoTime());
+
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private void purgeExpired(long now) {
+        Iterator<Entry<T>> iterator = entries.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (now - iterator.next().lastUsed > timeoutNanos) {
+                iterator.remove();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private static final class Entry<T> {
+
+        private final T value;
+        private final long lastUsed;
+
+        private Entry(T value, long lastUsed) {
+            this.value = value;
+            this.lastUsed = lastUsed;
+        }
+
+    }
+
+}
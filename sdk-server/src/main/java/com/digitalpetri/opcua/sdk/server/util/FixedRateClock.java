@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.math.RoundingMode;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.digitalpetri.opcua.sdk.server.diagnostics.LogLinearReservoir;
+import com.google.common.collect.Maps;
+import com.google.common.math.DoubleMath;
+import com.google.common.math.LongMath;
+
+/**
+ * Schedules periodic work, such as publishing and sampling, against deadlines computed from a fixed epoch rather than
+ * from when the previous run finished, so periods don't stretch by the time spent working and waiting to be run.
+ * <p>
+ * A {@link Schedule} whose owner falls behind skips the deadlines already missed and resumes at the next one instead
+ * of running back-to-back to catch up. Each new schedule is given a phase within its period, spread by the golden
+ * ratio, so schedules with the same period created together don't all fire at the same instant.
+ * <p>
+ * How late each run starts is recorded in a {@link Timer} per power-of-two bucket of periods, and deadlines skipped
+ * in a counter; both are registered in the {@link MetricRegistry} given, if any. Periods are chosen by clients, so
+ * bucketing keeps the number of timers small, and a bucket's timer is removed when its last schedule is cancelled.
+ */
+public class FixedRateClock {
+
+    private static final double GOLDEN_RATIO_FRACTION = 0.6180339887498949;
+
+    private final long epoch = System.nanoTime();
+
+    private final AtomicLong scheduleCount = new AtomicLong(0L);
+
+    private final ConcurrentMap<Long, Timer> lateness = Maps.newConcurrentMap();
+
+    /**
+     * The number of uncancelled schedules per bucket; guarded by {@code this}.
+     */
+    private final Map<Long, Integer> schedules = Maps.newHashMap();
+
+    private final Counter skipped;
+
+    private final ScheduledExecutorService scheduler;
+    private final MetricRegistry registry;
+
+    public FixedRateClock(ScheduledExecutorService scheduler) {
+        this(scheduler, null);
+    }
+
+    /**
+     * @param scheduler the scheduler runs are scheduled on.
+     * @param registry  the registry to register lateness timers and the skipped deadline counter in; may be
+     *                  {@code null}.
+     */
+    public FixedRateClock(ScheduledExecutorService scheduler, MetricRegistry registry) {
+        this.scheduler = scheduler;
+        this.registry = registry;
+
+        skipped = registry != null ? registry.counter("clock.skipped") : new Counter();
+    }
+
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Create a new {@link Schedule}, phased against the schedules created before it. The owner should
+     * {@link Schedule#cancel() cancel} it once it stops scheduling runs.
+     *
+     * @param intervalMillis the period, in milliseconds.
+     * @return a new {@link Schedule}.
+     */
+    public Schedule newSchedule(double intervalMillis) {
+        long period = Math.max(1L, DoubleMath.roundToLong(intervalMillis * 1_000_000d, RoundingMode.UP));
+
+        double fraction = (scheduleCount.getAndIncrement() * GOLDEN_RATIO_FRACTION) % 1d;
+        long phase = (long) (fraction * period);
+
+        long bucket = bucket(period);
+
+        return new Schedule(period, epoch + phase, bucket, acquireTimer(bucket));
+    }
+
+    /**
+     * @return the lateness {@link Timer}s, keyed by the upper bound, in milliseconds, of the power-of-two bucket of
+     * periods they record.
+     */
+    public Map<Long, Timer> getLatenessTimers() {
+        return Collections.unmodifiableMap(lateness);
+    }
+
+    /**
+     * @return the number of deadlines skipped because a schedule's owner fell behind.
+     */
+    public long getSkippedCount() {
+        return skipped.getCount();
+    }
+
+    /**
+     * @return the smallest power of two, in milliseconds, no less than {@code periodNanos}.
+     */
+    private static long bucket(long periodNanos) {
+        long periodMillis = LongMath.divide(periodNanos, TimeUnit.MILLISECONDS.toNanos(1), RoundingMode.CEILING);
+
+        return periodMillis <= 1L ? 1L : Long.highestOneBit(periodMillis - 1L) << 1;
+    }
+
+    private synchronized Timer acquireTimer(long bucket) {
+        schedules.merge(bucket, 1, Integer::sum);
+
+        return lateness.computeIfAbsent(bucket, b -> {
+            Timer timer = new Timer(new LogLinearReservoir());
+
+            return registry != null ? registry.register(timerName(b), timer) : timer;
+        });
+    }
+
+    private synchronized void releaseTimer(long bucket) {
+        Integer count = schedules.get(bucket);
+
+        if (count == null) return;
+
+        if (count > 1) {
+            schedules.put(bucket, count - 1);
+        } else {
+            schedules.remove(bucket);
+            lateness.remove(bucket);
+
+            if (registry != null) {
+                registry.remove(timerName(bucket));
+            }
+        }
+    }
+
+    private static String timerName(long bucket) {
+        return "clock." + bucket + "ms.lateness";
+    }
+
+    /**
+     * The deadlines of one periodic task: {@code offset + k * period}.
+     * <p>
+     * The owner calls {@link #scheduleNext(Runnable)} once per run, which lets it stop, or finish a run before the
+     * next is scheduled, while the deadlines stay on the fixed grid.
+     */
+    public final class Schedule {
+
+        private long lastDeadline;
+        private boolean started = false;
+        private boolean cancelled = false;
+
+        private final long period;
+        private final long offset;
+        private final long bucket;
+        private final Timer lateness;
+
+        private Schedule(long period, long offset, long bucket, Timer lateness) {
+            this.period = period;
+            this.offset = offset;
+            this.bucket = bucket;
+            this.lateness = lateness;
+        }
+
+        /**
+         * @return the period, in nanoseconds.
+         */
+        public long getPeriod() {
+            return period;
+        }
+
+        /**
+         * Schedule {@code task} to run at the next deadline: the one after the last deadline scheduled, or if that
+         * has already passed, the first one still ahead.
+         *
+         * @param task the task to run.
+         * @return the {@link ScheduledFuture} of the run.
+         */
+        public synchronized ScheduledFuture<?> scheduleNext(Runnable task) {
+            long now = System.nanoTime();
+            long deadline = started ? lastDeadline + period : nextAfter(now);
+
+            if (deadline - now < 0) {
+                long next = nextAfter(now);
+                skipped.inc((next - deadline) / period);
+                deadline = next;
+            }
+
+            lastDeadline = deadline;
+            started = true;
+
+            long scheduledDeadline = deadline;
+
+            return scheduler.schedule(() -> {
+                lateness.update(System.nanoTime() - scheduledDeadline, TimeUnit.NANOSECONDS);
+                task.run();
+            }, deadline - now, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Release this schedule's share of its lateness {@link Timer}. Runs already scheduled still run, but aren't
+         * recorded once the timer has been removed. Cancelling more than once has no effect.
+         */
+        public void cancel() {
+            synchronized (this) {
+                if (cancelled) return;
+                cancelled = true;
+            }
+
+            releaseTimer(bucket);
+        }
+
+        private long nextAfter(long now) {
+            return offset + LongMath.divide(now - offset, period, RoundingMode.CEILING) * period;
+        }
+
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link Executor} for one namespace's operations that limits how many run at once on a delegate executor.
+ * <p>
+ * Operations beyond {@code maxConcurrency} wait in a queue; once {@code maxQueueDepth} operations are waiting,
+ * {@link #execute(Runnable)} throws {@link RejectedExecutionException} so the caller can fail fast instead of piling
+ * up work behind a slow namespace.
+ * <p>
+ * If the delegate rejects an operation it is put back at the head of the queue and retried when the next operation
+ * completes or is submitted. If nothing is running to retry it, the submitting caller's own operation is removed and
+ * {@link #execute(Runnable)} throws, so the caller's failure path runs.
+ */
+public class NamespaceExecutor implements Executor {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Deque<Runnable> queue = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger queueDepth = new AtomicInteger(0);
+    private final AtomicInteger active = new AtomicInteger(0);
+    private final AtomicLong rejected = new AtomicLong(0L);
+
+    private final Executor delegate;
+    private final int maxConcurrency;
+    private final int maxQueueDepth;
+
+    public NamespaceExecutor(Executor delegate, int maxConcurrency, int maxQueueDepth) {
+        this.delegate = delegate;
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueueDepth = maxQueueDepth;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (queueDepth.incrementAndGet() > maxQueueDepth && active.get() >= maxConcurrency) {
+            queueDepth.decrementAndGet();
+            rejected.incrementAndGet();
+
+            throw new RejectedExecutionException(String.format(
+                    "namespace executor saturated: active=%d, queued=%d", active.get(), queueDepth.get()));
+        }
+
+        queue.add(command);
+
+        if (!drain() && active.get() == 0 && queue.remove(command)) {
+            queueDepth.decrementAndGet();
+            rejected.incrementAndGet();
+
+            throw new RejectedExecutionException("delegate executor rejected namespace operation");
+        }
+    }
+
+    /**
+     * Start queued operations until {@code maxConcurrency} are running or the queue is empty.
+     *
+     * @return {@code false} if the delegate rejected an operation, which was put back at the head of the queue.
+     */
+    private boolean drain() {
+        while (!queue.isEmpty()) {
+            int current = active.get();
+
+            if (current >= maxConcurrency) return true;
+            if (!active.compareAndSet(current, current + 1)) continue;
+
+            Runnable task = queue.poll();
+
+            if (task == null) {
+                active.decrementAndGet();
+                continue;
+            }
+
+            queueDepth.decrementAndGet();
+
+            try {
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        logger.error("Uncaught exception in namespace operation.", t);
+                    } finally {
+                        active.decrementAndGet();
+                        drain();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                logger.warn("Delegate executor rejected namespace operation; re-queued.", e);
+
+                queue.addFirst(task);
+                queueDepth.incrementAndGet();
+                active.decrementAndGet();
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the number of operations waiting for a concurrency permit.
+     */
+    public int getQueueDepth() {
+        return Math.max(0, queueDepth.get());
+    }
+
+    /**
+     * @return the number of operations currently running.
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * @return the number of operations rejected because the executor was saturated.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+}
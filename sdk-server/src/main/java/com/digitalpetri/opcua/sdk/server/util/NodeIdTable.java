@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import com.digitalpetri.opcua.stack.core.types.builtin.ExpandedNodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Interns {@link NodeId}s and {@link ExpandedNodeId}s so structures that hold many references to the same node, e.g.
+ * a reference type or a type definition, share a single copy of each identifier.
+ * <p>
+ * Interning is weak: once nothing but the table refers to a canonical instance it may be garbage collected, so nodes
+ * that are removed from the address space don't leave their identifiers behind.
+ */
+public class NodeIdTable {
+
+    private static final NodeIdTable SHARED = new NodeIdTable();
+
+    private final Interner<NodeId> nodeIds = Interners.newWeakInterner();
+
+    private final Interner<ExpandedNodeId> expandedNodeIds = Interners.newWeakInterner();
+
+    /**
+     * @return a table shared by every server in this JVM. Since interning is weak, sharing it costs nothing.
+     */
+    public static NodeIdTable shared() {
+        return SHARED;
+    }
+
+    /**
+     * @param nodeId the {@link NodeId} to intern.
+     * @return the canonical instance equal to {@code nodeId}.
+     */
+    public NodeId canonical(NodeId nodeId) {
+        return nodeIds.intern(nodeId);
+    }
+
+    /**
+     * @param nodeId the {@link ExpandedNodeId} to intern.
+     * @return the canonical instance equal to {@code nodeId}.
+     */
+    public ExpandedNodeId canonical(ExpandedNodeId nodeId) {
+        return expandedNodeIds.intern(nodeId);
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Indexes the nodes of a namespace by TypeDefinition so Query can find its candidates without walking the whole
+ * address space.
+ * <p>
+ * The index is built on first use. After that, nodes reported through {@link #invalidate(NodeId)} are marked dirty
+ * and re-indexed the next time the index is looked at, so adding, removing and changing nodes stays cheap.
+ */
+public class NodeIndex {
+
+    private final Set<NodeId> dirty = Sets.newConcurrentHashSet();
+
+    private final Map<NodeId, Set<NodeId>> byTypeDefinition = Maps.newHashMap();
+    private final Map<NodeId, ImmutableSet<NodeId>> snapshots = Maps.newHashMap();
+    private final Map<NodeId, NodeId> typeDefinitions = Maps.newHashMap();
+
+    private volatile boolean built = false;
+
+    private final Supplier<Collection<UaNode>> nodes;
+    private final Function<NodeId, Optional<UaNode>> lookup;
+
+    /**
+     * @param nodes  supplies every node of the namespace; used to build the index.
+     * @param lookup looks up a node of the namespace; used to re-index dirty nodes.
+     */
+    public NodeIndex(Supplier<Collection<UaNode>> nodes, Function<NodeId, Optional<UaNode>> lookup) {
+        this.nodes = nodes;
+        this.lookup = lookup;
+    }
+
+    /**
+     * Mark a node as added, removed, or changed.
+     *
+     * @param nodeId the {@link NodeId} of the node.
+     */
+    public void invalidate(NodeId nodeId) {
+        if (built) {
+            dirty.add(nodeId);
+        }
+    }
+
+    /**
+     * The returned set is a snapshot shared by every caller until the instances of the type change, so a Query can
+     * iterate it across continuation points without copying it.
+     *
+     * @param typeDefinitionId the {@link NodeId} of an ObjectType or VariableType.
+     * @return the nodes whose TypeDefinition is exactly {@code typeDefinitionId}.
+     */
+    public synchronized Set<NodeId> getInstances(NodeId typeDefinitionId) {
+        refresh();
+
+        ImmutableSet<NodeId> snapshot = snapshots.get(typeDefinitionId);
+
+        if (snapshot == null) {
+            Set<NodeId> nodeIds = byTypeDefinition.get(typeDefinitionId);
+
+            if (nodeIds == null) return ImmutableSet.of();
+
+            snapshot = ImmutableSet.copyOf(nodeIds);
+            snapshots.put(typeDefinitionId, snapshot);
+        }
+
+        return snapshot;
+    }
+
+    private void refresh() {
+        if (!built) {
+            built = true;
+            nodes.get().forEach(this::index);
+        }
+
+        if (dirty.isEmpty()) return;
+
+        for (NodeId nodeId : ImmutableSet.copyOf(dirty)) {
+            dirty.remove(nodeId);
+
+            unindex(nodeId);
+
+            lookup.apply(nodeId).ifPresent(this::index);
+        }
+    }
+
+    private void index(UaNode node) {
+        NodeId nodeId = node.getNodeId();
+
+        NodeId typeDefinitionId = node.getReferences().stream()
+                .filter(Reference.HAS_TYPE_DEFINITION_PREDICATE)
+                .findFirst()
+                .flatMap(r -> r.getTargetNodeId().local())
+                .orElse(null);
+
+        unindex(nodeId);
+
+        if (typeDefinitionId != null) {
+            typeDefinitions.put(nodeId, typeDefinitionId);
+            byTypeDefinition.computeIfAbsent(typeDefinitionId, id -> Sets.newHashSet()).add(nodeId);
+            snapshots.remove(typeDefinitionId);
+        }
+    }
+
+    private void unindex(NodeId nodeId) {
+        NodeId typeDefinitionId = typeDefinitions.remove(nodeId);
+
+        if (typeDefinitionId == null) return;
+
+        Set<NodeId> nodeIds = byTypeDefinition.get(typeDefinitionId);
+
+        if (nodeIds != null) {
+            nodeIds.remove(nodeId);
+
+            if (nodeIds.isEmpty()) byTypeDefinition.remove(typeDefinitionId);
+        }
+
+        snapshots.remove(typeDefinitionId);
+    }
+
+}
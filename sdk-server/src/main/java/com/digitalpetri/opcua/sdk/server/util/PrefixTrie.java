@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.Arrays;
+
+/**
+ * Maps string prefixes to values and finds the value of the longest prefix of a key in one pass over the key.
+ * <p>
+ * Not thread-safe; build it, then publish it to readers safely and don't modify it afterwards.
+ *
+ * @param <V> the type of value.
+ */
+public class PrefixTrie<V> {
+
+    private final TrieNode<V> root = new TrieNode<>();
+
+    private int size = 0;
+
+    /**
+     * Map {@code prefix} to {@code value}, replacing any value already mapped to it.
+     *
+     * @param prefix the prefix. The empty prefix matches every key.
+     * @param value  the value.
+     */
+    public void put(String prefix, V value) {
+        TrieNode<V> node = root;
+
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.childOrCreate(prefix.charAt(i));
+        }
+
+        if (node.value == null) size++;
+
+        node.value = value;
+    }
+
+    /**
+     * @param key the key to match.
+     * @return the value of the longest prefix of {@code key} that has one, or {@code null} if no prefix matches.
+     */
+    public V longestPrefixMatch(String key) {
+        TrieNode<V> node = root;
+        V match = root.value;
+
+        for (int i = 0; i < key.length(); i++) {
+            node = node.child(key.charAt(i));
+
+            if (node == null) break;
+            if (node.value != null) match = node.value;
+        }
+
+        return match;
+    }
+
+    /**
+     * @return the number of prefixes mapped.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Children are kept in a sorted char array and found by binary search; most nodes have a single child.
+     */
+    private static final class TrieNode<V> {
+
+        private char[] keys = new char[0];
+
+        @SuppressWarnings("unchecked")
+        private TrieNode<V>[] children = new TrieNode[0];
+
+        private V value;
+
+        TrieNode<V> child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+
+            return i >= 0 ? children[i] : null;
+        }
+
+        TrieNode<V> childOrCreate(char c) {
+            int i = Arrays.binarySearch(keys, c);
+
+            if (i >= 0) return children[i];
+
+            int insertAt = -(i + 1);
+
+            char[] newKeys = new char[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertAt);
+            System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+            newKeys[insertAt] = c;
+
+            TrieNode<V>[] newChildren = Arrays.copyOf(children, children.length + 1);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+
+            TrieNode<V> child = new TrieNode<>();
+            newChildren[insertAt] = child;
+
+            keys = newKeys;
+            children = newChildren;
+
+            return child;
+        }
+
+    }
+
+}
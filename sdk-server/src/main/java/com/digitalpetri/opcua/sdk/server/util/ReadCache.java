@@ -0,0 +1,227 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import static com.digitalpetri.opcua.sdk.server.util.FutureUtils.sequence;
+
+/**
+ * Serves Reads whose maxAge allows it from the last value read, keyed by (NodeId, attribute, indexRange,
+ * dataEncoding).
+ * <p>
+ * A value's age is measured from when the read that produced it was started. Misses are read from the namespace with
+ * both timestamps and the requested ones are derived per caller; concurrent misses for the same key share one
+ * underlying read. Values with a Bad status are never cached.
+ * <p>
+ * Writes through the server {@link #invalidate(NodeId) invalidate} the written node, which also stops later Reads
+ * from joining a read of it that was already in flight.
+ */
+public class ReadCache {
+
+    public static final long DEFAULT_MAXIMUM_SIZE = 100000L;
+
+    private static final int STRIPES = 64;
+
+    private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+
+    private final ConcurrentMap<List<Object>, InFlight> inFlight = Maps.newConcurrentMap();
+
+    private final Cache<NodeId, ConcurrentMap<List<Object>, Entry>> cache;
+
+    public ReadCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @param maximumSize the maximum number of nodes to cache values for.
+     */
+    public ReadCache(long maximumSize) {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    /**
+     * Read {@code readValueIds}, serving each from the cache if its value is no older than {@code maxAge}.
+     *
+     * @param readValueIds the values to read; all from the same namespace.
+     * @param maxAge       the maximum acceptable age of a cached value, in milliseconds.
+     * @param timestamps   the timestamps to return.
+     * @param reader       reads the misses from the namespace, with both timestamps.
+     * @param future       completed with the values, in the order of {@code readValueIds}.
+     */
+    public void read(List<ReadValueId> readValueIds,
+                     double maxAge,
+                     TimestampsToReturn timestamps,
+                     BiConsumer<List<ReadValueId>, CompletableFuture<List<DataValue>>> reader,
+                     CompletableFuture<List<DataValue>> future) {
+
+        long start = System.nanoTime();
+        long maxAgeNanos = maxAge >= Long.MAX_VALUE / 1_000_000d ? Long.MAX_VALUE : (long) (maxAge * 1_000_000d);
+
+        List<CompletableFuture<DataValue>> values = Lists.newArrayListWithCapacity(readValueIds.size());
+
+        List<ReadValueId> misses = Lists.newArrayList();
+        List<InFlight> missed = Lists.newArrayList();
+
+        for (ReadValueId id : readValueIds) {
+            NodeId nodeId = id.getNodeId();
+            List<Object> key = key(id);
+
+            ConcurrentMap<List<Object>, Entry> entries = cache.getIfPresent(nodeId);
+            Entry entry = entries != null ? entries.get(key) : null;
+
+            if (entry != null && start - entry.started <= maxAgeNanos) {
+                values.add(CompletableFuture.completedFuture(entry.value));
+                continue;
+            }
+
+            long generation = generations.get(stripe(nodeId));
+
+            InFlight created = new InFlight(generation);
+
+            InFlight read = inFlight.compute(key, (k, current) ->
+                    current != null && current.generation == generation ? current : created);
+
+            if (read == created) {
+                misses.add(id);
+                missed.add(read);
+            }
+
+            values.add(read.future);
+        }
+
+        if (!misses.isEmpty()) {
+            CompletableFuture<List<DataValue>> missFuture = new CompletableFuture<>();
+
+            missFuture.whenComplete((results, ex) -> {
+                for (int i = 0; i < misses.size(); i++) {
+                    ReadValueId id = misses.get(i);
+                    InFlight read = missed.get(i);
+
+                    DataValue value = (ex == null && results != null && i < results.size()) ?
+                            results.get(i) : new DataValue(new StatusCode(StatusCodes.Bad_InternalError));
+
+                    if (ex == null && !isBad(value) && generations.get(stripe(id.getNodeId())) == read.generation) {
+                        cache.asMap()
+                                .computeIfAbsent(id.getNodeId(), n -> Maps.newConcurrentMap())
+                                .put(key(id), new Entry(value, start));
+                    }
+
+                    inFlight.remove(key(id), read);
+                    read.future.complete(value);
+                }
+            });
+
+            reader.accept(misses, missFuture);
+        }
+
+        sequence(values).whenComplete((results, ex) -> {
+            if (results != null) {
+                List<DataValue> derived = Lists.newArrayListWithCapacity(results.size());
+
+                for (int i = 0; i < results.size(); i++) {
+                    derived.add(withTimestamps(readValueIds.get(i), results.get(i), timestamps));
+                }
+
+                future.complete(derived);
+            } else {
+                future.completeExceptionally(ex);
+            }
+        });
+    }
+
+    /**
+     * Drop the cached values of {@code nodeId}, and keep reads of it already in flight from being cached or joined.
+     *
+     * @param nodeId the {@link NodeId} of a node that was written.
+     */
+    public void invalidate(NodeId nodeId) {
+        generations.incrementAndGet(stripe(nodeId));
+
+        cache.invalidate(nodeId);
+    }
+
+    public void invalidateAll() {
+        for (int i = 0; i < STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+
+        cache.invalidateAll();
+    }
+
+    private static List<Object> key(ReadValueId id) {
+        return Arrays.asList(id.getNodeId(), id.getAttributeId(), id.getIndexRange(), id.getDataEncoding());
+    }
+
+    private static int stripe(NodeId nodeId) {
+        return (nodeId.hashCode() & 0x7FFFFFFF) % STRIPES;
+    }
+
+    private static boolean isBad(DataValue value) {
+        return value.getStatusCode() != null && value.getStatusCode().isBad();
+    }
+
+    private static DataValue withTimestamps(ReadValueId id, DataValue value, TimestampsToReturn timestamps) {
+        return id.getAttributeId().intValue() == AttributeIds.Value ?
+                DataValue.derivedValue(value, timestamps) :
+                DataValue.derivedNonValue(value, timestamps);
+    }
+
+    private static final class Entry {
+
+        private final DataValue value;
+        private final long started;
+
+        private Entry(DataValue value, long started) {
+            this.value = value;
+            this.started = started;
+        }
+
+    }
+
+    private static final class InFlight {
+
+        private final CompletableFuture<DataValue> future = new CompletableFuture<>();
+
+        private final long generation;
+
+        private InFlight(long generation) {
+            this.generation = generation;
+        }
+
+    }
+
+}
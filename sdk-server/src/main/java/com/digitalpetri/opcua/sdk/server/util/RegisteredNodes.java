@@ -0,0 +1,266 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.digitalpetri.opcua.sdk.server.NamespaceManager;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.structured.BrowseDescription;
+import com.digitalpetri.opcua.stack.core.types.structured.BrowsePath;
+import com.digitalpetri.opcua.stack.core.types.structured.CallMethodRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.WriteValue;
+import com.google.common.collect.Maps;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
+
+/**
+ * The nodes a Session has registered via the RegisterNodes service.
+ * <p>
+ * Each registered node is assigned a numeric alias in a namespace reserved for registered nodes. The identifier of
+ * an alias is an index into a table of NodeIds, so resolving an alias is an array lookup instead of a namespace lookup
+ * on the original identifier, which may be a long string. Every service that takes a NodeId resolves aliases before
+ * routing the operation to a namespace.
+ * <p>
+ * Once {@code maxRegisteredNodes} nodes are registered, further nodes are returned as-is, which the specification
+ * permits.
+ */
+public class RegisteredNodes {
+
+    public static final int DEFAULT_MAX_REGISTERED_NODES = 65535;
+
+    private static final NodeId[] EMPTY = new NodeId[0];
+
+    private final Map<NodeId, Integer> slotsByNodeId = Maps.newHashMap();
+
+    private volatile NodeId[] table = EMPTY;
+    private int[] counts = new int[0];
+    private int[] free = new int[0];
+    private int freeCount = 0;
+    private int nextSlot = 0;
+
+    private volatile int registeredCount = 0;
+    private volatile int namespaceIndex = -1;
+
+    private final NamespaceManager namespaceManager;
+    private final int maxRegisteredNodes;
+
+    public RegisteredNodes(NamespaceManager namespaceManager) {
+        this(namespaceManager, DEFAULT_MAX_REGISTERED_NODES);
+    }
+
+    public RegisteredNodes(NamespaceManager namespaceManager, int maxRegisteredNodes) {
+        this.namespaceManager = namespaceManager;
+        this.maxRegisteredNodes = maxRegisteredNodes;
+    }
+
+    /**
+     * Register {@code nodeIds}, returning an alias for each.
+     *
+     * @param nodeIds the {@link NodeId}s to register.
+     * @return the alias {@link NodeId}s, in the same order as {@code nodeIds}.
+     */
+    public synchronized NodeId[] register(NodeId[] nodeIds) {
+        if (namespaceIndex < 0) {
+            namespaceIndex = namespaceManager.getRegisteredNodesNamespaceIndex().intValue();
+        }
+
+        NodeId[] aliases = new NodeId[nodeIds.length];
+        NodeId[] copy = Arrays.copyOf(table, Math.max(table.length, nextSlot + nodeIds.length));
+
+        for (int i = 0; i < nodeIds.length; i++) {
+            NodeId nodeId = resolve(nodeIds[i]);
+
+            Integer slot = slotsByNodeId.get(nodeId);
+
+            if (slot == null) {
+                if (slotsByNodeId.size() >= maxRegisteredNodes) {
+                    aliases[i] = nodeId;
+                    continue;
+                }
+
+                slot = allocate();
+                slotsByNodeId.put(nodeId, slot);
+                copy[slot] = nodeId;
+            }
+
+            counts[slot]++;
+            aliases[i] = new NodeId(ushort(namespaceIndex), uint(slot));
+        }
+
+        table = copy;
+        registeredCount = slotsByNodeId.size();
+
+        return aliases;
+    }
+
+    /**
+     * Unregister {@code nodeIds}, which may be aliases returned by {@link #register(NodeId[])} or the original
+     * NodeIds. A node registered more than once remains registered until it has been unregistered as many times.
+     *
+     * @param nodeIds the {@link NodeId}s to unregister.
+     */
+    public synchronized void unregister(NodeId[] nodeIds) {
+        NodeId[] copy = table.clone();
+
+        for (NodeId alias : nodeIds) {
+            NodeId nodeId = resolve(alias);
+
+            Integer slot = slotsByNodeId.get(nodeId);
+
+            if (slot != null && --counts[slot] == 0) {
+                slotsByNodeId.remove(nodeId);
+                copy[slot] = null;
+                free[freeCount++] = slot;
+            }
+        }
+
+        table = copy;
+        registeredCount = slotsByNodeId.size();
+    }
+
+    /**
+     * @param nodeId a {@link NodeId} that may be an alias.
+     * @return the registered {@link NodeId} if {@code nodeId} is an alias, otherwise {@code nodeId}.
+     */
+    public NodeId resolve(NodeId nodeId) {
+        int index = namespaceIndex;
+
+        if (index < 0 || nodeId == null || nodeId.getNamespaceIndex().intValue() != index) return nodeId;
+
+        Object identifier = nodeId.getIdentifier();
+
+        if (identifier instanceof UInteger) {
+            long slot = ((UInteger) identifier).longValue();
+            NodeId[] table = this.table;
+
+            if (slot < table.length && table[(int) slot] != null) {
+                return table[(int) slot];
+            }
+        }
+
+        return nodeId;
+    }
+
+    public ReadValueId resolve(ReadValueId readValueId) {
+        NodeId nodeId = readValueId.getNodeId();
+        NodeId resolved = resolve(nodeId);
+
+        if (resolved == nodeId) return readValueId;
+
+        return new ReadValueId(
+                resolved,
+                readValueId.getAttributeId(),
+                readValueId.getIndexRange(),
+                readValueId.getDataEncoding());
+    }
+
+    public WriteValue resolve(WriteValue writeValue) {
+        NodeId nodeId = writeValue.getNodeId();
+        NodeId resolved = resolve(nodeId);
+
+        if (resolved == nodeId) return writeValue;
+
+        return new WriteValue(
+                resolved,
+                writeValue.getAttributeId(),
+                writeValue.getIndexRange(),
+                writeValue.getValue());
+    }
+
+    public HistoryReadValueId resolve(HistoryReadValueId historyReadValueId) {
+        NodeId nodeId = historyReadValueId.getNodeId();
+        NodeId resolved = resolve(nodeId);
+
+        if (resolved == nodeId) return historyReadValueId;
+
+        return new HistoryReadValueId(
+                resolved,
+                historyReadValueId.getIndexRange(),
+                historyReadValueId.getDataEncoding(),
+                historyReadValueId.getContinuationPoint());
+    }
+
+    public BrowseDescription resolve(BrowseDescription browseDescription) {
+        NodeId nodeId = browseDescription.getNodeId();
+        NodeId resolved = resolve(nodeId);
+
+        if (resolved == nodeId) return browseDescription;
+
+        return new BrowseDescription(
+                resolved,
+                browseDescription.getBrowseDirection(),
+                browseDescription.getReferenceTypeId(),
+                browseDescription.getIncludeSubtypes(),
+                browseDescription.getNodeClassMask(),
+                browseDescription.getResultMask());
+    }
+
+    public BrowsePath resolve(BrowsePath browsePath) {
+        NodeId nodeId = browsePath.getStartingNode();
+        NodeId resolved = resolve(nodeId);
+
+        if (resolved == nodeId) return browsePath;
+
+        return new BrowsePath(resolved, browsePath.getRelativePath());
+    }
+
+    public CallMethodRequest resolve(CallMethodRequest callMethodRequest) {
+        NodeId objectId = callMethodRequest.getObjectId();
+        NodeId methodId = callMethodRequest.getMethodId();
+        NodeId resolvedObjectId = resolve(objectId);
+        NodeId resolvedMethodId = resolve(methodId);
+
+        if (resolvedObjectId == objectId && resolvedMethodId == methodId) return callMethodRequest;
+
+        return new CallMethodRequest(resolvedObjectId, resolvedMethodId, callMethodRequest.getInputArguments());
+    }
+
+    /**
+     * @return {@code true} if no nodes are registered, in which case resolving can be skipped entirely.
+     */
+    public boolean isEmpty() {
+        return registeredCount == 0;
+    }
+
+    public synchronized List<NodeId> getRegisteredNodeIds() {
+        return Arrays.asList(slotsByNodeId.keySet().toArray(new NodeId[slotsByNodeId.size()]));
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return free[--freeCount];
+        }
+
+        int slot = nextSlot++;
+
+        if (slot >= counts.length) {
+            int capacity = Math.max(16, counts.length * 2);
+            counts = Arrays.copyOf(counts, capacity);
+            free = Arrays.copyOf(free, capacity);
+        }
+
+        return slot;
+    }
+
+}
@@ -23,46 +23,129 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
-import com.digitalpetri.opcua.sdk.server.api.DataItem;
-import com.digitalpetri.opcua.sdk.server.api.ReadWriteManager;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.math.DoubleMath;
 import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.server.api.DataItem;
 import com.digitalpetri.opcua.sdk.server.api.MonitoredItem;
+import com.digitalpetri.opcua.sdk.server.api.ReadWriteManager;
+import com.digitalpetri.opcua.sdk.server.api.UaNamespace;
+import com.digitalpetri.opcua.sdk.server.model.AttributeObserver;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
+import com.digitalpetri.opcua.sdk.server.model.UaVariableNode;
+import com.digitalpetri.opcua.sdk.server.model.ValueUpdater;
+import com.digitalpetri.opcua.sdk.server.model.ValueUpdater.UpdateListener;
+import com.digitalpetri.opcua.sdk.server.util.FixedRateClock.Schedule;
 import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
 import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
 import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
 import com.digitalpetri.opcua.stack.core.util.ExecutionQueue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.math.DoubleMath;
 
+/**
+ * Samples the {@link DataItem}s of a namespace.
+ * <p>
+ * Items are polled: all items with the same sampling interval are read together with one
+ * {@link ReadWriteManager#read} call per interval. When the namespace is a {@link UaNamespace} that declares a
+ * variable {@link UaNamespace#isPushCapable push-capable},
+ * items monitoring its Value are instead reported by exception from {@link UaVariableNode#setValue}, and cost nothing
+ * while the value doesn't change. If the namespace updates its variables with a {@link ValueUpdater}, attach it with
+ * {@link #setValueUpdater} so that those items learn of its updates once per cycle rather than node by node.
+ */
 public class SubscriptionModel {
 
     private final Set<DataItem> itemSet = Collections.newSetFromMap(Maps.newConcurrentMap());
 
     private final List<ScheduledUpdate> schedule = Lists.newCopyOnWriteArrayList();
 
+    private final Map<DataItem, PushBinding> bindings = Maps.newHashMap();
+
+    private final ConcurrentMap<NodeId, List<PushBinding>> bindingsByNode = Maps.newConcurrentMap();
+
+    private final UpdateListener cycleListener = this::onUpdateCycle;
+
+    private volatile ValueUpdater valueUpdater;
+
     private final ExecutionQueue executionQueue;
 
     private final ReadWriteManager readWriteManager;
     private final ExecutorService executor;
+    private final Executor readExecutor;
     private final ScheduledExecutorService scheduler;
+    private final FixedRateClock clock;
+
+    public SubscriptionModel(ReadWriteManager readWriteManager,
+                             ExecutorService executor,
+                             ScheduledExecutorService scheduler) {
+
+        this(readWriteManager, executor, executor, scheduler);
+    }
 
     public SubscriptionModel(ReadWriteManager readWriteManager,
                              ExecutorService executor,
+                             Executor readExecutor,
                              ScheduledExecutorService scheduler) {
 
+        this(readWriteManager, executor, readExecutor, new FixedRateClock(scheduler));
+    }
+
+    /**
+     * @param readWriteManager the {@link ReadWriteManager} sampled values are read from.
+     * @param executor         the executor bookkeeping and value delivery run on.
+     * @param readExecutor     the executor reads are dispatched to, e.g.
+     *                         {@link com.digitalpetri.opcua.sdk.server.OpcUaServer#getNamespaceExecutor}.
+     * @param clock            the clock sampling is scheduled on, e.g.
+     *                         {@link com.digitalpetri.opcua.sdk.server.OpcUaServer#getClock}.
+     */
+    public SubscriptionModel(ReadWriteManager readWriteManager,
+                             ExecutorService executor,
+                             Executor readExecutor,
+                             FixedRateClock clock) {
+
         this.readWriteManager = readWriteManager;
         this.executor = executor;
-        this.scheduler = scheduler;
+        this.readExecutor = readExecutor;
+        this.clock = clock;
+        this.scheduler = clock.getScheduler();
 
         executionQueue = new ExecutionQueue(executor);
     }
 
+    /**
+     * Take the Values {@code valueUpdater} assigns to the variables of pushed items once per update cycle, rather than
+     * being notified by each node. Values set any other way are still reported node by node.
+     *
+     * @param valueUpdater the {@link ValueUpdater} of this model's namespace, or {@code null} to detach the current
+     *                     one.
+     */
+    public void setValueUpdater(ValueUpdater valueUpdater) {
+        executionQueue.submit(() -> {
+            ValueUpdater previous = this.valueUpdater;
+
+            if (previous != null) previous.removeUpdateListener(cycleListener);
+            if (valueUpdater != null) valueUpdater.addUpdateListener(cycleListener);
+
+            this.valueUpdater = valueUpdater;
+
+            // Bind the pushed items again, as observers of the new kind.
+            bindings.values().forEach(PushBinding::unbind);
+            bindings.clear();
+
+            reschedule();
+        });
+    }
+
     public void onDataItemsCreated(List<DataItem> items) {
         executionQueue.submit(() -> {
             itemSet.addAll(items);
@@ -86,8 +169,24 @@ public class SubscriptionModel {
     }
 
     private void reschedule() {
-        Map<Double, List<DataItem>> bySamplingInterval = itemSet.stream()
-                .filter(DataItem::isSamplingEnabled)
+        Map<DataItem, UaVariableNode> pushed = Maps.newHashMap();
+        List<DataItem> polled = Lists.newArrayList();
+
+        for (DataItem item : itemSet) {
+            if (!item.isSamplingEnabled()) continue;
+
+            UaVariableNode node = pushSource(item);
+
+            if (node != null) {
+                pushed.put(item, node);
+            } else {
+                polled.add(item);
+            }
+        }
+
+        rebind(pushed);
+
+        Map<Double, List<DataItem>> bySamplingInterval = polled.stream()
                 .collect(Collectors.groupingBy(DataItem::getSamplingInterval));
 
         List<ScheduledUpdate> updates = bySamplingInterval.keySet().stream().map(samplingInterval -> {
@@ -102,20 +201,210 @@ public class SubscriptionModel {
         schedule.forEach(scheduler::execute);
     }
 
+    /**
+     * @return the node to observe if {@code item} monitors the Value of a variable its namespace declares
+     * push-capable, otherwise {@code null} and the item is polled.
+     */
+    private UaVariableNode pushSource(DataItem item) {
+        if (!(readWriteManager instanceof UaNamespace)) return null;
+
+        ReadValueId readValueId = item.getReadValueId();
+
+        if (readValueId.getAttributeId().intValue() != AttributeIds.Value) return null;
+
+        UaNamespace namespace = (UaNamespace) readWriteManager;
+
+        if (!namespace.isPushCapable(readValueId.getNodeId())) return null;
+
+        return namespace.getNode(readValueId.getNodeId())
+                .filter(n -> n instanceof UaVariableNode)
+                .map(n -> (UaVariableNode) n)
+                .orElse(null);
+    }
+
+    /**
+     * Bring the push bindings in line with {@code pushed}: unbind items no longer pushed, and bind new items or those
+     * whose sampling interval changed.
+     */
+    private void rebind(Map<DataItem, UaVariableNode> pushed) {
+        Iterator<PushBinding> iterator = bindings.values().iterator();
+
+        while (iterator.hasNext()) {
+            PushBinding binding = iterator.next();
+
+            if (pushed.get(binding.item) != binding.node ||
+                    binding.samplingInterval != samplingIntervalNanos(binding.item)) {
+
+                binding.unbind();
+                iterator.remove();
+            }
+        }
+
+        pushed.forEach((item, node) -> {
+            if (!bindings.containsKey(item)) {
+                PushBinding binding = valueUpdater != null ?
+                        new CyclePushBinding(item, node) :
+                        new PushBinding(item, node);
+
+                bindings.put(item, binding);
+                binding.bind();
+            }
+        });
+    }
+
+    private void onUpdateCycle(List<UaVariableNode> nodes) {
+        if (bindingsByNode.isEmpty()) return;
+
+        for (UaVariableNode node : nodes) {
+            List<PushBinding> nodeBindings = bindingsByNode.get(node.getNodeId());
+
+            if (nodeBindings != null) {
+                nodeBindings.forEach(PushBinding::changed);
+            }
+        }
+    }
+
+    private static long samplingIntervalNanos(DataItem item) {
+        return TimeUnit.NANOSECONDS.convert(
+                DoubleMath.roundToLong(item.getSamplingInterval(), RoundingMode.UP), TimeUnit.MILLISECONDS);
+    }
+
+    private static DataValue withTimestamps(DataItem item, DataValue value) {
+        TimestampsToReturn timestamps = item.getTimestampsToReturn();
+
+        if (timestamps != null) {
+            value = (item.getReadValueId().getAttributeId().intValue() == AttributeIds.Value) ?
+                    DataValue.derivedValue(value, timestamps) :
+                    DataValue.derivedNonValue(value, timestamps);
+        }
+
+        return value;
+    }
+
+    /**
+     * Reports the Value of a push-capable variable by exception: the item is sampled when the node reports a change,
+     * at most once per sampling interval, and never while the value stays the same.
+     * <p>
+     * Samples run on the execution queue, so they are ordered with each other and with rebinding.
+     */
+    private class PushBinding implements AttributeObserver {
+
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        private volatile boolean bound = false;
+        private volatile long lastSampleNanos;
+
+        private final DataItem item;
+        private final UaVariableNode node;
+        private final long samplingInterval;
+
+        private PushBinding(DataItem item, UaVariableNode node) {
+            this.item = item;
+            this.node = node;
+            this.samplingInterval = samplingIntervalNanos(item);
+        }
+
+        /**
+         * Start observing the node and take an initial sample.
+         */
+        private void bind() {
+            bound = true;
+            lastSampleNanos = System.nanoTime() - samplingInterval;
+
+            node.addAttributeObserver(this);
+
+            bindingsByNode.merge(node.getNodeId(), ImmutableList.of(this),
+                    (current, added) -> ImmutableList.<PushBinding>builder().addAll(current).addAll(added).build());
+
+            scheduled.set(true);
+            sample();
+        }
+
+        private void unbind() {
+            bound = false;
+
+            node.removeAttributeObserver(this);
+
+            bindingsByNode.computeIfPresent(node.getNodeId(), (nodeId, current) -> {
+                List<PushBinding> retained = current.stream()
+                        .filter(binding -> binding != this)
+                        .collect(Collectors.toList());
+
+                return retained.isEmpty() ? null : retained;
+            });
+        }
+
+        @Override
+        public void attributeChanged(UaNode node, int attributeId, Object value) {
+            if (attributeId == AttributeIds.Value) changed();
+        }
+
+        /**
+         * The node's Value changed: schedule a sample, unless one already is.
+         */
+        private void changed() {
+            if (!bound) return;
+
+            if (scheduled.compareAndSet(false, true)) {
+                long delay = lastSampleNanos + samplingInterval - System.nanoTime();
+
+                try {
+                    if (delay <= 0) {
+                        executionQueue.submit(this::sample);
+                    } else {
+                        scheduler.schedule(() -> executionQueue.submit(this::sample), delay, TimeUnit.NANOSECONDS);
+                    }
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        private void sample() {
+            // Cleared before reading so a change made after the read schedules another sample.
+            scheduled.set(false);
+
+            if (!bound) return;
+
+            lastSampleNanos = System.nanoTime();
+
+            DataValue value = node.readAttribute(
+                    AttributeIds.Value,
+                    TimestampsToReturn.Both,
+                    item.getReadValueId().getIndexRange());
+
+            item.setValue(withTimestamps(item, value));
+        }
+
+    }
+
+    /**
+     * A {@link PushBinding} told of the {@link ValueUpdater}'s cycles by {@link #onUpdateCycle}.
+     */
+    private class CyclePushBinding extends PushBinding implements ValueUpdater.CycleObserver {
+
+        private CyclePushBinding(DataItem item, UaVariableNode node) {
+            super(item, node);
+        }
+
+    }
+
     private class ScheduledUpdate implements Runnable {
 
         private volatile boolean cancelled = false;
 
-        private final long samplingInterval;
+        private final Schedule deadlines;
         private final List<DataItem> items;
 
         private ScheduledUpdate(double samplingInterval, List<DataItem> items) {
-            this.samplingInterval = DoubleMath.roundToLong(samplingInterval, RoundingMode.UP);
+            this.deadlines = clock.newSchedule(samplingInterval);
             this.items = items;
         }
 
         private void cancel() {
             cancelled = true;
+
+            deadlines.cancel();
         }
 
         @Override
@@ -130,31 +419,31 @@ public class SubscriptionModel {
 
             CompletableFuture<List<DataValue>> future = Pending.callback(pending);
 
-            future.thenAcceptAsync(values -> {
-                Iterator<DataItem> ii = items.iterator();
-                Iterator<DataValue> vi = values.iterator();
-
-                while (ii.hasNext() && vi.hasNext()) {
-                    DataItem item = ii.next();
-                    DataValue value = vi.next();
+            // A failed read skips this sample rather than report a bad value; sampling carries on either way.
+            future.whenCompleteAsync((values, ex) -> {
+                if (values != null) {
+                    Iterator<DataItem> ii = items.iterator();
+                    Iterator<DataValue> vi = values.iterator();
 
-                    TimestampsToReturn timestamps = item.getTimestampsToReturn();
+                    while (ii.hasNext() && vi.hasNext()) {
+                        DataItem item = ii.next();
+                        DataValue value = vi.next();
 
-                    if (timestamps != null) {
-                        value = (item.getReadValueId().getAttributeId().intValue() == AttributeIds.Value) ?
-                                DataValue.derivedValue(value, timestamps) :
-                                DataValue.derivedNonValue(value, timestamps);
+                        item.setValue(withTimestamps(item, value));
                     }
-
-                    item.setValue(value);
                 }
 
                 if (!cancelled) {
-                    scheduler.schedule(this, samplingInterval, TimeUnit.MILLISECONDS);
+                    deadlines.scheduleNext(this);
                 }
             }, executor);
 
-            executor.execute(() -> readWriteManager.read(ids, 0d, TimestampsToReturn.Both, future));
+            try {
+                readExecutor.execute(() -> readWriteManager.read(ids, 0d, TimestampsToReturn.Both, future));
+            } catch (RejectedExecutionException e) {
+                // The namespace is saturated.
+                future.completeExceptionally(e);
+            }
         }
 
     }
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.history;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import com.digitalpetri.opcua.sdk.core.AccessLevel;
+import com.digitalpetri.opcua.sdk.server.model.UaVariableNode;
+import com.digitalpetri.opcua.sdk.server.model.UaVariableNode.UaVariableNodeBuilder;
+import com.digitalpetri.opcua.sdk.server.util.TestNamespace;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.LocalizedText;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryData;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadResult;
+import com.digitalpetri.opcua.stack.core.types.structured.HistoryReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadRawModifiedDetails;
+import com.google.common.collect.Lists;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+public class HistoryStoreManagerTest {
+
+    private static final long T0 = 130_000_000_000_000_000L;
+    private static final int PAGE_SIZE = 10;
+
+    /**
+     * Sample times, in units of 100ms after T0; samples 9, 10 and 11 share a timestamp across the first page break.
+     */
+    private static final int[] TIMES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 9, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19};
+
+    private final TestNamespace namespace = new TestNamespace(ushort(2), "urn:test");
+
+    private NodeId nodeId;
+    private HistoryStoreManager manager;
+
+    @BeforeMethod
+    public void setUp() {
+        UaVariableNode node = new UaVariableNodeBuilder(namespace)
+                .setNodeId(new NodeId(2, "Variable"))
+                .setBrowseName(new QualifiedName(2, "Variable"))
+                .setDisplayName(LocalizedText.english("Variable"))
+                .setDataType(Identifiers.Double)
+                .setAccessLevel(ubyte(AccessLevel.getMask(
+                        EnumSet.of(AccessLevel.CurrentRead, AccessLevel.HistoryRead))))
+                .build();
+
+        namespace.addNode(node);
+        nodeId = node.getNodeId();
+
+        ListHistoryStore store = new ListHistoryStore();
+
+        for (int i = 0; i < TIMES.length; i++) {
+            store.values.add(new DataValue(new Variant((double) i), StatusCode.GOOD, time(TIMES[i]), time(TIMES[i])));
+        }
+
+        manager = new HistoryStoreManager(store, namespace::getNode, PAGE_SIZE);
+    }
+
+    @Test
+    public void testReadRawPagesForward() throws Exception {
+        List<List<Double>> pages = readAllPages(time(0), time(19));
+
+        assertEquals(pages.size(), 3);
+        assertEquals(pages.get(0).size(), PAGE_SIZE);
+        assertEquals(flatten(pages), expected(0, TIMES.length, 1));
+    }
+
+    @Test
+    public void testReadRawPagesInReverse() throws Exception {
+        List<List<Double>> pages = readAllPages(time(19), time(0));
+
+        assertEquals(pages.size(), 3);
+        assertEquals(flatten(pages), expected(TIMES.length - 1, TIMES.length, -1));
+    }
+
+    @Test
+    public void testReadRawPagesWithinRange() throws Exception {
+        List<List<Double>> pages = readAllPages(time(5), time(15));
+
+        // Samples 5 through 17 have times 5 through 15.
+        assertEquals(flatten(pages), expected(5, 13, 1));
+    }
+
+    @Test
+    public void testInvalidContinuationPoint() throws Exception {
+        HistoryReadResult result = readRaw(time(0), time(19), ByteString.of(new byte[]{42}));
+
+        assertEquals(result.getStatusCode().getValue(), StatusCodes.Bad_ContinuationPointInvalid);
+    }
+
+    private List<List<Double>> readAllPages(DateTime start, DateTime end) throws Exception {
+        List<List<Double>> pages = Lists.newArrayList();
+        ByteString continuationPoint = null;
+
+        do {
+            HistoryReadResult result = readRaw(start, end, continuationPoint);
+
+            assertEquals(result.getStatusCode().getValue(), StatusCodes.Good);
+            assertNotNull(result.getHistoryData());
+
+            HistoryData data = result.getHistoryData().decode();
+
+            pages.add(Lists.newArrayList(data.getDataValues()).stream()
+                    .map(v -> (Double) v.getValue().getValue())
+                    .collect(Collectors.toList()));
+
+            continuationPoint = result.getContinuationPoint();
+        } while (continuationPoint != null);
+
+        assertNull(continuationPoint);
+
+        return pages;
+    }
+
+    private HistoryReadResult readRaw(DateTime start, DateTime end, ByteString continuationPoint) throws Exception {
+        ReadRawModifiedDetails details = new ReadRawModifiedDetails(false, start, end, uint(0), false);
+
+        HistoryReadValueId id = new HistoryReadValueId(nodeId, null, QualifiedName.NULL_VALUE, continuationPoint);
+
+        CompletableFuture<List<HistoryReadResult>> future = new CompletableFuture<>();
+        manager.historyRead(details, TimestampsToReturn.Both, Lists.newArrayList(id), future);
+
+        return future.get().get(0);
+    }
+
+    private static List<Double> flatten(List<List<Double>> pages) {
+        return pages.stream().flatMap(List::stream).collect(Collectors.toList());
+    }
+
+    private static List<Double> expected(int first, int count, int step) {
+        List<Double> values = Lists.newArrayList();
+
+        for (int i = 0; i < count; i++) {
+            values.add((double) (first + i * step));
+        }
+
+        return values;
+    }
+
+    private static DateTime time(int t) {
+        return new DateTime(T0 + t * 1_000_000L);
+    }
+
+    /**
+     * A {@link HistoryStore} over a list of values in time order.
+     */
+    private static class ListHistoryStore implements HistoryStore {
+
+        private final List<DataValue> values = Lists.newArrayList();
+
+        @Override
+        public boolean append(NodeId nodeId, DataValue value) {
+            return values.add(value);
+        }
+
+        @Override
+        public List<DataValue> read(NodeId nodeId, DateTime start, DateTime end, int maxValues) {
+            long from = start.getUtcTime();
+            long to = end.getUtcTime();
+            int limit = maxValues > 0 ? maxValues : Integer.MAX_VALUE;
+
+            List<DataValue> read = Lists.newArrayList();
+
+            if (from <= to) {
+                for (int i = 0; i < values.size() && read.size() < limit; i++) {
+                    long t = values.get(i).getSourceTime().getUtcTime();
+                    if (t >= from && t <= to) read.add(values.get(i));
+                }
+            } else {
+                for (int i = values.size() - 1; i >= 0 && read.size() < limit; i--) {
+                    long t = values.get(i).getSourceTime().getUtcTime();
+                    if (t <= from && t >= to) read.add(values.get(i));
+                }
+            }
+
+            return read;
+        }
+
+        @Override
+        public void close() {}
+
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.digitalpetri.opcua.sdk.core.NamespaceTable;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class MappedHistoryStoreTest {
+
+    private static final long T0 = 130_000_000_000_000_000L;
+
+    /**
+     * 100ms in DateTime ticks; with 1s partitions, ten samples per partition.
+     */
+    private static final long INTERVAL = 1_000_000L;
+    private static final long PARTITION_MILLIS = 1000L;
+
+    private final NamespaceTable namespaceTable = new NamespaceTable();
+    private final NodeId nodeId = new NodeId(namespaceTable.addUri("urn:test"), "Variable");
+
+    private File directory;
+    private MappedHistoryStore store;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("history").toFile();
+        store = open();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        store.close();
+
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testPartitionRollover() throws IOException {
+        for (int i = 0; i < 35; i++) {
+            assertTrue(store.append(nodeId, value(i)));
+        }
+
+        List<DataValue> forward = store.read(nodeId, time(0), time(34), 0);
+        assertValues(forward, 0, 35);
+
+        // Sealing happens when a sample falls in the next partition, so the first three partitions are on disk.
+        assertEquals(partitionFiles(), 3L);
+
+        List<DataValue> reverse = store.read(nodeId, time(34), time(0), 0);
+        assertEquals(reverse.size(), 35);
+        assertEquals(reverse.get(0).getValue().getValue(), 34.0);
+        assertEquals(reverse.get(34).getValue().getValue(), 0.0);
+
+        // A range crossing a partition boundary, limited.
+        assertValues(store.read(nodeId, time(8), time(30), 5), 8, 5);
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        for (int i = 0; i < 25; i++) {
+            store.append(nodeId, value(i));
+        }
+
+        store.close();
+        store = open();
+
+        assertValues(store.read(nodeId, time(0), time(24), 0), 0, 25);
+
+        // Appends continue after the reopened history, and older samples are refused.
+        assertFalse(store.append(nodeId, value(3)));
+        assertTrue(store.append(nodeId, value(25)));
+
+        assertValues(store.read(nodeId, time(20), time(25), 0), 20, 6);
+    }
+
+    @Test
+    public void testBadValueWithoutValueIsKept() {
+        store.append(nodeId, value(0));
+        store.append(nodeId, new DataValue(
+                Variant.NULL_VALUE, new StatusCode(StatusCodes.Bad_NoCommunication), time(1), time(1)));
+
+        List<DataValue> values = store.read(nodeId, time(0), time(1), 0);
+
+        assertEquals(values.size(), 2);
+        assertEquals(values.get(1).getStatusCode().getValue(), StatusCodes.Bad_NoCommunication);
+        assertNull(values.get(1).getValue().getValue());
+    }
+
+    @Test(expectedExceptions = UncheckedIOException.class)
+    public void testDirectoryIsLocked() {
+        open();
+    }
+
+    private MappedHistoryStore open() {
+        return new MappedHistoryStore(directory, namespaceTable, PARTITION_MILLIS, 2);
+    }
+
+    private long partitionFiles() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            return paths.filter(p -> p.toString().endsWith(HistorySeries.FILE_EXTENSION)).count();
+        }
+    }
+
+    private static DataValue value(int i) {
+        return new DataValue(new Variant((double) i), StatusCode.GOOD, time(i), time(i));
+    }
+
+    private static DateTime time(int i) {
+        return new DateTime(T0 + i * INTERVAL);
+    }
+
+    private static void assertValues(List<DataValue> values, int first, int count) {
+        assertEquals(values.size(), count);
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(values.get(i).getValue().getValue(), (double) (first + i));
+            assertEquals(values.get(i).getSourceTime().getUtcTime(), time(first + i).getUtcTime());
+        }
+    }
+
+}
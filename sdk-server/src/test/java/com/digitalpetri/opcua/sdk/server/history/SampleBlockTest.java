@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.history;
+
+import java.nio.ByteBuffer;
+
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class SampleBlockTest {
+
+    private static final long T0 = 130_000_000_000_000_000L;
+
+    @Test
+    public void testDoubleRoundTrip() throws Exception {
+        double[] values = {1.0, 1.0, 1.5, -1.5, 1e300, Double.MIN_VALUE, 0.0, -0.0, Double.NaN, 42.125};
+
+        long[] bits = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bits[i] = ValueType.Double.toBits(values[i]);
+        }
+
+        assertRoundTrip(new SampleBlock(ValueType.Double, values.length, irregularTimes(values.length), bits,
+                statuses(values.length)));
+    }
+
+    @Test
+    public void testIntegralRoundTrip() throws Exception {
+        long[] bits = {0L, -1L, Long.MAX_VALUE, Long.MIN_VALUE, 5L, 5L, 4L, 1L << 40, -(1L << 40), 7L};
+
+        assertRoundTrip(new SampleBlock(ValueType.Int64, bits.length, irregularTimes(bits.length), bits,
+                statuses(bits.length)));
+    }
+
+    @Test
+    public void testSingleSampleRoundTrip() throws Exception {
+        assertRoundTrip(new SampleBlock(ValueType.Boolean, 1, new long[]{T0}, new long[]{1L},
+                new long[]{StatusCodes.Good}));
+    }
+
+    @Test
+    public void testFullBlockRoundTrip() throws Exception {
+        int count = 256;
+        long[] times = new long[count];
+        long[] bits = new long[count];
+        long[] statuses = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            times[i] = T0 + i * 1_000_000L;
+            bits[i] = ValueType.Float.toBits((float) Math.sin(i / 10.0));
+            statuses[i] = StatusCodes.Good;
+        }
+
+        assertRoundTrip(new SampleBlock(ValueType.Float, count, times, bits, statuses));
+    }
+
+    @Test
+    public void testFirstIndexAtOrAfter() {
+        long[] times = {10L, 20L, 20L, 20L, 30L};
+        SampleBlock block = new SampleBlock(ValueType.Int32, times.length, times, new long[5], statuses(5));
+
+        assertEquals(block.firstIndexAtOrAfter(0L), 0);
+        assertEquals(block.firstIndexAtOrAfter(10L), 0);
+        assertEquals(block.firstIndexAtOrAfter(15L), 1);
+        assertEquals(block.firstIndexAtOrAfter(20L), 1);
+        assertEquals(block.firstIndexAtOrAfter(30L), 4);
+        assertEquals(block.firstIndexAtOrAfter(31L), 5);
+    }
+
+    /**
+     * Encode {@code block}, decode it from the middle of a larger buffer, and check every column survived.
+     */
+    private static void assertRoundTrip(SampleBlock block) throws Exception {
+        byte[] encoded = block.encode();
+
+        ByteBuffer buffer = ByteBuffer.allocate(encoded.length + 16);
+        buffer.position(7);
+        buffer.put(encoded);
+
+        SampleBlock decoded = SampleBlock.decode(buffer, 7);
+
+        assertEquals(decoded.type, block.type);
+        assertEquals(decoded.count, block.count);
+
+        for (int i = 0; i < block.count; i++) {
+            assertEquals(decoded.times[i], block.times[i], "time " + i);
+            assertEquals(decoded.bits[i], block.bits[i], "value " + i);
+            assertEquals(decoded.statuses[i], block.statuses[i], "status " + i);
+        }
+    }
+
+    /**
+     * Mostly regular, with jitter, a repeated timestamp and a gap, so every delta-of-delta case is encoded.
+     */
+    private static long[] irregularTimes(int count) {
+        long[] times = new long[count];
+        long time = T0;
+
+        for (int i = 0; i < count; i++) {
+            times[i] = time;
+
+            if (i == 3) continue;
+
+            time += i == 6 ? 3_600_000_000L : 1_000_000L + (i % 3) * 17L;
+        }
+
+        return times;
+    }
+
+    /**
+     * Runs of Good and Bad, so the status column holds more than one run.
+     */
+    private static long[] statuses(int count) {
+        long[] statuses = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            statuses[i] = i % 4 == 3 ? StatusCodes.Bad_NoCommunication : StatusCodes.Good;
+        }
+
+        return statuses;
+    }
+
+}
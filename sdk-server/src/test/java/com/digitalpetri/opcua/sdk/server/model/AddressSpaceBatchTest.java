@@ -0,0 +1,232 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.model;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.util.TestNamespace;
+import com.digitalpetri.opcua.sdk.server.util.TestServerConfig;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.LocalizedText;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class AddressSpaceBatchTest {
+
+    private static final int PORT = Integer.getInteger("test.batch-port", 12698);
+
+    private final AtomicInteger namespaceCount = new AtomicInteger(0);
+
+    private OpcUaServer server;
+    private TestNamespace namespace;
+
+    @BeforeClass
+    public void createServer() throws Exception {
+        server = new OpcUaServer(new TestServerConfig(PORT));
+    }
+
+    @AfterClass
+    public void shutdownServer() {
+        server.shutdown();
+    }
+
+    @BeforeMethod
+    public void addNamespace() {
+        String namespaceUri = "urn:test:batch:" + namespaceCount.incrementAndGet();
+
+        namespace = server.getNamespaceManager().registerAndAdd(
+                namespaceUri,
+                namespaceIndex -> new TestNamespace(namespaceIndex, namespaceUri));
+    }
+
+    @Test
+    public void testAddNodeLinksParentAndChild() throws Exception {
+        UaObjectNode folder = object("Folder");
+        UaObjectNode child = object("Child");
+
+        new AddressSpaceBatch(server)
+                .addNode(folder)
+                .addNode(child, folder.getNodeId(), Identifiers.Organizes)
+                .apply();
+
+        assertTrue(namespace.containsNodeId(folder.getNodeId()));
+        assertTrue(namespace.containsNodeId(child.getNodeId()));
+
+        assertTrue(hasReference(folder, Identifiers.Organizes, child.getNodeId(), true));
+        assertTrue(hasReference(child, Identifiers.Organizes, folder.getNodeId(), false));
+    }
+
+    @Test
+    public void testApplyAppliesNothingIfAnOperationIsInvalid() {
+        UaObjectNode folder = object("Folder");
+        UaObjectNode orphan = object("Orphan");
+
+        AddressSpaceBatch batch = new AddressSpaceBatch(server)
+                .addNode(folder)
+                .addNode(orphan, nodeId("Missing"), Identifiers.Organizes);
+
+        try {
+            batch.apply();
+            fail("apply() should have failed");
+        } catch (UaException e) {
+            assertEquals(e.getStatusCode(), new StatusCode(StatusCodes.Bad_ParentNodeIdInvalid));
+        }
+
+        assertFalse(namespace.containsNodeId(folder.getNodeId()));
+        assertFalse(namespace.containsNodeId(orphan.getNodeId()));
+    }
+
+    @Test
+    public void testApplyEachFailsOperationsThatDependOnAnInvalidOne() {
+        UaObjectNode folder = object("Folder");
+        UaObjectNode orphan = object("Orphan");
+        UaObjectNode child = object("Child");
+
+        List<StatusCode> results = new AddressSpaceBatch(server)
+                .addNode(folder)
+                .addNode(orphan, nodeId("Missing"), Identifiers.Organizes)
+                .addNode(child, orphan.getNodeId(), Identifiers.Organizes)
+                .addReference(new Reference(
+                        folder.getNodeId(),
+                        Identifiers.Organizes,
+                        orphan.getNodeId().expanded(),
+                        NodeClass.Object,
+                        true), true)
+                .applyEach();
+
+        assertEquals(results.get(0), StatusCode.GOOD);
+        assertEquals(results.get(1), new StatusCode(StatusCodes.Bad_ParentNodeIdInvalid));
+        assertEquals(results.get(2), new StatusCode(StatusCodes.Bad_ParentNodeIdInvalid));
+        assertEquals(results.get(3), new StatusCode(StatusCodes.Bad_TargetNodeIdInvalid));
+
+        assertTrue(namespace.containsNodeId(folder.getNodeId()));
+        assertFalse(namespace.containsNodeId(orphan.getNodeId()));
+        assertFalse(namespace.containsNodeId(child.getNodeId()));
+        assertTrue(folder.getReferences().isEmpty());
+    }
+
+    @Test
+    public void testAddNodeRejectsExistingAndForeignNodeIds() throws Exception {
+        UaObjectNode folder = object("Folder");
+
+        new AddressSpaceBatch(server).addNode(folder).apply();
+
+        UaObjectNode duplicate = object("Folder");
+
+        UaObjectNode foreign = new UaObjectNode(
+                namespace,
+                new NodeId(ushort(0), "Foreign"),
+                new QualifiedName(namespace.getNamespaceIndex(), "Foreign"),
+                LocalizedText.english("Foreign"));
+
+        List<StatusCode> results = new AddressSpaceBatch(server)
+                .addNode(duplicate)
+                .addNode(foreign)
+                .applyEach();
+
+        assertEquals(results.get(0), new StatusCode(StatusCodes.Bad_NodeIdExists));
+        assertEquals(results.get(1), new StatusCode(StatusCodes.Bad_NodeIdRejected));
+    }
+
+    @Test
+    public void testDeleteNodeRemovesTheReferencesOfOtherNodesToIt() throws Exception {
+        UaObjectNode folder = object("Folder");
+        UaObjectNode child = object("Child");
+
+        new AddressSpaceBatch(server)
+                .addNode(folder)
+                .addNode(child, folder.getNodeId(), Identifiers.Organizes)
+                .apply();
+
+        new AddressSpaceBatch(server)
+                .deleteNode(child.getNodeId(), true)
+                .apply();
+
+        assertFalse(namespace.containsNodeId(child.getNodeId()));
+        assertTrue(folder.getReferences().isEmpty());
+    }
+
+    @Test
+    public void testDeleteReferenceRemovesBothDirections() throws Exception {
+        UaObjectNode folder = object("Folder");
+        UaObjectNode child = object("Child");
+
+        new AddressSpaceBatch(server)
+                .addNode(folder)
+                .addNode(child, folder.getNodeId(), Identifiers.Organizes)
+                .apply();
+
+        List<StatusCode> results = new AddressSpaceBatch(server)
+                .deleteReference(new Reference(
+                        folder.getNodeId(),
+                        Identifiers.Organizes,
+                        child.getNodeId().expanded(),
+                        NodeClass.Object,
+                        true), true)
+                .deleteReference(new Reference(
+                        folder.getNodeId(),
+                        Identifiers.Organizes,
+                        child.getNodeId().expanded(),
+                        NodeClass.Object,
+                        true), true)
+                .applyEach();
+
+        assertEquals(results.get(0), StatusCode.GOOD);
+        assertEquals(results.get(1), new StatusCode(StatusCodes.Bad_NotFound));
+
+        assertTrue(folder.getReferences().isEmpty());
+        assertTrue(child.getReferences().isEmpty());
+    }
+
+    private UaObjectNode object(String name) {
+        return new UaObjectNode(
+                namespace,
+                nodeId(name),
+                new QualifiedName(namespace.getNamespaceIndex(), name),
+                LocalizedText.english(name));
+    }
+
+    private NodeId nodeId(String name) {
+        return new NodeId(namespace.getNamespaceIndex(), name);
+    }
+
+    private static boolean hasReference(UaNode node, NodeId referenceTypeId, NodeId targetNodeId, boolean forward) {
+        return node.getReferences().stream().anyMatch(r ->
+                r.getReferenceTypeId().equals(referenceTypeId) &&
+                        r.getTargetNodeId().equals(targetNodeId.expanded()) &&
+                        r.isForward() == forward);
+    }
+
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.namespaces;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.server.NamespaceManager;
+import com.digitalpetri.opcua.sdk.server.api.OperationContext;
+import com.digitalpetri.opcua.sdk.server.util.NoOpNamespace;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExpandedNodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.enumerated.NodeClass;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.AddNodesItem;
+import com.digitalpetri.opcua.stack.core.types.structured.AddNodesResult;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.google.common.collect.Lists;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class PartitionedNamespaceTest {
+
+    private static final UShort NAMESPACE_INDEX = ushort(2);
+
+    private RecordingNamespace fallback;
+    private RecordingNamespace plc1;
+    private RecordingNamespace plc2;
+
+    private PartitionedNamespace partitioned;
+
+    @BeforeMethod
+    public void setUp() {
+        fallback = new RecordingNamespace("fallback");
+        plc1 = new RecordingNamespace("plc1");
+        plc2 = new RecordingNamespace("plc2");
+
+        partitioned = new PartitionedNamespace(NAMESPACE_INDEX, "urn:test", fallback);
+        partitioned.addPartition("plc1/", plc1);
+        partitioned.addPartition("plc2/", plc2);
+    }
+
+    @Test
+    public void testGetPartition() {
+        assertSame(partitioned.getPartition(nodeId("plc1/Tag")), plc1);
+        assertSame(partitioned.getPartition(nodeId("plc2/Tag")), plc2);
+        assertSame(partitioned.getPartition(nodeId("drive1/Speed")), fallback);
+        assertSame(partitioned.getPartition(new NodeId(NAMESPACE_INDEX.intValue(), 42)), fallback);
+        assertSame(partitioned.getPartition(null), fallback);
+    }
+
+    @Test
+    public void testReadGathersResultsInRequestOrder() throws Exception {
+        List<ReadValueId> ids = readValueIds("plc2/A", "plc1/B", "drive1/C", "plc2/D", "plc1/E");
+
+        List<DataValue> values = read(ids);
+
+        assertEquals(identifiers(values), Arrays.asList(
+                "plc2:plc2/A", "plc1:plc1/B", "fallback:drive1/C", "plc2:plc2/D", "plc1:plc1/E"));
+
+        assertEquals(plc1.batchIdentifiers(), Arrays.asList(Arrays.asList("plc1/B", "plc1/E")));
+        assertEquals(plc2.batchIdentifiers(), Arrays.asList(Arrays.asList("plc2/A", "plc2/D")));
+        assertEquals(fallback.batchIdentifiers(), Arrays.asList(Arrays.asList("drive1/C")));
+    }
+
+    @Test
+    public void testReadWithinOnePartitionIsHandedOverAsIs() throws Exception {
+        List<ReadValueId> ids = readValueIds("plc1/A", "plc1/B");
+
+        read(ids);
+
+        assertEquals(plc1.batches.size(), 1);
+        assertSame(plc1.batches.get(0), ids);
+        assertTrue(plc2.batches.isEmpty());
+        assertTrue(fallback.batches.isEmpty());
+    }
+
+    @Test
+    public void testReadCompletesWhenTheLastPartitionDoes() throws Exception {
+        CompletableFuture<Void> gate = new CompletableFuture<>();
+        plc1.gate = gate;
+
+        CompletableFuture<List<DataValue>> future = new CompletableFuture<>();
+        partitioned.read(readValueIds("plc1/A", "plc2/B"), 0.0, TimestampsToReturn.Both, future);
+
+        assertTrue(!future.isDone());
+
+        gate.complete(null);
+
+        assertEquals(identifiers(future.get()), Arrays.asList("plc1:plc1/A", "plc2:plc2/B"));
+    }
+
+    @Test(expectedExceptions = ExecutionException.class)
+    public void testReadFailsIfAPartitionFails() throws Exception {
+        CompletableFuture<Void> gate = new CompletableFuture<>();
+        gate.completeExceptionally(new RuntimeException("partition failed"));
+        plc2.gate = gate;
+
+        read(readValueIds("plc1/A", "plc2/B"));
+    }
+
+    @Test
+    public void testSetFallbackKeepsPartitions() {
+        RecordingNamespace replacement = new RecordingNamespace("replacement");
+
+        partitioned.setFallback(replacement);
+
+        assertSame(partitioned.getFallback(), replacement);
+        assertSame(partitioned.getPartition(nodeId("drive1/Speed")), replacement);
+        assertSame(partitioned.getPartition(nodeId("plc1/Tag")), plc1);
+        assertEquals(partitioned.getPartitions(), Arrays.asList(plc1, plc2));
+    }
+
+    @Test
+    public void testAddingANamespaceToAPartitionedIndexInstallsItAsFallback() {
+        NamespaceManager namespaceManager = new NamespaceManager();
+        UShort index = namespaceManager.registerUri("urn:test");
+
+        namespaceManager.addPartition(index, "plc1/", plc1);
+
+        RecordingNamespace namespace = new RecordingNamespace("namespace", index);
+        namespaceManager.addNamespace(namespace);
+
+        PartitionedNamespace current = (PartitionedNamespace) namespaceManager.getNamespace(index);
+
+        assertSame(current.getFallback(), namespace);
+        assertSame(namespaceManager.getNamespace(new NodeId(index.intValue(), "plc1/Tag")), plc1);
+        assertSame(namespaceManager.getNamespace(new NodeId(index.intValue(), "other")), namespace);
+    }
+
+    @Test
+    public void testAddNodesWithoutANodeIdGetOneUnderTheParentsPartition() throws Exception {
+        List<AddNodesResult> results = addNodes(
+                addNodesItem("plc1/Folder", null),
+                addNodesItem("drive1/Folder", null),
+                addNodesItem("plc2/Folder", "plc2/Requested"));
+
+        assertEquals(plc1.added.size(), 1);
+        assertEquals(plc2.added.size(), 1);
+        assertEquals(fallback.added.size(), 1);
+
+        NodeId plc1NodeId = results.get(0).getAddedNodeId();
+        assertTrue(((String) plc1NodeId.getIdentifier()).startsWith("plc1/"));
+        assertSame(partitioned.getPartition(plc1NodeId), plc1);
+
+        assertEquals(fallback.added.get(0).getRequestedNewNodeId(), ExpandedNodeId.NULL_VALUE);
+        assertEquals(results.get(2).getAddedNodeId(), nodeId("plc2/Requested"));
+    }
+
+    @Test
+    public void testAddNodesRejectsANodeWhoseNewNodeIdAlwaysFallsUnderAnotherPartition() throws Exception {
+        for (char c : "0123456789abcdef".toCharArray()) {
+            partitioned.addPartition("plc1/" + c, new RecordingNamespace("plc1/" + c));
+        }
+
+        List<AddNodesResult> results = addNodes(
+                addNodesItem("plc1/Folder", null),
+                addNodesItem("plc2/Folder", null));
+
+        assertEquals(results.get(0).getStatusCode(), new StatusCode(StatusCodes.Bad_NodeIdRejected));
+        assertEquals(results.get(0).getAddedNodeId(), NodeId.NULL_VALUE);
+        assertTrue(plc1.added.isEmpty());
+
+        assertNotEquals(results.get(1).getAddedNodeId(), NodeId.NULL_VALUE);
+        assertEquals(plc2.added.size(), 1);
+    }
+
+    private List<DataValue> read(List<ReadValueId> ids) throws Exception {
+        CompletableFuture<List<DataValue>> future = new CompletableFuture<>();
+
+        partitioned.read(ids, 0.0, TimestampsToReturn.Both, future);
+
+        return future.get();
+    }
+
+    private List<AddNodesResult> addNodes(AddNodesItem... items) throws Exception {
+        CompletableFuture<List<AddNodesResult>> future = new CompletableFuture<>();
+
+        partitioned.addNodes(null, Arrays.asList(items), future);
+
+        return future.get();
+    }
+
+    private static AddNodesItem addNodesItem(String parent, String requested) {
+        return new AddNodesItem(
+                nodeId(parent).expanded(),
+                Identifiers.Organizes,
+                requested != null ? nodeId(requested).expanded() : ExpandedNodeId.NULL_VALUE,
+                new QualifiedName(NAMESPACE_INDEX, "Node"),
+                NodeClass.Object,
+                null,
+                Identifiers.FolderType.expanded());
+    }
+
+    private static NodeId nodeId(String identifier) {
+        return new NodeId(NAMESPACE_INDEX.intValue(), identifier);
+    }
+
+    private static List<ReadValueId> readValueIds(String... identifiers) {
+        return Arrays.stream(identifiers)
+                .map(id -> new ReadValueId(nodeId(id), uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE))
+                .collect(Collectors.toList());
+    }
+
+    private static List<Object> identifiers(List<DataValue> values) {
+        return values.stream().map(v -> v.getValue().getValue()).collect(Collectors.toList());
+    }
+
+    /**
+     * Answers each read with "name:identifier" once {@code gate} completes, and records the batches it was given.
+     * Adding a node succeeds with its requested NodeId.
+     */
+    private static class RecordingNamespace extends NoOpNamespace {
+
+        private final List<List<ReadValueId>> batches = Lists.newArrayList();
+        private final List<AddNodesItem> added = Lists.newArrayList();
+
+        private volatile CompletableFuture<Void> gate = CompletableFuture.completedFuture(null);
+
+        private final String name;
+        private final UShort namespaceIndex;
+
+        RecordingNamespace(String name) {
+            this(name, NAMESPACE_INDEX);
+        }
+
+        RecordingNamespace(String name, UShort namespaceIndex) {
+            this.name = name;
+            this.namespaceIndex = namespaceIndex;
+        }
+
+        @Override
+        public UShort getNamespaceIndex() {
+            return namespaceIndex;
+        }
+
+        List<List<Object>> batchIdentifiers() {
+            return batches.stream()
+                    .map(batch -> batch.stream()
+                            .map(id -> id.getNodeId().getIdentifier())
+                            .collect(Collectors.toList()))
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public void read(List<ReadValueId> readValueIds,
+                         Double maxAge,
+                         TimestampsToReturn timestamps,
+                         CompletableFuture<List<DataValue>> future) {
+
+            batches.add(readValueIds);
+
+            List<DataValue> values = readValueIds.stream()
+                    .map(id -> new DataValue(new Variant(name + ":" + id.getNodeId().getIdentifier())))
+                    .collect(Collectors.toList());
+
+            gate.whenComplete((v, ex) -> {
+                if (ex != null) future.completeExceptionally(ex);
+                else future.complete(values);
+            });
+        }
+
+        @Override
+        public void addNodes(OperationContext context,
+                             List<AddNodesItem> nodesToAdd,
+                             CompletableFuture<List<AddNodesResult>> future) {
+
+            added.addAll(nodesToAdd);
+
+            future.complete(nodesToAdd.stream()
+                    .map(item -> new AddNodesResult(
+                            StatusCode.GOOD,
+                            item.getRequestedNewNodeId().local().orElse(NodeId.NULL_VALUE)))
+                    .collect(Collectors.toList()));
+        }
+
+    }
+
+}
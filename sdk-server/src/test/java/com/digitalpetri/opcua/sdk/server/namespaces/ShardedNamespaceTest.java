@@ -0,0 +1,378 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.namespaces;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.digitalpetri.opcua.sdk.core.AccessLevel;
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.model.UaFolderNode;
+import com.digitalpetri.opcua.sdk.server.model.UaVariableNode;
+import com.digitalpetri.opcua.sdk.server.model.UaVariableNode.UaVariableNodeBuilder;
+import com.digitalpetri.opcua.sdk.server.util.TestServerConfig;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.LocalizedText;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.WriteValue;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ShardedNamespaceTest {
+
+    private static final int PORT = Integer.getInteger("test.sharded-port", 12699);
+
+    private static final int SHARD_COUNT = 4;
+    private static final int VARIABLE_COUNT = 64;
+
+    private final AtomicInteger namespaceCount = new AtomicInteger(0);
+
+    private OpcUaServer server;
+    private TestShardedNamespace namespace;
+
+    @BeforeClass
+    public void createServer() throws Exception {
+        server = new OpcUaServer(new TestServerConfig(PORT));
+    }
+
+    @AfterClass
+    public void shutdownServer() {
+        server.shutdown();
+    }
+
+    @AfterMethod
+    public void shutdownNamespace() {
+        if (namespace != null) namespace.shutdown();
+    }
+
+    @Test
+    public void testVariablesAreSpreadOverShards() {
+        namespace = namespace(SHARD_COUNT, ShardedNamespace.DEFAULT_MAX_QUEUE_DEPTH);
+
+        assertEquals(namespace.getShardCount(), SHARD_COUNT);
+        assertEquals(executors(namespace.variables).size(), SHARD_COUNT);
+    }
+
+    @Test
+    public void testReadGathersResultsInOrder() throws Exception {
+        namespace = namespace(SHARD_COUNT, ShardedNamespace.DEFAULT_MAX_QUEUE_DEPTH);
+
+        List<ReadValueId> readValueIds = Lists.newArrayList();
+        for (NodeId nodeId : namespace.variables) {
+            readValueIds.add(readValueId(nodeId));
+        }
+        readValueIds.add(VARIABLE_COUNT / 2, readValueId(namespace.nodeId("Missing")));
+
+        List<DataValue> values = read(readValueIds);
+
+        assertEquals(values.size(), VARIABLE_COUNT + 1);
+
+        for (int i = 0, variable = 0; i < values.size(); i++) {
+            if (i == VARIABLE_COUNT / 2) {
+                assertEquals(values.get(i).getStatusCode().getValue(), StatusCodes.Bad_NodeIdUnknown);
+            } else {
+                assertEquals(values.get(i).getValue().getValue(), variable++);
+            }
+        }
+    }
+
+    @Test
+    public void testWriteGathersResultsInOrder() throws Exception {
+        namespace = namespace(SHARD_COUNT, ShardedNamespace.DEFAULT_MAX_QUEUE_DEPTH);
+
+        List<WriteValue> writeValues = Lists.newArrayList();
+        for (int i = 0; i < VARIABLE_COUNT; i++) {
+            writeValues.add(writeValue(namespace.variables.get(i), -i));
+        }
+        writeValues.add(writeValue(namespace.nodeId("Missing"), 0));
+
+        CompletableFuture<List<StatusCode>> future = new CompletableFuture<>();
+        namespace.write(writeValues, future);
+        List<StatusCode> results = future.get(5, TimeUnit.SECONDS);
+
+        for (int i = 0; i < VARIABLE_COUNT; i++) {
+            assertEquals(results.get(i), StatusCode.GOOD);
+        }
+        assertEquals(results.get(VARIABLE_COUNT).getValue(), StatusCodes.Bad_NodeIdUnknown);
+
+        List<ReadValueId> readValueIds = Lists.newArrayList();
+        for (NodeId nodeId : namespace.variables) {
+            readValueIds.add(readValueId(nodeId));
+        }
+
+        List<DataValue> values = read(readValueIds);
+        for (int i = 0; i < VARIABLE_COUNT; i++) {
+            assertEquals(values.get(i).getValue().getValue(), -i);
+        }
+    }
+
+    @Test
+    public void testEmptyReadCompletesImmediately() throws Exception {
+        namespace = namespace(SHARD_COUNT, ShardedNamespace.DEFAULT_MAX_QUEUE_DEPTH);
+
+        assertTrue(read(Lists.newArrayList()).isEmpty());
+    }
+
+    @Test
+    public void testFullShardQueueRejectsItsShare() throws Exception {
+        namespace = namespace(1, 1);
+
+        Executor executor = namespace.getExecutor(namespace.variables.get(0));
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // One operation running and one waiting fill the shard.
+        executor.execute(() -> {
+            blocked.countDown();
+            awaitUninterruptibly(release);
+        });
+        blocked.await(5, TimeUnit.SECONDS);
+        executor.execute(() -> {});
+
+        try {
+            CompletableFuture<List<DataValue>> future = new CompletableFuture<>();
+            namespace.read(Lists.newArrayList(readValueId(namespace.variables.get(0))), 0d, TimestampsToReturn.Neither,
+                    future);
+
+            assertTrue(future.isDone());
+            assertEquals(future.get().get(0).getStatusCode().getValue(), StatusCodes.Bad_ResourceUnavailable);
+
+            StatusCode[] results = namespace.updateValues(
+                    new NodeId[]{namespace.variables.get(0)},
+                    new DataValue[]{new DataValue(new Variant(42))});
+
+            assertEquals(results[0].getValue(), StatusCodes.Bad_ResourceUnavailable);
+        } finally {
+            release.countDown();
+        }
+
+        awaitShards();
+
+        List<DataValue> values = read(Lists.newArrayList(readValueId(namespace.variables.get(0))));
+        assertEquals(values.get(0).getValue().getValue(), 0);
+    }
+
+    @Test
+    public void testReadsFailAfterShutdown() throws Exception {
+        namespace = namespace(SHARD_COUNT, ShardedNamespace.DEFAULT_MAX_QUEUE_DEPTH);
+        namespace.shutdown();
+
+        List<ReadValueId> readValueIds = Lists.newArrayList();
+        for (NodeId nodeId : namespace.variables) {
+            readValueIds.add(readValueId(nodeId));
+        }
+
+        for (DataValue value : read(readValueIds)) {
+            assertEquals(value.getStatusCode().getValue(), StatusCodes.Bad_ResourceUnavailable);
+        }
+    }
+
+    @Test
+    public void testUpdatesAreAppliedInOrderPerShard() throws Exception {
+        namespace = namespace(SHARD_COUNT, ShardedNamespace.DEFAULT_MAX_QUEUE_DEPTH);
+
+        Map<NodeId, List<Object>> applied = Maps.newConcurrentMap();
+
+        for (NodeId nodeId : namespace.variables) {
+            List<Object> values = Lists.newArrayList();
+            applied.put(nodeId, values);
+
+            namespace.getNode(nodeId).get().addAttributeObserver((node, attributeId, value) -> {
+                if (attributeId == AttributeIds.Value) {
+                    values.add(((DataValue) value).getValue().getValue());
+                }
+            });
+        }
+
+        NodeId[] nodeIds = namespace.variables.toArray(new NodeId[VARIABLE_COUNT]);
+        DataValue[] values = new DataValue[VARIABLE_COUNT];
+
+        for (int cycle = 1; cycle <= 100; cycle++) {
+            for (int i = 0; i < VARIABLE_COUNT; i++) {
+                values[i] = new DataValue(new Variant(cycle));
+            }
+
+            for (StatusCode result : namespace.updateValues(nodeIds, values)) {
+                assertEquals(result, StatusCode.GOOD);
+            }
+        }
+
+        awaitShards();
+
+        List<Object> expected = Lists.newArrayList();
+        for (int cycle = 1; cycle <= 100; cycle++) {
+            expected.add(cycle);
+        }
+
+        for (NodeId nodeId : namespace.variables) {
+            assertEquals(applied.get(nodeId), expected, nodeId.toString());
+        }
+    }
+
+    @Test
+    public void testUpdatesOfNodesThatAreNotVariablesFail() {
+        namespace = namespace(SHARD_COUNT, ShardedNamespace.DEFAULT_MAX_QUEUE_DEPTH);
+
+        StatusCode[] results = namespace.updateValues(
+                new NodeId[]{namespace.nodeId("Missing"), namespace.folder},
+                new DataValue[]{new DataValue(new Variant(1)), new DataValue(new Variant(2))});
+
+        assertEquals(results[0].getValue(), StatusCodes.Bad_NodeIdUnknown);
+        assertEquals(results[1].getValue(), StatusCodes.Bad_NodeClassInvalid);
+    }
+
+    private TestShardedNamespace namespace(int shardCount, int maxQueueDepth) {
+        String namespaceUri = "urn:test:sharded:" + namespaceCount.incrementAndGet();
+
+        return server.getNamespaceManager().registerAndAdd(
+                namespaceUri,
+                namespaceIndex -> new TestShardedNamespace(server, namespaceIndex, namespaceUri, shardCount,
+                        maxQueueDepth));
+    }
+
+    private List<DataValue> read(List<ReadValueId> readValueIds) throws Exception {
+        CompletableFuture<List<DataValue>> future = new CompletableFuture<>();
+        namespace.read(readValueIds, 0d, TimestampsToReturn.Neither, future);
+
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Wait until every operation already queued on the shards has run.
+     */
+    private void awaitShards() throws InterruptedException {
+        Map<Executor, NodeId> executors = executors(namespace.variables);
+        CountDownLatch latch = new CountDownLatch(executors.size());
+
+        for (Executor executor : executors.keySet()) {
+            executor.execute(latch::countDown);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private Map<Executor, NodeId> executors(List<NodeId> nodeIds) {
+        Map<Executor, NodeId> executors = Maps.newIdentityHashMap();
+
+        for (NodeId nodeId : nodeIds) {
+            executors.putIfAbsent(namespace.getExecutor(nodeId), nodeId);
+        }
+
+        return executors;
+    }
+
+    private static ReadValueId readValueId(NodeId nodeId) {
+        return new ReadValueId(nodeId, uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE);
+    }
+
+    private static WriteValue writeValue(NodeId nodeId, int value) {
+        DataValue dataValue = new DataValue(new Variant(value), StatusCode.GOOD, null, null);
+
+        return new WriteValue(nodeId, uint(AttributeIds.Value), null, dataValue);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class TestShardedNamespace extends ShardedNamespace {
+
+        private final List<NodeId> variables = Lists.newArrayList();
+        private final NodeId folder;
+
+        private final String namespaceUri;
+
+        TestShardedNamespace(OpcUaServer server,
+                             UShort namespaceIndex,
+                             String namespaceUri,
+                             int shardCount,
+                             int maxQueueDepth) {
+
+            super(server, namespaceIndex, shardCount, maxQueueDepth);
+
+            this.namespaceUri = namespaceUri;
+
+            folder = nodeId("Folder");
+
+            UaFolderNode folderNode = new UaFolderNode(
+                    this, folder, new QualifiedName(namespaceIndex, "Folder"), LocalizedText.english("Folder"));
+
+            addNode(folderNode);
+
+            for (int i = 0; i < VARIABLE_COUNT; i++) {
+                String name = "Variable" + i;
+
+                UaVariableNode node = new UaVariableNodeBuilder(this)
+                        .setNodeId(nodeId(name))
+                        .setAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.READ_WRITE)))
+                        .setUserAccessLevel(ubyte(AccessLevel.getMask(AccessLevel.READ_WRITE)))
+                        .setBrowseName(new QualifiedName(namespaceIndex, name))
+                        .setDisplayName(LocalizedText.english(name))
+                        .setDataType(Identifiers.Int32)
+                        .setTypeDefinition(Identifiers.BaseDataVariableType)
+                        .build();
+
+                node.setValue(new DataValue(new Variant(i)));
+
+                folderNode.addOrganizes(node);
+                addNode(node);
+
+                variables.add(node.getNodeId());
+            }
+        }
+
+        @Override
+        public String getNamespaceUri() {
+            return namespaceUri;
+        }
+
+        private NodeId nodeId(String name) {
+            return new NodeId(getNamespaceIndex(), "/" + name);
+        }
+
+    }
+
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.namespaces.proxy;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.digitalpetri.opcua.sdk.client.OpcUaClient;
+import com.digitalpetri.opcua.sdk.client.OpcUaClientConfig;
+import com.digitalpetri.opcua.sdk.client.subscriptions.OpcUaMonitoredItem;
+import com.digitalpetri.opcua.sdk.client.subscriptions.OpcUaSubscription;
+import com.digitalpetri.opcua.sdk.client.subscriptions.OpcUaSubscriptionManager;
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.model.UaVariableNode;
+import com.digitalpetri.opcua.sdk.server.model.UaVariableNode.UaVariableNodeBuilder;
+import com.digitalpetri.opcua.sdk.server.namespaces.ShardedNamespace;
+import com.digitalpetri.opcua.sdk.server.util.TestServerConfig;
+import com.digitalpetri.opcua.stack.client.UaTcpStackClient;
+import com.digitalpetri.opcua.stack.client.UaTcpStackClientConfig;
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.security.SecurityPolicy;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.LocalizedText;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.EndpointDescription;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoringParameters;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.google.common.collect.Lists;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+public class ProxyNamespaceTest {
+
+    private static final int UPSTREAM_PORT = Integer.getInteger("test.upstream-port", 12696);
+    private static final int PROXY_PORT = Integer.getInteger("test.proxy-port", 12697);
+
+    private static final String UPSTREAM_NAMESPACE_URI = "urn:test:upstream";
+    private static final String PROXY_NAMESPACE_URI = "urn:test:proxy";
+
+    private static final int VARIABLES = 10;
+    private static final int CLIENTS = 3;
+    private static final double SAMPLING_INTERVAL = 50.0;
+
+    private final List<OpcUaClient> clients = Lists.newArrayList();
+
+    private OpcUaServer upstream;
+    private OpcUaServer proxy;
+    private OpcUaClient upstreamClient;
+
+    private UpstreamNamespace upstreamNamespace;
+    private ProxyNamespace proxyNamespace;
+
+    @BeforeClass
+    public void startServers() throws Exception {
+        upstream = new OpcUaServer(new TestServerConfig(UPSTREAM_PORT));
+
+        upstreamNamespace = upstream.getNamespaceManager().registerAndAdd(
+                UPSTREAM_NAMESPACE_URI,
+                namespaceIndex -> new UpstreamNamespace(upstream, namespaceIndex));
+
+        upstream.startup();
+
+        proxy = new OpcUaServer(new TestServerConfig(PROXY_PORT));
+
+        upstreamClient = connect(UPSTREAM_PORT);
+
+        proxyNamespace = proxy.getNamespaceManager().registerAndAdd(
+                PROXY_NAMESPACE_URI,
+                namespaceIndex -> new ProxyNamespace(proxy, namespaceIndex, PROXY_NAMESPACE_URI, "up", upstreamClient));
+
+        // The namespace reads the upstream NamespaceArray in the background; wait for it so NodeIds can be mapped.
+        proxyNamespace.refreshUpstreamNamespaces().get(10, TimeUnit.SECONDS);
+
+        proxy.startup();
+    }
+
+    @AfterClass
+    public void stopServers() throws Exception {
+        for (OpcUaClient client : clients) {
+            client.disconnect().get();
+        }
+
+        proxy.shutdown();
+        upstreamClient.disconnect().get();
+        upstream.shutdown();
+    }
+
+    @Test
+    public void testSynchronousLookups() {
+        NodeId downstreamId = proxyNamespace.getNodeIds().toDownstream(upstreamNamespace.variableIds[0]);
+        NodeId missingId = new NodeId(downstreamId.getNamespaceIndex(), "up/nsu=urn:test:upstream;s=/Test/Missing");
+
+        assertTrue(proxyNamespace.containsNodeId(downstreamId));
+        assertFalse(proxyNamespace.containsNodeId(missingId));
+
+        assertTrue(proxyNamespace.attributeExists(downstreamId, AttributeIds.Value));
+        assertFalse(proxyNamespace.attributeExists(downstreamId, AttributeIds.EventNotifier));
+
+        QualifiedName browseName = proxyNamespace.getAttribute(downstreamId, AttributeIds.BrowseName);
+        assertEquals(browseName.getName(), "Variable0");
+
+        assertTrue(proxyNamespace.getReferences(downstreamId).isPresent());
+    }
+
+    @Test
+    public void testNodeIdsEncodeUpstreamNamespaceUri() {
+        NodeId upstreamId = upstreamNamespace.variableIds[0];
+        NodeId downstreamId = proxyNamespace.getNodeIds().toDownstream(upstreamId);
+
+        assertNotNull(downstreamId);
+        assertEquals(downstreamId.getIdentifier(), "up/nsu=urn:test:upstream;s=/Test/Variable0");
+        assertEquals(proxyNamespace.getNodeIds().toUpstream(downstreamId), upstreamId);
+
+        QualifiedName browseName = proxyNamespace.getNodeIds().toDownstream(
+                new QualifiedName(upstreamId.getNamespaceIndex(), "Variable0"));
+
+        assertEquals(proxy.getNamespaceManager().getNamespaceTable().getUri(browseName.getNamespaceIndex()),
+                UPSTREAM_NAMESPACE_URI);
+    }
+
+    @Test
+    public void testReadThroughProxy() throws Exception {
+        OpcUaClient client = connect(PROXY_PORT);
+        clients.add(client);
+
+        List<ReadValueId> readValueIds = Lists.newArrayList();
+
+        for (NodeId upstreamId : upstreamNamespace.variableIds) {
+            readValueIds.add(new ReadValueId(
+                    proxyNamespace.getNodeIds().toDownstream(upstreamId),
+                    uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE));
+        }
+
+        DataValue[] values = client.read(0.0, TimestampsToReturn.Both, readValueIds).get().getResults();
+
+        assertEquals(values.length, VARIABLES);
+
+        for (DataValue value : values) {
+            assertTrue(value.getStatusCode().isGood(), value.getStatusCode().toString());
+        }
+    }
+
+    @Test
+    public void testItemsShareUpstreamItemsAndReceiveEveryUpdate() throws Exception {
+        NodeId[] downstreamIds = Arrays.stream(upstreamNamespace.variableIds)
+                .map(id -> proxyNamespace.getNodeIds().toDownstream(id))
+                .toArray(NodeId[]::new);
+
+        int updatedValue = 1000;
+
+        CountDownLatch updated = new CountDownLatch(CLIENTS * VARIABLES);
+
+        for (int c = 0; c < CLIENTS; c++) {
+            OpcUaClient client = connect(PROXY_PORT);
+            clients.add(client);
+
+            OpcUaSubscription subscription = new OpcUaSubscriptionManager(client)
+                    .createSubscription(SAMPLING_INTERVAL).get();
+
+            List<MonitoredItemCreateRequest> requests = Lists.newArrayList();
+
+            for (int i = 0; i < VARIABLES; i++) {
+                ReadValueId readValueId = new ReadValueId(
+                        downstreamIds[i], uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE);
+
+                MonitoringParameters parameters = new MonitoringParameters(
+                        uint(i), SAMPLING_INTERVAL, null, uint(1), true);
+
+                requests.add(new MonitoredItemCreateRequest(readValueId, MonitoringMode.Reporting, parameters));
+            }
+
+            List<OpcUaMonitoredItem> items = subscription
+                    .createMonitoredItems(client, TimestampsToReturn.Both, requests).get();
+
+            for (int i = 0; i < items.size(); i++) {
+                OpcUaMonitoredItem item = items.get(i);
+                int expected = updatedValue + i;
+                AtomicBoolean seen = new AtomicBoolean(false);
+
+                assertTrue(item.getStatusCode().isGood(), item.getStatusCode().toString());
+
+                item.setValueConsumer(value -> {
+                    Object o = value.getValue() != null ? value.getValue().getValue() : null;
+
+                    if (Integer.valueOf(expected).equals(o) && seen.compareAndSet(false, true)) {
+                        updated.countDown();
+                    }
+                });
+            }
+        }
+
+        // Every client monitors the same values, so they share one upstream item each.
+        assertEquals(proxyNamespace.getSubscriptionModel().getUpstreamItemCount(), VARIABLES);
+
+        DataValue[] values = new DataValue[VARIABLES];
+
+        for (int i = 0; i < VARIABLES; i++) {
+            values[i] = new DataValue(new Variant(updatedValue + i));
+        }
+
+        upstreamNamespace.updateValues(upstreamNamespace.variableIds, values);
+
+        assertTrue(updated.await(10, TimeUnit.SECONDS),
+                updated.getCount() + " of " + CLIENTS * VARIABLES + " updates not delivered");
+    }
+
+    private static OpcUaClient connect(int port) throws Exception {
+        String endpointUrl = String.format("opc.tcp://localhost:%d/test-server", port);
+
+        EndpointDescription[] endpoints = UaTcpStackClient.getEndpoints(endpointUrl).get();
+
+        EndpointDescription endpoint = Arrays.stream(endpoints)
+                .filter(e -> e.getSecurityPolicyUri().equals(SecurityPolicy.None.getSecurityPolicyUri()))
+                .findFirst().orElseThrow(() -> new Exception("no desired endpoints returned"));
+
+        UaTcpStackClientConfig stackConfig = UaTcpStackClientConfig.builder()
+                .setApplicationName(LocalizedText.english("Proxy Test Client"))
+                .setApplicationUri("urn:digitalpetri:proxy-test-client")
+                .setEndpoint(endpoint)
+                .build();
+
+        OpcUaClientConfig config = OpcUaClientConfig.builder()
+                .setStackClient(new UaTcpStackClient(stackConfig))
+                .build();
+
+        OpcUaClient client = new OpcUaClient(config);
+
+        client.connect().get();
+
+        return client;
+    }
+
+    /**
+     * The upstream server's namespace: a few Int32 variables, /Test/Variable0 through /Test/VariableN.
+     */
+    private static class UpstreamNamespace extends ShardedNamespace {
+
+        private final NodeId[] variableIds = new NodeId[VARIABLES];
+
+        private UpstreamNamespace(OpcUaServer server, UShort namespaceIndex) {
+            super(server, namespaceIndex, 2);
+
+            for (int i = 0; i < VARIABLES; i++) {
+                String name = "Variable" + i;
+
+                UaVariableNode node = new UaVariableNodeBuilder(this)
+                        .setNodeId(new NodeId(namespaceIndex, "/Test/" + name))
+                        .setBrowseName(new QualifiedName(namespaceIndex, name))
+                        .setDisplayName(LocalizedText.english(name))
+                        .setDataType(Identifiers.Int32)
+                        .setTypeDefinition(Identifiers.BaseDataVariableType)
+                        .build();
+
+                node.setValue(new DataValue(new Variant(i)));
+
+                addNode(node);
+
+                variableIds[i] = node.getNodeId();
+            }
+        }
+
+        @Override
+        public String getNamespaceUri() {
+            return UPSTREAM_NAMESPACE_URI;
+        }
+
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.namespaces.tags;
+
+import com.digitalpetri.opcua.sdk.server.history.ValueType;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+public class TagStoreTest {
+
+    private static final int READ_WRITE = 0x03;
+
+    private TagStore store;
+
+    @BeforeMethod
+    public void setUp() {
+        store = new TagStore("Tags", 1024, 64 * 1024);
+    }
+
+    @Test
+    public void testTagsAreNumberedInOrderAndIndexedByPath() {
+        int speed = store.addTag("Tags/Line1/Drive1", "Speed", ValueType.Double, READ_WRITE);
+        int running = store.addTag("Tags/Line1/Drive1", "Running", ValueType.Boolean, 0x01);
+
+        assertEquals(speed, 0);
+        assertEquals(running, 1);
+        assertEquals(store.size(), 2);
+
+        assertEquals(store.indexOf("Tags/Line1/Drive1/Speed"), speed);
+        assertEquals(store.indexOf("Tags/Line1/Drive1/Running"), running);
+        assertEquals(store.indexOf("Tags/Line1/Drive1/Torque"), -1);
+        assertEquals(store.indexOf("Tags/Line1/Drive1"), -1);
+    }
+
+    @Test
+    public void testAttributeColumns() {
+        int tag = store.addTag("Tags/Line1", "Temperatur\u00e9", ValueType.Float, 0x01);
+
+        assertEquals(store.getPath(tag), "Tags/Line1/Temperatur\u00e9");
+        assertEquals(store.getName(tag), "Temperatur\u00e9");
+        assertEquals(store.getType(tag), ValueType.Float);
+        assertEquals(store.getAccessLevel(tag), 0x01);
+        assertEquals(store.getTagFolder(tag).getPath(), "Tags/Line1");
+    }
+
+    @Test
+    public void testMissingFoldersAreCreated() {
+        int tag = store.addTag("Tags/Line1/Drive1", "Speed", ValueType.Double, READ_WRITE);
+
+        TagFolder root = store.getRootFolder();
+        TagFolder line1 = store.getFolder("Tags/Line1");
+        TagFolder drive1 = store.getFolder("Tags/Line1/Drive1");
+
+        assertNotNull(line1);
+        assertNotNull(drive1);
+        assertEquals(line1.getParent(), root.getIndex());
+        assertEquals(drive1.getParent(), line1.getIndex());
+        assertEquals(root.getFolders(), new int[]{line1.getIndex()});
+        assertEquals(line1.getFolders(), new int[]{drive1.getIndex()});
+        assertEquals(drive1.getTags(), new int[]{tag});
+        assertEquals(drive1.getChildCount(), 1);
+
+        store.addFolder("Tags/Line1/Drive2");
+
+        assertEquals(line1.getChildCount(), 2);
+    }
+
+    @Test
+    public void testManyTagsAreAllFoundByPath() {
+        for (int i = 0; i < store.getCapacity(); i++) {
+            store.addTag("Tags/Folder" + (i % 10), "Tag" + i, ValueType.Int32, READ_WRITE);
+        }
+
+        for (int i = 0; i < store.getCapacity(); i++) {
+            assertEquals(store.indexOf("Tags/Folder" + (i % 10) + "/Tag" + i), i);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDuplicateTagIsRejected() {
+        store.addTag("Tags", "Speed", ValueType.Double, READ_WRITE);
+        store.addTag("Tags", "Speed", ValueType.Int32, READ_WRITE);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testFullStoreRejectsTags() {
+        TagStore small = new TagStore("Tags", 1, 1024);
+
+        small.addTag("Tags", "Speed", ValueType.Double, READ_WRITE);
+        small.addTag("Tags", "Torque", ValueType.Double, READ_WRITE);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void testUnknownTagIsOutOfBounds() {
+        store.getValue(0);
+    }
+
+    @Test
+    public void testNewTagIsNullUntilSet() {
+        int tag = store.addTag("Tags", "Speed", ValueType.Double, READ_WRITE);
+
+        DataValue value = store.getValue(tag);
+
+        assertNull(value.getValue().getValue());
+        assertEquals(value.getStatusCode().getValue(), StatusCodes.Bad_WaitingForInitialData);
+    }
+
+    @Test
+    public void testValuesAreConvertedToTheTagsType() {
+        int speed = store.addTag("Tags", "Speed", ValueType.Double, READ_WRITE);
+        int count = store.addTag("Tags", "Count", ValueType.Int32, READ_WRITE);
+        int running = store.addTag("Tags", "Running", ValueType.Boolean, READ_WRITE);
+
+        store.setValue(speed, new DataValue(new Variant(42)));
+        store.setValue(count, 3.7d, StatusCodes.Good, DateTime.now().getUtcTime());
+        store.setValues(new int[]{running}, new double[]{1d}, StatusCodes.Good, DateTime.now().getUtcTime());
+
+        assertEquals(store.getValue(speed).getValue().getValue(), 42d);
+        assertEquals(store.getValue(count).getValue().getValue(), 3);
+        assertEquals(store.getValue(running).getValue().getValue(), true);
+        assertEquals(store.getValue(speed).getStatusCode(), StatusCode.GOOD);
+    }
+
+    @Test
+    public void testNullValueIsStoredAsNullVariant() {
+        int tag = store.addTag("Tags", "Speed", ValueType.Double, READ_WRITE);
+
+        store.setValue(tag, new DataValue(new Variant(42d)));
+        store.setValue(tag, new DataValue(Variant.NULL_VALUE, StatusCode.GOOD, null, null));
+
+        DataValue value = store.getValue(tag);
+        assertNull(value.getValue().getValue());
+        assertEquals(value.getStatusCode(), StatusCode.GOOD);
+
+        store.setValue(tag, new DataValue(
+                Variant.NULL_VALUE, new StatusCode(StatusCodes.Bad_CommunicationError), null, null));
+
+        value = store.getValue(tag);
+        assertNull(value.getValue().getValue());
+        assertEquals(value.getStatusCode().getValue(), StatusCodes.Bad_CommunicationError);
+    }
+
+    @Test
+    public void testSettingAValueClearsNull() {
+        int tag = store.addTag("Tags", "Speed", ValueType.Double, READ_WRITE);
+
+        store.setValue(tag, new DataValue(Variant.NULL_VALUE, StatusCode.GOOD, null, null));
+        store.setValue(tag, 0d, StatusCodes.Good, DateTime.now().getUtcTime());
+
+        assertEquals(store.getValue(tag).getValue().getValue(), 0d);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNonScalarValueIsRejected() {
+        int tag = store.addTag("Tags", "Speed", ValueType.Double, READ_WRITE);
+
+        store.setValue(tag, new DataValue(new Variant("fast")));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSetValuesLengthsMustMatch() {
+        int tag = store.addTag("Tags", "Speed", ValueType.Double, READ_WRITE);
+
+        store.setValues(new int[]{tag}, new double[0], StatusCodes.Good, DateTime.now().getUtcTime());
+    }
+
+}
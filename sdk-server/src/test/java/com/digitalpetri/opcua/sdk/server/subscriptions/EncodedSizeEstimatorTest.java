@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.LocalizedText;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.structured.EventFieldList;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoredItemNotification;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.testng.Assert.assertEquals;
+
+public class EncodedSizeEstimatorTest {
+
+    @Test
+    public void testScalars() {
+        assertEquals(EncodedSizeEstimator.estimate((Variant) null), 1L);
+        assertEquals(EncodedSizeEstimator.estimate(Variant.NULL_VALUE), 1L);
+        assertEquals(EncodedSizeEstimator.estimate(new Variant(true)), 1L + 1L);
+        assertEquals(EncodedSizeEstimator.estimate(new Variant((short) 1)), 1L + 2L);
+        assertEquals(EncodedSizeEstimator.estimate(new Variant(1)), 1L + 4L);
+        assertEquals(EncodedSizeEstimator.estimate(new Variant(1.0d)), 1L + 8L);
+        assertEquals(EncodedSizeEstimator.estimate(new Variant(uint(1))), 1L + 8L);
+    }
+
+    @Test
+    public void testStringsAreCountedInUtf8() {
+        assertEquals(EncodedSizeEstimator.estimate(new Variant("abc")), 1L + 4L + 3L);
+        assertEquals(EncodedSizeEstimator.estimate(new Variant("\u00e9\u20ac")), 1L + 4L + 2L + 3L);
+    }
+
+    @Test
+    public void testArrays() {
+        assertEquals(EncodedSizeEstimator.estimate(new Variant(new Integer[]{1, 2, 3})), 1L + 4L + 3L * 4L);
+
+        // Flattened to 3 elements with a dimensions array of 2.
+        Integer[][] matrix = {{1, 2}, {3}};
+        assertEquals(EncodedSizeEstimator.estimate(new Variant(matrix)), 1L + 4L + 3L * 4L + 4L + 2L * 4L);
+    }
+
+    @Test
+    public void testNodeIdsAndNames() {
+        assertEquals(EncodedSizeEstimator.estimate(new Variant(new NodeId(2, 1234))), 1L + 7L);
+        assertEquals(EncodedSizeEstimator.estimate(new Variant(new NodeId(2, "abc"))), 1L + 3L + 4L + 3L);
+        assertEquals(EncodedSizeEstimator.estimate(new Variant(new QualifiedName(2, "Name"))), 1L + 2L + 4L + 4L);
+        assertEquals(
+                EncodedSizeEstimator.estimate(new Variant(new LocalizedText("en", "Hi"))),
+                1L + 1L + 4L + 2L + 4L + 2L);
+    }
+
+    @Test
+    public void testDataValues() {
+        assertEquals(EncodedSizeEstimator.estimate((DataValue) null), 1L);
+
+        DataValue value = new DataValue(new Variant(1.0d), StatusCode.GOOD, DateTime.now(), DateTime.now());
+        assertEquals(EncodedSizeEstimator.estimate(value), 1L + 9L + 4L + 10L + 10L);
+
+        DataValue valueOnly = new DataValue(new Variant(1.0d), null, null, null);
+        assertEquals(EncodedSizeEstimator.estimate(valueOnly), 1L + 9L);
+    }
+
+    @Test
+    public void testNotifications() {
+        DataValue value = new DataValue(new Variant(1.0d), StatusCode.GOOD, null, null);
+        MonitoredItemNotification dataNotification = new MonitoredItemNotification(uint(1), value);
+
+        assertEquals(EncodedSizeEstimator.estimate(dataNotification), 4L + EncodedSizeEstimator.estimate(value));
+
+        EventFieldList eventNotification = new EventFieldList(
+                uint(1), new Variant[]{new Variant(1), Variant.NULL_VALUE});
+
+        assertEquals(EncodedSizeEstimator.estimate(eventNotification), 4L + 4L + 5L + 1L);
+    }
+
+    @Test
+    public void testUnknownStructuresAreApproximated() {
+        ReadValueId readValueId = new ReadValueId(
+                new NodeId(2, "abc"), uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE);
+
+        assertEquals(EncodedSizeEstimator.estimate(readValueId), (long) EncodedSizeEstimator.STRUCTURE_SIZE);
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import java.util.List;
+
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.server.items.BaseMonitoredItem;
+import com.digitalpetri.opcua.sdk.server.items.MonitoredDataItem;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.serialization.UaStructure;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoredItemNotification;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class SubscriptionTest {
+
+    @Test
+    public void testGatherStopsAtMaxNotifications() throws UaException {
+        MonitoredDataItem item = item(1, 5);
+        PeekingIterator<BaseMonitoredItem<?>> iterator = iterator(item);
+
+        List<UaStructure> notifications = Subscription.gather(iterator, 3, Long.MAX_VALUE);
+
+        assertEquals(notifications.size(), 3);
+        assertSame(iterator.peek(), item);
+
+        notifications = Subscription.gather(iterator, 3, Long.MAX_VALUE);
+
+        assertEquals(notifications.size(), 2);
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testGatherCutsAtTheSizeBudget() throws UaException {
+        MonitoredDataItem first = item(1, 3);
+        MonitoredDataItem second = item(2, 3);
+        PeekingIterator<BaseMonitoredItem<?>> iterator = iterator(first, second);
+
+        long size = notificationSize();
+
+        List<UaStructure> notifications = Subscription.gather(iterator, 100, 4 * size + size / 2);
+
+        assertEquals(notifications.size(), 4);
+        assertSame(iterator.peek(), second);
+        assertTrue(second.hasNotifications());
+
+        // The notifications that didn't fit are the first of the next message, in order.
+        notifications = Subscription.gather(iterator, 100, Long.MAX_VALUE);
+
+        assertEquals(notifications.size(), 2);
+        assertEquals(values(notifications), Lists.newArrayList(1.0d, 2.0d));
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testNotificationLargerThanTheBudgetIsSentAlone() throws UaException {
+        MonitoredDataItem item = item(1, 2);
+        PeekingIterator<BaseMonitoredItem<?>> iterator = iterator(item);
+
+        List<UaStructure> notifications = Subscription.gather(iterator, 100, 1L);
+
+        assertEquals(notifications.size(), 1);
+        assertSame(iterator.peek(), item);
+
+        notifications = Subscription.gather(iterator, 100, 1L);
+
+        assertEquals(notifications.size(), 1);
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testGatherEmptiesEveryItemWithinLimits() throws UaException {
+        PeekingIterator<BaseMonitoredItem<?>> iterator = iterator(item(1, 2), item(2, 2), item(3, 2));
+
+        List<UaStructure> notifications = Subscription.gather(iterator, 100, Long.MAX_VALUE);
+
+        assertEquals(notifications.size(), 6);
+        assertFalse(iterator.hasNext());
+    }
+
+    private static MonitoredDataItem item(int clientHandle, int values) throws UaException {
+        ReadValueId readValueId = new ReadValueId(
+                new NodeId(2, "Tag" + clientHandle), uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE);
+
+        MonitoredDataItem item = new MonitoredDataItem(
+                uint(clientHandle), readValueId, MonitoringMode.Reporting, TimestampsToReturn.Neither,
+                uint(clientHandle), 100d, null, uint(10), true);
+
+        for (int i = 0; i < values; i++) {
+            item.setValue(new DataValue(new Variant((double) i), StatusCode.GOOD, null, null));
+        }
+
+        return item;
+    }
+
+    private static PeekingIterator<BaseMonitoredItem<?>> iterator(BaseMonitoredItem<?>... items) {
+        return Iterators.peekingIterator(Lists.newArrayList(items).iterator());
+    }
+
+    private static long notificationSize() throws UaException {
+        List<UaStructure> notifications = Lists.newArrayList();
+        item(0, 1).getNotifications(notifications, 1);
+
+        return EncodedSizeEstimator.estimate(notifications.get(0));
+    }
+
+    private static List<Object> values(List<UaStructure> notifications) {
+        List<Object> values = Lists.newArrayList();
+
+        for (UaStructure notification : notifications) {
+            values.add(((MonitoredItemNotification) notification).getValue().getValue().getValue());
+        }
+
+        return values;
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class FixedRateClockTest {
+
+    private ScheduledExecutorService scheduler;
+
+    private MetricRegistry registry;
+    private FixedRateClock clock;
+
+    @BeforeClass
+    public void startScheduler() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterClass
+    public void stopScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    @BeforeMethod
+    public void setUp() {
+        registry = new MetricRegistry();
+        clock = new FixedRateClock(scheduler, registry);
+    }
+
+    @Test
+    public void testNoDeadlinesSkippedWhileKeepingUp() {
+        FixedRateClock.Schedule schedule = clock.newSchedule(1000d);
+
+        ScheduledFuture<?> first = schedule.scheduleNext(() -> {});
+        ScheduledFuture<?> second = schedule.scheduleNext(() -> {});
+
+        long gap = second.getDelay(TimeUnit.MILLISECONDS) - first.getDelay(TimeUnit.MILLISECONDS);
+
+        assertTrue(gap > 900L && gap <= 1000L, "gap: " + gap);
+        assertEquals(clock.getSkippedCount(), 0L);
+
+        first.cancel(false);
+        second.cancel(false);
+        schedule.cancel();
+    }
+
+    @Test
+    public void testMissedDeadlinesAreSkipped() throws InterruptedException {
+        FixedRateClock.Schedule schedule = clock.newSchedule(10d);
+
+        schedule.scheduleNext(() -> {}).cancel(false);
+
+        Thread.sleep(55L);
+
+        ScheduledFuture<?> next = schedule.scheduleNext(() -> {});
+
+        assertTrue(clock.getSkippedCount() >= 4L, "skipped: " + clock.getSkippedCount());
+        assertTrue(next.getDelay(TimeUnit.MILLISECONDS) <= 10L);
+        assertEquals(registry.counter("clock.skipped").getCount(), clock.getSkippedCount());
+
+        next.cancel(false);
+        schedule.cancel();
+    }
+
+    @Test
+    public void testRunsRecordLateness() throws InterruptedException {
+        FixedRateClock.Schedule schedule = clock.newSchedule(5d);
+
+        Object ran = new Object();
+        synchronized (ran) {
+            schedule.scheduleNext(() -> {
+                synchronized (ran) {
+                    ran.notifyAll();
+                }
+            });
+            ran.wait(5000L);
+        }
+
+        assertEquals(clock.getLatenessTimers().get(8L).getCount(), 1L);
+
+        schedule.cancel();
+    }
+
+    @Test
+    public void testPeriodsAreBucketedByPowerOfTwo() {
+        clock.newSchedule(0.5d);
+        clock.newSchedule(1d);
+        clock.newSchedule(3d);
+        clock.newSchedule(4d);
+        clock.newSchedule(5d);
+        clock.newSchedule(1000d);
+
+        assertEquals(clock.getLatenessTimers().keySet(), ImmutableSet.of(1L, 4L, 8L, 1024L));
+        assertEquals(registry.getTimers().keySet(), ImmutableSet.of(
+                "clock.1ms.lateness", "clock.4ms.lateness", "clock.8ms.lateness", "clock.1024ms.lateness"));
+    }
+
+    @Test
+    public void testSchedulesInABucketShareItsTimer() {
+        FixedRateClock.Schedule first = clock.newSchedule(100d);
+        Timer timer = clock.getLatenessTimers().get(128L);
+
+        FixedRateClock.Schedule second = clock.newSchedule(120d);
+
+        assertNotNull(timer);
+        assertSame(clock.getLatenessTimers().get(128L), timer);
+        assertEquals(clock.getLatenessTimers().size(), 1);
+
+        first.cancel();
+        first.cancel();
+
+        assertSame(clock.getLatenessTimers().get(128L), timer);
+        assertTrue(registry.getTimers().containsKey("clock.128ms.lateness"));
+
+        second.cancel();
+
+        assertFalse(clock.getLatenessTimers().containsKey(128L));
+        assertFalse(registry.getTimers().containsKey("clock.128ms.lateness"));
+    }
+
+    @Test
+    public void testSchedulesWorkWithoutARegistry() {
+        FixedRateClock unregistered = new FixedRateClock(scheduler);
+
+        FixedRateClock.Schedule schedule = unregistered.newSchedule(2d);
+
+        assertEquals(schedule.getPeriod(), TimeUnit.MILLISECONDS.toNanos(2));
+        assertEquals(unregistered.getLatenessTimers().keySet(), ImmutableSet.of(2L));
+
+        schedule.cancel();
+
+        assertTrue(unregistered.getLatenessTimers().isEmpty());
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class PrefixTrieTest {
+
+    @Test
+    public void testLongestPrefixWins() {
+        PrefixTrie<String> trie = new PrefixTrie<>();
+        trie.put("plc", "plc");
+        trie.put("plc1/", "plc1");
+        trie.put("plc10/", "plc10");
+
+        assertEquals(trie.longestPrefixMatch("plc1/Tag"), "plc1");
+        assertEquals(trie.longestPrefixMatch("plc10/Tag"), "plc10");
+        assertEquals(trie.longestPrefixMatch("plc2/Tag"), "plc");
+        assertEquals(trie.longestPrefixMatch("plc1"), "plc");
+    }
+
+    @Test
+    public void testNoMatch() {
+        PrefixTrie<String> trie = new PrefixTrie<>();
+        trie.put("plc1/", "plc1");
+
+        assertNull(trie.longestPrefixMatch("drive1/Speed"));
+        assertNull(trie.longestPrefixMatch("plc"));
+        assertNull(trie.longestPrefixMatch(""));
+    }
+
+    @Test
+    public void testEmptyPrefixMatchesEveryKey() {
+        PrefixTrie<String> trie = new PrefixTrie<>();
+        trie.put("", "root");
+        trie.put("plc1/", "plc1");
+
+        assertEquals(trie.longestPrefixMatch(""), "root");
+        assertEquals(trie.longestPrefixMatch("drive1/Speed"), "root");
+        assertEquals(trie.longestPrefixMatch("plc1/Tag"), "plc1");
+    }
+
+    @Test
+    public void testPutReplaces() {
+        PrefixTrie<String> trie = new PrefixTrie<>();
+        trie.put("plc1/", "a");
+        trie.put("plc1/", "b");
+
+        assertEquals(trie.size(), 1);
+        assertEquals(trie.longestPrefixMatch("plc1/Tag"), "b");
+    }
+
+    @Test
+    public void testSiblingsStaySorted() {
+        PrefixTrie<Integer> trie = new PrefixTrie<>();
+        String[] prefixes = {"m", "c", "x", "a", "q", "b"};
+
+        for (int i = 0; i < prefixes.length; i++) {
+            trie.put(prefixes[i], i);
+        }
+
+        assertEquals(trie.size(), prefixes.length);
+
+        for (int i = 0; i < prefixes.length; i++) {
+            assertEquals(trie.longestPrefixMatch(prefixes[i] + "/Tag"), Integer.valueOf(i));
+        }
+    }
+
+}
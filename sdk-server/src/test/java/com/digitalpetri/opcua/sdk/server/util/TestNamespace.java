@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+import com.digitalpetri.opcua.sdk.core.Reference;
+import com.digitalpetri.opcua.sdk.server.api.DataItem;
+import com.digitalpetri.opcua.sdk.server.api.MonitoredItem;
+import com.digitalpetri.opcua.sdk.server.api.UaNamespace;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExpandedNodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.WriteValue;
+import com.google.common.collect.Maps;
+
+/**
+ * A {@link UaNamespace} that just holds its nodes in a map, for tests that need nodes but not a server.
+ */
+public class TestNamespace implements UaNamespace {
+
+    private final ConcurrentMap<NodeId, UaNode> nodes = Maps.newConcurrentMap();
+
+    private final UShort namespaceIndex;
+    private final String namespaceUri;
+
+    public TestNamespace(UShort namespaceIndex, String namespaceUri) {
+        this.namespaceIndex = namespaceIndex;
+        this.namespaceUri = namespaceUri;
+    }
+
+    @Override
+    public UShort getNamespaceIndex() {
+        return namespaceIndex;
+    }
+
+    @Override
+    public String getNamespaceUri() {
+        return namespaceUri;
+    }
+
+    @Override
+    public boolean containsNodeId(NodeId nodeId) {
+        return nodes.containsKey(nodeId);
+    }
+
+    @Override
+    public Optional<List<Reference>> getReferences(NodeId nodeId) {
+        return getNode(nodeId).map(UaNode::getReferences);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getAttribute(NodeId nodeId, int attributeId) {
+        UaNode node = nodes.get(nodeId);
+
+        return node != null ? (T) node.readAttribute(attributeId).getValue().getValue() : null;
+    }
+
+    @Override
+    public boolean attributeExists(NodeId nodeId, int attributeId) {
+        UaNode node = nodes.get(nodeId);
+
+        return node != null && node.hasAttribute(attributeId);
+    }
+
+    @Override
+    public void addNode(UaNode node) {
+        nodes.put(node.getNodeId(), node);
+    }
+
+    @Override
+    public Optional<UaNode> getNode(NodeId nodeId) {
+        return Optional.ofNullable(nodes.get(nodeId));
+    }
+
+    @Override
+    public Optional<UaNode> getNode(ExpandedNodeId nodeId) {
+        return nodeId.local().flatMap(this::getNode);
+    }
+
+    @Override
+    public Optional<UaNode> removeNode(NodeId nodeId) {
+        return Optional.ofNullable(nodes.remove(nodeId));
+    }
+
+    @Override
+    public void read(List<ReadValueId> readValueIds,
+                     Double maxAge,
+                     TimestampsToReturn timestamps,
+                     CompletableFuture<List<DataValue>> future) {
+
+        future.complete(readValueIds.stream()
+                .map(id -> getNode(id.getNodeId())
+                        .map(n -> n.readAttribute(id.getAttributeId().intValue(), timestamps, id.getIndexRange()))
+                        .orElse(new DataValue(new StatusCode(StatusCodes.Bad_NodeIdUnknown))))
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public void write(List<WriteValue> writeValues, CompletableFuture<List<StatusCode>> future) {
+        future.complete(writeValues.stream()
+                .map(wv -> new StatusCode(StatusCodes.Bad_NotWritable))
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public void onDataItemsCreated(List<DataItem> dataItems) {}
+
+    @Override
+    public void onDataItemsModified(List<DataItem> dataItems) {}
+
+    @Override
+    public void onDataItemsDeleted(List<DataItem> dataItems) {}
+
+    @Override
+    public void onMonitoringModeChanged(List<MonitoredItem> monitoredItems) {}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.EnumSet;
+
+import com.digitalpetri.opcua.sdk.server.api.OpcUaServerConfig;
+import com.digitalpetri.opcua.stack.core.application.CertificateManager;
+import com.digitalpetri.opcua.stack.core.application.DirectoryCertificateManager;
+import com.digitalpetri.opcua.stack.core.security.SecurityPolicy;
+import com.google.common.io.ByteStreams;
+
+/**
+ * An {@link OpcUaServerConfig} for tests: no security, and a self-signed certificate generated with the JDK's keytool
+ * the first time one is needed, so no key material has to be checked in.
+ */
+public class TestServerConfig implements OpcUaServerConfig {
+
+    private static final String ALIAS = "test-server";
+    private static final String PASSWORD = "test-password";
+
+    private static KeyPair keyPair;
+    private static X509Certificate certificate;
+
+    private final CertificateManager certificateManager;
+    private final int port;
+
+    public TestServerConfig(int port) throws Exception {
+        this.port = port;
+
+        File securityDir = Files.createTempDirectory("test-server-security-" + port).toFile();
+        securityDir.deleteOnExit();
+
+        synchronized (TestServerConfig.class) {
+            if (certificate == null) generateCertificate();
+
+            certificateManager = new DirectoryCertificateManager(keyPair, certificate, securityDir);
+        }
+    }
+
+    @Override
+    public CertificateManager getCertificateManager() {
+        return certificateManager;
+    }
+
+    @Override
+    public EnumSet<SecurityPolicy> getSecurityPolicies() {
+        return EnumSet.of(SecurityPolicy.None);
+    }
+
+    @Override
+    public int getBindPort() {
+        return port;
+    }
+
+    @Override
+    public String getServerName() {
+        return "test-server";
+    }
+
+    private static void generateCertificate() throws Exception {
+        File keyStoreFile = File.createTempFile("test-server-keystore", ".pfx");
+
+        if (!keyStoreFile.delete()) {
+            throw new IOException("could not delete " + keyStoreFile);
+        }
+
+        try {
+            String keytool = new File(System.getProperty("java.home"), "bin/keytool").getPath();
+
+            Process process = new ProcessBuilder(
+                    keytool, "-genkeypair",
+                    "-alias", ALIAS,
+                    "-keyalg", "RSA",
+                    "-keysize", "2048",
+                    "-sigalg", "SHA256withRSA",
+                    "-dname", "CN=test-server",
+                    "-validity", "1",
+                    "-storetype", "PKCS12",
+                    "-keystore", keyStoreFile.getPath(),
+                    "-storepass", PASSWORD,
+                    "-keypass", PASSWORD)
+                    .redirectErrorStream(true)
+                    .start();
+
+            byte[] output = ByteStreams.toByteArray(process.getInputStream());
+
+            if (process.waitFor() != 0) {
+                throw new IOException("keytool failed: " + new String(output));
+            }
+
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+
+            try (InputStream in = new FileInputStream(keyStoreFile)) {
+                keyStore.load(in, PASSWORD.toCharArray());
+            }
+
+            certificate = (X509Certificate) keyStore.getCertificate(ALIAS);
+            PrivateKey privateKey = (PrivateKey) keyStore.getKey(ALIAS, PASSWORD.toCharArray());
+
+            keyPair = new KeyPair(certificate.getPublicKey(), privateKey);
+        } finally {
+            keyStoreFile.delete();
+        }
+    }
+
+}